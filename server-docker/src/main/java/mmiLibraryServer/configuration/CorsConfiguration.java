@@ -18,8 +18,12 @@
  */
 package mmiLibraryServer.configuration;
 
+import mmiLibraryServer.controllers.BooksController;
+import mmiLibraryServer.controllers.LoansController;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -30,13 +34,35 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 @Configuration(proxyBeanMethods = false)
 public class CorsConfiguration {
 
+    private static final String MAPPING = "/api/v1/rest/**";
+
+    private static final String[] ALLOWED_METHODS = {"OPTIONS", "HEAD", "GET", "POST", "PUT", "PATCH", "DELETE"};
+
+    private static final String[] EXPOSED_HEADERS = {LoansController.NEXT_CURSOR_HEADER, BooksController.TOTAL_COUNT_HEADER};
+
     @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
     public WebMvcConfigurer corsConfigurer() {
         return new WebMvcConfigurer() {
             @Override
             public void addCorsMappings(CorsRegistry registry) {
-                registry.addMapping("/api/v1/rest/**")
-                        .allowedMethods("OPTIONS", "HEAD", "GET", "POST", "PUT", "PATCH", "DELETE");
+                registry.addMapping(MAPPING)
+                        .allowedMethods(ALLOWED_METHODS)
+                        .exposedHeaders(EXPOSED_HEADERS);
+            }
+
+        };
+    }
+
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+    public WebFluxConfigurer reactiveCorsConfigurer() {
+        return new WebFluxConfigurer() {
+            @Override
+            public void addCorsMappings(org.springframework.web.reactive.config.CorsRegistry registry) {
+                registry.addMapping(MAPPING)
+                        .allowedMethods(ALLOWED_METHODS)
+                        .exposedHeaders(EXPOSED_HEADERS);
             }
 
         };
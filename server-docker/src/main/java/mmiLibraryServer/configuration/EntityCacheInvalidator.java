@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.configuration;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import mmiLibraryServer.mongoModel.EntityCache;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+/**
+ * Evict from the entity cache the documents written by each write command sent to the database, so
+ * that atomic and bulk updates, performed without loading the documents, never leave a stale
+ * document in the cache. The documents are evicted when the command starts, and again when it
+ * ends, as a document read in-between may not have seen the write.
+ *
+ * Writes filtered on the document id (alone or in a $in) only evict these documents; any other
+ * write evicts every document of its collection. Inserts evict nothing: a document is cached only
+ * once it exists.
+ *
+ * @author Rémi Venant
+ */
+public class EntityCacheInvalidator implements CommandListener {
+
+    private final EntityCache entityCache;
+
+    private final Map<Integer, Eviction> pendingEvictions = new ConcurrentHashMap<>();
+
+    public EntityCacheInvalidator(EntityCache entityCache) {
+        this.entityCache = entityCache;
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        final Eviction eviction = this.getEviction(event.getCommandName(), event.getCommand());
+        if (eviction != null) {
+            eviction.apply(this.entityCache);
+            this.pendingEvictions.put(event.getRequestId(), eviction);
+        }
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        this.completeEviction(event.getRequestId());
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        this.completeEviction(event.getRequestId());
+    }
+
+    private void completeEviction(int requestId) {
+        final Eviction eviction = this.pendingEvictions.remove(requestId);
+        if (eviction != null) {
+            eviction.apply(this.entityCache);
+        }
+    }
+
+    private Eviction getEviction(String commandName, BsonDocument command) {
+        switch (commandName) {
+            case "update":
+                return this.getEviction(command, "updates", "q");
+            case "delete":
+                return this.getEviction(command, "deletes", "q");
+            case "findAndModify":
+            case "findandmodify":
+                return this.getCollectionEviction(command.getString(commandName).getValue(),
+                        List.of(command.getDocument("query", new BsonDocument())));
+            case "drop":
+                return this.getCollectionEviction(command.getString(commandName).getValue(), null);
+            case "dropDatabase":
+                return new Eviction(null, null);
+            default:
+                return null;
+        }
+    }
+
+    private Eviction getEviction(BsonDocument command, String statementsField, String filterField) {
+        final String collection = command.getString(command.getFirstKey()).getValue();
+        final BsonArray statements = command.getArray(statementsField, null);
+        if (statements == null) {
+            return this.getCollectionEviction(collection, null);
+        }
+        final List<BsonDocument> filters = new ArrayList<>(statements.size());
+        statements.forEach((statement) -> filters.add(statement.asDocument().getDocument(filterField, new BsonDocument())));
+        return this.getCollectionEviction(collection, filters);
+    }
+
+    private Eviction getCollectionEviction(String collection, List<BsonDocument> filters) {
+        if (!this.entityCache.isEnabled(collection)) {
+            return null;
+        }
+        if (filters == null) {
+            return new Eviction(collection, null);
+        }
+        final List<String> ids = new ArrayList<>();
+        for (BsonDocument filter : filters) {
+            if (!addFilteredIds(filter.get("_id"), ids)) {
+                return new Eviction(collection, null);
+            }
+        }
+        return new Eviction(collection, ids);
+    }
+
+    private static boolean addFilteredIds(BsonValue idFilter, List<String> ids) {
+        if (idFilter == null) {
+            return false;
+        }
+        if (idFilter.isDocument()) {
+            final BsonDocument operators = idFilter.asDocument();
+            if (operators.size() != 1 || !operators.containsKey("$in") || !operators.get("$in").isArray()) {
+                return false;
+            }
+            for (BsonValue id : operators.getArray("$in")) {
+                if (!addId(id, ids)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return addId(idFilter, ids);
+    }
+
+    private static boolean addId(BsonValue id, List<String> ids) {
+        if (id.isObjectId()) {
+            ids.add(id.asObjectId().getValue().toHexString());
+        } else if (id.isString()) {
+            ids.add(id.asString().getValue());
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Eviction of documents of a collection (all of them if ids is null), or of every collection
+     * (if collection is null).
+     */
+    private static class Eviction {
+
+        private final String collection;
+
+        private final List<String> ids;
+
+        Eviction(String collection, List<String> ids) {
+            this.collection = collection;
+            this.ids = ids;
+        }
+
+        void apply(EntityCache entityCache) {
+            if (this.collection == null) {
+                entityCache.evictAll();
+            } else if (this.ids == null) {
+                entityCache.evictAll(this.collection);
+            } else {
+                entityCache.evict(this.collection, this.ids);
+            }
+        }
+    }
+}
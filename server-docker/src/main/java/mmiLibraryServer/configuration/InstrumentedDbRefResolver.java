@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayList;
+import java.util.List;
+import org.bson.Document;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.convert.DefaultDbRefResolver;
+import org.springframework.data.mongodb.core.convert.DocumentReferenceSource;
+import org.springframework.data.mongodb.core.convert.ReferenceLoader;
+import org.springframework.data.mongodb.core.convert.ReferenceLookupDelegate;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+
+/**
+ * Reference resolver that makes @DocumentReference resolutions visible as metrics:
+ * <ul>
+ * <li>mmilibrary.references.resolutions (counter, by entity, property and laziness): references
+ * read by the converter. For a lazy reference, it counts the proxies created, that may be resolved
+ * later;</li>
+ * <li>mmilibrary.references.fetches (timer, by collection): database round trips made to resolve
+ * references, either eager ones or lazy ones when their proxy is accessed.</li>
+ * </ul>
+ *
+ * A reference looked up by its stored value is not resolved when that value is absent from the
+ * document, typically because the field was left out by a projection: the lookup would otherwise
+ * query the referenced collection for a null id.
+ *
+ * @author Rémi Venant
+ */
+public class InstrumentedDbRefResolver extends DefaultDbRefResolver {
+
+    public static final String RESOLUTIONS_METRIC = "mmilibrary.references.resolutions";
+
+    public static final String FETCHES_METRIC = "mmilibrary.references.fetches";
+
+    private final MeterRegistry meterRegistry;
+
+    private final ReferenceLoader instrumentedLoader;
+
+    public InstrumentedDbRefResolver(MongoDatabaseFactory mongoDbFactory, MeterRegistry meterRegistry) {
+        super(mongoDbFactory);
+        this.meterRegistry = meterRegistry;
+        final ReferenceLoader loader = super.getReferenceLoader();
+        this.instrumentedLoader = (referenceQuery, context) -> {
+            final Timer timer = Timer.builder(FETCHES_METRIC)
+                    .description("Database round trips made to resolve document references")
+                    .tag("collection", context.getCollection())
+                    .register(this.meterRegistry);
+            // The loader returns a lazy cursor: it is drained to time the actual round trip
+            return timer.record(() -> {
+                final List<Document> documents = new ArrayList<>();
+                loader.fetchMany(referenceQuery, context).forEach(documents::add);
+                return documents;
+            });
+        };
+    }
+
+    @Override
+    public Object resolveReference(MongoPersistentProperty property, Object source,
+            ReferenceLookupDelegate referenceLookupDelegate, MongoEntityReader entityReader) {
+        if (isAbsentTarget(property, source)) {
+            return property.isCollectionLike() ? entityReader.read(List.of(), property.getTypeInformation()) : null;
+        }
+        this.meterRegistry.counter(RESOLUTIONS_METRIC,
+                "entity", property.getOwner().getType().getSimpleName(),
+                "property", property.getName(),
+                "lazy", Boolean.toString(this.isLazyReference(property))).increment();
+        return super.resolveReference(property, source, referenceLookupDelegate, entityReader);
+    }
+
+    private static boolean isAbsentTarget(MongoPersistentProperty property, Object source) {
+        // Lookups on the owner document (#self) do not depend on a stored value
+        return property.isDocumentReference()
+                && property.getDocumentReference().lookup().contains("#target")
+                && source instanceof DocumentReferenceSource
+                && ((DocumentReferenceSource) source).getTargetSource() == null;
+    }
+
+    @Override
+    protected ReferenceLoader getReferenceLoader() {
+        return this.instrumentedLoader;
+    }
+}
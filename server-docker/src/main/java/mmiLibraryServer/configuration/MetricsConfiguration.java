@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Metrics exposed on /actuator/prometheus, in addition to the ones auto-configured by Spring Boot
+ * (mongodb.driver.commands per collection and command, spring.data.repository.invocations per
+ * repository method, http.server.requests):
+ * <ul>
+ * <li>mmilibrary.services: time of the public methods of the services;</li>
+ * <li>mmilibrary.references.*: document reference resolutions;</li>
+ * <li>mmilibrary.books.search.cache*: hits, misses, evictions and size of the book search
+ * cache;</li>
+ * <li>mmilibrary.entities.cache*: hits, misses, evictions and size of the entity cache, per
+ * collection;</li>
+ * <li>mmilibrary.http.mongo.commands: mongo commands issued per request, also logged (servlet mode
+ * only).</li>
+ * </ul>
+ *
+ * @author Rémi Venant
+ */
+@Configuration(proxyBeanMethods = false)
+public class MetricsConfiguration {
+
+    @Bean
+    public ServiceMetricsAspect serviceMetricsAspect(MeterRegistry meterRegistry) {
+        return new ServiceMetricsAspect(meterRegistry);
+    }
+
+    @Bean
+    public MappingMongoConverter mappingMongoConverter(MongoDatabaseFactory factory,
+            MongoMappingContext context, MongoCustomConversions conversions, MeterRegistry meterRegistry) {
+        //same converter as the auto-configured one, with an instrumented reference resolver
+        final MappingMongoConverter mappingConverter = new MappingMongoConverter(
+                new InstrumentedDbRefResolver(factory, meterRegistry), context);
+        mappingConverter.setCustomConversions(conversions);
+        return mappingConverter;
+    }
+
+    @Bean
+    public MongoCommandsCounter mongoCommandsCounter() {
+        return new MongoCommandsCounter();
+    }
+
+    @Bean
+    public MongoClientSettingsBuilderCustomizer mongoCommandsCounterCustomizer(MongoCommandsCounter commandsCounter) {
+        return (settingsBuilder) -> settingsBuilder.addCommandListener(commandsCounter);
+    }
+
+    @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    public WebMvcConfigurer mongoCommandsInterceptorConfigurer(MongoCommandsCounter commandsCounter,
+            MeterRegistry meterRegistry) {
+        return new WebMvcConfigurer() {
+            @Override
+            public void addInterceptors(InterceptorRegistry registry) {
+                registry.addInterceptor(new MongoCommandsInterceptor(commandsCounter, meterRegistry))
+                        .addPathPatterns("/api/**");
+            }
+        };
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.configuration;
+
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+
+/**
+ * Count the mongo commands issued by the current thread since the last reset. With the
+ * synchronous driver, commands are started on the thread that issues them, so the count of a
+ * request handled by a single thread is exact. The commands that a service issues on the fan-out
+ * executor (see ThreadsConfiguration) are not counted for the request.
+ *
+ * @author Rémi Venant
+ */
+public class MongoCommandsCounter implements CommandListener {
+
+    private static final ThreadLocal<int[]> COUNTS = ThreadLocal.withInitial(() -> new int[1]);
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        COUNTS.get()[0]++;
+    }
+
+    /**
+     * Reset the count of the current thread.
+     */
+    public void reset() {
+        COUNTS.get()[0] = 0;
+    }
+
+    /**
+     * Get the number of commands issued by the current thread since the last reset.
+     *
+     * @return the number of commands
+     */
+    public int getCount() {
+        return COUNTS.get()[0];
+    }
+}
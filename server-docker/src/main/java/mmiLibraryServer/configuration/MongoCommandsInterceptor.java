@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.configuration;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import javax.servlet.DispatcherType;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Log the number of mongo commands issued by each request and record it in the
+ * mmilibrary.http.mongo.commands distribution summary, by HTTP method and URI pattern.
+ * <p>
+ * Commands are counted per thread (see MongoCommandsCounter). Requests handled asynchronously
+ * (CompletableFuture or StreamingResponseBody results, such as POST /loans and unpaged GET /loans) issue
+ * their commands on other threads, so they are not covered: their count is neither recorded nor
+ * logged, and the async dispatch does not reset the count of the container thread.</p>
+ *
+ * @author Rémi Venant
+ */
+public class MongoCommandsInterceptor implements AsyncHandlerInterceptor {
+
+    private static final Log LOG = LogFactory.getLog(MongoCommandsInterceptor.class);
+
+    public static final String COMMANDS_METRIC = "mmilibrary.http.mongo.commands";
+
+    private static final String ASYNC_ATTRIBUTE = MongoCommandsInterceptor.class.getName() + ".async";
+
+    private final MongoCommandsCounter commandsCounter;
+
+    private final MeterRegistry meterRegistry;
+
+    public MongoCommandsInterceptor(MongoCommandsCounter commandsCounter, MeterRegistry meterRegistry) {
+        this.commandsCounter = commandsCounter;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (request.getDispatcherType() != DispatcherType.ASYNC) {
+            this.commandsCounter.reset();
+        }
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        request.setAttribute(ASYNC_ATTRIBUTE, Boolean.TRUE);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (request.getAttribute(ASYNC_ATTRIBUTE) != null) {
+            LOG.debug(String.format("%s %s -> %d: handled asynchronously, mongo commands not counted",
+                    request.getMethod(), request.getRequestURI(), response.getStatus()));
+            return;
+        }
+        final int nbCommands = this.commandsCounter.getCount();
+        final Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        final String uri = pattern == null ? "UNKNOWN" : pattern.toString();
+        DistributionSummary.builder(COMMANDS_METRIC)
+                .description("Mongo commands issued per HTTP request")
+                .tag("method", request.getMethod())
+                .tag("uri", uri)
+                .register(this.meterRegistry)
+                .record(nbCommands);
+        LOG.info(String.format("%s %s -> %d: %d mongo commands", request.getMethod(), request.getRequestURI(),
+                response.getStatus(), nbCommands));
+    }
+}
@@ -18,10 +18,20 @@
  */
 package mmiLibraryServer.configuration;
 
+import java.time.Duration;
+import mmiLibraryServer.mongoModel.BookAdultOnlyListener;
+import mmiLibraryServer.mongoModel.BookCategoryDictionary;
+import mmiLibraryServer.mongoModel.EntityCache;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.boot.convert.DurationStyle;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.mapping.event.ValidatingMongoEventListener;
 import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
 
@@ -34,6 +44,8 @@ public class MongoConfiguration {
 
     private static final Log LOG = LogFactory.getLog(MongoConfiguration.class);
 
+    private static final String[] ENTITY_CACHE_COLLECTIONS = {"books", "bookCopies", "members", "bookCategories"};
+
     @Bean
     public LocalValidatorFactoryBean localValidatorFactoryBean() {
         //a common bean to enforce javax validation constraints
@@ -45,4 +57,50 @@ public class MongoConfiguration {
         //a mongo listener to validate data based on javax validation constraints
         return new ValidatingMongoEventListener(localValidatorFactoryBean);
     }
+
+    @Bean
+    public BookCategoryDictionary bookCategoryDictionary(MongoOperations mongoOps,
+            @Value("${mmiLibraryServer.categoryDictionary.ttl:10m}") Duration timeToLive) {
+        //a cache of the categories, invalidated on category changes
+        return new BookCategoryDictionary(mongoOps, timeToLive);
+    }
+
+    @Bean
+    public EntityCache entityCache(Environment environment) {
+        //a cache of the documents read by id, written through on save
+        final EntityCache entityCache = new EntityCache();
+        for (String collection : ENTITY_CACHE_COLLECTIONS) {
+            final String prefix = "mmiLibraryServer.entityCache." + collection;
+            if (environment.getProperty(prefix + ".enabled", Boolean.class, true)) {
+                entityCache.enable(collection, environment.getProperty(prefix + ".size", Integer.class, 1000),
+                        DurationStyle.detectAndParse(environment.getProperty(prefix + ".ttl", "5m")));
+            }
+        }
+        return entityCache;
+    }
+
+    @Bean
+    public MongoClientSettingsBuilderCustomizer entityCacheInvalidatorCustomizer(EntityCache entityCache) {
+        //evict the cached documents on every write command, atomic and bulk updates included
+        final EntityCacheInvalidator invalidator = new EntityCacheInvalidator(entityCache);
+        return (settingsBuilder) -> settingsBuilder.addCommandListener(invalidator);
+    }
+
+    @Bean
+    public BookAdultOnlyListener bookAdultOnlyListener(BookCategoryDictionary bookCategoryDictionary) {
+        //a mongo listener to compute the adult only flag of the saved books
+        return new BookAdultOnlyListener(bookCategoryDictionary);
+    }
+
+    @Bean
+    public MongoIndexesInitializer mongoIndexesInitializer(MongoTemplate mongoTemplate) {
+        //ensure the indexes declared on the documents exist once the context is ready
+        return new MongoIndexesInitializer(mongoTemplate);
+    }
+
+    @Bean
+    public MongoRevisionsInitializer mongoRevisionsInitializer(MongoTemplate mongoTemplate) {
+        //set the revision of the documents written before their entity was versioned
+        return new MongoRevisionsInitializer(mongoTemplate);
+    }
 }
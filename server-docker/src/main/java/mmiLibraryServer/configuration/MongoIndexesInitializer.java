@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.configuration;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.data.mapping.context.MappingContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+
+/**
+ * Create the indexes declared on the mongo documents (@Indexed, @CompoundIndex, @TextIndexed...)
+ * when the context is refreshed, whatever the auto index creation setting is. Index creation is
+ * idempotent: existing indexes are left untouched.
+ *
+ * @author Rémi Venant
+ */
+public class MongoIndexesInitializer implements ApplicationListener<ContextRefreshedEvent> {
+
+    private static final Log LOG = LogFactory.getLog(MongoIndexesInitializer.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    public MongoIndexesInitializer(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        final MappingContext<? extends MongoPersistentEntity<?>, MongoPersistentProperty> mappingContext
+                = this.mongoTemplate.getConverter().getMappingContext();
+        final IndexResolver resolver = IndexResolver.create(mappingContext);
+        mappingContext.getPersistentEntities().stream()
+                .filter((entity) -> entity.isAnnotationPresent(Document.class))
+                .forEach((entity) -> {
+                    final IndexOperations indexOps = this.mongoTemplate.indexOps(entity.getType());
+                    resolver.resolveIndexFor(entity.getTypeInformation()).forEach((indexDef) -> {
+                        final String indexName = indexOps.ensureIndex(indexDef);
+                        LOG.debug(String.format("Index %s ensured on %s.", indexName, entity.getCollection()));
+                    });
+                });
+    }
+}
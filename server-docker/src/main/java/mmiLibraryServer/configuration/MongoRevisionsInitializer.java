@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.configuration;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+/**
+ * Initialize the revision (@Version property) of the documents written before their entity was
+ * versioned, when the context is refreshed. A document without revision would otherwise be
+ * inserted again when its entity is saved. Only the documents lacking a revision are updated.
+ *
+ * @author Rémi Venant
+ */
+public class MongoRevisionsInitializer implements ApplicationListener<ContextRefreshedEvent> {
+
+    private static final Log LOG = LogFactory.getLog(MongoRevisionsInitializer.class);
+
+    private final MongoTemplate mongoTemplate;
+
+    public MongoRevisionsInitializer(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        this.mongoTemplate.getConverter().getMappingContext().getPersistentEntities().stream()
+                .filter((entity) -> entity.isAnnotationPresent(Document.class) && entity.hasVersionProperty())
+                .forEach(this::initializeRevisions);
+    }
+
+    private void initializeRevisions(MongoPersistentEntity<?> entity) {
+        final String versionField = entity.getRequiredVersionProperty().getFieldName();
+        final long initialized = this.mongoTemplate.updateMulti(
+                Query.query(Criteria.where(versionField).exists(false)),
+                Update.update(versionField, 0L), entity.getCollection()).getModifiedCount();
+        if (initialized > 0) {
+            LOG.info(String.format("Revision of %d documents of %s initialized.", initialized, entity.getCollection()));
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.configuration;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.ReactiveMongoDatabaseFactory;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+/**
+ * Configuration of the reactive access to mongo, used by the reactive repositories.
+ *
+ * The auto-configured reactive template would share the blocking converter, that resolves the
+ * document references with blocking queries. The reactive template gets instead its own converter
+ * that never resolves references: the reactive repositories load the referenced entities
+ * themselves.
+ *
+ * @author Rémi Venant
+ */
+@Configuration(proxyBeanMethods = false)
+public class ReactiveMongoConfiguration {
+
+    @Bean
+    public ReactiveMongoTemplate reactiveMongoTemplate(ReactiveMongoDatabaseFactory factory,
+            MongoMappingContext context, MongoCustomConversions conversions) {
+        final MappingMongoConverter mappingConverter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, context);
+        mappingConverter.setCustomConversions(conversions);
+        mappingConverter.setCodecRegistryProvider(factory);
+        mappingConverter.afterPropertiesSet();
+        return new ReactiveMongoTemplate(factory, mappingConverter);
+    }
+}
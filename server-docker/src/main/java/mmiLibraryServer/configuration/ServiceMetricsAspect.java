@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.configuration;
+
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+
+/**
+ * Time the public methods of the classes annotated with @Timed, with the class, the method and
+ * the exception thrown if any as tags. The micrometer TimedAspect only handles annotated methods.
+ * Methods returning a CompletionStage are timed until its completion.
+ *
+ * @author Rémi Venant
+ */
+@Aspect
+public class ServiceMetricsAspect {
+
+    private final MeterRegistry meterRegistry;
+
+    public ServiceMetricsAspect(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Around("@within(timed) && execution(public * *(..))")
+    public Object timeServiceMethod(ProceedingJoinPoint joinPoint, Timed timed) throws Throwable {
+        final Timer.Sample sample = Timer.start(this.meterRegistry);
+        final Object result;
+        try {
+            result = joinPoint.proceed();
+        } catch (Throwable ex) {
+            this.stop(sample, joinPoint, timed, ex);
+            throw ex;
+        }
+        if (result instanceof CompletionStage) {
+            // Asynchronous methods are timed until the completion of their result
+            ((CompletionStage<?>) result).whenComplete((value, ex) -> this.stop(sample, joinPoint, timed,
+                    ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex));
+        } else {
+            this.stop(sample, joinPoint, timed, null);
+        }
+        return result;
+    }
+
+    private void stop(Timer.Sample sample, ProceedingJoinPoint joinPoint, Timed timed, Throwable ex) {
+        sample.stop(Timer.builder(timed.value())
+                .description(timed.description().isEmpty() ? null : timed.description())
+                .tag("class", joinPoint.getSignature().getDeclaringType().getSimpleName())
+                .tag("method", joinPoint.getSignature().getName())
+                .tag("exception", ex == null ? "none" : ex.getClass().getSimpleName())
+                .register(this.meterRegistry));
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Threads of the servlet mode, according to the mmiLibraryServer.threads.mode property
+ * (platform or virtual, see ThreadMode).
+ *
+ * In virtual mode, Tomcat requests, asynchronous responses (streamed loans) and fan-out tasks each
+ * run on their own virtual thread: threads blocked on mongo no longer bound the number of
+ * concurrent requests, the mongo connection pool does. Virtual threads require a JDK 21 runtime:
+ * on older runtimes, the application does not start in virtual mode.
+ *
+ * In platform mode, the fan-out pool is sized from the Tomcat request threads, unless
+ * mmiLibraryServer.threads.fanOutPoolSize is set: each request thread may wait for up to
+ * FAN_OUT_TASKS_PER_REQUEST concurrent lookups. Idle fan-out threads are released.
+ *
+ * @author Rémi Venant
+ */
+@Configuration(proxyBeanMethods = false)
+public class ThreadsConfiguration {
+
+    private static final Log LOG = LogFactory.getLog(ThreadsConfiguration.class);
+
+    /**
+     * Name of the executor of the independent tasks started by the services and controllers.
+     */
+    public static final String FAN_OUT_EXECUTOR = "fanOutExecutor";
+
+    /**
+     * Maximum number of concurrent fan-out tasks started for a single request (the lookups of a
+     * checkout).
+     */
+    public static final int FAN_OUT_TASKS_PER_REQUEST = 3;
+
+    private static final long FAN_OUT_KEEP_ALIVE_SECONDS = 60;
+
+    private static final String VIRTUAL_MODE_CONDITION = "'${mmiLibraryServer.threads.mode:platform}'.equalsIgnoreCase('virtual')";
+
+    @Bean(name = FAN_OUT_EXECUTOR, destroyMethod = "shutdown")
+    public ExecutorService fanOutExecutor(@Value("${mmiLibraryServer.threads.mode:platform}") ThreadMode mode,
+            @Value("${mmiLibraryServer.threads.fanOutPoolSize:0}") int poolSize,
+            @Value("${server.tomcat.threads.max:200}") int requestThreads) {
+        if (mode == ThreadMode.VIRTUAL) {
+            LOG.info("Fan-out tasks run on virtual threads.");
+            return newVirtualThreadExecutor();
+        }
+        final int nbThreads = poolSize > 0 ? poolSize : FAN_OUT_TASKS_PER_REQUEST * requestThreads;
+        LOG.info(String.format("Fan-out tasks run on a pool of %d platform threads.", nbThreads));
+        final CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("fan-out-");
+        threadFactory.setDaemon(true);
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(nbThreads, nbThreads,
+                FAN_OUT_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Virtual threads for the requests. In platform mode, tomcat and spring mvc keep their own
+     * pools.
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    @ConditionalOnExpression(VIRTUAL_MODE_CONDITION)
+    static class VirtualThreadsWebConfiguration {
+
+        @Bean(name = "requestExecutor", destroyMethod = "shutdown")
+        public ExecutorService requestExecutor() {
+            LOG.info("Requests run on virtual threads.");
+            return newVirtualThreadExecutor();
+        }
+
+        @Bean
+        public TomcatProtocolHandlerCustomizer<?> virtualThreadsProtocolHandlerCustomizer(
+                @Qualifier("requestExecutor") ExecutorService requestExecutor) {
+            return (protocolHandler) -> protocolHandler.setExecutor(requestExecutor);
+        }
+
+        @Bean
+        public WebMvcConfigurer virtualThreadsAsyncSupportConfigurer(
+                @Qualifier("requestExecutor") ExecutorService requestExecutor) {
+            return new WebMvcConfigurer() {
+                @Override
+                public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+                    configurer.setTaskExecutor(new TaskExecutorAdapter(requestExecutor));
+                }
+            };
+        }
+    }
+
+    /**
+     * Create an executor of virtual threads, failing the startup if the runtime does not support
+     * them rather than silently running on platform threads.
+     *
+     * @return the executor
+     * @throws IllegalStateException if the runtime does not support virtual threads
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        if (!ThreadMode.isVirtualThreadsSupported()) {
+            throw new IllegalStateException(String.format(
+                    "Virtual threads mode requires a JDK 21 runtime, found java %s: set mmiLibraryServer.threads.mode to platform.",
+                    System.getProperty("java.version")));
+        }
+        return ThreadMode.newVirtualThreadPerTaskExecutor();
+    }
+}
@@ -19,7 +19,10 @@
 package mmiLibraryServer.controllers;
 
 import com.fasterxml.jackson.annotation.JsonView;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.Set;
 import mmiLibraryServer.controllers.model.BookCopiesCreationOrder;
 import mmiLibraryServer.controllers.views.CompositeViews;
 import mmiLibraryServer.mongoModel.Book;
@@ -30,82 +33,93 @@ import mmiLibraryServer.mongoModel.views.BookCopyViews;
 import mmiLibraryServer.mongoModel.views.BookViews;
 import mmiLibraryServer.mongoModel.views.LoanViews;
 import mmiLibraryServer.services.BookService;
+import mmiLibraryServer.services.CatalogImportService;
 import mmiLibraryServer.services.exceptions.HasOngoingLoanException;
+import mmiLibraryServer.services.model.CatalogImportFormat;
+import mmiLibraryServer.services.model.CatalogImportReport;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.logging.log4j.util.Strings;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 /**
  *
  * @author Rémi Venant
  */
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequestMapping("/api/v1/rest/books")
 public class BooksController {
 
     private static final Log LOG = LogFactory.getLog(CategoriesController.class);
 
+    public static final String TOTAL_COUNT_HEADER = "X-Total-Count";
+
+    /**
+     * Media type of the catalogs imported in CSV.
+     */
+    public static final String CSV_MEDIA_TYPE = "text/csv";
+
+    /**
+     * Request parameters that are only meaningful for paginated requests.
+     */
+    private static final Set<String> PAGE_PARAMETERS = Set.of("page", "size", "count");
+
     private final BookService bookService;
 
+    private final CatalogImportService catalogImportService;
+
     @Autowired
-    public BooksController(BookService bookService) {
+    public BooksController(BookService bookService, CatalogImportService catalogImportService) {
         this.bookService = bookService;
+        this.catalogImportService = catalogImportService;
     }
 
     /**
-     * GET /books?isbn&title&language&child&available&nbPages&cat*. Get books with optional filters
+     * GET /books?isbn&title&language&child&available&nbPages&cat*&page&size&sort*&count. Get books
+     * with optional filters. If a page size is given, only the requested page is returned, ordered
+     * by the optional sort orders then by id. The total number of matching books is then given in
+     * the X-Total-Count header, unless count=false.
      *
-     * @param params the optional filters
+     * @param params the optional filters and page parameters
      * @return the books
      */
     @GetMapping
     @JsonView(BookViews.Normal.class)
-    public List<Book> getBooks(@RequestParam(required = false) MultiValueMap<String, String> params) {
-        if (params != null && params.values().stream()
-                .flatMap(List::stream).anyMatch((s) -> !Strings.isBlank(s))) {
-            final BookRequestFilter.Builder filterBuilder = BookRequestFilter.getBuilder();
-            String currentVal = params.getFirst("isbn");
-            if (!Strings.isBlank(currentVal)) {
-                filterBuilder.withIsbn(currentVal);
-            }
-            currentVal = params.getFirst("title");
-            if (!Strings.isBlank(currentVal)) {
-                String language = params.getFirst("language");
-                filterBuilder.withTitleAlike(currentVal, language);
-            }
-            currentVal = params.getFirst("child");
-            if (!Strings.isBlank(currentVal)) {
-                filterBuilder.withChildCompliancy();
-            }
-            currentVal = params.getFirst("available");
-            if (!Strings.isBlank(currentVal)) {
-                filterBuilder.withAvailability();
-            }
-            currentVal = params.getFirst("nbPages");
-            if (!Strings.isBlank(currentVal)) {
-                try {
-                    filterBuilder.withNumberOfPages(Integer.parseInt(currentVal));
-                } catch (NumberFormatException ex) {
-
-                }
-            }
-            List<String> cats = params.get("cat");
-            if (cats != null && !cats.isEmpty()) {
-                filterBuilder.withCategories(cats);
+    public ResponseEntity<List<Book>> getBooks(@RequestParam(required = false) MultiValueMap<String, String> params) {
+        final String size = params == null ? null : params.getFirst("size");
+        if (!Strings.isBlank(size)) {
+            final BookRequestFilter filter = paramsToFilter(params);
+            final Slice<Book> page = this.bookService.getBooksPage(filter,
+                    !"false".equalsIgnoreCase(params.getFirst("count")));
+            final ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+            if (page instanceof Page) {
+                response.header(TOTAL_COUNT_HEADER, Long.toString(((Page<Book>) page).getTotalElements()));
             }
-            return this.bookService.getBooks(filterBuilder.build());
+            return response.body(page.getContent());
+        }
+        if (hasFilterParams(params)) {
+            return ResponseEntity.ok(this.bookService.getBooks(paramsToFilter(params)));
         } else {
-            return this.bookService.getBooks();
+            return ResponseEntity.ok(this.bookService.getBooks());
         }
     }
 
@@ -122,27 +136,52 @@ public class BooksController {
     }
 
     /**
-     * GET /books/:id. Get a book
+     * POST /books/import. Import a catalog of books with their copies, in NDJSON or CSV according
+     * to the Content-Type header. The catalog is read as it is received.
+     *
+     * @param contentType the media type of the catalog
+     * @param catalog the catalog
+     * @return the report of the import, with the rejected records
+     * @throws IOException if the catalog cannot be read
+     */
+    @PostMapping(path = "import", consumes = {MediaType.APPLICATION_NDJSON_VALUE, CSV_MEDIA_TYPE})
+    public CatalogImportReport importCatalog(@RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+            InputStream catalog) throws IOException {
+        return this.catalogImportService.importCatalog(catalog, catalogFormatOf(contentType));
+    }
+
+    /**
+     * GET /books/:id. Get a book, with its ETag. If the If-None-Match header matches the ETag, the
+     * book is not loaded and 304 is returned.
      *
      * @param bookId the book id
+     * @param request the request
      * @return the book
      */
     @GetMapping("{bookId}")
     @JsonView(BookViews.WithCopies.class)
-    public Book getBook(@PathVariable String bookId) {
-        return this.bookService.getBookById(bookId);
+    public ResponseEntity<Book> getBook(@PathVariable String bookId, WebRequest request) {
+        // The revision is read first: a change in between can only make the ETag older
+        final String etag = ETags.of(this.bookService.getBookRevision(bookId));
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return ResponseEntity.ok().eTag(etag).body(this.bookService.getBookById(bookId));
     }
 
     /**
-     * PUT /books/:id. update a book
+     * PUT /books/:id. update a book. If an If-Match header is given, the book is only updated if it
+     * matches its current ETag.
      *
      * @param bookId the book id
+     * @param ifMatch the optional If-Match header
      * @param bookToUpdate the book to update
      * @return the udpated book
      */
     @PutMapping("{bookId}")
     @JsonView(BookViews.WithCopies.class)
     public Book updateBook(@PathVariable String bookId,
+            @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
             @RequestBody Book bookToUpdate) {
         if (bookToUpdate == null) {
             throw new IllegalArgumentException("Miising book information.");
@@ -150,7 +189,8 @@ public class BooksController {
         if (!bookId.equals(bookToUpdate.getId())) {
             throw new IllegalArgumentException("Wrong book id to update.");
         }
-        return this.bookService.updateBook(bookToUpdate);
+        final String revision = ETags.checkIfMatch(ifMatch, () -> this.bookService.getBookRevision(bookId));
+        return this.bookService.updateBook(bookToUpdate, revision);
     }
 
 //    @DeleteMapping(":bookId")
@@ -232,4 +272,90 @@ public class BooksController {
         return this.bookService.getBookCopyLoans(bookId, bookCopyId);
     }
 
+
+    /**
+     * Tell if the request parameters hold at least one filter, regardless of page parameters.
+     *
+     * @param params the request parameters, may be null
+     * @return true if a filter is given
+     */
+    public static boolean hasFilterParams(MultiValueMap<String, String> params) {
+        return params != null && params.entrySet().stream()
+                .filter((e) -> !PAGE_PARAMETERS.contains(e.getKey()))
+                .flatMap((e) -> e.getValue().stream()).anyMatch((s) -> !Strings.isBlank(s));
+    }
+
+    /**
+     * Give the format of an imported catalog.
+     *
+     * @param contentType the Content-Type header of the request
+     * @return CSV for a CSV media type, NDJSON otherwise
+     */
+    public static CatalogImportFormat catalogFormatOf(String contentType) {
+        return MediaType.parseMediaType(contentType).isCompatibleWith(MediaType.parseMediaType(CSV_MEDIA_TYPE))
+                ? CatalogImportFormat.CSV : CatalogImportFormat.NDJSON;
+    }
+
+    /**
+     * Build the filter of the request parameters of GET /books.
+     *
+     * @param params the request parameters
+     * @return the filter
+     * @throws IllegalArgumentException if the page, size or sort parameters are invalid
+     */
+    public static BookRequestFilter paramsToFilter(MultiValueMap<String, String> params) {
+        final BookRequestFilter.Builder filterBuilder = BookRequestFilter.getBuilder();
+        String currentVal = params.getFirst("isbn");
+        if (!Strings.isBlank(currentVal)) {
+            filterBuilder.withIsbn(currentVal);
+        }
+        currentVal = params.getFirst("title");
+        if (!Strings.isBlank(currentVal)) {
+            String language = params.getFirst("language");
+            filterBuilder.withTitleAlike(currentVal, language);
+        }
+        currentVal = params.getFirst("child");
+        if (!Strings.isBlank(currentVal)) {
+            filterBuilder.withChildCompliancy();
+        }
+        currentVal = params.getFirst("available");
+        if (!Strings.isBlank(currentVal)) {
+            filterBuilder.withAvailability();
+        }
+        currentVal = params.getFirst("nbPages");
+        if (!Strings.isBlank(currentVal)) {
+            try {
+                filterBuilder.withNumberOfPages(Integer.parseInt(currentVal));
+            } catch (NumberFormatException ex) {
+
+            }
+        }
+        List<String> cats = params.get("cat");
+        if (cats != null && !cats.isEmpty()) {
+            filterBuilder.withCategories(cats);
+        }
+        currentVal = params.getFirst("size");
+        if (!Strings.isBlank(currentVal)) {
+            final String page = params.getFirst("page");
+            try {
+                filterBuilder.withPage(Strings.isBlank(page) ? 0 : Integer.parseInt(page),
+                        Integer.parseInt(currentVal));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid page or size.");
+            }
+        }
+        List<String> sorts = params.get("sort");
+        if (sorts != null) {
+            // Each sort order is given as "property" or "property,asc|desc"
+            sorts.stream().filter((sort) -> !Strings.isBlank(sort)).forEach((sort) -> {
+                final String[] parts = sort.split(",", 2);
+                final Sort.Direction direction = parts.length > 1
+                        ? Sort.Direction.fromOptionalString(parts[1].trim())
+                                .orElseThrow(() -> new IllegalArgumentException("Invalid sort direction."))
+                        : Sort.Direction.ASC;
+                filterBuilder.withSort(parts[0].trim(), direction);
+            });
+        }
+        return filterBuilder.build();
+    }
 }
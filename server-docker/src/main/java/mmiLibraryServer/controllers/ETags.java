@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.controllers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import mmiLibraryServer.services.exceptions.PreconditionFailedException;
+import org.springframework.util.DigestUtils;
+
+/**
+ * Entity tags of the resources, computed from the revisions given by the services. A revision is
+ * read without loading the resource: a conditional request on an unchanged resource neither
+ * loads nor serializes it.
+ *
+ * @author Rémi Venant
+ */
+public final class ETags {
+
+    private ETags() {
+    }
+
+    /**
+     * Give the strong entity tag of a revision.
+     *
+     * @param revision the revision
+     * @return the quoted entity tag
+     */
+    public static String of(String revision) {
+        return "\"" + DigestUtils.md5DigestAsHex(revision.getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+
+    /**
+     * Check the If-Match header of a request against the current revision of the resource. Weak
+     * entity tags never match, as required for the conditional updates. The matched revision must
+     * be given to the update, that only applies if the resource still has this revision.
+     *
+     * @param ifMatch the If-Match header, null if absent
+     * @param revision the supplier of the current revision, only called if the header is present
+     * @return the matched revision, or null if the header is absent or only matches with *
+     * @throws PreconditionFailedException if the header does not match the current revision
+     */
+    public static String checkIfMatch(String ifMatch, Supplier<String> revision) {
+        if (ifMatch == null || ifMatch.isBlank()) {
+            return null;
+        }
+        final String currentRevision = revision.get();
+        final String etag = of(currentRevision);
+        final List<String> tags = Arrays.stream(ifMatch.split(","))
+                .map(String::trim)
+                .collect(Collectors.toList());
+        if (tags.contains(etag)) {
+            return currentRevision;
+        }
+        if (tags.contains("*")) {
+            return null;
+        }
+        throw new PreconditionFailedException("The resource has been modified.");
+    }
+}
@@ -24,7 +24,10 @@ import javax.servlet.http.HttpServletRequest;
 import mmiLibraryServer.services.exceptions.HasOngoingLoanException;
 import mmiLibraryServer.services.exceptions.LoanImpossibleException;
 import mmiLibraryServer.services.exceptions.MemberWithUnreturnedLoanException;
+import mmiLibraryServer.services.exceptions.PreconditionFailedException;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
@@ -39,6 +42,7 @@ import org.springframework.web.bind.annotation.ResponseBody;
  * @author Rémi Venant
  */
 @ControllerAdvice
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class ExceptionsHandler {
 
     @ExceptionHandler(NoSuchElementException.class)
@@ -105,6 +109,22 @@ public class ExceptionsHandler {
         return new ResponseEntity<>(createErrorMessage(status, error, ex.getMessage(), request), status);
     }
 
+    @ExceptionHandler(PreconditionFailedException.class)
+    public @ResponseBody
+    ResponseEntity<ErrorMessage> handlePreconditionFailed(HttpServletRequest request, PreconditionFailedException ex) {
+        final HttpStatus status = HttpStatus.PRECONDITION_FAILED;
+        final String error = "Precondition failed";
+        return new ResponseEntity<>(createErrorMessage(status, error, ex.getMessage(), request), status);
+    }
+
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public @ResponseBody
+    ResponseEntity<ErrorMessage> handleOptimisticLockingFailure(HttpServletRequest request, OptimisticLockingFailureException ex) {
+        final HttpStatus status = HttpStatus.CONFLICT;
+        final String error = "Concurrent modification";
+        return new ResponseEntity<>(createErrorMessage(status, error, ex.getMessage(), request), status);
+    }
+
     @ExceptionHandler(HttpRequestMethodNotSupportedException.class)
     public @ResponseBody
     ResponseEntity<ErrorMessage> handleMethodUnsupported(HttpServletRequest request, HttpRequestMethodNotSupportedException ex) {
@@ -19,111 +19,318 @@
 package mmiLibraryServer.controllers;
 
 import com.fasterxml.jackson.annotation.JsonView;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import mmiLibraryServer.controllers.model.LoanCreationOrder;
 import mmiLibraryServer.controllers.views.CompositeViews;
 import mmiLibraryServer.mongoModel.Loan;
+import mmiLibraryServer.mongoModel.utils.LoanCursor;
+import mmiLibraryServer.mongoModel.utils.LoanRequestFilter;
 import mmiLibraryServer.mongoModel.views.LoanViews;
-import mmiLibraryServer.services.BookService;
+import mmiLibraryServer.services.CirculationFeed;
 import mmiLibraryServer.services.LoanService;
-import mmiLibraryServer.services.MemberService;
-import mmiLibraryServer.services.exceptions.LoanImpossibleException;
+import mmiLibraryServer.services.model.BulkLoanResult;
+import mmiLibraryServer.services.model.CirculationEvent;
+import mmiLibraryServer.services.model.LoanCheckout;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.logging.log4j.util.Strings;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import reactor.core.publisher.Flux;
 
 /**
  *
  * @author Rémi Venant
  */
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequestMapping("/api/v1/rest/loans")
 public class LoansController {
 
+    /**
+     * Response header holding the cursor of the next page of loans, if any.
+     */
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    /**
+     * Request header holding the id of the last circulation event received by the client.
+     */
+    public static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
+
     private static final Log LOG = LogFactory.getLog(LoansController.class);
 
     private final LoanService loanSvc;
 
-    private final MemberService memberSvc;
+    private final ObjectMapper objectMapper;
+
+    private final CirculationFeed circulationFeed;
 
-    private final BookService bookSvc;
+    private final Duration feedHeartbeat;
 
     @Autowired
-    public LoansController(LoanService loanSvc, MemberService memberSvc,
-            BookService bookSvc) {
+    public LoansController(LoanService loanSvc, ObjectMapper objectMapper, CirculationFeed circulationFeed,
+            @Value("${mmiLibraryServer.circulationFeed.heartbeat:15s}") Duration feedHeartbeat) {
         this.loanSvc = loanSvc;
-        this.memberSvc = memberSvc;
-        this.bookSvc = bookSvc;
+        this.objectMapper = objectMapper;
+        this.circulationFeed = circulationFeed;
+        this.feedHeartbeat = feedHeartbeat;
     }
 
     /**
-     * GET /loans. Get all loans, order by loan date in descending order
+     * GET /loans. Get all loans, order by loan date in descending order. Loans are streamed from
+     * a database cursor, so that they are never all held in memory. Cursors and filters require a
+     * page size.
      *
+     * @param params the request parameters
      * @return loans.
      */
     @GetMapping
+    public ResponseEntity<StreamingResponseBody> getLoans(@RequestParam(required = false) MultiValueMap<String, String> params) {
+        checkUnfiltered(params);
+        final Class<?> view = LoanViews.Normal.class;
+        final ObjectWriter loanWriter = this.objectMapper
+                .writerWithView(view)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        final StreamingResponseBody body = (outputStream) -> {
+            try (Stream<Loan> loans = this.loanSvc.streamLoans(view);
+                    JsonGenerator generator = this.objectMapper.getFactory().createGenerator(outputStream)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.writeStartArray();
+                final Iterator<Loan> it = loans.iterator();
+                while (it.hasNext()) {
+                    loanWriter.writeValue(generator, it.next());
+                }
+                generator.writeEndArray();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    /**
+     * GET /loans?size&cursor&memberId&bookCopyId&bookId&returned&from&to&overdueDays. Get a page of
+     * loans, optionally filtered, order by loan date in descending order. The cursor of the next
+     * page, if any, is given in the X-Next-Cursor header.
+     *
+     * @param size the size of the page
+     * @param cursor the cursor given by the previous page, if any
+     * @param params the request parameters, holding the optional filters
+     * @return loans of the page.
+     */
+    @GetMapping(params = "size")
     @JsonView(LoanViews.Normal.class)
-    public List<Loan> getLoans() {
-        return this.loanSvc.getLoans();
+    public ResponseEntity<List<Loan>> getLoansPage(@RequestParam int size,
+            @RequestParam(required = false) String cursor, @RequestParam MultiValueMap<String, String> params) {
+        final LoanCursor after = cursor == null || cursor.isBlank() ? null : LoanCursor.decode(cursor);
+        final Slice<Loan> page = this.loanSvc.getLoans(paramsToFilter(params), after, size, LoanViews.Normal.class);
+        final ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.hasNext()) {
+            final List<Loan> loans = page.getContent();
+            response.header(NEXT_CURSOR_HEADER, LoanCursor.of(loans.get(loans.size() - 1)).encode());
+        }
+        return response.body(page.getContent());
     }
 
     /**
-     * POST /loans. Create a loan
+     * Build the filter of the request parameters of GET /loans.
+     *
+     * @param params the request parameters
+     * @return the filter
+     * @throws IllegalArgumentException if a filter parameter is invalid
+     */
+    public static LoanRequestFilter paramsToFilter(MultiValueMap<String, String> params) {
+        final LoanRequestFilter.Builder filterBuilder = LoanRequestFilter.getBuilder();
+        if (params == null) {
+            return filterBuilder.build();
+        }
+        String currentVal = params.getFirst("memberId");
+        if (!Strings.isBlank(currentVal)) {
+            filterBuilder.withMember(currentVal.trim());
+        }
+        currentVal = params.getFirst("bookCopyId");
+        if (!Strings.isBlank(currentVal)) {
+            filterBuilder.withBookCopy(currentVal.trim());
+        }
+        currentVal = params.getFirst("bookId");
+        if (!Strings.isBlank(currentVal)) {
+            filterBuilder.withBook(currentVal.trim());
+        }
+        currentVal = params.getFirst("returned");
+        if (!Strings.isBlank(currentVal)) {
+            filterBuilder.withReturned(Boolean.parseBoolean(currentVal.trim()));
+        }
+        final String from = params.getFirst("from");
+        final String to = params.getFirst("to");
+        if (!Strings.isBlank(from) || !Strings.isBlank(to)) {
+            try {
+                filterBuilder.withLoanDateTimeRange(Strings.isBlank(from) ? null : LocalDateTime.parse(from.trim()),
+                        Strings.isBlank(to) ? null : LocalDateTime.parse(to.trim()));
+            } catch (DateTimeParseException ex) {
+                throw new IllegalArgumentException("Invalid loan date range.");
+            }
+        }
+        currentVal = params.getFirst("overdueDays");
+        if (!Strings.isBlank(currentVal)) {
+            try {
+                filterBuilder.withOverdue(Integer.parseInt(currentVal.trim()));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid number of overdue days.");
+            }
+        }
+        return filterBuilder.build();
+    }
+
+    /**
+     * Check that the request parameters of an unpaged GET /loans hold neither a cursor nor a
+     * filter: cursors and filtered loans are only given by pages.
+     *
+     * @param params the request parameters
+     * @throws IllegalArgumentException if a cursor or a filter is given
+     */
+    public static void checkUnfiltered(MultiValueMap<String, String> params) {
+        if (params != null && params.containsKey("cursor")) {
+            throw new IllegalArgumentException("A cursor requires a page size.");
+        }
+        if (!paramsToFilter(params).isEmpty()) {
+            throw new IllegalArgumentException("Filtered loans require a page size.");
+        }
+    }
+
+    /**
+     * POST /loans. Create a loan. The member and the book copy are retrieved concurrently, and the
+     * request thread is released meanwhile.
      *
      * @param loanCreationOrder the loan to create, using member and book copy ids
-     * @return the created loan
-     * @throws LoanImpossibleException if book copy is unavailable or the book is for adult while
-     * the member is a minor
+     * @return the created loan, completed exceptionally with LoanImpossibleException if book copy
+     * is unavailable or the book is for adult while the member is a minor
      */
     @PostMapping
     @JsonView(LoanViews.WithMemberAndBookCopy.class)
-    public Loan createLoan(@RequestBody LoanCreationOrder loanCreationOrder) throws LoanImpossibleException {
+    public CompletableFuture<Loan> createLoan(@RequestBody LoanCreationOrder loanCreationOrder) {
         if (loanCreationOrder == null) {
             throw new IllegalArgumentException("Missing information to create loan.");
         }
-        return this.loanSvc.createLoan(
-                this.memberSvc.getMemberById(loanCreationOrder.getMemberId()),
-                this.bookSvc.getBookCopyById(loanCreationOrder.getBookCopyId()),
-                loanCreationOrder.getLoanDateTime());
+        return this.loanSvc.createLoanAsync(new LoanCheckout(loanCreationOrder.getMemberId(),
+                loanCreationOrder.getBookCopyId(), loanCreationOrder.getLoanDateTime()));
+    }
+
+    /**
+     * POST /loans/bulk. Create several loans at once
+     *
+     * @param loanCreationOrders the loans to create, using member and book copy ids
+     * @return the result of each loan creation, in the order of the request
+     */
+    @PostMapping("bulk")
+    @JsonView(LoanViews.WithMemberAndBookCopy.class)
+    public List<BulkLoanResult> createLoans(@RequestBody List<LoanCreationOrder> loanCreationOrders) {
+        if (loanCreationOrders == null) {
+            throw new IllegalArgumentException("Missing information to create loans.");
+        }
+        return this.loanSvc.createLoans(loanCreationOrders.stream()
+                .map((order) -> order == null ? null
+                : new LoanCheckout(order.getMemberId(), order.getBookCopyId(), order.getLoanDateTime()))
+                .collect(Collectors.toList()));
     }
 
     /**
-     * GET /loans/:loanId. Return a loan with its member and book copy
+     * PUT /loans/bulk. Return several loans at once
+     *
+     * @param loansToReturn the loans to return, with their id, return date and return state
+     * @return the result of each return, in the order of the request
+     */
+    @PutMapping("bulk")
+    @JsonView(LoanViews.WithBookCopy.class)
+    public List<BulkLoanResult> returnLoans(@RequestBody List<Loan> loansToReturn) {
+        if (loansToReturn == null) {
+            throw new IllegalArgumentException("Missing information to return loans.");
+        }
+        return this.loanSvc.returnLoans(loansToReturn);
+    }
+
+    /**
+     * GET /loans/feed. Stream the changes of the loans and of the availability of the book copies
+     * as server-sent events. With the Last-Event-ID header, the events missed since that event are
+     * sent first; if they are no longer known, a RESET event is sent first instead.
+     *
+     * @param lastEventId the id of the last event received by the client, if any
+     * @return the circulation events
+     */
+    @GetMapping(path = "feed", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<CirculationEvent>> getCirculationFeed(
+            @RequestHeader(name = LAST_EVENT_ID_HEADER, required = false) String lastEventId) {
+        return ServerSentEvents.of(this.circulationFeed.getEvents(ServerSentEvents.parseLastEventId(lastEventId)),
+                this.feedHeartbeat);
+    }
+
+    /**
+     * GET /loans/:loanId. Return a loan with its member and book copy, with its ETag. If the
+     * If-None-Match header matches the ETag, the loan is not loaded and 304 is returned.
      *
      * @param loanId the loan id
+     * @param request the request
      * @return the loan with its member and book copy
      */
     @GetMapping("{loanId}")
     @JsonView(CompositeViews.LoanWithEverythingAndBookCopyWithBook.class)
-    public Loan getLoan(@PathVariable String loanId) {
-        return this.loanSvc.getLoanById(loanId);
+    public ResponseEntity<Loan> getLoan(@PathVariable String loanId, WebRequest request) {
+        // The revision is read first: a change in between can only make the ETag older
+        final String etag = ETags.of(this.loanSvc.getLoanRevision(loanId));
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return ResponseEntity.ok().eTag(etag).body(this.loanSvc.getLoanById(loanId));
     }
 
     /**
-     * PUT /loans/:loanId. Update a loan. Can only update loan date, return date and return state
+     * PUT /loans/:loanId. Update a loan. Can only update loan date, return date and return state.
+     * If an If-Match header is given, the loan is only updated if it matches its current ETag.
      *
      * @param loanId the loan id
+     * @param ifMatch the optional If-Match header
      * @param loanToUpdate the loan to update
      * @return the updated loan with its member and book copy
      */
     @PutMapping("{loanId}")
     @JsonView(CompositeViews.LoanWithEverythingAndBookCopyWithBook.class)
-    public Loan updateLoan(@PathVariable String loanId, Loan loanToUpdate) {
+    public Loan updateLoan(@PathVariable String loanId,
+            @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch, Loan loanToUpdate) {
         if (loanToUpdate == null) {
             throw new IllegalArgumentException("Missing information to update loan.");
         }
         if (!loanId.equals(loanToUpdate.getId())) {
             throw new IllegalArgumentException("Wrong loand id to update loan.");
         }
-        return this.loanSvc.updateLoan(loanToUpdate);
+        final String revision = ETags.checkIfMatch(ifMatch, () -> this.loanSvc.getLoanRevision(loanId));
+        return this.loanSvc.updateLoan(loanToUpdate, revision);
     }
 
     /**
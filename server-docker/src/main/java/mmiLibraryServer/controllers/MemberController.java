@@ -28,20 +28,26 @@ import mmiLibraryServer.services.exceptions.MemberWithUnreturnedLoanException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 /**
  *
  * @author Rémi Venant
  */
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequestMapping("/api/v1/rest/members")
 public class MemberController {
 
@@ -81,27 +87,37 @@ public class MemberController {
     }
 
     /**
-     * GET /member/:memberId. Get a member.
+     * GET /member/:memberId. Get a member with its loans, with its ETag. If the If-None-Match
+     * header matches the ETag, the member is not loaded and 304 is returned.
      *
      * @param memberId the member id
+     * @param request the request
      * @return the created member
      */
     @GetMapping("{memberId}")
     @JsonView(CompositeViews.MemberWithLoansWithBookCopy.class)
-    public Member getMember(@PathVariable String memberId) {
-        return this.memberSvc.getMemberById(memberId);
+    public ResponseEntity<Member> getMember(@PathVariable String memberId, WebRequest request) {
+        // The revision is read first: a change in between can only make the ETag older
+        final String etag = ETags.of(this.memberSvc.getMemberRevision(memberId));
+        if (request.checkNotModified(etag)) {
+            return null;
+        }
+        return ResponseEntity.ok().eTag(etag).body(this.memberSvc.getMemberWithLoansById(memberId));
     }
 
     /**
-     * PUT /member/:memberId. Update a member.
+     * PUT /member/:memberId. Update a member. If an If-Match header is given, the member is only
+     * updated if it matches its current ETag.
      *
      * @param memberId the member id
+     * @param ifMatch the optional If-Match header
      * @param memberToUpdate the member to update
      * @return the updated member
      */
     @PutMapping("{memberId}")
     @JsonView(CompositeViews.MemberWithLoansWithBookCopy.class)
     public Member updateMember(@PathVariable String memberId,
+            @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
             @RequestBody Member memberToUpdate) {
         if (memberToUpdate == null) {
             throw new IllegalArgumentException("Miising information to update member.");
@@ -109,7 +125,8 @@ public class MemberController {
         if (!memberId.equals(memberToUpdate.getId())) {
             throw new IllegalArgumentException("Wrong member id to update member.");
         }
-        return this.memberSvc.updateMember(memberToUpdate);
+        final String revision = ETags.checkIfMatch(ifMatch, () -> this.memberSvc.getMemberRevision(memberId));
+        return this.memberSvc.updateMember(memberToUpdate, revision);
     }
 
     /**
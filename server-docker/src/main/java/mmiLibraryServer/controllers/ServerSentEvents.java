@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.controllers;
+
+import java.time.Duration;
+import mmiLibraryServer.services.model.CirculationEvent;
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.publisher.Flux;
+
+/**
+ * Server-sent events of the circulation feed, shared by the servlet and reactive controllers.
+ *
+ * @author Rémi Venant
+ */
+public final class ServerSentEvents {
+
+    private ServerSentEvents() {
+    }
+
+    /**
+     * Parse the Last-Event-ID header of a request. The header is sent back as is by the clients:
+     * an invalid one is not rejected, as an event stream cannot hold an error message, but given
+     * as an unknown event id so that the client is reset.
+     *
+     * @param lastEventId the header, null if absent
+     * @return the id of the last event received by the client, null if none, negative if invalid
+     */
+    public static Long parseLastEventId(String lastEventId) {
+        if (lastEventId == null || lastEventId.isBlank()) {
+            return null;
+        }
+        try {
+            return Long.valueOf(lastEventId.trim());
+        } catch (NumberFormatException ex) {
+            return -1L;
+        }
+    }
+
+    /**
+     * Turn circulation events into server-sent events, named after their type and identified by
+     * their id so that a client can resume the feed with the Last-Event-ID header. A comment is
+     * sent at each heartbeat to keep the connection open through proxies.
+     *
+     * @param events the circulation events
+     * @param heartbeat the delay between two heartbeats
+     * @return the server-sent events
+     */
+    public static Flux<ServerSentEvent<CirculationEvent>> of(Flux<CirculationEvent> events, Duration heartbeat) {
+        final Flux<ServerSentEvent<CirculationEvent>> sse = events.map((event) -> {
+            final ServerSentEvent.Builder<CirculationEvent> builder = ServerSentEvent.builder(event)
+                    .event(event.getType().name());
+            if (event.getId() != null) {
+                builder.id(event.getId().toString());
+            }
+            return builder.build();
+        });
+        final Flux<ServerSentEvent<CirculationEvent>> heartbeats = Flux.interval(heartbeat, heartbeat)
+                .map((tick) -> ServerSentEvent.<CirculationEvent>builder().comment("heartbeat").build());
+        return Flux.merge(sse, heartbeats);
+    }
+}
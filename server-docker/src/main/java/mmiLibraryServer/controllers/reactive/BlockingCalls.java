@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.controllers.reactive;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Execution of the blocking services from the reactive controllers. The calls run on the bounded
+ * elastic scheduler, never on the event loop. Their results are emitted on the same scheduler, so
+ * that the configured codecs serialize them there: the lazy references of the entities are
+ * resolved with blocking queries when the JSON view of the handler includes them.
+ *
+ * @author Rémi Venant
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class BlockingCalls {
+
+    /**
+     * Size of the buffer between a request body and the blocking service that reads it.
+     */
+    private static final int BODY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Call a blocking service.
+     *
+     * @param <T> the type of the result
+     * @param call the call to the service
+     * @return the result
+     */
+    public <T> Mono<T> call(Callable<T> call) {
+        return Mono.fromCallable(call)
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Call an asynchronous service. The service runs on its own executor: no thread waits for its
+     * result.
+     *
+     * @param <T> the type of the result
+     * @param call the call to the service
+     * @return the result
+     */
+    public <T> Mono<T> callAsync(Supplier<? extends CompletableFuture<T>> call) {
+        return Mono.defer(() -> Mono.fromFuture(call.get()))
+                .publishOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Call a blocking service reading a request body as a stream. The body is written to the
+     * stream as it is received, on its own thread, and never held entirely in memory. A failure of
+     * the request body fails the read of the stream.
+     *
+     * @param <T> the type of the result
+     * @param body the request body
+     * @param call the call to the service, given the stream of the body
+     * @return the result
+     */
+    public <T> Mono<T> callWithStream(Flux<DataBuffer> body, StreamCall<T> call) {
+        return this.call(() -> {
+            final AtomicReference<Throwable> bodyError = new AtomicReference<>();
+            final BodyInputStream input = new BodyInputStream(bodyError);
+            final PipedOutputStream output = new PipedOutputStream(input);
+            final Disposable writing = DataBufferUtils.write(body.publishOn(Schedulers.boundedElastic()), output)
+                    .doFinally((signal) -> {
+                        try {
+                            output.close();
+                        } catch (IOException ex) {
+                            // Nothing more to write
+                        }
+                    })
+                    .subscribe(DataBufferUtils.releaseConsumer(), bodyError::set);
+            try (input) {
+                return call.call(input);
+            } finally {
+                writing.dispose();
+            }
+        });
+    }
+
+    /**
+     * Call a blocking service without result.
+     *
+     * @param call the call to the service
+     * @return the completion of the call
+     */
+    public Mono<Void> execute(Callable<?> call) {
+        return Mono.fromCallable(call)
+                .subscribeOn(Schedulers.boundedElastic())
+                .then();
+    }
+
+    /**
+     * Call to a blocking service reading a stream.
+     *
+     * @param <T> the type of the result
+     */
+    @FunctionalInterface
+    public interface StreamCall<T> {
+
+        T call(InputStream input) throws Exception;
+    }
+
+    /**
+     * Stream of a request body, that fails instead of ending if the body failed.
+     */
+    private static class BodyInputStream extends PipedInputStream {
+
+        private final AtomicReference<Throwable> bodyError;
+
+        BodyInputStream(AtomicReference<Throwable> bodyError) {
+            super(BODY_BUFFER_SIZE);
+            this.bodyError = bodyError;
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            return this.checkEnd(super.read());
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            return this.checkEnd(super.read(b, off, len));
+        }
+
+        private int checkEnd(int read) throws IOException {
+            if (read < 0 && this.bodyError.get() != null) {
+                throw new IOException("Failed to read the request body.", this.bodyError.get());
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.controllers.reactive;
+
+import com.fasterxml.jackson.annotation.JsonView;
+import java.util.List;
+import mmiLibraryServer.controllers.BooksController;
+import mmiLibraryServer.controllers.ETags;
+import mmiLibraryServer.controllers.model.BookCopiesCreationOrder;
+import mmiLibraryServer.controllers.views.CompositeViews;
+import mmiLibraryServer.mongoModel.Book;
+import mmiLibraryServer.mongoModel.BookCopy;
+import mmiLibraryServer.mongoModel.Loan;
+import mmiLibraryServer.mongoModel.utils.BookRequestFilter;
+import mmiLibraryServer.mongoModel.views.BookCopyViews;
+import mmiLibraryServer.mongoModel.views.BookViews;
+import mmiLibraryServer.mongoModel.views.LoanViews;
+import mmiLibraryServer.services.BookService;
+import mmiLibraryServer.services.CatalogImportService;
+import mmiLibraryServer.services.model.CatalogImportFormat;
+import mmiLibraryServer.services.model.CatalogImportReport;
+import mmiLibraryServer.services.reactive.ReactiveCatalogService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.logging.log4j.util.Strings;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.data.domain.Page;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reactive equivalent of BooksController.
+ *
+ * @author Rémi Venant
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequestMapping("/api/v1/rest/books")
+public class ReactiveBooksController {
+
+    private static final Log LOG = LogFactory.getLog(ReactiveBooksController.class);
+
+    private final ReactiveCatalogService catalogSvc;
+
+    private final BookService bookService;
+
+    private final CatalogImportService catalogImportService;
+
+    private final BlockingCalls blockingCalls;
+
+    @Autowired
+    public ReactiveBooksController(ReactiveCatalogService catalogSvc, BookService bookService,
+            CatalogImportService catalogImportService, BlockingCalls blockingCalls) {
+        this.catalogSvc = catalogSvc;
+        this.bookService = bookService;
+        this.catalogImportService = catalogImportService;
+        this.blockingCalls = blockingCalls;
+    }
+
+    /**
+     * GET /books?isbn&title&language&child&available&nbPages&cat*&page&size&sort*&count. Get books
+     * with optional filters. If a page size is given, only the requested page is returned, ordered
+     * by the optional sort orders then by id. The total number of matching books is then given in
+     * the X-Total-Count header, unless count=false.
+     *
+     * @param params the optional filters and page parameters
+     * @return the books
+     */
+    @GetMapping
+    @JsonView(BookViews.Normal.class)
+    public Mono<ResponseEntity<List<Book>>> getBooks(@RequestParam(required = false) MultiValueMap<String, String> params) {
+        final String size = params == null ? null : params.getFirst("size");
+        if (!Strings.isBlank(size)) {
+            final BookRequestFilter filter = BooksController.paramsToFilter(params);
+            return this.catalogSvc.getBooksPage(filter, !"false".equalsIgnoreCase(params.getFirst("count")))
+                    .map((page) -> {
+                        final ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+                        if (page instanceof Page) {
+                            response.header(BooksController.TOTAL_COUNT_HEADER,
+                                    Long.toString(((Page<Book>) page).getTotalElements()));
+                        }
+                        return response.body(page.getContent());
+                    });
+        }
+        final BookRequestFilter filter = BooksController.hasFilterParams(params)
+                ? BooksController.paramsToFilter(params) : null;
+        return this.catalogSvc.getBooks(filter).collectList().map(ResponseEntity::ok);
+    }
+
+    /**
+     * POST /books. Create a book
+     *
+     * @param bookToCreate the book to create
+     * @return the created book
+     */
+    @PostMapping
+    @JsonView(BookViews.Normal.class)
+    public Mono<Book> createBook(@RequestBody Book bookToCreate) {
+        return this.blockingCalls.call(() -> this.bookService.createBook(bookToCreate));
+    }
+
+    /**
+     * POST /books/import. Import a catalog of books with their copies, in NDJSON or CSV according
+     * to the Content-Type header. The catalog is read as it is received.
+     *
+     * @param contentType the media type of the catalog
+     * @param catalog the catalog
+     * @return the report of the import, with the rejected records
+     */
+    @PostMapping(path = "import", consumes = {MediaType.APPLICATION_NDJSON_VALUE, BooksController.CSV_MEDIA_TYPE})
+    public Mono<CatalogImportReport> importCatalog(@RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+            @RequestBody Flux<DataBuffer> catalog) {
+        final CatalogImportFormat format = BooksController.catalogFormatOf(contentType);
+        return this.blockingCalls.callWithStream(catalog,
+                (input) -> this.catalogImportService.importCatalog(input, format));
+    }
+
+    /**
+     * GET /books/:id. Get a book, with its ETag. If the If-None-Match header matches the ETag, the
+     * book is not loaded and 304 is returned.
+     *
+     * @param bookId the book id
+     * @param exchange the exchange
+     * @return the book with its copies
+     */
+    @GetMapping("{bookId}")
+    @JsonView(BookViews.WithCopies.class)
+    public Mono<ResponseEntity<Book>> getBook(@PathVariable String bookId, ServerWebExchange exchange) {
+        return ReactiveETags.ifModified(exchange, this.catalogSvc.getBookRevision(bookId),
+                () -> this.catalogSvc.getBookById(bookId));
+    }
+
+    /**
+     * PUT /books/:id. update a book. If an If-Match header is given, the book is only updated if it
+     * matches its current ETag.
+     *
+     * @param bookId the book id
+     * @param ifMatch the optional If-Match header
+     * @param bookToUpdate the book to update
+     * @return the udpated book
+     */
+    @PutMapping("{bookId}")
+    @JsonView(BookViews.WithCopies.class)
+    public Mono<Book> updateBook(@PathVariable String bookId,
+            @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+            @RequestBody Book bookToUpdate) {
+        if (!bookId.equals(bookToUpdate.getId())) {
+            return Mono.error(new IllegalArgumentException("Wrong book id to update."));
+        }
+        return this.blockingCalls.call(() -> {
+            final String revision = ETags.checkIfMatch(ifMatch, () -> this.bookService.getBookRevision(bookId));
+            return this.bookService.updateBook(bookToUpdate, revision);
+        });
+    }
+
+    /**
+     * GET /books/:id/loans. Get a book loans (for all its copies)
+     *
+     * @param bookId the book id
+     * @return the loans of all the book copies of the book
+     */
+    @GetMapping("{bookId}/loans")
+    @JsonView(LoanViews.WithMemberAndBookCopy.class)
+    public Mono<List<Loan>> getBookLoans(@PathVariable String bookId) {
+        return this.blockingCalls.call(() -> this.bookService.getBookLoans(bookId));
+    }
+
+    /**
+     * POST /books/:bookId/copies. Create book copies
+     *
+     * @param bookId the book id
+     * @param creationOrder the order of creation with number of copies and optional initial state
+     * @return the created copies
+     */
+    @PostMapping("{bookId}/copies")
+    @JsonView(BookCopyViews.Normal.class)
+    public Mono<List<BookCopy>> createCopies(@PathVariable String bookId,
+            @RequestBody BookCopiesCreationOrder creationOrder) {
+        return this.blockingCalls.call(() -> this.bookService.createBookCopies(bookId,
+                creationOrder.getNumCopies(), creationOrder.getInitialState()));
+    }
+
+    /**
+     * GET /books/:bookId/copies/:bookCopyId. Get a book copy of a book
+     *
+     * @param bookId the book id
+     * @param bookCopyId the book copy id
+     * @return the book copy with its related book and its loans
+     */
+    @GetMapping("{bookId}/copies/{bookCopyId}")
+    @JsonView(CompositeViews.BookCopyWithLoansWithMember.class)
+    public Mono<BookCopy> getBookCopy(@PathVariable String bookId, @PathVariable String bookCopyId) {
+        return this.catalogSvc.getBookCopyById(bookId, bookCopyId);
+    }
+
+    /**
+     * PUT /books/:bookId/copies/:bookCopyId.Update a book copy of a book
+     *
+     * @param bookId the book id
+     * @param bookCopyId the book copy id
+     * @param bookCopyToUpdate the book copy to update
+     * @return the book copy with its related book and its loans, in error with
+     * HasOngoingLoanException if the copy is lent
+     */
+    @PutMapping("{bookId}/copies/{bookCopyId}")
+    @JsonView(CompositeViews.BookCopyWithLoansWithMember.class)
+    public Mono<BookCopy> updateBookCopy(@PathVariable String bookId, @PathVariable String bookCopyId,
+            @RequestBody BookCopy bookCopyToUpdate) {
+        if (!bookCopyId.equals(bookCopyToUpdate.getId())) {
+            return Mono.error(new IllegalArgumentException("Wrong book copy id to update."));
+        }
+        return this.blockingCalls.call(() -> this.bookService.updateBookCopy(bookId, bookCopyToUpdate));
+    }
+
+    /**
+     * GET /books/:bookId/copies/:bookCopyId/loans. Get loans of a book copy of a book
+     *
+     * @param bookId the book id
+     * @param bookCopyId the book copy id
+     * @return the loans of the book copy with their member
+     */
+    @GetMapping("{bookId}/copies/{bookCopyId}/loans")
+    @JsonView(LoanViews.WithMember.class)
+    public Mono<List<Loan>> getBookCopyLoans(@PathVariable String bookId, @PathVariable String bookCopyId) {
+        return this.blockingCalls.call(() -> this.bookService.getBookCopyLoans(bookId, bookCopyId));
+    }
+
+}
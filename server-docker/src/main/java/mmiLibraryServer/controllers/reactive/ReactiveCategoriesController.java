@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.controllers.reactive;
+
+import mmiLibraryServer.mongoModel.BookCategory;
+import mmiLibraryServer.services.CategoryService;
+import mmiLibraryServer.services.reactive.ReactiveCatalogService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reactive equivalent of CategoriesController.
+ *
+ * @author Rémi Venant
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequestMapping("/api/v1/rest/categories")
+public class ReactiveCategoriesController {
+
+    private static final Log LOG = LogFactory.getLog(ReactiveCategoriesController.class);
+
+    private final ReactiveCatalogService catalogSvc;
+
+    private final CategoryService categorySvc;
+
+    private final BlockingCalls blockingCalls;
+
+    @Autowired
+    public ReactiveCategoriesController(ReactiveCatalogService catalogSvc, CategoryService categorySvc,
+            BlockingCalls blockingCalls) {
+        this.catalogSvc = catalogSvc;
+        this.categorySvc = categorySvc;
+        this.blockingCalls = blockingCalls;
+    }
+
+    /**
+     * GET /categories. Get all the categories.
+     *
+     * @return the categories
+     */
+    @GetMapping
+    public Flux<BookCategory> getCategories() {
+        return this.catalogSvc.getCategories();
+    }
+
+    /**
+     * POST /categories. Create a category.
+     *
+     * @param categoryToCreate the category to create
+     * @return the created category
+     */
+    @PostMapping
+    public Mono<BookCategory> createCategory(@RequestBody BookCategory categoryToCreate) {
+        return this.blockingCalls.call(() -> this.categorySvc.createCategory(categoryToCreate));
+    }
+
+    /**
+     * GET /categories/:catId. Get a category.
+     *
+     * @param catId the category id
+     * @return the category
+     */
+    @GetMapping("{catId}")
+    public Mono<BookCategory> getCategory(@PathVariable String catId) {
+        return this.catalogSvc.getCategoryById(catId);
+    }
+
+    /**
+     * PUT /categories/:catId. Update a category.
+     *
+     * @param catId the category id
+     * @param categoryToUpdate the category to update
+     * @return the updated category
+     */
+    @PutMapping("{catId}")
+    public Mono<BookCategory> updateCategory(@PathVariable String catId,
+            @RequestBody BookCategory categoryToUpdate) {
+        if (!catId.equals(categoryToUpdate.getId())) {
+            return Mono.error(new IllegalArgumentException("Wrong category id to update."));
+        }
+        return this.blockingCalls.call(() -> this.categorySvc.updateCategory(categoryToUpdate));
+    }
+
+    /**
+     * DELETE /categories/:catId. Delete a category.
+     *
+     * @param catId the category id
+     * @return the completion of the deletion
+     */
+    @DeleteMapping("{catId}")
+    public Mono<Void> deleteCategory(@PathVariable String catId) {
+        return this.blockingCalls.execute(() -> {
+            this.categorySvc.deleteCategoryById(catId);
+            return null;
+        });
+    }
+
+}
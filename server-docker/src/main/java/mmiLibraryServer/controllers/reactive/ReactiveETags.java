@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.controllers.reactive;
+
+import java.util.function.Supplier;
+import mmiLibraryServer.controllers.ETags;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+/**
+ * Conditional reads of the reactive controllers, on the ETags of the entities.
+ *
+ * @author Rémi Venant
+ */
+final class ReactiveETags {
+
+    private ReactiveETags() {
+    }
+
+    /**
+     * Give an entity with its ETag, unless the ETag matches the If-None-Match header of the
+     * request: the entity is then not loaded and 304 is returned.
+     *
+     * @param <T> the type of the entity
+     * @param exchange the exchange
+     * @param revision the revision of the entity
+     * @param entity the loading of the entity
+     * @return the response with the entity, or without body if not modified
+     */
+    static <T> Mono<ResponseEntity<T>> ifModified(ServerWebExchange exchange, Mono<String> revision,
+            Supplier<Mono<T>> entity) {
+        // The revision is read first: a change in between can only make the ETag older
+        return revision.flatMap((currentRevision) -> {
+            final String etag = ETags.of(currentRevision);
+            if (exchange.checkNotModified(etag)) {
+                return Mono.just(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).<T>build());
+            }
+            return entity.get().map((body) -> ResponseEntity.ok().eTag(etag).body(body));
+        });
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.controllers.reactive;
+
+import java.time.ZonedDateTime;
+import java.util.NoSuchElementException;
+import mmiLibraryServer.controllers.ExceptionsHandler.ErrorMessage;
+import mmiLibraryServer.services.exceptions.HasOngoingLoanException;
+import mmiLibraryServer.services.exceptions.LoanImpossibleException;
+import mmiLibraryServer.services.exceptions.MemberWithUnreturnedLoanException;
+import mmiLibraryServer.services.exceptions.PreconditionFailedException;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Reactive equivalent of ExceptionsHandler, giving the same error messages. Invalid requests
+ * (unreadable body, unsupported media type...) are signaled by a ResponseStatusException.
+ *
+ * @author Rémi Venant
+ */
+@ControllerAdvice
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveExceptionsHandler {
+
+    @ExceptionHandler(NoSuchElementException.class)
+    public @ResponseBody
+    ResponseEntity<ErrorMessage> handleResourceNotFound(ServerHttpRequest request, NoSuchElementException ex) {
+        final HttpStatus status = HttpStatus.NOT_FOUND;
+        final String error = "Resource not found";
+        return new ResponseEntity<>(createErrorMessage(status, error, ex.getMessage(), request), status);
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public @ResponseBody
+    ResponseEntity<ErrorMessage> handleBadArgument(ServerHttpRequest request, IllegalArgumentException ex) {
+        final HttpStatus status = HttpStatus.BAD_REQUEST;
+        final String error = "Invalid argument";
+        return new ResponseEntity<>(createErrorMessage(status, error, ex.getMessage(), request), status);
+    }
+
+    @ExceptionHandler(LoanImpossibleException.class)
+    public @ResponseBody
+    ResponseEntity<ErrorMessage> handleLoanImpossible(ServerHttpRequest request, LoanImpossibleException ex) {
+        final HttpStatus status = HttpStatus.NOT_ACCEPTABLE;
+        final String error = "Not acceptable loan";
+        return new ResponseEntity<>(createErrorMessage(status, error, ex.getMessage(), request), status);
+    }
+
+    @ExceptionHandler(MemberWithUnreturnedLoanException.class)
+    public @ResponseBody
+    ResponseEntity<ErrorMessage> handleMemberWithUnreturnedLoan(ServerHttpRequest request, MemberWithUnreturnedLoanException ex) {
+        final HttpStatus status = HttpStatus.NOT_ACCEPTABLE;
+        final String error = "Member with still unreturned loan";
+        return new ResponseEntity<>(createErrorMessage(status, error, ex.getMessage(), request), status);
+    }
+
+    @ExceptionHandler(DuplicateKeyException.class)
+    public @ResponseBody
+    ResponseEntity<ErrorMessage> handleDuplicateKey(ServerHttpRequest request, DuplicateKeyException ex) {
+        final HttpStatus status = HttpStatus.CONFLICT;
+        final String error = "An unique value is already present.";
+        return new ResponseEntity<>(createErrorMessage(status, error, ex.getMessage(), request), status);
+    }
+
+    @ExceptionHandler(HasOngoingLoanException.class)
+    public @ResponseBody
+    ResponseEntity<ErrorMessage> handleHasOngoingLoan(ServerHttpRequest request, HasOngoingLoanException ex) {
+        final HttpStatus status = HttpStatus.CONFLICT;
+        final String error = "On going loan";
+        return new ResponseEntity<>(createErrorMessage(status, error, ex.getMessage(), request), status);
+    }
+
+    @ExceptionHandler(PreconditionFailedException.class)
+    public @ResponseBody
+    ResponseEntity<ErrorMessage> handlePreconditionFailed(ServerHttpRequest request, PreconditionFailedException ex) {
+        final HttpStatus status = HttpStatus.PRECONDITION_FAILED;
+        final String error = "Precondition failed";
+        return new ResponseEntity<>(createErrorMessage(status, error, ex.getMessage(), request), status);
+    }
+
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public @ResponseBody
+    ResponseEntity<ErrorMessage> handleOptimisticLockingFailure(ServerHttpRequest request, OptimisticLockingFailureException ex) {
+        final HttpStatus status = HttpStatus.CONFLICT;
+        final String error = "Concurrent modification";
+        return new ResponseEntity<>(createErrorMessage(status, error, ex.getMessage(), request), status);
+    }
+
+    @ExceptionHandler(ResponseStatusException.class)
+    public @ResponseBody
+    ResponseEntity<ErrorMessage> handleResponseStatus(ServerHttpRequest request, ResponseStatusException ex) {
+        final HttpStatus status = ex.getStatus();
+        final String error = status.is4xxClientError() ? "Invalid argument" : status.getReasonPhrase();
+        return new ResponseEntity<>(createErrorMessage(status, error, ex.getReason(), request), status);
+    }
+
+    @ExceptionHandler(Throwable.class)
+    public @ResponseBody
+    ResponseEntity<ErrorMessage> handleUnmanaged(ServerHttpRequest request, Throwable ex) {
+        final HttpStatus status = HttpStatus.INTERNAL_SERVER_ERROR;
+        final String error = "Unmanaged exception: " + ex.getClass().getCanonicalName();
+        return new ResponseEntity<>(createErrorMessage(status, error, ex.getMessage(), request), status);
+    }
+
+    private static ErrorMessage createErrorMessage(HttpStatus status, String error, String message, ServerHttpRequest request) {
+        return new ErrorMessage(ZonedDateTime.now(), status.value(), error, message, request.getPath().pathWithinApplication().value());
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.controllers.reactive;
+
+import com.fasterxml.jackson.annotation.JsonView;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import mmiLibraryServer.controllers.ETags;
+import mmiLibraryServer.controllers.LoansController;
+import mmiLibraryServer.controllers.ServerSentEvents;
+import mmiLibraryServer.controllers.model.LoanCreationOrder;
+import mmiLibraryServer.controllers.views.CompositeViews;
+import mmiLibraryServer.mongoModel.Loan;
+import mmiLibraryServer.mongoModel.utils.LoanCursor;
+import mmiLibraryServer.mongoModel.utils.LoanRequestFilter;
+import mmiLibraryServer.mongoModel.views.LoanViews;
+import mmiLibraryServer.services.CirculationFeed;
+import mmiLibraryServer.services.LoanService;
+import mmiLibraryServer.services.model.BulkLoanResult;
+import mmiLibraryServer.services.model.CirculationEvent;
+import mmiLibraryServer.services.model.LoanCheckout;
+import mmiLibraryServer.services.reactive.ReactiveCatalogService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reactive equivalent of LoansController.
+ *
+ * @author Rémi Venant
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequestMapping("/api/v1/rest/loans")
+public class ReactiveLoansController {
+
+    private static final Log LOG = LogFactory.getLog(ReactiveLoansController.class);
+
+    private static final byte[] ARRAY_START = "[".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] ARRAY_END = "]".getBytes(StandardCharsets.UTF_8);
+
+    private final ReactiveCatalogService catalogSvc;
+
+    private final LoanService loanSvc;
+
+    private final BlockingCalls blockingCalls;
+
+    private final ObjectMapper objectMapper;
+
+    private final CirculationFeed circulationFeed;
+
+    private final Duration feedHeartbeat;
+
+    @Autowired
+    public ReactiveLoansController(ReactiveCatalogService catalogSvc, LoanService loanSvc,
+            BlockingCalls blockingCalls, ObjectMapper objectMapper, CirculationFeed circulationFeed,
+            @Value("${mmiLibraryServer.circulationFeed.heartbeat:15s}") Duration feedHeartbeat) {
+        this.catalogSvc = catalogSvc;
+        this.loanSvc = loanSvc;
+        this.blockingCalls = blockingCalls;
+        this.objectMapper = objectMapper;
+        this.circulationFeed = circulationFeed;
+        this.feedHeartbeat = feedHeartbeat;
+    }
+
+    /**
+     * GET /loans. Get all loans, order by loan date in descending order. Loans are written as they
+     * are read from the database cursor, so that they are never all held in memory. Cursors and
+     * filters require a page size.
+     *
+     * @param params the request parameters
+     * @return loans.
+     */
+    @GetMapping
+    public ResponseEntity<Flux<byte[]>> getLoans(@RequestParam(required = false) MultiValueMap<String, String> params) {
+        LoansController.checkUnfiltered(params);
+        final Class<?> view = LoanViews.Normal.class;
+        final ObjectWriter loanWriter = this.objectMapper.writerWithView(view);
+        final Flux<byte[]> loans = this.catalogSvc.streamLoans(view).index().handle((indexedLoan, sink) -> {
+            try {
+                final byte[] loan = loanWriter.writeValueAsBytes(indexedLoan.getT2());
+                if (indexedLoan.getT1() == 0) {
+                    sink.next(loan);
+                } else {
+                    // Prepend the separator to the loan
+                    final byte[] separatedLoan = new byte[loan.length + 1];
+                    separatedLoan[0] = ',';
+                    System.arraycopy(loan, 0, separatedLoan, 1, loan.length);
+                    sink.next(separatedLoan);
+                }
+            } catch (JsonProcessingException ex) {
+                sink.error(ex);
+            }
+        });
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
+                .body(Flux.concat(Mono.just(ARRAY_START), loans, Mono.just(ARRAY_END)));
+    }
+
+    /**
+     * GET /loans?size&cursor&memberId&bookCopyId&bookId&returned&from&to&overdueDays. Get a page of
+     * loans, optionally filtered, order by loan date in descending order. The cursor of the next
+     * page, if any, is given in the X-Next-Cursor header.
+     *
+     * @param size the size of the page
+     * @param cursor the cursor given by the previous page, if any
+     * @param params the request parameters, holding the optional filters
+     * @return loans of the page.
+     */
+    @GetMapping(params = "size")
+    @JsonView(LoanViews.Normal.class)
+    public Mono<ResponseEntity<List<Loan>>> getLoansPage(@RequestParam int size,
+            @RequestParam(required = false) String cursor, @RequestParam MultiValueMap<String, String> params) {
+        final LoanCursor after = cursor == null || cursor.isBlank() ? null : LoanCursor.decode(cursor);
+        final LoanRequestFilter filter = LoansController.paramsToFilter(params);
+        return this.catalogSvc.getLoans(filter, after, size, LoanViews.Normal.class).map((page) -> {
+            final ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+            if (page.hasNext()) {
+                final List<Loan> loans = page.getContent();
+                response.header(LoansController.NEXT_CURSOR_HEADER, LoanCursor.of(loans.get(loans.size() - 1)).encode());
+            }
+            return response.body(page.getContent());
+        });
+    }
+
+    /**
+     * POST /loans. Create a loan
+     *
+     * @param loanCreationOrder the loan to create, using member and book copy ids
+     * @return the created loan, in error with LoanImpossibleException if book copy is unavailable
+     * or the book is for adult while the member is a minor
+     */
+    @PostMapping
+    @JsonView(LoanViews.WithMemberAndBookCopy.class)
+    public Mono<Loan> createLoan(@RequestBody LoanCreationOrder loanCreationOrder) {
+        return this.blockingCalls.callAsync(() -> this.loanSvc.createLoanAsync(new LoanCheckout(
+                loanCreationOrder.getMemberId(), loanCreationOrder.getBookCopyId(),
+                loanCreationOrder.getLoanDateTime())));
+    }
+
+    /**
+     * POST /loans/bulk. Create several loans at once
+     *
+     * @param loanCreationOrders the loans to create, using member and book copy ids
+     * @return the result of each loan creation, in the order of the request
+     */
+    @PostMapping("bulk")
+    @JsonView(LoanViews.WithMemberAndBookCopy.class)
+    public Mono<List<BulkLoanResult>> createLoans(@RequestBody List<LoanCreationOrder> loanCreationOrders) {
+        final List<LoanCheckout> checkouts = loanCreationOrders.stream()
+                .map((order) -> order == null ? null
+                : new LoanCheckout(order.getMemberId(), order.getBookCopyId(), order.getLoanDateTime()))
+                .collect(Collectors.toList());
+        return this.blockingCalls.call(() -> this.loanSvc.createLoans(checkouts));
+    }
+
+    /**
+     * PUT /loans/bulk. Return several loans at once
+     *
+     * @param loansToReturn the loans to return, with their id, return date and return state
+     * @return the result of each return, in the order of the request
+     */
+    @PutMapping("bulk")
+    @JsonView(LoanViews.WithBookCopy.class)
+    public Mono<List<BulkLoanResult>> returnLoans(@RequestBody List<Loan> loansToReturn) {
+        return this.blockingCalls.call(() -> this.loanSvc.returnLoans(loansToReturn));
+    }
+
+    /**
+     * GET /loans/feed. Stream the changes of the loans and of the availability of the book copies
+     * as server-sent events. With the Last-Event-ID header, the events missed since that event are
+     * sent first; if they are no longer known, a RESET event is sent first instead.
+     *
+     * @param lastEventId the id of the last event received by the client, if any
+     * @return the circulation events
+     */
+    @GetMapping(path = "feed", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<CirculationEvent>> getCirculationFeed(
+            @RequestHeader(name = LoansController.LAST_EVENT_ID_HEADER, required = false) String lastEventId) {
+        return ServerSentEvents.of(this.circulationFeed.getEvents(ServerSentEvents.parseLastEventId(lastEventId)),
+                this.feedHeartbeat);
+    }
+
+    /**
+     * GET /loans/:loanId. Return a loan with its member and book copy, with its ETag. If the
+     * If-None-Match header matches the ETag, the loan is not loaded and 304 is returned.
+     *
+     * @param loanId the loan id
+     * @param exchange the exchange
+     * @return the loan with its member and book copy
+     */
+    @GetMapping("{loanId}")
+    @JsonView(CompositeViews.LoanWithEverythingAndBookCopyWithBook.class)
+    public Mono<ResponseEntity<Loan>> getLoan(@PathVariable String loanId, ServerWebExchange exchange) {
+        return ReactiveETags.ifModified(exchange, this.catalogSvc.getLoanRevision(loanId),
+                () -> this.catalogSvc.getLoanById(loanId));
+    }
+
+    /**
+     * PUT /loans/:loanId. Update a loan. Can only update loan date, return date and return state.
+     * If an If-Match header is given, the loan is only updated if it matches its current ETag.
+     *
+     * @param loanId the loan id
+     * @param ifMatch the optional If-Match header
+     * @param loanToUpdate the loan to update
+     * @return the updated loan with its member and book copy
+     */
+    @PutMapping("{loanId}")
+    @JsonView(CompositeViews.LoanWithEverythingAndBookCopyWithBook.class)
+    public Mono<Loan> updateLoan(@PathVariable String loanId,
+            @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch, Loan loanToUpdate) {
+        if (!loanId.equals(loanToUpdate.getId())) {
+            return Mono.error(new IllegalArgumentException("Wrong loand id to update loan."));
+        }
+        return this.blockingCalls.call(() -> {
+            final String revision = ETags.checkIfMatch(ifMatch, () -> this.loanSvc.getLoanRevision(loanId));
+            return this.loanSvc.updateLoan(loanToUpdate, revision);
+        });
+    }
+
+    /**
+     * DELETE /loans/:loanId. Delete a loan
+     *
+     * @param loanId the loan id
+     * @return the completion of the deletion
+     */
+    @DeleteMapping("{loanId}")
+    public Mono<Void> deleteLoan(@PathVariable String loanId) {
+        return this.blockingCalls.execute(() -> {
+            this.loanSvc.deleteLoanById(loanId);
+            return null;
+        });
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.controllers.reactive;
+
+import com.fasterxml.jackson.annotation.JsonView;
+import mmiLibraryServer.controllers.ETags;
+import mmiLibraryServer.controllers.views.CompositeViews;
+import mmiLibraryServer.mongoModel.Member;
+import mmiLibraryServer.mongoModel.views.MemberViews;
+import mmiLibraryServer.services.MemberService;
+import mmiLibraryServer.services.reactive.ReactiveCatalogService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reactive equivalent of MemberController.
+ *
+ * @author Rémi Venant
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequestMapping("/api/v1/rest/members")
+public class ReactiveMemberController {
+
+    private static final Log LOG = LogFactory.getLog(ReactiveMemberController.class);
+
+    private final ReactiveCatalogService catalogSvc;
+
+    private final MemberService memberSvc;
+
+    private final BlockingCalls blockingCalls;
+
+    @Autowired
+    public ReactiveMemberController(ReactiveCatalogService catalogSvc, MemberService memberSvc,
+            BlockingCalls blockingCalls) {
+        this.catalogSvc = catalogSvc;
+        this.memberSvc = memberSvc;
+        this.blockingCalls = blockingCalls;
+    }
+
+    /**
+     * GET /members. Get all the members.
+     *
+     * @return the members
+     */
+    @GetMapping
+    @JsonView(MemberViews.Normal.class)
+    public Flux<Member> getMembers() {
+        return this.catalogSvc.getMembers();
+    }
+
+    /**
+     * POST /members. Create a member.
+     *
+     * @param memberToCreate the member to create
+     * @return the created member
+     */
+    @PostMapping
+    @JsonView(MemberViews.Normal.class)
+    public Mono<Member> createMember(@RequestBody Member memberToCreate) {
+        return this.blockingCalls.call(() -> this.memberSvc.createMember(memberToCreate));
+    }
+
+    /**
+     * GET /member/:memberId. Get a member with its loans, with its ETag. If the If-None-Match
+     * header matches the ETag, the member is not loaded and 304 is returned.
+     *
+     * @param memberId the member id
+     * @param exchange the exchange
+     * @return the member with its loans
+     */
+    @GetMapping("{memberId}")
+    @JsonView(CompositeViews.MemberWithLoansWithBookCopy.class)
+    public Mono<ResponseEntity<Member>> getMember(@PathVariable String memberId, ServerWebExchange exchange) {
+        return ReactiveETags.ifModified(exchange, this.catalogSvc.getMemberRevision(memberId),
+                () -> this.catalogSvc.getMemberWithLoansById(memberId));
+    }
+
+    /**
+     * PUT /member/:memberId. Update a member. If an If-Match header is given, the member is only
+     * updated if it matches its current ETag.
+     *
+     * @param memberId the member id
+     * @param ifMatch the optional If-Match header
+     * @param memberToUpdate the member to update
+     * @return the updated member
+     */
+    @PutMapping("{memberId}")
+    @JsonView(CompositeViews.MemberWithLoansWithBookCopy.class)
+    public Mono<Member> updateMember(@PathVariable String memberId,
+            @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+            @RequestBody Member memberToUpdate) {
+        if (!memberId.equals(memberToUpdate.getId())) {
+            return Mono.error(new IllegalArgumentException("Wrong member id to update member."));
+        }
+        return this.blockingCalls.call(() -> {
+            final String revision = ETags.checkIfMatch(ifMatch, () -> this.memberSvc.getMemberRevision(memberId));
+            return this.memberSvc.updateMember(memberToUpdate, revision);
+        });
+    }
+
+    /**
+     * DELETE /member/:memberId. Delete a member.(will keep its loan)
+     *
+     * @param memberId the member id
+     * @return the completion of the deletion, in error with MemberWithUnreturnedLoanException if
+     * the member has unreturned loans
+     */
+    @DeleteMapping("{memberId}")
+    public Mono<Void> deleteMember(@PathVariable String memberId) {
+        return this.blockingCalls.execute(() -> {
+            this.memberSvc.deleteMemberById(memberId);
+            return null;
+        });
+    }
+
+}
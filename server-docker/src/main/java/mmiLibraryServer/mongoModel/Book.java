@@ -18,14 +18,17 @@
  */
 package mmiLibraryServer.mongoModel;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonView;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
 import javax.validation.constraints.NotBlank;
 import mmiLibraryServer.mongoModel.views.BookViews;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.ReadOnlyProperty;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.index.TextIndexed;
 import org.springframework.data.mongodb.core.mapping.Document;
@@ -64,15 +67,57 @@ public class Book implements Serializable {
     @JsonView(BookViews.Normal.class)
     private List<Author> authors = new ArrayList<>();
 
+    /**
+     * Snapshots of the categories of the book, refreshed by the book repository when a category
+     * changes.
+     */
     @JsonView(BookViews.Normal.class)
-    @DocumentReference
-    private List<BookCategory> categories = new ArrayList<>();
+    private List<BookCategorySnapshot> categories = new ArrayList<>();
 
     @JsonView(BookViews.WithCopies.class)
     @ReadOnlyProperty
     @DocumentReference(lookup = "{'book':?#{#self._id} }", lazy = true)
     private List<BookCopy> copies;
 
+    /**
+     * Number of copies of the book, maintained by the book copy repository.
+     */
+    @JsonView(BookViews.Normal.class)
+    @ReadOnlyProperty
+    private int totalCopies;
+
+    /**
+     * Number of copies of the book that are available and not removed, maintained by the book copy
+     * repository.
+     */
+    @JsonView(BookViews.Normal.class)
+    @ReadOnlyProperty
+    private int availableCopies;
+
+    /**
+     * Number of removed copies of the book, maintained by the book copy repository.
+     */
+    @JsonView(BookViews.Normal.class)
+    @ReadOnlyProperty
+    private int removedCopies;
+
+    /**
+     * Whether one of the categories of the book is restricted to adults, maintained by the book
+     * repository and the book category repository.
+     */
+    @JsonView(BookViews.Normal.class)
+    @ReadOnlyProperty
+    @Indexed
+    private boolean adultOnly;
+
+    /**
+     * Revision of the book, incremented by every write on the book, its copies or its
+     * categories.
+     */
+    @JsonIgnore
+    @Version
+    private Long version;
+
     protected Book() {
     }
 
@@ -87,7 +132,11 @@ public class Book implements Serializable {
             this.authors = authors;
         }
         if (categories != null) {
-            this.categories = categories;
+            // Unsaved categories cannot be referenced: they are not kept, as with a document reference
+            this.categories = categories.stream()
+                    .filter((category) -> category.getId() != null)
+                    .map(BookCategorySnapshot::of)
+                    .collect(Collectors.toList());
         }
         this.copies = List.of();
     }
@@ -153,11 +202,11 @@ public class Book implements Serializable {
         this.authors = authors;
     }
 
-    public List<BookCategory> getCategories() {
+    public List<BookCategorySnapshot> getCategories() {
         return categories;
     }
 
-    public void setCategories(List<BookCategory> categories) {
+    public void setCategories(List<BookCategorySnapshot> categories) {
         this.categories = categories;
     }
 
@@ -169,6 +218,42 @@ public class Book implements Serializable {
         this.copies = copies;
     }
 
+    public int getTotalCopies() {
+        return totalCopies;
+    }
+
+    protected void setTotalCopies(int totalCopies) {
+        this.totalCopies = totalCopies;
+    }
+
+    public int getAvailableCopies() {
+        return availableCopies;
+    }
+
+    protected void setAvailableCopies(int availableCopies) {
+        this.availableCopies = availableCopies;
+    }
+
+    public int getRemovedCopies() {
+        return removedCopies;
+    }
+
+    protected void setRemovedCopies(int removedCopies) {
+        this.removedCopies = removedCopies;
+    }
+
+    public boolean isAdultOnly() {
+        return adultOnly;
+    }
+
+    protected void setAdultOnly(boolean adultOnly) {
+        this.adultOnly = adultOnly;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
     @Override
     public String toString() {
         return "Book{" + "id=" + id + ", isbn=" + isbn + ", title=" + title + ", editor=" + editor + ", numOfPages=" + numOfPages + ", publicationYear=" + publicationYear + '}';
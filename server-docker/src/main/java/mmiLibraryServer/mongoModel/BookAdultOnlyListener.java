@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel;
+
+import java.util.List;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeSaveEvent;
+
+/**
+ * Compute the adult only flag of a book whenever it is saved, from the categories about to be
+ * written, and set it on the saved instance. The flag is a read only property: the book repository
+ * and the book category repository update it on their own for the writes that do not save whole
+ * books.
+ *
+ * @author Rémi Venant
+ */
+public class BookAdultOnlyListener extends AbstractMongoEventListener<Book> {
+
+    private final BookCategoryDictionary categoryDictionary;
+
+    public BookAdultOnlyListener(BookCategoryDictionary categoryDictionary) {
+        this.categoryDictionary = categoryDictionary;
+    }
+
+    @Override
+    public void onBeforeSave(BeforeSaveEvent<Book> event) {
+        final Document bookDoc = event.getDocument();
+        if (bookDoc == null) {
+            return;
+        }
+        final Object categories = bookDoc.get("categories");
+        bookDoc.put("adultOnly", categories instanceof List
+                && this.categoryDictionary.isAnyAdultOnly((List<?>) categories));
+    }
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<Book> event) {
+        // The saved instance is returned as is, without reading the book again
+        if (event.getDocument() != null) {
+            event.getSource().setAdultOnly(event.getDocument().getBoolean("adultOnly", false));
+        }
+    }
+}
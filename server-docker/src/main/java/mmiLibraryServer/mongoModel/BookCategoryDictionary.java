@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+
+/**
+ * In-memory dictionary of the book categories, used to build book queries without querying the
+ * categories collection each time.
+ *
+ * The dictionary is loaded lazily and invalidated whenever a category is saved or deleted through
+ * the mongo template. Bulk operations that bypass mapping events (like dropping the collection)
+ * must call {@link #invalidate()}. A time to live also bounds the staleness when categories are
+ * modified by another instance.
+ *
+ * @author Rémi Venant
+ */
+public class BookCategoryDictionary extends AbstractMongoEventListener<BookCategory> {
+
+    private static final Log LOG = LogFactory.getLog(BookCategoryDictionary.class);
+
+    private final MongoOperations mongoOps;
+
+    private final Duration timeToLive;
+
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile Snapshot snapshot;
+
+    public BookCategoryDictionary(MongoOperations mongoOps, Duration timeToLive) {
+        this.mongoOps = mongoOps;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Retrieve the categories of the given codes. Unknown codes are ignored.
+     *
+     * @param codes the codes of the categories
+     * @return the matching categories
+     */
+    public List<BookCategory> getCategoriesByCodes(Collection<String> codes) {
+        final Map<String, BookCategory> categoriesByCode = this.getSnapshot().categoriesByCode;
+        return codes.stream()
+                .map(categoriesByCode::get)
+                .filter(Objects::nonNull)
+                .distinct()
+                .collect(Collectors.toUnmodifiableList());
+    }
+
+    /**
+     * Retrieve the categories restricted to adults.
+     *
+     * @return the adult only categories
+     */
+    public List<BookCategory> getAdultOnlyCategories() {
+        return this.getSnapshot().adultOnlyCategories;
+    }
+
+    /**
+     * Tell if one of the given categories is restricted to adults.
+     *
+     * @param categories the categories, as ids (strings or object ids) or as written snapshots
+     * @return true if one of the categories is adult only
+     */
+    public boolean isAnyAdultOnly(Collection<?> categories) {
+        final Set<String> adultOnlyIds = this.getSnapshot().adultOnlyIds;
+        return categories.stream()
+                .map((category) -> category instanceof Document ? ((Document) category).get("_id") : category)
+                .filter(Objects::nonNull)
+                .anyMatch((categoryId) -> adultOnlyIds.contains(categoryId.toString()));
+    }
+
+    /**
+     * Drop the loaded categories: they will be reloaded on next access.
+     */
+    public void invalidate() {
+        this.generation.incrementAndGet();
+        this.snapshot = null;
+    }
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<BookCategory> event) {
+        this.invalidate();
+    }
+
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<BookCategory> event) {
+        this.invalidate();
+    }
+
+    private Snapshot getSnapshot() {
+        final Snapshot current = this.snapshot;
+        if (current != null && current.expiresAt.isAfter(Instant.now())) {
+            return current;
+        }
+        // Keep the generation before loading: if an invalidation occurs meanwhile,
+        // the loaded snapshot may be stale and must not be kept.
+        final long loadGeneration = this.generation.get();
+        final List<BookCategory> categories = this.mongoOps.findAll(BookCategory.class);
+        final Snapshot loaded = new Snapshot(categories, Instant.now().plus(this.timeToLive));
+        if (this.generation.get() == loadGeneration) {
+            this.snapshot = loaded;
+        }
+        LOG.debug(String.format("%d categories loaded in dictionary.", categories.size()));
+        return loaded;
+    }
+
+    private static class Snapshot {
+
+        private final Map<String, BookCategory> categoriesByCode;
+
+        private final List<BookCategory> adultOnlyCategories;
+
+        private final Set<String> adultOnlyIds;
+
+        private final Instant expiresAt;
+
+        Snapshot(List<BookCategory> categories, Instant expiresAt) {
+            this.categoriesByCode = categories.stream()
+                    .collect(Collectors.toUnmodifiableMap(BookCategory::getCode, Function.identity()));
+            this.adultOnlyCategories = categories.stream()
+                    .filter(BookCategory::isAdultOnly)
+                    .collect(Collectors.toUnmodifiableList());
+            this.adultOnlyIds = this.adultOnlyCategories.stream()
+                    .map(BookCategory::getId)
+                    .collect(Collectors.toUnmodifiableSet());
+            this.expiresAt = expiresAt;
+        }
+    }
+}
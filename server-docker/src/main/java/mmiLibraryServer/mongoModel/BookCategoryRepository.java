@@ -18,6 +18,7 @@
  */
 package mmiLibraryServer.mongoModel;
 
+import java.util.Optional;
 import org.springframework.data.repository.PagingAndSortingRepository;
 
 /**
@@ -26,6 +27,9 @@ import org.springframework.data.repository.PagingAndSortingRepository;
  */
 public interface BookCategoryRepository extends PagingAndSortingRepository<BookCategory, String>, BookCategoryRepositoryCustom {
 
+    @Override
+    public Optional<BookCategory> findById(String id);
+
     @Override
     public void deleteById(String id);
 
@@ -18,12 +18,16 @@
  */
 package mmiLibraryServer.mongoModel;
 
+import java.util.Optional;
+
 /**
  *
  * @author Rémi Venant
  */
 public interface BookCategoryRepositoryCustom {
 
+    public Optional<BookCategory> findById(String id);
+
     public void deleteAll();
 
     public void deleteAll(Iterable<? extends BookCategory> entities);
@@ -20,7 +20,12 @@ package mmiLibraryServer.mongoModel;
 
 import com.mongodb.client.result.DeleteResult;
 import com.mongodb.client.result.UpdateResult;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import mmiLibraryServer.mongoModel.utils.BookFilterQueries;
+import mmiLibraryServer.mongoModel.utils.RevisionAggregations;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -39,17 +44,31 @@ public class BookCategoryRepositoryImpl implements BookCategoryRepositoryCustom
 
     private final MongoOperations mongoOps;
 
+    private final BookCategoryDictionary categoryDictionary;
+
+    private final EntityCache entityCache;
+
     @Autowired
-    public BookCategoryRepositoryImpl(MongoOperations mongoOps) {
+    public BookCategoryRepositoryImpl(MongoOperations mongoOps, BookCategoryDictionary categoryDictionary,
+            EntityCache entityCache) {
         this.mongoOps = mongoOps;
+        this.categoryDictionary = categoryDictionary;
+        this.entityCache = entityCache;
+    }
+
+    @Override
+    public Optional<BookCategory> findById(String id) {
+        return this.entityCache.findById(this.mongoOps, id, BookCategory.class);
     }
 
     @Override
     public void deleteAll() {
         UpdateResult ur = this.mongoOps.updateMulti(Query.query(new Criteria()),
-                new Update().unset("categories"), Book.class);
+                new Update().unset("categories").set("adultOnly", false).inc("version", 1), Book.class);
         LOG.debug(String.format("%d books update before remove bookCategory.", ur.getModifiedCount()));
         this.mongoOps.dropCollection(BookCategory.class);
+        // Dropping the collection does not emit any delete event
+        this.categoryDictionary.invalidate();
     }
 
     @Override
@@ -64,9 +83,25 @@ public class BookCategoryRepositoryImpl implements BookCategoryRepositoryCustom
 
     @Override
     public void delete(BookCategory entity) {
+        final Object storedId = RevisionAggregations.storedId(entity.getId());
+        if (entity.isAdultOnly()) {
+            // The books of the category remain adult only if another of their categories is
+            final List<BookCategory> otherAdultCategories = this.categoryDictionary.getAdultOnlyCategories().stream()
+                    .filter((category) -> !category.getId().equals(entity.getId()))
+                    .collect(Collectors.toList());
+            UpdateResult aur = this.mongoOps.updateMulti(
+                    Query.query(new Criteria().andOperator(
+                            Criteria.where(BookFilterQueries.CATEGORY_IDS).is(storedId),
+                            Criteria.where(BookFilterQueries.CATEGORY_IDS).nin(BookFilterQueries.storedIds(otherAdultCategories)))),
+                    Update.update("adultOnly", false).inc("version", 1),
+                    Book.class);
+            LOG.debug(String.format("%d books no longer adult only before remove bookCategory.", aur.getModifiedCount()));
+        }
+        // The snapshots are removed in the same multi-document update: a book never shows a
+        // category that no longer exists
         UpdateResult ur = this.mongoOps.updateMulti(
-                Query.query(Criteria.where("categories").elemMatch(new Criteria().is(entity))),
-                new Update().pull("categories", entity),
+                Query.query(Criteria.where(BookFilterQueries.CATEGORY_IDS).is(storedId)),
+                new Update().pull("categories", Query.query(Criteria.where("_id").is(storedId))).inc("version", 1),
                 Book.class);
         LOG.debug(String.format("%d books update before remove bookCategory.", ur.getModifiedCount()));
         DeleteResult dr = this.mongoOps.remove(entity);
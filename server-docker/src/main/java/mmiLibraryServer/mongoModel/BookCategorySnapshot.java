@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel;
+
+import com.fasterxml.jackson.annotation.JsonView;
+import java.io.Serializable;
+import java.util.Objects;
+import mmiLibraryServer.mongoModel.views.DefaultView;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+
+/**
+ * Copy of a category embedded in the books of that category, so that a book is read with a single
+ * document fetch. Its representation is the one of the category. Snapshots are taken by the book
+ * service when a book is written, and refreshed by the book repository when the category changes.
+ *
+ * @author Rémi Venant
+ */
+public class BookCategorySnapshot implements Serializable {
+
+    @JsonView(DefaultView.Default.class)
+    @Id
+    @Indexed
+    private String id;
+
+    @JsonView(DefaultView.Default.class)
+    private String code;
+
+    @JsonView(DefaultView.Default.class)
+    private String name;
+
+    @JsonView(DefaultView.Default.class)
+    private boolean adultOnly;
+
+    protected BookCategorySnapshot() {
+    }
+
+    public BookCategorySnapshot(String id, String code, String name, boolean adultOnly) {
+        this.id = id;
+        this.code = code;
+        this.name = name;
+        this.adultOnly = adultOnly;
+    }
+
+    /**
+     * Take the snapshot of a category.
+     *
+     * @param category the category
+     * @return its snapshot
+     */
+    public static BookCategorySnapshot of(BookCategory category) {
+        return new BookCategorySnapshot(category.getId(), category.getCode(), category.getName(),
+                category.isAdultOnly());
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    protected void setId(String id) {
+        this.id = id;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    protected void setCode(String code) {
+        this.code = code;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    protected void setName(String name) {
+        this.name = name;
+    }
+
+    public boolean isAdultOnly() {
+        return adultOnly;
+    }
+
+    protected void setAdultOnly(boolean adultOnly) {
+        this.adultOnly = adultOnly;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        hash = 47 * hash + Objects.hashCode(this.id);
+        hash = 47 * hash + Objects.hashCode(this.code);
+        hash = 47 * hash + Objects.hashCode(this.name);
+        hash = 47 * hash + (this.adultOnly ? 1 : 0);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final BookCategorySnapshot other = (BookCategorySnapshot) obj;
+        if (this.adultOnly != other.adultOnly) {
+            return false;
+        }
+        if (!Objects.equals(this.id, other.id)) {
+            return false;
+        }
+        if (!Objects.equals(this.code, other.code)) {
+            return false;
+        }
+        return Objects.equals(this.name, other.name);
+    }
+
+    @Override
+    public String toString() {
+        return "BookCategorySnapshot{" + "id=" + id + ", code=" + code + ", name=" + name + ", adultOnly=" + adultOnly + '}';
+    }
+}
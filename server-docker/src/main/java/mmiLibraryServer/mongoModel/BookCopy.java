@@ -18,6 +18,7 @@
  */
 package mmiLibraryServer.mongoModel;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonView;
 import java.io.Serializable;
 import java.util.List;
@@ -25,6 +26,8 @@ import javax.validation.constraints.NotNull;
 import mmiLibraryServer.mongoModel.views.BookCopyViews;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.ReadOnlyProperty;
+import org.springframework.data.mongodb.core.convert.LazyLoadingProxy;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.DocumentReference;
 
@@ -33,6 +36,7 @@ import org.springframework.data.mongodb.core.mapping.DocumentReference;
  * @author Rémi Venant
  */
 @Document(collection = "bookCopies")
+@CompoundIndex(name = "book_available_removed", def = "{'book': 1, 'available': 1, 'removed': 1}")
 public class BookCopy implements Serializable {
 
     @JsonView(BookCopyViews.Normal.class)
@@ -58,7 +62,7 @@ public class BookCopy implements Serializable {
 
     @JsonView(BookCopyViews.WithLoans.class)
     @ReadOnlyProperty
-    @DocumentReference(lookup = "{'bookCopy':?#{#self._id} }", lazy = true, sort = "{loanDate:-1}")
+    @DocumentReference(lookup = "{'bookCopy':?#{#self._id} }", lazy = true, sort = "{loanDateTime:-1}")
     private List<Loan> loans;
 
     protected BookCopy() {
@@ -88,6 +92,21 @@ public class BookCopy implements Serializable {
         return book;
     }
 
+    /**
+     * Get the id of the book of the copy, without resolving the book if it has not been loaded
+     * yet.
+     *
+     * @return the book id, or null if the copy has no book
+     */
+    @JsonIgnore
+    public String getBookId() {
+        if (this.book instanceof LazyLoadingProxy) {
+            final Object source = ((LazyLoadingProxy) this.book).getSource();
+            return source == null ? null : source.toString();
+        }
+        return this.book == null ? null : this.book.getId();
+    }
+
     public BookState getState() {
         return state;
     }
@@ -18,12 +18,16 @@
  */
 package mmiLibraryServer.mongoModel;
 
+import java.util.Optional;
 import org.springframework.data.repository.PagingAndSortingRepository;
 
 /**
  *
  * @author Rémi Venant
  */
-public interface BookCopyRepository extends PagingAndSortingRepository<BookCopy, String> {
+public interface BookCopyRepository extends PagingAndSortingRepository<BookCopy, String>, BookCopyRepositoryCustom {
+
+    @Override
+    public Optional<BookCopy> findById(String id);
 
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+public interface BookCopyRepositoryCustom {
+
+    /**
+     * Find a book copy by id, from the entity cache if the book copys are cached.
+     *
+     * @param id the book copy id
+     * @return the book copy, if it exists
+     */
+    Optional<BookCopy> findById(String id);
+
+    /**
+     * Atomically mark a book copy as unavailable if it is available and not removed. The copy
+     * counters of its book are updated accordingly.
+     *
+     * @param bookCopyId the book copy id
+     * @return the updated book copy, or null if the book copy does not exist, is not available or
+     * has been removed
+     */
+    BookCopy findAndMarkUnavailable(String bookCopyId);
+
+    /**
+     * Atomically mark a book copy as unavailable and set its state, if it is available and not
+     * removed. The copy counters of its book are updated accordingly.
+     *
+     * @param bookCopyId the book copy id
+     * @param state the new state, null to keep the current one
+     * @return the updated book copy, or null if the book copy does not exist, is not available or
+     * has been removed
+     */
+    BookCopy findAndMarkUnavailable(String bookCopyId, BookState state);
+
+    /**
+     * Atomically set the state and the removal of a book copy if it is available, leaving its other
+     * fields unchanged. The copy counters of its book are updated accordingly.
+     *
+     * @param bookCopyId the book copy id
+     * @param state the new state, null to keep the current one
+     * @param removed the new removal, null to keep the current one
+     * @return the updated book copy, or null if the book copy does not exist or is not available
+     */
+    BookCopy findAndUpdateIfAvailable(String bookCopyId, BookState state, Boolean removed);
+
+    /**
+     * Atomically mark a book copy as available if it is unavailable. The copy counters of its book
+     * are updated accordingly.
+     *
+     * @param bookCopyId the book copy id
+     * @return true if the book copy was updated
+     */
+    boolean markAvailable(String bookCopyId);
+
+    /**
+     * Atomically mark as unavailable the book copies that are available and not removed among the
+     * given ones, using a single multi-document update. The copy counters of their books are
+     * updated accordingly.
+     *
+     * @param bookCopyIds the book copy ids
+     * @return the ids of the book copies that were marked unavailable
+     */
+    Set<String> markAllUnavailable(Collection<String> bookCopyIds);
+
+    /**
+     * Mark as available the given book copies that are unavailable. The copy counters of their
+     * books are updated accordingly.
+     *
+     * @param bookCopyIds the book copy ids
+     * @return the number of updated book copies
+     */
+    long markAllAvailable(Collection<String> bookCopyIds);
+
+    /**
+     * Mark as available the given unavailable book copies, setting their state, in a single bulk
+     * write. The copy counters of their books are updated accordingly.
+     *
+     * @param bookCopies the returned book copies, holding their new state
+     * @return the number of updated book copies
+     */
+    long markAllAvailableWithState(Collection<BookCopy> bookCopies);
+
+    /**
+     * Atomically apply deltas to the copy counters of a book and increment its revision. Must be
+     * called by services whenever they save copies, even with null deltas.
+     *
+     * @param bookId the book id
+     * @param totalDelta the delta of the total number of copies
+     * @param availableDelta the delta of the number of available and not removed copies
+     * @param removedDelta the delta of the number of removed copies
+     */
+    void incrementBookCopyCounters(String bookId, int totalDelta, int availableDelta, int removedDelta);
+
+    /**
+     * Retrieve, among the given book copies, those of a book for adults only.
+     *
+     * @param bookCopyIds the book copy ids
+     * @return the ids of the book copies for adults only
+     */
+    Set<String> findAdultOnlyIds(Collection<String> bookCopyIds);
+}
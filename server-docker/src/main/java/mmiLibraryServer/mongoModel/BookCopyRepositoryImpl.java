@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+public class BookCopyRepositoryImpl implements BookCopyRepositoryCustom {
+
+    private static final Log LOG = LogFactory.getLog(BookCopyRepositoryImpl.class);
+
+    /**
+     * Temporary field used to identify the book copies updated by a multi-document update.
+     */
+    private static final String CHECKOUT_TOKEN_FIELD = "checkoutToken";
+
+    private final MongoTemplate mongoTemplate;
+
+    private final EntityCache entityCache;
+
+    @Autowired
+    public BookCopyRepositoryImpl(MongoTemplate mongoTemplate, EntityCache entityCache) {
+        this.mongoTemplate = mongoTemplate;
+        this.entityCache = entityCache;
+    }
+
+    @Override
+    public Optional<BookCopy> findById(String id) {
+        return this.entityCache.findById(this.mongoTemplate, id, BookCopy.class);
+    }
+
+    @Override
+    public BookCopy findAndMarkUnavailable(String bookCopyId) {
+        return this.findAndMarkUnavailable(bookCopyId, null);
+    }
+
+    @Override
+    public BookCopy findAndMarkUnavailable(String bookCopyId, BookState state) {
+        // The availability condition and the update are applied in a single atomic operation
+        final Query query = Query.query(Criteria.where("id").is(bookCopyId)
+                .and("available").is(true)
+                .and("removed").ne(true));
+        final Update update = new Update().set("available", false);
+        if (state != null) {
+            update.set("state", state);
+        }
+        final BookCopy bookCopy = this.mongoTemplate.findAndModify(query, update,
+                FindAndModifyOptions.options().returnNew(true), BookCopy.class);
+        if (bookCopy != null) {
+            this.incrementBookCopyCounters(bookCopy.getBookId(), 0, -1, 0);
+        }
+        return bookCopy;
+    }
+
+    @Override
+    public BookCopy findAndUpdateIfAvailable(String bookCopyId, BookState state, Boolean removed) {
+        // The availability condition and the update are applied in a single atomic operation
+        final Query query = Query.query(Criteria.where("id").is(bookCopyId).and("available").is(true));
+        final Update update = new Update();
+        if (state != null) {
+            update.set("state", state);
+        }
+        if (removed != null) {
+            update.set("removed", removed);
+        }
+        // An empty update would replace the document
+        final BookCopy bookCopy = update.getUpdateObject().isEmpty()
+                ? this.mongoTemplate.findOne(query, BookCopy.class)
+                : this.mongoTemplate.findAndModify(query, update, BookCopy.class);
+        if (bookCopy == null) {
+            return null;
+        }
+        // The previous copy is returned: its removal gives the delta of the counters
+        final boolean wasRemoved = Boolean.TRUE.equals(bookCopy.isRemoved());
+        if (state != null) {
+            bookCopy.setState(state);
+        }
+        if (removed != null) {
+            bookCopy.setRemoved(removed);
+        }
+        // The copy is available: its removal toggles it between the available and removed counters
+        final boolean isRemoved = Boolean.TRUE.equals(bookCopy.isRemoved());
+        final int removedDelta = isRemoved == wasRemoved ? 0 : isRemoved ? 1 : -1;
+        this.incrementBookCopyCounters(bookCopy.getBookId(), 0, -removedDelta, removedDelta);
+        return bookCopy;
+    }
+
+    @Override
+    public boolean markAvailable(String bookCopyId) {
+        final Query query = Query.query(Criteria.where("id").is(bookCopyId).and("available").is(false));
+        query.fields().include("book").include("removed");
+        final Document previous = this.mongoTemplate.findAndModify(query, new Update().set("available", true),
+                Document.class, this.mongoTemplate.getCollectionName(BookCopy.class));
+        if (previous == null) {
+            return false;
+        }
+        this.incrementBookCopyCounters(Objects.toString(previous.get("book"), null), 0,
+                Boolean.TRUE.equals(previous.getBoolean("removed")) ? 0 : 1, 0);
+        return true;
+    }
+
+    @Override
+    public Set<String> markAllUnavailable(Collection<String> bookCopyIds) {
+        final List<Document> marked = this.markAll(bookCopyIds,
+                Criteria.where("available").is(true).and("removed").ne(true),
+                new Update().set("available", false));
+        this.incrementAvailableCopies(marked, -1);
+        return marked.stream().map((doc) -> doc.get("_id").toString()).collect(Collectors.toSet());
+    }
+
+    @Override
+    public long markAllAvailable(Collection<String> bookCopyIds) {
+        final List<Document> marked = this.markAll(bookCopyIds,
+                Criteria.where("available").is(false),
+                new Update().set("available", true));
+        this.incrementAvailableCopies(marked, 1);
+        LOG.debug(String.format("%d book copies marked available.", marked.size()));
+        return marked.size();
+    }
+
+    @Override
+    public long markAllAvailableWithState(Collection<BookCopy> bookCopies) {
+        if (bookCopies.isEmpty()) {
+            return 0;
+        }
+        // Unordered bulk results are not detailed per operation: the marked copies are tagged to
+        // report on the counters only the copies that were unavailable
+        final String token = new ObjectId().toHexString();
+        final BulkOperations bulkOps = this.mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, BookCopy.class);
+        bookCopies.forEach((bc) -> bulkOps.updateOne(
+                Query.query(Criteria.where("id").is(bc.getId()).and("available").is(false)),
+                new Update().set("available", true).set("state", bc.getState()).set(CHECKOUT_TOKEN_FIELD, token)));
+        if (bulkOps.execute().getModifiedCount() == 0) {
+            return 0;
+        }
+        final List<Document> marked = this.findAndUntag(token);
+        this.incrementAvailableCopies(marked, 1);
+        if (marked.size() != bookCopies.size()) {
+            LOG.warn(String.format("Only %d book copies over %d marked available: the others were already available.",
+                    marked.size(), bookCopies.size()));
+        }
+        return marked.size();
+    }
+
+    @Override
+    public void incrementBookCopyCounters(String bookId, int totalDelta, int availableDelta, int removedDelta) {
+        if (bookId == null) {
+            return;
+        }
+        this.mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(bookId)),
+                counterDeltas(totalDelta, availableDelta, removedDelta), Book.class);
+    }
+
+    /**
+     * Atomically apply an update to the given book copies that match a condition, using a single
+     * multi-document update. The copies are tagged with a unique token in the same atomic update
+     * per document, then retrieved: a copy cannot be updated by two concurrent requests.
+     *
+     * @param bookCopyIds the book copy ids
+     * @param condition the condition on the book copies
+     * @param update the update to apply
+     * @return the updated book copies, as documents holding their id, book and removed flag
+     */
+    private List<Document> markAll(Collection<String> bookCopyIds, Criteria condition, Update update) {
+        if (bookCopyIds.isEmpty()) {
+            return List.of();
+        }
+        final String token = new ObjectId().toHexString();
+        this.mongoTemplate.updateMulti(Query.query(Criteria.where("id").in(bookCopyIds).andOperator(condition)),
+                update.set(CHECKOUT_TOKEN_FIELD, token), BookCopy.class);
+        return this.findAndUntag(token);
+    }
+
+    /**
+     * Retrieve the book copies tagged with a token, then remove their tag.
+     *
+     * @param token the token
+     * @return the tagged book copies, as documents holding their id, book and removed flag
+     */
+    private List<Document> findAndUntag(String token) {
+        final Query markedQuery = Query.query(Criteria.where(CHECKOUT_TOKEN_FIELD).is(token));
+        markedQuery.fields().include("id").include("book").include("removed");
+        final List<Document> marked = this.mongoTemplate.query(BookCopy.class).as(Document.class)
+                .matching(markedQuery).all();
+        this.mongoTemplate.updateMulti(Query.query(Criteria.where(CHECKOUT_TOKEN_FIELD).is(token)),
+                new Update().unset(CHECKOUT_TOKEN_FIELD), BookCopy.class);
+        return marked;
+    }
+
+    /**
+     * Report on the counters of their books the availability change of book copies. Removed
+     * copies are not counted as available but still change the revision of their book.
+     *
+     * @param bookCopyDocs the updated book copies, as documents holding their book and removed flag
+     * @param delta the delta of available copies per copy
+     */
+    private void incrementAvailableCopies(List<Document> bookCopyDocs, int delta) {
+        this.incrementBookCopyCounters(bookCopyDocs.stream()
+                .filter((doc) -> doc.get("book") != null)
+                .collect(Collectors.groupingBy((doc) -> doc.get("book").toString(),
+                        Collectors.summingInt((doc) -> Boolean.TRUE.equals(doc.getBoolean("removed")) ? 0 : delta))));
+    }
+
+    /**
+     * Apply deltas to the available copies counters of several books in a single bulk write, and
+     * increment their revision.
+     *
+     * @param availableDeltaByBookId the delta of available copies by book id
+     */
+    private void incrementBookCopyCounters(Map<String, Integer> availableDeltaByBookId) {
+        if (availableDeltaByBookId.isEmpty()) {
+            return;
+        }
+        final BulkOperations bulkOps = this.mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Book.class);
+        availableDeltaByBookId.forEach((bookId, delta) -> bulkOps.updateOne(
+                Query.query(Criteria.where("id").is(bookId)), counterDeltas(0, delta, 0)));
+        bulkOps.execute();
+    }
+
+    private static Update counterDeltas(int totalDelta, int availableDelta, int removedDelta) {
+        final Update update = new Update();
+        if (totalDelta != 0) {
+            update.inc("totalCopies", totalDelta);
+        }
+        if (availableDelta != 0) {
+            update.inc("availableCopies", availableDelta);
+        }
+        if (removedDelta != 0) {
+            update.inc("removedCopies", removedDelta);
+        }
+        // Any change of a copy changes the representation of its book
+        update.inc("version", 1);
+        return update;
+    }
+
+    @Override
+    public Set<String> findAdultOnlyIds(Collection<String> bookCopyIds) {
+        if (bookCopyIds.isEmpty()) {
+            return Set.of();
+        }
+        // Retrieve the book of each copy without loading books
+        final Query bookCopiesQuery = Query.query(Criteria.where("id").in(bookCopyIds));
+        bookCopiesQuery.fields().include("book");
+        final Map<String, String> bookIdByBookCopyId = this.mongoTemplate.query(BookCopy.class)
+                .as(Document.class).matching(bookCopiesQuery).all().stream()
+                .filter((doc) -> doc.get("book") != null)
+                .collect(Collectors.toMap((doc) -> doc.get("_id").toString(), (doc) -> doc.get("book").toString()));
+        if (bookIdByBookCopyId.isEmpty()) {
+            return Set.of();
+        }
+        final Set<String> adultBookIds = this.findIds(Query.query(Criteria.where("id").in(bookIdByBookCopyId.values())
+                .and("adultOnly").is(true)), Book.class);
+        return bookIdByBookCopyId.entrySet().stream()
+                .filter((e) -> adultBookIds.contains(e.getValue()))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toSet());
+    }
+
+    private Set<String> findIds(Query query, Class<?> entityClass) {
+        query.fields().include("id");
+        return this.mongoTemplate.query(entityClass).as(Document.class).matching(query).all().stream()
+                .map((doc) -> doc.get("_id"))
+                .filter(Objects::nonNull)
+                .map(Object::toString)
+                .collect(Collectors.toSet());
+    }
+}
@@ -18,6 +18,7 @@
  */
 package mmiLibraryServer.mongoModel;
 
+import java.util.Optional;
 import org.springframework.data.repository.PagingAndSortingRepository;
 
 /**
@@ -26,4 +27,14 @@ import org.springframework.data.repository.PagingAndSortingRepository;
  */
 public interface BookRepository extends PagingAndSortingRepository<Book, String>, BookRepositoryCustom {
 
+    @Override
+    public Optional<Book> findById(String id);
+
+    /**
+     * Tell if a book is restricted to adults, using its adult only flag.
+     *
+     * @param id the book id
+     * @return true if the book exists and is adult only
+     */
+    boolean existsByIdAndAdultOnlyTrue(String id);
 }
@@ -19,7 +19,10 @@
 package mmiLibraryServer.mongoModel;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import mmiLibraryServer.mongoModel.utils.BookRequestFilter;
+import org.bson.Document;
 
 /**
  *
@@ -27,5 +30,123 @@ import mmiLibraryServer.mongoModel.utils.BookRequestFilter;
  */
 public interface BookRepositoryCustom {
 
+    /**
+     * Find a book by id, from the entity cache if the books are cached.
+     *
+     * @param id the book id
+     * @return the book, if it exists
+     */
+    Optional<Book> findById(String id);
+
+    /**
+     * Find the books that match the filter. If the filter is paged, only the requested page is
+     * retrieved. Results are ordered by the filter sort, then by id.
+     *
+     * @param filter the filter
+     * @return the matching books
+     */
     List<Book> findAllByFilter(BookRequestFilter filter);
+
+    /**
+     * Find the raw documents of the books that match the filter, as findAllByFilter does. They can
+     * be kept and converted later with readBook.
+     *
+     * @param filter the filter
+     * @return the documents of the matching books
+     */
+    List<Document> findAllDocumentsByFilter(BookRequestFilter filter);
+
+    /**
+     * Convert a raw book document into a book, its references being resolved as on any read. The
+     * document is not modified.
+     *
+     * @param document the book document
+     * @return the book
+     */
+    Book readBook(Document document);
+
+    /**
+     * Count the books that match the filter, regardless of its pagination.
+     *
+     * @param filter the filter
+     * @return the number of matching books
+     */
+    long countByFilter(BookRequestFilter filter);
+
+    /**
+     * Update the descriptive fields of a book (isbn, title, editor, number of pages, publication
+     * year, authors and categories) without replacing the document, so that the copy counters
+     * maintained by the book copy repository are kept. The adult only flag is recomputed from the
+     * new categories and the revision of the book is incremented.
+     *
+     * @param book the book holding the new description
+     * @param expectedVersion the version the book must still have, null to update it whatever its
+     * version
+     * @return the updated book, read by the update itself, or null if the book does not exist with
+     * the expected version
+     */
+    Book updateDescription(Book book, Long expectedVersion);
+
+    /**
+     * Recompute the copy counters of every book from its copies and fix the ones that drifted.
+     *
+     * @return the number of books whose counters were corrected
+     */
+    long reconcileCopyCounters();
+
+    /**
+     * Recompute the adult only flag of the books of a category, after the adult only flag of the
+     * category changed.
+     *
+     * @param category the category
+     * @return the number of books whose flag changed
+     */
+    long refreshAdultOnly(BookCategory category);
+
+    /**
+     * Recompute the adult only flag of every book from its categories and fix the ones that
+     * drifted.
+     *
+     * @return the number of books whose flag was corrected
+     */
+    long reconcileAdultOnly();
+
+    /**
+     * Replace the snapshot of a category embedded in its books and increment their revision,
+     * after the category changed. The books are updated with a single multi-document update.
+     *
+     * @param category the category
+     * @return the number of books updated
+     */
+    long updateCategorySnapshots(BookCategory category);
+
+    /**
+     * Refresh the category snapshots of every book from the categories: the snapshots of the
+     * categories that changed are replaced, the ones of the deleted categories are removed, and the
+     * category ids stored by an older version are replaced by snapshots.
+     *
+     * @return the number of books updated
+     */
+    long reconcileCategorySnapshots();
+
+    /**
+     * Give the revision of a book, that changes whenever the book, one of its copies or one of
+     * its categories changes. Only the version of the book is read.
+     *
+     * @param bookId the book id
+     * @return the revision, or null if the book does not exist
+     */
+    String findRevision(String bookId);
+
+    /**
+     * Insert new books along with their new copies, with unordered bulk writes: a book rejected by
+     * the database (for instance for a duplicate isbn) does not prevent the others from being
+     * inserted. The copy counters and the adult only flag of the books are written along with
+     * them, and the copies of the rejected books are not inserted.
+     *
+     * @param books the books to insert, without id. Their ids are set.
+     * @param copiesStates the states of the copies of each book, in the order of the books
+     * @return the reason of each rejected book, by index of the book
+     */
+    Map<Integer, String> insertWithCopies(List<Book> books, List<List<BookState>> copiesStates);
 }
@@ -18,19 +18,33 @@
  */
 package mmiLibraryServer.mongoModel;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.Optional;
+import mmiLibraryServer.mongoModel.utils.BookFilterQueries;
 import mmiLibraryServer.mongoModel.utils.BookRequestFilter;
+import mmiLibraryServer.mongoModel.utils.RevisionAggregations;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.logging.log4j.util.Strings;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.BooleanOperators;
+import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.aggregation.TypedAggregation;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
-import org.springframework.data.mongodb.core.query.TextCriteria;
-import org.springframework.data.mongodb.core.query.TextQuery;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
 
 /**
  *
@@ -40,110 +54,303 @@ public class BookRepositoryImpl implements BookRepositoryCustom {
 
     private static final Log LOG = LogFactory.getLog(BookRepositoryImpl.class);
 
+    /**
+     * Fields of a book that describe it, as opposed to the fields maintained by other entities.
+     */
+    private static final List<String> DESCRIPTION_FIELDS = List.of("isbn", "title", "editor",
+            "numOfPages", "publicationYear", "authors", "categories");
+
+    /**
+     * Number of counter corrections sent in a single bulk write by the reconciliation.
+     */
+    private static final int RECONCILIATION_BATCH_SIZE = 1000;
+
+    private static final List<String> COUNTER_FIELDS = List.of("totalCopies", "availableCopies", "removedCopies");
+
+    private static final int DUPLICATE_KEY_ERROR = 11000;
+
     private final MongoTemplate mongoTemplate;
 
+    private final BookCategoryDictionary categoryDictionary;
+
+    private final EntityCache entityCache;
+
     @Autowired
-    public BookRepositoryImpl(MongoTemplate mongoTemplate) {
+    public BookRepositoryImpl(MongoTemplate mongoTemplate, BookCategoryDictionary categoryDictionary,
+            EntityCache entityCache) {
         this.mongoTemplate = mongoTemplate;
+        this.categoryDictionary = categoryDictionary;
+        this.entityCache = entityCache;
+    }
+
+    @Override
+    public Optional<Book> findById(String id) {
+        return this.entityCache.findById(this.mongoTemplate, id, Book.class);
     }
 
     @Override
     public List<Book> findAllByFilter(BookRequestFilter filter) {
-        // Process queries with all filters except availability that must be processed after
-        final Query query = this.filterToBookCriteria(filter);
-        // Retrieve books that match the query
-        List<Book> books = this.mongoTemplate.find(query, Book.class);
-        // Handle availability filter
-        final Boolean availableFilter = filter.getAvailableFilter();
-        if (availableFilter != null && availableFilter == true) {
-            // Retrieve the subset the bookid whose bookinstance are available and not remove
-            // To improve performance we use projection here
-            books = this.filterAvailableBooks(books);
+        return this.mongoTemplate.find(BookFilterQueries.toQuery(filter,
+                this.requiredCategories(filter)), Book.class);
+    }
+
+    @Override
+    public List<Document> findAllDocumentsByFilter(BookRequestFilter filter) {
+        // Mapped as a query on books, read as raw documents
+        return this.mongoTemplate.query(Book.class).as(Document.class)
+                .matching(BookFilterQueries.toQuery(filter, this.requiredCategories(filter))).all();
+    }
+
+    @Override
+    public Book readBook(Document document) {
+        return this.mongoTemplate.getConverter().read(Book.class, document);
+    }
+
+    @Override
+    public long countByFilter(BookRequestFilter filter) {
+        return this.mongoTemplate.count(BookFilterQueries.toCountQuery(filter,
+                this.requiredCategories(filter)), Book.class);
+    }
+
+    @Override
+    public Book updateDescription(Book book, Long expectedVersion) {
+        final Document bookDoc = new Document();
+        this.mongoTemplate.getConverter().write(book, bookDoc);
+        // Null properties are not written by the converter: they are unset
+        final Update update = new Update();
+        DESCRIPTION_FIELDS.forEach((field) -> {
+            if (bookDoc.containsKey(field)) {
+                update.set(field, bookDoc.get(field));
+            } else {
+                update.unset(field);
+            }
+        });
+        final Object categories = bookDoc.get("categories");
+        update.set("adultOnly", categories instanceof List
+                && this.categoryDictionary.isAnyAdultOnly((List<?>) categories));
+        update.inc("version", 1);
+        final Criteria criteria = Criteria.where("id").is(book.getId());
+        if (expectedVersion != null) {
+            criteria.and("version").is(expectedVersion);
         }
-        // HAndle
-        return books;
+        return this.mongoTemplate.findAndModify(Query.query(criteria), update,
+                FindAndModifyOptions.options().returnNew(true), Book.class);
     }
 
-    private Query filterToBookCriteria(BookRequestFilter filter) {
-        if (filter == null) {
-            return Query.query(new Criteria());
+    @Override
+    public long reconcileCopyCounters() {
+        // Compute the actual counters of each book having copies
+        final TypedAggregation<BookCopy> aggregation = Aggregation.newAggregation(BookCopy.class,
+                Aggregation.group("book").count().as("totalCopies")
+                        .sum(ConditionalOperators.when(BooleanOperators.And.and(
+                                ComparisonOperators.valueOf("available").equalToValue(true),
+                                ComparisonOperators.valueOf("removed").notEqualToValue(true)))
+                                .then(1).otherwise(0)).as("availableCopies")
+                        .sum(ConditionalOperators.when(ComparisonOperators.valueOf("removed").equalToValue(true))
+                                .then(1).otherwise(0)).as("removedCopies"));
+        final Map<String, Document> countersByBookId = new HashMap<>();
+        this.mongoTemplate.aggregate(aggregation, Document.class).getMappedResults().stream()
+                .filter((doc) -> doc.get("_id") != null)
+                .forEach((doc) -> countersByBookId.put(doc.get("_id").toString(), doc));
+        // Compare with the stored counters of every book and fix the ones that drifted
+        final Query booksQuery = new Query();
+        booksQuery.fields().include("id").include("totalCopies").include("availableCopies").include("removedCopies");
+        final String booksCollection = this.mongoTemplate.getCollectionName(Book.class);
+        long corrected = 0;
+        BulkOperations bulkOps = null;
+        int batchSize = 0;
+        try (CloseableIterator<Document> books = this.mongoTemplate.stream(booksQuery, Document.class, booksCollection)) {
+            while (books.hasNext()) {
+                final Document book = books.next();
+                final Document counters = countersByBookId.get(book.get("_id").toString());
+                final Update update = new Update();
+                for (String counter : COUNTER_FIELDS) {
+                    final int expected = counters == null ? 0 : counters.get(counter, Number.class).intValue();
+                    final Number stored = book.get(counter, Number.class);
+                    if (stored == null || stored.intValue() != expected) {
+                        update.set(counter, expected);
+                    }
+                }
+                if (update.getUpdateObject().isEmpty()) {
+                    continue;
+                }
+                update.inc("version", 1);
+                if (bulkOps == null) {
+                    bulkOps = this.mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Book.class);
+                }
+                bulkOps.updateOne(Query.query(Criteria.where("id").is(book.get("_id"))), update);
+                corrected++;
+                if (++batchSize == RECONCILIATION_BATCH_SIZE) {
+                    bulkOps.execute();
+                    bulkOps = null;
+                    batchSize = 0;
+                }
+            }
+        }
+        if (bulkOps != null) {
+            bulkOps.execute();
         }
+        LOG.debug(String.format("Copy counters of %d books reconciled.", corrected));
+        return corrected;
+    }
+
+    @Override
+    public long refreshAdultOnly(BookCategory category) {
+        final long modified = this.updateAdultOnly(Criteria.where(BookFilterQueries.CATEGORY_IDS)
+                .is(RevisionAggregations.storedId(category.getId())));
+        LOG.debug(String.format("Adult only flag of %d books of category %s refreshed.", modified, category.getCode()));
+        return modified;
+    }
 
-        Criteria criteria = new Criteria();
+    @Override
+    public long reconcileAdultOnly() {
+        final long corrected = this.updateAdultOnly(new Criteria());
+        LOG.debug(String.format("Adult only flag of %d books reconciled.", corrected));
+        return corrected;
+    }
 
-        // Handle isb filter
-        final String isbnFilter = Strings.isBlank(filter.getIsbnFilter())
-                ? null : filter.getIsbnFilter().trim();
-        if (isbnFilter != null) {
-            criteria = criteria.and("isbn").is(isbnFilter);
+    @Override
+    public long updateCategorySnapshots(BookCategory category) {
+        // The positional operator replaces the snapshot matched in each book
+        final long modified = this.mongoTemplate.updateMulti(
+                Query.query(Criteria.where(BookFilterQueries.CATEGORY_IDS).is(RevisionAggregations.storedId(category.getId()))),
+                new Update().set("categories.$", BookCategorySnapshot.of(category)).inc("version", 1),
+                Book.class).getModifiedCount();
+        LOG.debug(String.format("Snapshot of category %s updated in %d books.", category.getCode(), modified));
+        return modified;
+    }
+
+    @Override
+    public long reconcileCategorySnapshots() {
+        final List<BookCategory> categories = this.mongoTemplate.findAll(BookCategory.class);
+        long modified = 0;
+        for (BookCategory category : categories) {
+            final Object storedId = RevisionAggregations.storedId(category.getId());
+            final BookCategorySnapshot snapshot = BookCategorySnapshot.of(category);
+            // Category ids written by an older version. A book holds a category once: the
+            // positional operator replaces it. The representation of the book does not change.
+            modified += this.mongoTemplate.updateMulti(Query.query(Criteria.where("categories").is(storedId)),
+                    new Update().set("categories.$", snapshot), Book.class).getModifiedCount();
+            // Snapshots that missed an update of the category
+            modified += this.mongoTemplate.updateMulti(Query.query(Criteria.where("categories").elemMatch(
+                    Criteria.where("_id").is(storedId).orOperator(
+                            Criteria.where("code").ne(category.getCode()),
+                            Criteria.where("name").ne(category.getName()),
+                            Criteria.where("adultOnly").ne(category.isAdultOnly())))),
+                    new Update().set("categories.$", snapshot).inc("version", 1), Book.class).getModifiedCount();
         }
+        // Snapshots of deleted categories
+        final List<Object> storedIds = BookFilterQueries.storedIds(categories);
+        modified += this.mongoTemplate.updateMulti(
+                Query.query(Criteria.where("categories").elemMatch(Criteria.where("_id").nin(storedIds))),
+                new Update().pull("categories", Query.query(Criteria.where("_id").nin(storedIds))).inc("version", 1),
+                Book.class).getModifiedCount();
+        LOG.debug(String.format("Category snapshots of %d books reconciled.", modified));
+        return modified;
+    }
 
-        // handle categories filter
-        boolean catCodeFilterRequired = filter.getCategoryCodesFilter() != null && !filter.getCategoryCodesFilter().isEmpty();
-        boolean childCompliantFilterRequired = filter.getChildCompliant() != null && filter.getChildCompliant() == true;
-        if (catCodeFilterRequired && childCompliantFilterRequired) {
-            List<BookCategory> requiredCategories = this.mongoTemplate.find(
-                    Query.query(Criteria.where("code").in(filter.getCategoryCodesFilter())),
-                    BookCategory.class);
-            List<BookCategory> adultCategories = this.mongoTemplate.find(
-                    Query.query(Criteria.where("adultOnly").is(true)),
-                    BookCategory.class);
-            criteria = criteria.andOperator(
-                    Criteria.where("categories").in(requiredCategories),
-                    Criteria.where("categories").nin(adultCategories)
-            );
-        } else if (catCodeFilterRequired) {
-            List<BookCategory> requiredCategories = this.mongoTemplate.find(
-                    Query.query(Criteria.where("code").in(filter.getCategoryCodesFilter())),
-                    BookCategory.class);
-            criteria = criteria.and("categories").in(requiredCategories);
-        } else if (childCompliantFilterRequired) {
-            List<BookCategory> adultCategories = this.mongoTemplate.find(
-                    Query.query(Criteria.where("adultOnly").is(true)),
-                    BookCategory.class);
-            criteria = criteria.and("categories").nin(adultCategories);
+    @Override
+    public String findRevision(String bookId) {
+        final Query query = Query.query(Criteria.where("id").is(bookId));
+        query.fields().include("version");
+        final Document book = this.mongoTemplate.findOne(query, Document.class,
+                this.mongoTemplate.getCollectionName(Book.class));
+        return book == null ? null : Long.toString(RevisionAggregations.versionOf(book));
+    }
+
+    @Override
+    public Map<Integer, String> insertWithCopies(List<Book> books, List<List<BookState>> copiesStates) {
+        if (books.size() != copiesStates.size()) {
+            throw new IllegalArgumentException("Copies states must be given for each book.");
+        }
+        final MongoConverter converter = this.mongoTemplate.getConverter();
+        final List<Document> bookDocs = new ArrayList<>(books.size());
+        for (int i = 0; i < books.size(); i++) {
+            final Book book = books.get(i);
+            final int numCopies = copiesStates.get(i).size();
+            // The id is set beforehand so that the copies can reference the book without reading it
+            book.setId(new ObjectId().toHexString());
+            final Document bookDoc = new Document();
+            converter.write(book, bookDoc);
+            final Object categories = bookDoc.get("categories");
+            bookDoc.put("totalCopies", numCopies);
+            bookDoc.put("availableCopies", numCopies);
+            bookDoc.put("removedCopies", 0);
+            bookDoc.put("adultOnly", categories instanceof List
+                    && this.categoryDictionary.isAnyAdultOnly((List<?>) categories));
+            bookDoc.put("version", 0L);
+            bookDocs.add(bookDoc);
+        }
+        final Map<Integer, String> errors = this.bulkInsert(bookDocs, this.mongoTemplate.getCollectionName(Book.class));
+        final List<Document> copyDocs = new ArrayList<>();
+        for (int i = 0; i < books.size(); i++) {
+            if (errors.containsKey(i)) {
+                continue;
+            }
+            for (BookState state : copiesStates.get(i)) {
+                final Document copyDoc = new Document();
+                converter.write(new BookCopy(books.get(i), state), copyDoc);
+                copyDocs.add(copyDoc);
+            }
         }
+        final Map<Integer, String> copyErrors = this.bulkInsert(copyDocs,
+                this.mongoTemplate.getCollectionName(BookCopy.class));
+        if (!copyErrors.isEmpty()) {
+            // Counters of the books will be fixed by the next reconciliation
+            LOG.warn(String.format("%d copies of imported books could not be inserted: %s", copyErrors.size(),
+                    copyErrors.values().iterator().next()));
+        }
+        LOG.debug(String.format("%d books and %d copies inserted.", books.size() - errors.size(),
+                copyDocs.size() - copyErrors.size()));
+        return errors;
+    }
 
-        final Integer nbPagesFilter = filter.getNbPages();
-        if (nbPagesFilter != null && nbPagesFilter >= 0) {
-            int minPages = Math.max(0, nbPagesFilter - 50);
-            int maxPages = nbPagesFilter + 50;
-            criteria = criteria.and("numOfPages").gte(minPages).lte(maxPages);
+    /**
+     * Insert documents with an unordered bulk write.
+     *
+     * @param documents the documents to insert
+     * @param collectionName the collection
+     * @return the reason of each rejected document, by index of the document
+     */
+    private Map<Integer, String> bulkInsert(List<Document> documents, String collectionName) {
+        final Map<Integer, String> errors = new HashMap<>();
+        if (documents.isEmpty()) {
+            return errors;
+        }
+        try {
+            this.mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, collectionName).insert(documents).execute();
+        } catch (BulkOperationException ex) {
+            ex.getErrors().forEach((error) -> errors.put(error.getIndex(),
+                    error.getCode() == DUPLICATE_KEY_ERROR ? "A book with the same isbn already exists." : error.getMessage()));
         }
+        return errors;
+    }
 
-        Query query;
-
-        // handle title filter (require special TextQuery)
-        final String titleAlikeFilter = Strings.isBlank(filter.getTitleAlikeFilter())
-                ? null : filter.getTitleAlikeFilter().trim();
-        if (titleAlikeFilter != null) {
-            TextCriteria txtCriteria = Strings.isBlank(filter.getLanguage())
-                    ? TextCriteria.forDefaultLanguage() : TextCriteria.forLanguage(filter.getLanguage());
-            txtCriteria = txtCriteria
-                    .caseSensitive(false)
-                    .diacriticSensitive(false)
-                    .matchingPhrase(titleAlikeFilter);
-            //Create a text query with the txtCriteria then add criteria
-            query = TextQuery.queryText(txtCriteria).addCriteria(criteria);
-        } else {
-            query = Query.query(criteria);
+    /**
+     * Set the adult only flag of the matching books according to the current adult only
+     * categories. Only the books whose flag is wrong are written.
+     *
+     * @param booksCriteria the criteria of the books to update
+     * @return the number of books whose flag changed
+     */
+    private long updateAdultOnly(Criteria booksCriteria) {
+        final List<BookCategory> adultCategories = this.categoryDictionary.getAdultOnlyCategories();
+        long modified = 0;
+        if (!adultCategories.isEmpty()) {
+            modified += this.mongoTemplate.updateMulti(Query.query(new Criteria().andOperator(booksCriteria,
+                    Criteria.where(BookFilterQueries.CATEGORY_IDS).in(BookFilterQueries.storedIds(adultCategories)),
+                    Criteria.where("adultOnly").ne(true))),
+                    Update.update("adultOnly", true).inc("version", 1), Book.class).getModifiedCount();
         }
+        modified += this.mongoTemplate.updateMulti(Query.query(new Criteria().andOperator(booksCriteria,
+                Criteria.where(BookFilterQueries.CATEGORY_IDS).nin(BookFilterQueries.storedIds(adultCategories)),
+                Criteria.where("adultOnly").ne(false))),
+                Update.update("adultOnly", false).inc("version", 1), Book.class).getModifiedCount();
+        return modified;
+    }
 
-        return query;
-    }
-
-    public List<Book> filterAvailableBooks(List<Book> books) {
-        final Query bookCopiesQuery = Query.query(
-                Criteria.where("book").in(books)
-                        .and("available").is(true)
-                        .and("removed").ne(true));
-        bookCopiesQuery.fields().include("book");
-        Set<String> bookIds = this.mongoTemplate
-                .find(bookCopiesQuery, BookCopy.class)
-                .stream().map((bc) -> bc.getBook().getId())
-                .collect(Collectors.toSet());
-        return books.stream()
-                .filter((book) -> bookIds.contains(book.getId()))
-                .collect(Collectors.toList());
+    private List<BookCategory> requiredCategories(BookRequestFilter filter) {
+        return BookFilterQueries.requiresCategoriesByCodes(filter)
+                ? this.categoryDictionary.getCategoriesByCodes(filter.getCategoryCodesFilter()) : List.of();
     }
 }
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeSaveEvent;
+import org.springframework.util.Assert;
+
+/**
+ * In-memory cache of the documents read by id, per collection. Each enabled collection has its own
+ * size, evicting the least recently used documents first, and its own time to live, which bounds
+ * the staleness when documents are modified by another instance.
+ *
+ * Raw documents are cached: each read converts its own entity, so that the services never share an
+ * entity, and resolves its references as a read from the database would. Saved documents are
+ * written through the cache. Any other write to a collection (atomic and bulk updates, deletions)
+ * must evict its documents: see EntityCacheInvalidator, that evicts them on every write command
+ * sent to the database. Documents loaded while an eviction occurred on their collection are not
+ * kept, as they may be stale; neither are documents saved while another thread evicted documents
+ * of their collection, as the saved document may then miss a concurrent atomic update.
+ *
+ * @author Rémi Venant
+ */
+public class EntityCache extends AbstractMongoEventListener<Object> implements MeterBinder {
+
+    private static final Log LOG = LogFactory.getLog(EntityCache.class);
+
+    public static final String CACHE_METRIC = "mmilibrary.entities.cache";
+
+    public static final String EVICTIONS_METRIC = "mmilibrary.entities.cache.evictions";
+
+    public static final String SIZE_METRIC = "mmilibrary.entities.cache.size";
+
+    private final Map<String, Region> regions = new ConcurrentHashMap<>();
+
+    /**
+     * Enable the cache of a collection.
+     *
+     * @param collection the name of the collection
+     * @param size the maximum number of documents held
+     * @param timeToLive the time after which a document is read again
+     */
+    public void enable(String collection, int size, Duration timeToLive) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("The size of an entity cache must be positive.");
+        }
+        this.regions.put(collection, new Region(collection, size, timeToLive));
+        LOG.info(String.format("Documents of %s cached (%d documents, for %s).", collection, size, timeToLive));
+    }
+
+    /**
+     * Tell if the documents of a collection are cached.
+     *
+     * @param collection the name of the collection
+     * @return true if its documents are cached
+     */
+    public boolean isEnabled(String collection) {
+        return this.regions.containsKey(collection);
+    }
+
+    /**
+     * Find an entity by id, from the cache if its collection is cached.
+     *
+     * @param <T> the type of entity
+     * @param mongoOps the mongo operations to read the document and convert it
+     * @param id the id of the entity
+     * @param entityClass the class of the entity
+     * @return the entity, if it exists
+     */
+    public <T> Optional<T> findById(MongoOperations mongoOps, String id, Class<T> entityClass) {
+        Assert.notNull(id, "The given id must not be null!");
+        final String collection = mongoOps.getCollectionName(entityClass);
+        final Region region = this.regions.get(collection);
+        if (region == null) {
+            return Optional.ofNullable(mongoOps.findById(id, entityClass));
+        }
+        final Document document = region.get(id, () -> mongoOps.findById(id, Document.class, collection));
+        return document == null ? Optional.empty() : Optional.of(mongoOps.getConverter().read(entityClass, document));
+    }
+
+    /**
+     * Find the raw document of an entity by id, from the cache if its collection is cached. The
+     * document may be held by the cache: it must not be modified.
+     *
+     * @param mongoOps the mongo operations to read the document
+     * @param id the id of the entity
+     * @param entityClass the class of the entity
+     * @return the document, if it exists
+     */
+    public Optional<Document> findDocumentById(MongoOperations mongoOps, String id, Class<?> entityClass) {
+        Assert.notNull(id, "The given id must not be null!");
+        final String collection = mongoOps.getCollectionName(entityClass);
+        final Region region = this.regions.get(collection);
+        final Supplier<Document> loader = () -> mongoOps.findById(id, Document.class, collection);
+        return Optional.ofNullable(region == null ? loader.get() : region.get(id, loader));
+    }
+
+    /**
+     * Evict documents of a collection.
+     *
+     * @param collection the name of the collection
+     * @param ids the ids of the documents
+     */
+    public void evict(String collection, Collection<String> ids) {
+        final Region region = this.regions.get(collection);
+        if (region != null) {
+            region.evict(ids);
+        }
+    }
+
+    /**
+     * Evict all the documents of a collection.
+     *
+     * @param collection the name of the collection
+     */
+    public void evictAll(String collection) {
+        final Region region = this.regions.get(collection);
+        if (region != null) {
+            region.evictAll();
+        }
+    }
+
+    /**
+     * Evict all the documents of every collection.
+     */
+    public void evictAll() {
+        this.regions.values().forEach(Region::evictAll);
+    }
+
+    @Override
+    public void onBeforeSave(BeforeSaveEvent<Object> event) {
+        final Region region = this.regions.get(event.getCollectionName());
+        if (region != null) {
+            region.beforeSave();
+        }
+    }
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<Object> event) {
+        final Region region = this.regions.get(event.getCollectionName());
+        final Document document = event.getDocument();
+        if (region != null && document != null && document.get("_id") != null) {
+            region.afterSave(document);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        this.regions.values().forEach((region) -> {
+            FunctionCounter.builder(CACHE_METRIC, region.hits, LongAdder::doubleValue)
+                    .tags("collection", region.collection, "result", "hit").register(registry);
+            FunctionCounter.builder(CACHE_METRIC, region.misses, LongAdder::doubleValue)
+                    .tags("collection", region.collection, "result", "miss").register(registry);
+            FunctionCounter.builder(EVICTIONS_METRIC, region.sizeEvictions, LongAdder::doubleValue)
+                    .tags("collection", region.collection, "cause", "size").register(registry);
+            FunctionCounter.builder(EVICTIONS_METRIC, region.expiryEvictions, LongAdder::doubleValue)
+                    .tags("collection", region.collection, "cause", "expiry").register(registry);
+            FunctionCounter.builder(EVICTIONS_METRIC, region.invalidationEvictions, LongAdder::doubleValue)
+                    .tags("collection", region.collection, "cause", "invalidation").register(registry);
+            Gauge.builder(SIZE_METRIC, region, Region::size)
+                    .tags("collection", region.collection).register(registry);
+        });
+    }
+
+    /**
+     * The cached documents of a collection, by id.
+     */
+    private static class Region {
+
+        private final String collection;
+
+        private final int maxSize;
+
+        private final Duration timeToLive;
+
+        private final LinkedHashMap<String, Entry> entries;
+
+        private final LongAdder hits = new LongAdder();
+
+        private final LongAdder misses = new LongAdder();
+
+        private final LongAdder sizeEvictions = new LongAdder();
+
+        private final LongAdder expiryEvictions = new LongAdder();
+
+        private final LongAdder invalidationEvictions = new LongAdder();
+
+        private long generation;
+
+        /**
+         * Number of evictions made by the current thread, such as the ones of the command of its
+         * save, that must not be taken for a concurrent write.
+         */
+        private final ThreadLocal<long[]> threadEvictions = ThreadLocal.withInitial(() -> new long[1]);
+
+        /**
+         * Number of evictions made by the other threads when the current thread started its save.
+         */
+        private final ThreadLocal<Long> saveGeneration = new ThreadLocal<>();
+
+        Region(String collection, int maxSize, Duration timeToLive) {
+            this.collection = collection;
+            this.maxSize = maxSize;
+            this.timeToLive = timeToLive;
+            // Access order: the least recently used document is the eldest
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    final boolean evicted = this.size() > Region.this.maxSize;
+                    if (evicted) {
+                        Region.this.sizeEvictions.increment();
+                    }
+                    return evicted;
+                }
+            };
+        }
+
+        Document get(String id, Supplier<Document> loader) {
+            final long loadGeneration;
+            synchronized (this) {
+                final Entry entry = this.entries.get(id);
+                if (entry != null) {
+                    if (entry.expiresAt.isAfter(Instant.now())) {
+                        this.hits.increment();
+                        return entry.document;
+                    }
+                    this.entries.remove(id);
+                    this.expiryEvictions.increment();
+                }
+                loadGeneration = this.generation;
+            }
+            this.misses.increment();
+            final Document document = loader.get();
+            if (document != null) {
+                synchronized (this) {
+                    // A write sent during the load may not be seen by the loaded document
+                    if (this.generation == loadGeneration) {
+                        this.entries.put(id, new Entry(document, Instant.now().plus(this.timeToLive)));
+                    }
+                }
+            }
+            return document;
+        }
+
+        synchronized void beforeSave() {
+            this.saveGeneration.set(this.getOtherThreadsGeneration());
+        }
+
+        synchronized void afterSave(Document document) {
+            final Long startGeneration = this.saveGeneration.get();
+            // A write sent by another thread during the save may not be seen by the saved document
+            if (startGeneration == null || startGeneration != this.getOtherThreadsGeneration()) {
+                return;
+            }
+            final String id = document.get("_id").toString();
+            final Entry entry = this.entries.get(id);
+            // Keep the latest revision of a versioned document written by concurrent saves
+            if (entry != null && isOlder(document, entry.document)) {
+                return;
+            }
+            this.entries.put(id, new Entry(document, Instant.now().plus(this.timeToLive)));
+        }
+
+        synchronized void evict(Collection<String> ids) {
+            this.incrementGeneration();
+            ids.forEach((id) -> {
+                if (this.entries.remove(id) != null) {
+                    this.invalidationEvictions.increment();
+                }
+            });
+        }
+
+        synchronized void evictAll() {
+            this.incrementGeneration();
+            this.invalidationEvictions.add(this.entries.size());
+            this.entries.clear();
+        }
+
+        synchronized int size() {
+            return this.entries.size();
+        }
+
+        private void incrementGeneration() {
+            this.generation++;
+            this.threadEvictions.get()[0]++;
+        }
+
+        private long getOtherThreadsGeneration() {
+            return this.generation - this.threadEvictions.get()[0];
+        }
+
+        private static boolean isOlder(Document document, Document other) {
+            final Object version = document.get("version");
+            final Object otherVersion = other.get("version");
+            return version instanceof Number && otherVersion instanceof Number
+                    && ((Number) version).longValue() < ((Number) otherVersion).longValue();
+        }
+    }
+
+    private static class Entry {
+
+        private final Document document;
+
+        private final Instant expiresAt;
+
+        Entry(Document document, Instant expiresAt) {
+            this.document = document;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -18,11 +18,15 @@
  */
 package mmiLibraryServer.mongoModel;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonView;
 import java.time.LocalDateTime;
 import javax.validation.constraints.NotNull;
 import mmiLibraryServer.mongoModel.views.LoanViews;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.convert.LazyLoadingProxy;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.DocumentReference;
 
@@ -31,6 +35,11 @@ import org.springframework.data.mongodb.core.mapping.DocumentReference;
  * @author Rémi Venant
  */
 @Document(collection = "loans")
+@CompoundIndex(name = "loanDateTime_id", def = "{'loanDateTime': -1, '_id': -1}")
+@CompoundIndex(name = "bookCopy_loanDateTime_id", def = "{'bookCopy': 1, 'loanDateTime': -1, '_id': -1}")
+@CompoundIndex(name = "member_loanDateTime_id", def = "{'member': 1, 'loanDateTime': -1, '_id': -1}")
+@CompoundIndex(name = "member_returnDateTime_loanDateTime_id", def = "{'member': 1, 'returnDateTime': 1, 'loanDateTime': -1, '_id': -1}")
+@CompoundIndex(name = "returnDateTime_loanDateTime_id", def = "{'returnDateTime': 1, 'loanDateTime': -1, '_id': -1}")
 public class Loan {
 
     @JsonView(LoanViews.Normal.class)
@@ -61,6 +70,13 @@ public class Loan {
     @JsonView(LoanViews.Normal.class)
     private BookState returnState;
 
+    /**
+     * Revision of the loan, incremented by every write on the loan.
+     */
+    @JsonIgnore
+    @Version
+    private Long version;
+
     protected Loan() {
     }
 
@@ -87,6 +103,20 @@ public class Loan {
         this.member = member;
     }
 
+    /**
+     * Get the id of the member without resolving the lazy member reference.
+     *
+     * @return the member id, or null if there is no member
+     */
+    @JsonIgnore
+    public String getMemberId() {
+        if (this.member instanceof LazyLoadingProxy) {
+            final Object source = ((LazyLoadingProxy) this.member).getSource();
+            return source == null ? null : source.toString();
+        }
+        return this.member == null ? null : this.member.getId();
+    }
+
     public BookCopy getBookCopy() {
         return bookCopy;
     }
@@ -127,6 +157,10 @@ public class Loan {
         this.returnState = returnState;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
     @Override
     public String toString() {
         return "Loan{" + "id=" + id + ", member=" + member + ", bookCopy=" + bookCopy + ", loanDate=" + loanDateTime + ", initialState=" + initialState + ", returnDate=" + returnDateTime + ", returnState=" + returnState + '}';
@@ -18,18 +18,46 @@
  */
 package mmiLibraryServer.mongoModel;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 import org.springframework.data.repository.PagingAndSortingRepository;
 
 /**
  *
  * @author Rémi Venant
  */
-public interface LoanRepository extends PagingAndSortingRepository<Loan, String> {
+public interface LoanRepository extends PagingAndSortingRepository<Loan, String>, LoanRepositoryCustom {
 
     List<Loan> findByOrderByLoanDateTimeDesc();
 
     List<Loan> findByBookCopyOrderByLoanDateTimeDesc(BookCopy bookCopies);
 
     List<Loan> findByBookCopyInOrderByLoanDateTimeDesc(List<BookCopy> bookCopies);
+
+    /**
+     * Retrieve the most recent loan of a book copy made strictly before the given date.
+     *
+     * @param bookCopy the book copy
+     * @param loanDateTime the date
+     * @return the previous loan if any
+     */
+    Optional<Loan> findFirstByBookCopyAndLoanDateTimeBeforeOrderByLoanDateTimeDesc(BookCopy bookCopy, LocalDateTime loanDateTime);
+
+    /**
+     * Retrieve the most ancient loan of a book copy made strictly after the given date.
+     *
+     * @param bookCopy the book copy
+     * @param loanDateTime the date
+     * @return the next loan if any
+     */
+    Optional<Loan> findFirstByBookCopyAndLoanDateTimeAfterOrderByLoanDateTimeAsc(BookCopy bookCopy, LocalDateTime loanDateTime);
+
+    /**
+     * Retrieve the most recent loan of a book copy.
+     *
+     * @param bookCopy the book copy
+     * @return the most recent loan if any
+     */
+    Optional<Loan> findFirstByBookCopyOrderByLoanDateTimeDesc(BookCopy bookCopy);
 }
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+import mmiLibraryServer.mongoModel.utils.LoanCursor;
+import mmiLibraryServer.mongoModel.utils.LoanRequestFilter;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+public interface LoanRepositoryCustom {
+
+    /**
+     * Find loans ordered by loan date desc (then id desc), starting right after the given cursor.
+     *
+     * @param after the position of the last loan already retrieved, null to start from the first
+     * loan
+     * @param limit the maximum number of loans to retrieve
+     * @param view the JSON view the loans will be rendered with: only the fields it serializes are
+     * read, and the references it drops are not resolved. Null to read complete loans
+     * @return the loans
+     */
+    List<Loan> findPageOrderByLoanDateTimeDesc(LoanCursor after, int limit, Class<?> view);
+
+    /**
+     * Find the loans matching the filter ordered by loan date desc (then id desc), starting right
+     * after the given cursor. The loans of a book are the loans of its copies, resolved with a
+     * first query.
+     *
+     * @param filter the filter
+     * @param after the position of the last loan already retrieved, null to start from the first
+     * loan
+     * @param limit the maximum number of loans to retrieve
+     * @param view the JSON view the loans will be rendered with: only the fields it serializes are
+     * read, and the references it drops are not resolved. Null to read complete loans
+     * @return the loans
+     */
+    List<Loan> findPageByFilter(LoanRequestFilter filter, LoanCursor after, int limit, Class<?> view);
+
+    /**
+     * Stream all loans ordered by loan date desc (then id desc) through a database cursor. The
+     * returned stream must be closed to release the cursor.
+     *
+     * @param view the JSON view the loans will be rendered with: only the fields it serializes are
+     * read, and the references it drops are not resolved. Null to read complete loans
+     * @return the stream of loans
+     */
+    Stream<Loan> streamAllOrderByLoanDateTimeDesc(Class<?> view);
+
+    /**
+     * Find the loans of the given book copies ordered by loan date desc. The book copy of each
+     * loan is one of the given instances and the members are all retrieved with a single query,
+     * instead of one query per loan.
+     *
+     * @param bookCopies the book copies
+     * @return the loans with their member and book copy
+     */
+    List<Loan> findByBookCopyInWithMembers(Collection<BookCopy> bookCopies);
+
+    /**
+     * Set the loans of a book copy, ordered by loan date desc, with their members retrieved with
+     * a single query.
+     *
+     * @param bookCopy the book copy
+     * @return the given book copy
+     */
+    BookCopy loadLoansWithMembers(BookCopy bookCopy);
+
+    /**
+     * Set the loans of a member, ordered by loan date desc, with their book copies retrieved with
+     * a single query.
+     *
+     * @param member the member
+     * @return the given member
+     */
+    Member loadLoansWithBookCopies(Member member);
+
+    /**
+     * Find loans by their ids, with their members and their book copies retrieved with a single
+     * query each.
+     *
+     * @param loanIds the loan ids
+     * @return the loans with their member and book copy
+     */
+    List<Loan> findAllByIdWithBookCopies(Collection<String> loanIds);
+
+    /**
+     * Find the ongoing loans of the given book copies, with their members and their book copies
+     * retrieved with a single query each.
+     *
+     * @param bookCopyIds the book copy ids
+     * @return the ongoing loans with their member and book copy
+     */
+    List<Loan> findOngoingByBookCopyIds(Collection<String> bookCopyIds);
+
+    /**
+     * Set the return dateTime and state of the given loans in a single bulk write. A loan already
+     * returned in database, for instance by a concurrent request, is not updated.
+     *
+     * @param loans the returned loans
+     * @return the ids of the loans returned by this write
+     */
+    Set<String> updateReturns(Collection<Loan> loans);
+
+    /**
+     * Give the revision of a loan, that changes whenever the loan, its member or the book of its
+     * copy changes. The member, the copy and the book are read by id through the entity cache,
+     * without mapping any entity.
+     *
+     * @param loanId the loan id
+     * @return the revision, or null if the loan does not exist
+     */
+    String findRevision(String loanId);
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import mmiLibraryServer.mongoModel.utils.LoanCursor;
+import mmiLibraryServer.mongoModel.utils.LoanFilterQueries;
+import mmiLibraryServer.mongoModel.utils.LoanRequestFilter;
+import mmiLibraryServer.mongoModel.utils.RevisionAggregations;
+import mmiLibraryServer.mongoModel.utils.ViewProjections;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+public class LoanRepositoryImpl implements LoanRepositoryCustom {
+
+    private static final Log LOG = LogFactory.getLog(LoanRepositoryImpl.class);
+
+    /**
+     * Temporary field used to identify the loans returned by a bulk write.
+     */
+    private static final String RETURN_TOKEN_FIELD = "returnToken";
+
+    private final MongoTemplate mongoTemplate;
+
+    private final EntityCache entityCache;
+
+    @Autowired
+    public LoanRepositoryImpl(MongoTemplate mongoTemplate, EntityCache entityCache) {
+        this.mongoTemplate = mongoTemplate;
+        this.entityCache = entityCache;
+    }
+
+    @Override
+    public List<Loan> findPageOrderByLoanDateTimeDesc(LoanCursor after, int limit, Class<?> view) {
+        final Query query = after == null ? new Query() : Query.query(keysetCriteria(after));
+        query.with(Sort.by(Sort.Direction.DESC, "loanDateTime", "id")).limit(limit);
+        ViewProjections.project(query, this.mongoTemplate.getConverter(), Loan.class, view);
+        return this.mongoTemplate.find(query, Loan.class);
+    }
+
+    @Override
+    public List<Loan> findPageByFilter(LoanRequestFilter filter, LoanCursor after, int limit, Class<?> view) {
+        final List<Object> bookCopiesOfBook = LoanFilterQueries.requiresBookCopiesOfBook(filter)
+                ? this.findBookCopyIdsOfBook(filter.getBookId()) : List.of();
+        final Query query = LoanFilterQueries.toPageQuery(filter, bookCopiesOfBook, after, limit, LocalDateTime.now());
+        ViewProjections.project(query, this.mongoTemplate.getConverter(), Loan.class, view);
+        return this.mongoTemplate.find(query, Loan.class);
+    }
+
+    private List<Object> findBookCopyIdsOfBook(String bookId) {
+        final Query query = Query.query(Criteria.where("book").is(RevisionAggregations.storedId(bookId)));
+        query.fields().include("_id");
+        return this.mongoTemplate.find(query, Document.class, this.mongoTemplate.getCollectionName(BookCopy.class))
+                .stream().map((bookCopyDoc) -> bookCopyDoc.get("_id")).collect(Collectors.toList());
+    }
+
+    @Override
+    public Stream<Loan> streamAllOrderByLoanDateTimeDesc(Class<?> view) {
+        final Query query = new Query().with(Sort.by(Sort.Direction.DESC, "loanDateTime", "id"));
+        ViewProjections.project(query, this.mongoTemplate.getConverter(), Loan.class, view);
+        return this.mongoTemplate.stream(query, Loan.class).stream();
+    }
+
+    /**
+     * Criteria matching loans strictly after the cursor in the (loanDateTime desc, id desc) order.
+     *
+     * @param after the cursor
+     * @return the criteria
+     */
+    public static Criteria keysetCriteria(LoanCursor after) {
+        return new Criteria().orOperator(
+                Criteria.where("loanDateTime").lt(after.getLoanDateTime()),
+                Criteria.where("loanDateTime").is(after.getLoanDateTime()).and("id").lt(after.getLoanId())
+        );
+    }
+
+    @Override
+    public List<Loan> findByBookCopyInWithMembers(Collection<BookCopy> bookCopies) {
+        final Map<String, BookCopy> bookCopiesById = bookCopies.stream()
+                .collect(Collectors.toMap(BookCopy::getId, Function.identity(), (bc1, bc2) -> bc1));
+        final List<Document> loanDocs = this.findLoanDocuments("bookCopy", bookCopiesById.keySet());
+        final Map<String, Member> membersById = this.findAllById(Member.class,
+                referencedIds(loanDocs, "member"), Member::getId);
+        return loanDocs.stream()
+                .map((loanDoc) -> this.readLoan(loanDoc, membersById, bookCopiesById))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public BookCopy loadLoansWithMembers(BookCopy bookCopy) {
+        bookCopy.setLoans(this.findByBookCopyInWithMembers(List.of(bookCopy)));
+        return bookCopy;
+    }
+
+    @Override
+    public Member loadLoansWithBookCopies(Member member) {
+        final List<Document> loanDocs = this.findLoanDocuments("member", Set.of(member.getId()));
+        final Map<String, BookCopy> bookCopiesById = this.findAllById(BookCopy.class,
+                referencedIds(loanDocs, "bookCopy"), BookCopy::getId);
+        final Map<String, Member> membersById = Map.of(member.getId(), member);
+        member.setLoans(loanDocs.stream()
+                .map((loanDoc) -> this.readLoan(loanDoc, membersById, bookCopiesById))
+                .collect(Collectors.toList()));
+        return member;
+    }
+
+    @Override
+    public List<Loan> findAllByIdWithBookCopies(Collection<String> loanIds) {
+        return this.readLoansWithReferences(this.findLoanDocuments("_id", loanIds));
+    }
+
+    @Override
+    public List<Loan> findOngoingByBookCopyIds(Collection<String> bookCopyIds) {
+        if (bookCopyIds.isEmpty()) {
+            return List.of();
+        }
+        final Query query = Query.query(Criteria.where("bookCopy").in(toStoredIds(bookCopyIds))
+                .and("returnDateTime").is(null));
+        return this.readLoansWithReferences(this.mongoTemplate.find(query, Document.class,
+                this.mongoTemplate.getCollectionName(Loan.class)));
+    }
+
+    /**
+     * Map raw loan documents to loans, with their members and their book copies retrieved with a
+     * single query each.
+     *
+     * @param loanDocs the raw documents (modified)
+     * @return the loans with their member and book copy
+     */
+    private List<Loan> readLoansWithReferences(List<Document> loanDocs) {
+        final Map<String, Member> membersById = this.findAllById(Member.class,
+                referencedIds(loanDocs, "member"), Member::getId);
+        final Map<String, BookCopy> bookCopiesById = this.findAllById(BookCopy.class,
+                referencedIds(loanDocs, "bookCopy"), BookCopy::getId);
+        return loanDocs.stream()
+                .map((loanDoc) -> this.readLoan(loanDoc, membersById, bookCopiesById))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public Set<String> updateReturns(Collection<Loan> loans) {
+        if (loans.isEmpty()) {
+            return Set.of();
+        }
+        // Tag the loans returned by this write, in the same atomic update per document, to tell
+        // them from the loans returned concurrently by another request
+        final String token = new ObjectId().toHexString();
+        final BulkOperations bulkOps = this.mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Loan.class);
+        loans.forEach((loan) -> bulkOps.updateOne(
+                Query.query(Criteria.where("id").is(loan.getId()).and("returnDateTime").is(null)),
+                new Update().set("returnDateTime", loan.getReturnDateTime()).set("returnState", loan.getReturnState())
+                        .set(RETURN_TOKEN_FIELD, token).inc("version", 1)));
+        if (bulkOps.execute().getModifiedCount() == 0) {
+            return Set.of();
+        }
+        final Query returnedQuery = Query.query(Criteria.where(RETURN_TOKEN_FIELD).is(token));
+        returnedQuery.fields().include("id");
+        final Set<String> returnedIds = this.mongoTemplate.query(Loan.class).as(Document.class)
+                .matching(returnedQuery).stream()
+                .map((loanDoc) -> loanDoc.get("_id").toString())
+                .collect(Collectors.toSet());
+        this.mongoTemplate.updateMulti(Query.query(Criteria.where(RETURN_TOKEN_FIELD).is(token)),
+                new Update().unset(RETURN_TOKEN_FIELD), Loan.class);
+        return returnedIds;
+    }
+
+    @Override
+    public String findRevision(String loanId) {
+        final Query query = Query.query(Criteria.where("id").is(loanId));
+        query.fields().include("version").include("member").include("bookCopy");
+        final Document loan = this.mongoTemplate.findOne(query, Document.class,
+                this.mongoTemplate.getCollectionName(Loan.class));
+        if (loan == null) {
+            return null;
+        }
+        // The member, the copy and its book are read by id, usually from the entity cache
+        final Document bookCopy = this.findReferencedDocument(loan.get("bookCopy"), BookCopy.class);
+        return RevisionAggregations.versionOf(loan)
+                + ":" + RevisionAggregations.versionOf(this.findReferencedDocument(loan.get("member"), Member.class))
+                + ":" + RevisionAggregations.versionOf(bookCopy == null ? null
+                        : this.findReferencedDocument(bookCopy.get("book"), Book.class));
+    }
+
+    private Document findReferencedDocument(Object storedId, Class<?> entityClass) {
+        return storedId == null ? null
+                : this.entityCache.findDocumentById(this.mongoTemplate, storedId.toString(), entityClass).orElse(null);
+    }
+
+    /**
+     * Retrieve the raw documents of the loans whose given field targets one of the given ids,
+     * ordered by loan date desc. Reading raw documents prevents the resolution of the references
+     * one loan at a time.
+     *
+     * @param referenceField the field (member, bookCopy or _id)
+     * @param ids the ids
+     * @return the loan documents
+     */
+    private List<Document> findLoanDocuments(String referenceField, Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        final Query query = Query.query(Criteria.where(referenceField).in(toStoredIds(ids)))
+                .with(Sort.by(Sort.Direction.DESC, "loanDateTime"));
+        return this.mongoTemplate.find(query, Document.class, this.mongoTemplate.getCollectionName(Loan.class));
+    }
+
+    /**
+     * Retrieve in a single query the entities of the given ids.
+     *
+     * @param <T> the type of entities
+     * @param entityClass the class of entities
+     * @param ids the ids
+     * @param idGetter the id getter of the entity
+     * @return the entities by id
+     */
+    private <T> Map<String, T> findAllById(Class<T> entityClass, Set<String> ids, Function<T, String> idGetter) {
+        if (ids.isEmpty()) {
+            return Map.of();
+        }
+        return this.mongoTemplate.find(Query.query(Criteria.where("id").in(ids)), entityClass).stream()
+                .collect(Collectors.toMap(idGetter, Function.identity()));
+    }
+
+    /**
+     * Map a raw loan document to a loan, using the already retrieved referenced entities.
+     *
+     * @param loanDoc the raw document (modified)
+     * @param membersById the members by id
+     * @param bookCopiesById the book copies by id
+     * @return the loan
+     */
+    private Loan readLoan(Document loanDoc, Map<String, Member> membersById, Map<String, BookCopy> bookCopiesById) {
+        final Object memberId = loanDoc.remove("member");
+        final Object bookCopyId = loanDoc.remove("bookCopy");
+        final Loan loan = this.mongoTemplate.getConverter().read(Loan.class, loanDoc);
+        loan.setMember(memberId == null ? null : membersById.get(memberId.toString()));
+        loan.setBookCopy(bookCopyId == null ? null : bookCopiesById.get(bookCopyId.toString()));
+        return loan;
+    }
+
+    private static List<Object> toStoredIds(Collection<String> ids) {
+        return ids.stream()
+                .map((id) -> ObjectId.isValid(id) ? new ObjectId(id) : id)
+                .collect(Collectors.toList());
+    }
+
+    private static Set<String> referencedIds(List<Document> docs, String referenceField) {
+        return docs.stream()
+                .map((doc) -> doc.get(referenceField))
+                .filter(Objects::nonNull)
+                .map(Object::toString)
+                .collect(Collectors.toSet());
+    }
+}
@@ -18,6 +18,7 @@
  */
 package mmiLibraryServer.mongoModel;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonView;
 import java.io.Serializable;
 import java.time.LocalDate;
@@ -28,6 +29,7 @@ import javax.validation.constraints.NotNull;
 import mmiLibraryServer.mongoModel.views.MemberViews;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.ReadOnlyProperty;
+import org.springframework.data.annotation.Version;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.DocumentReference;
 
@@ -58,9 +60,24 @@ public class Member implements Serializable {
 
     @JsonView(MemberViews.WithLoans.class)
     @ReadOnlyProperty
-    @DocumentReference(lookup = "{'member':?#{#self._id} }", lazy = true, sort = "{loanDate:-1}")
+    @DocumentReference(lookup = "{'member':?#{#self._id} }", lazy = true, sort = "{loanDateTime:-1}")
     private List<Loan> loans;
 
+    /**
+     * Number of ongoing loans of the member, maintained by the loan service.
+     */
+    @JsonView(MemberViews.Normal.class)
+    @ReadOnlyProperty
+    private int openLoans;
+
+    /**
+     * Revision of the member, incremented by every write on the member, on its loans and on the
+     * book copies of its loans.
+     */
+    @JsonIgnore
+    @Version
+    private Long version;
+
     protected Member() {
     }
 
@@ -111,11 +128,23 @@ public class Member implements Serializable {
         this.loans = loans;
     }
 
+    public int getOpenLoans() {
+        return openLoans;
+    }
+
+    protected void setOpenLoans(int openLoans) {
+        this.openLoans = openLoans;
+    }
+
     public boolean isMinor() {
         Period p = Period.between(this.birthday, LocalDate.now());
         return p.getYears() < Member.MAJOR_YEAR_LIMIT;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
     @Override
     public String toString() {
         return "Member{" + "id=" + id + ", name=" + name + ", firstname=" + firstname + ", birthday=" + birthday + '}';
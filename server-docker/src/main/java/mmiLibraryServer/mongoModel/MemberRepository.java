@@ -18,12 +18,16 @@
  */
 package mmiLibraryServer.mongoModel;
 
+import java.util.Optional;
 import org.springframework.data.repository.PagingAndSortingRepository;
 
 /**
  *
  * @author Rémi Venant
  */
-public interface MemberRepository extends PagingAndSortingRepository<Member, String> {
+public interface MemberRepository extends PagingAndSortingRepository<Member, String>, MemberRepositoryCustom {
+
+    @Override
+    public Optional<Member> findById(String id);
 
 }
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel;
+
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+public interface MemberRepositoryCustom {
+
+    /**
+     * Find a member by id, from the entity cache if the members are cached.
+     *
+     * @param id the member id
+     * @return the member, if it exists
+     */
+    Optional<Member> findById(String id);
+
+    /**
+     * Update the name, firstname and birthday of a member without replacing the document, so that
+     * the open loans counter is kept.
+     *
+     * @param member the member holding the new identity
+     * @param expectedVersion the version the member must still have, null to update it whatever
+     * its version
+     * @return true if the member exists with the expected version
+     */
+    boolean updateIdentity(Member member, Long expectedVersion);
+
+    /**
+     * Atomically apply a delta to the open loans counter of a member. Must be called by services
+     * when they create, return, reset the return of or delete a loan.
+     *
+     * @param memberId the member id
+     * @param delta the delta of open loans
+     */
+    void incrementOpenLoans(String memberId, int delta);
+
+    /**
+     * Increment the revision of a member. Must be called by services when they update one of its
+     * loans without changing its open loans counter.
+     *
+     * @param memberId the member id
+     */
+    void incrementRevision(String memberId);
+
+    /**
+     * Apply deltas to the open loans counters of several members in a single bulk write.
+     *
+     * @param deltaByMemberId the delta of open loans by member id
+     */
+    void incrementOpenLoans(Map<String, Integer> deltaByMemberId);
+
+    /**
+     * Recompute the open loans counter of every member from the loans and fix the ones that
+     * drifted.
+     *
+     * @return the number of members whose counter was corrected
+     */
+    long reconcileOpenLoans();
+
+    /**
+     * Give the revision of a member, read from its version alone: the services increment it
+     * whenever the member or one of its loans changes (a later change of the copy of a past
+     * loan does not change it).
+     *
+     * @param memberId the member id
+     * @return the revision, or null if the member does not exist
+     */
+    String findRevision(String memberId);
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import mmiLibraryServer.mongoModel.utils.RevisionAggregations;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.TypedAggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+public class MemberRepositoryImpl implements MemberRepositoryCustom {
+
+    private static final Log LOG = LogFactory.getLog(MemberRepositoryImpl.class);
+
+    private static final String OPEN_LOANS_FIELD = "openLoans";
+
+    /**
+     * Number of counter corrections sent in a single bulk write by the reconciliation.
+     */
+    private static final int RECONCILIATION_BATCH_SIZE = 1000;
+
+    private final MongoTemplate mongoTemplate;
+
+    private final EntityCache entityCache;
+
+    @Autowired
+    public MemberRepositoryImpl(MongoTemplate mongoTemplate, EntityCache entityCache) {
+        this.mongoTemplate = mongoTemplate;
+        this.entityCache = entityCache;
+    }
+
+    @Override
+    public Optional<Member> findById(String id) {
+        return this.entityCache.findById(this.mongoTemplate, id, Member.class);
+    }
+
+    @Override
+    public boolean updateIdentity(Member member, Long expectedVersion) {
+        final Update update = new Update()
+                .set("name", member.getName())
+                .set("firstname", member.getFirstname())
+                .set("birthday", member.getBirthday())
+                .inc("version", 1);
+        final Criteria criteria = Criteria.where("id").is(member.getId());
+        if (expectedVersion != null) {
+            criteria.and("version").is(expectedVersion);
+        }
+        return this.mongoTemplate.updateFirst(Query.query(criteria), update, Member.class).getMatchedCount() > 0;
+    }
+
+    @Override
+    public void incrementOpenLoans(String memberId, int delta) {
+        if (memberId == null || delta == 0) {
+            return;
+        }
+        this.mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(memberId)),
+                new Update().inc(OPEN_LOANS_FIELD, delta).inc("version", 1), Member.class);
+    }
+
+    @Override
+    public void incrementRevision(String memberId) {
+        if (memberId == null) {
+            return;
+        }
+        this.mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(memberId)),
+                new Update().inc("version", 1), Member.class);
+    }
+
+    @Override
+    public void incrementOpenLoans(Map<String, Integer> deltaByMemberId) {
+        BulkOperations bulkOps = null;
+        for (Map.Entry<String, Integer> delta : deltaByMemberId.entrySet()) {
+            if (delta.getKey() == null || delta.getValue() == 0) {
+                continue;
+            }
+            if (bulkOps == null) {
+                bulkOps = this.mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Member.class);
+            }
+            bulkOps.updateOne(Query.query(Criteria.where("id").is(delta.getKey())),
+                    new Update().inc(OPEN_LOANS_FIELD, delta.getValue()).inc("version", 1));
+        }
+        if (bulkOps != null) {
+            bulkOps.execute();
+        }
+    }
+
+    @Override
+    public long reconcileOpenLoans() {
+        // Count the ongoing loans of each member
+        final TypedAggregation<Loan> aggregation = Aggregation.newAggregation(Loan.class,
+                Aggregation.match(Criteria.where("returnDateTime").is(null)),
+                Aggregation.group("member").count().as(OPEN_LOANS_FIELD));
+        final Map<String, Integer> openLoansByMemberId = new HashMap<>();
+        this.mongoTemplate.aggregate(aggregation, Document.class).getMappedResults().stream()
+                .filter((doc) -> doc.get("_id") != null)
+                .forEach((doc) -> openLoansByMemberId.put(doc.get("_id").toString(),
+                doc.get(OPEN_LOANS_FIELD, Number.class).intValue()));
+        // Compare with the stored counter of every member and fix the ones that drifted
+        final Query membersQuery = new Query();
+        membersQuery.fields().include("id").include(OPEN_LOANS_FIELD);
+        long corrected = 0;
+        BulkOperations bulkOps = null;
+        int batchSize = 0;
+        try (CloseableIterator<Document> members = this.mongoTemplate.stream(membersQuery, Document.class,
+                this.mongoTemplate.getCollectionName(Member.class))) {
+            while (members.hasNext()) {
+                final Document member = members.next();
+                final int expected = openLoansByMemberId.getOrDefault(member.get("_id").toString(), 0);
+                final Number stored = member.get(OPEN_LOANS_FIELD, Number.class);
+                if (stored != null && stored.intValue() == expected) {
+                    continue;
+                }
+                if (bulkOps == null) {
+                    bulkOps = this.mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Member.class);
+                }
+                bulkOps.updateOne(Query.query(Criteria.where("id").is(member.get("_id"))),
+                        new Update().set(OPEN_LOANS_FIELD, expected).inc("version", 1));
+                corrected++;
+                if (++batchSize == RECONCILIATION_BATCH_SIZE) {
+                    bulkOps.execute();
+                    bulkOps = null;
+                    batchSize = 0;
+                }
+            }
+        }
+        if (bulkOps != null) {
+            bulkOps.execute();
+        }
+        LOG.debug(String.format("Open loans counters of %d members reconciled.", corrected));
+        return corrected;
+    }
+
+    @Override
+    public String findRevision(String memberId) {
+        final Query query = Query.query(Criteria.where("id").is(memberId));
+        query.fields().include("version");
+        final Document member = this.mongoTemplate.findOne(query, Document.class,
+                this.mongoTemplate.getCollectionName(Member.class));
+        return member == null ? null : Long.toString(RevisionAggregations.versionOf(member));
+    }
+}
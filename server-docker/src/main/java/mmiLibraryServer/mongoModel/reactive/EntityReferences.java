@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel.reactive;
+
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+
+/**
+ * Setting of the references loaded by the reactive repositories. The reactive converter never
+ * resolves them, and the entities do not expose setters for their read-only references: they are
+ * set through the mapping metadata, as the blocking converter does.
+ *
+ * @author Rémi Venant
+ */
+final class EntityReferences {
+
+    private EntityReferences() {
+    }
+
+    /**
+     * Set a reference of an entity.
+     *
+     * @param <T> the type of the entity
+     * @param converter the converter holding the mapping metadata
+     * @param entity the entity
+     * @param property the name of the reference property
+     * @param value the referenced entities
+     * @return the given entity
+     */
+    static <T> T set(MongoConverter converter, T entity, String property, Object value) {
+        final MongoPersistentEntity<?> persistentEntity = converter.getMappingContext()
+                .getRequiredPersistentEntity(entity.getClass());
+        persistentEntity.getPropertyAccessor(entity).setProperty(
+                persistentEntity.getRequiredPersistentProperty(property), value);
+        return entity;
+    }
+}
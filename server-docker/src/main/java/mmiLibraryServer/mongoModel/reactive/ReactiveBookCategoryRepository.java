@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel.reactive;
+
+import java.util.Collection;
+import mmiLibraryServer.mongoModel.BookCategory;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import reactor.core.publisher.Flux;
+
+/**
+ * Reactive access to the book categories, for the read paths of the reactive mode. Categories are
+ * written through the blocking repository only, that maintains the category dictionary.
+ *
+ * @author Rémi Venant
+ */
+public interface ReactiveBookCategoryRepository extends ReactiveMongoRepository<BookCategory, String> {
+
+    Flux<BookCategory> findByCodeIn(Collection<String> codes);
+
+    Flux<BookCategory> findByAdultOnlyTrue();
+}
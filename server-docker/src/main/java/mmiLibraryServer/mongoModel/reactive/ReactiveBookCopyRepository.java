@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel.reactive;
+
+import mmiLibraryServer.mongoModel.BookCopy;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+
+/**
+ * Reactive access to the book copies, for the read paths of the reactive mode. The book and the
+ * loans of the copies read through this repository are not loaded, unless stated otherwise.
+ *
+ * @author Rémi Venant
+ */
+public interface ReactiveBookCopyRepository extends ReactiveMongoRepository<BookCopy, String>, ReactiveBookCopyRepositoryCustom {
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel.reactive;
+
+import mmiLibraryServer.mongoModel.BookCopy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+public interface ReactiveBookCopyRepositoryCustom {
+
+    /**
+     * Retrieve the copies of a book, without their book.
+     *
+     * @param bookId the book id
+     * @return the copies of the book
+     */
+    Flux<BookCopy> findByBookId(String bookId);
+
+    /**
+     * Retrieve a book copy with its book.
+     *
+     * @param bookCopyId the book copy id
+     * @return the book copy with its book, empty if it does not exist
+     */
+    Mono<BookCopy> findByIdWithBook(String bookCopyId);
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel.reactive;
+
+import mmiLibraryServer.mongoModel.Book;
+import mmiLibraryServer.mongoModel.BookCopy;
+import mmiLibraryServer.mongoModel.utils.RevisionAggregations;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+public class ReactiveBookCopyRepositoryImpl implements ReactiveBookCopyRepositoryCustom {
+
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    @Autowired
+    public ReactiveBookCopyRepositoryImpl(ReactiveMongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public Flux<BookCopy> findByBookId(String bookId) {
+        // Raw documents are queried: the book reference is matched on its stored id
+        final Query query = Query.query(Criteria.where("book").is(RevisionAggregations.storedId(bookId)));
+        return this.mongoTemplate.find(query, Document.class, this.mongoTemplate.getCollectionName(BookCopy.class))
+                .map((bookCopyDoc) -> this.mongoTemplate.getConverter().read(BookCopy.class, bookCopyDoc));
+    }
+
+    @Override
+    public Mono<BookCopy> findByIdWithBook(String bookCopyId) {
+        final Query query = Query.query(Criteria.where("_id").is(RevisionAggregations.storedId(bookCopyId)));
+        return this.mongoTemplate.findOne(query, Document.class, this.mongoTemplate.getCollectionName(BookCopy.class))
+                .flatMap((bookCopyDoc) -> {
+                    final Object bookId = bookCopyDoc.get("book");
+                    final BookCopy bookCopy = this.mongoTemplate.getConverter().read(BookCopy.class, bookCopyDoc);
+                    if (bookId == null) {
+                        return Mono.just(bookCopy);
+                    }
+                    return this.mongoTemplate.findOne(Query.query(Criteria.where("_id").is(bookId)), Book.class)
+                            .map((book) -> EntityReferences.set(this.mongoTemplate.getConverter(), bookCopy, "book", book))
+                            .defaultIfEmpty(bookCopy);
+                });
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel.reactive;
+
+import mmiLibraryServer.mongoModel.Book;
+import mmiLibraryServer.mongoModel.utils.BookRequestFilter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+public interface ReactiveBookRepositoryCustom {
+
+    /**
+     * Retrieve the books matching the filter, with their categories, ordered and paged according
+     * to the filter.
+     *
+     * @param filter the filter, null for all books
+     * @return the books
+     */
+    Flux<Book> findAllByFilter(BookRequestFilter filter);
+
+    /**
+     * Count the books matching the filter, regardless of its pagination.
+     *
+     * @param filter the filter, null for all books
+     * @return the number of books
+     */
+    Mono<Long> countByFilter(BookRequestFilter filter);
+
+    /**
+     * Retrieve a book with its copies, without the book of the copies.
+     *
+     * @param bookId the book id
+     * @return the book with its copies, empty if it does not exist
+     */
+    Mono<Book> findByIdWithCopies(String bookId);
+
+    /**
+     * Give the revision of a book, read from its version alone. Same revision as
+     * BookRepository.findRevision.
+     *
+     * @param bookId the book id
+     * @return the revision, empty if the book does not exist
+     */
+    Mono<String> findRevision(String bookId);
+}
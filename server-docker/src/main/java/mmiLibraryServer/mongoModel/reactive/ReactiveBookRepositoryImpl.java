@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel.reactive;
+
+import java.util.List;
+import mmiLibraryServer.mongoModel.Book;
+import mmiLibraryServer.mongoModel.BookCategory;
+import mmiLibraryServer.mongoModel.utils.BookFilterQueries;
+import mmiLibraryServer.mongoModel.utils.BookRequestFilter;
+import mmiLibraryServer.mongoModel.utils.RevisionAggregations;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+public class ReactiveBookRepositoryImpl implements ReactiveBookRepositoryCustom {
+
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    private final ReactiveBookCopyRepository bookCopyRepo;
+
+    @Autowired
+    public ReactiveBookRepositoryImpl(ReactiveMongoTemplate mongoTemplate, ReactiveBookCopyRepository bookCopyRepo) {
+        this.mongoTemplate = mongoTemplate;
+        this.bookCopyRepo = bookCopyRepo;
+    }
+
+    @Override
+    public Flux<Book> findAllByFilter(BookRequestFilter filter) {
+        // The categories are embedded in the books: no other collection is read
+        return this.requiredCategories(filter)
+                .flatMapMany((cats) -> this.mongoTemplate.find(BookFilterQueries.toQuery(filter, cats), Book.class));
+    }
+
+    @Override
+    public Mono<Long> countByFilter(BookRequestFilter filter) {
+        return this.requiredCategories(filter)
+                .flatMap((cats) -> this.mongoTemplate.count(
+                BookFilterQueries.toCountQuery(filter, cats), Book.class));
+    }
+
+    @Override
+    public Mono<Book> findByIdWithCopies(String bookId) {
+        return this.mongoTemplate.findById(bookId, Book.class)
+                .flatMap((book) -> this.bookCopyRepo.findByBookId(bookId).collectList()
+                .map((copies) -> EntityReferences.set(this.mongoTemplate.getConverter(), book, "copies", copies)));
+    }
+
+    @Override
+    public Mono<String> findRevision(String bookId) {
+        final Query query = Query.query(Criteria.where("_id").is(RevisionAggregations.storedId(bookId)));
+        query.fields().include("version");
+        return this.mongoTemplate.findOne(query, Document.class, this.mongoTemplate.getCollectionName(Book.class))
+                .map((book) -> Long.toString(RevisionAggregations.versionOf(book)));
+    }
+
+    /**
+     * Retrieve the categories matching the category codes of the filter, empty if the filter does
+     * not require them.
+     *
+     * @param filter the filter, may be null
+     * @return the required categories
+     */
+    private Mono<List<BookCategory>> requiredCategories(BookRequestFilter filter) {
+        return BookFilterQueries.requiresCategoriesByCodes(filter)
+                ? this.mongoTemplate.find(Query.query(Criteria.where("code").in(filter.getCategoryCodesFilter())),
+                        BookCategory.class).collectList()
+                : Mono.just(List.of());
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel.reactive;
+
+import mmiLibraryServer.mongoModel.BookCopy;
+import mmiLibraryServer.mongoModel.Loan;
+import mmiLibraryServer.mongoModel.Member;
+import mmiLibraryServer.mongoModel.utils.LoanCursor;
+import mmiLibraryServer.mongoModel.utils.LoanRequestFilter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+public interface ReactiveLoanRepositoryCustom {
+
+    /**
+     * Retrieve a page of loans ordered by loan date desc (then id desc), starting strictly after
+     * the given cursor.
+     *
+     * @param after the cursor of the last loan of the previous page, null for the first page
+     * @param limit the maximum number of loans
+     * @param view the JSON view the loans will be rendered with: only the fields it serializes are
+     * read. Null to read all fields
+     * @return the loans of the page
+     */
+    Flux<Loan> findPageOrderByLoanDateTimeDesc(LoanCursor after, int limit, Class<?> view);
+
+    /**
+     * Retrieve a page of the loans matching the filter ordered by loan date desc (then id desc).
+     *
+     * @param filter the filter
+     * @param after the position of the last loan already retrieved, null to start from the first
+     * loan
+     * @param limit the maximum number of loans to retrieve
+     * @param view the JSON view the loans will be rendered with: only the fields it serializes are
+     * read. Null to read all fields
+     * @return the loans of the page
+     */
+    Flux<Loan> findPageByFilter(LoanRequestFilter filter, LoanCursor after, int limit, Class<?> view);
+
+    /**
+     * Retrieve all loans ordered by loan date desc (then id desc).
+     *
+     * @param view the JSON view the loans will be rendered with: only the fields it serializes are
+     * read. Null to read all fields
+     * @return the loans
+     */
+    Flux<Loan> findAllOrderByLoanDateTimeDesc(Class<?> view);
+
+    /**
+     * Set the loans of a book copy, ordered by loan date desc, with their members retrieved with
+     * a single query.
+     *
+     * @param bookCopy the book copy
+     * @return the given book copy
+     */
+    Mono<BookCopy> loadLoansWithMembers(BookCopy bookCopy);
+
+    /**
+     * Set the loans of a member, ordered by loan date desc, with their book copies retrieved with
+     * a single query.
+     *
+     * @param member the member
+     * @return the given member
+     */
+    Mono<Member> loadLoansWithBookCopies(Member member);
+
+    /**
+     * Retrieve a loan with its member and its book copy, with the book of the copy.
+     *
+     * @param loanId the loan id
+     * @return the loan with its references, empty if it does not exist
+     */
+    Mono<Loan> findByIdWithReferences(String loanId);
+
+    /**
+     * Give the revision of a loan. Same revision as LoanRepository.findRevision, read without the
+     * entity cache.
+     *
+     * @param loanId the loan id
+     * @return the revision, empty if the loan does not exist
+     */
+    Mono<String> findRevision(String loanId);
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel.reactive;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import mmiLibraryServer.mongoModel.Book;
+import mmiLibraryServer.mongoModel.BookCopy;
+import mmiLibraryServer.mongoModel.Loan;
+import mmiLibraryServer.mongoModel.LoanRepositoryImpl;
+import mmiLibraryServer.mongoModel.Member;
+import mmiLibraryServer.mongoModel.utils.LoanCursor;
+import mmiLibraryServer.mongoModel.utils.LoanFilterQueries;
+import mmiLibraryServer.mongoModel.utils.LoanRequestFilter;
+import mmiLibraryServer.mongoModel.utils.RevisionAggregations;
+import mmiLibraryServer.mongoModel.utils.ViewProjections;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+public class ReactiveLoanRepositoryImpl implements ReactiveLoanRepositoryCustom {
+
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    private final ReactiveBookCopyRepository bookCopyRepo;
+
+    @Autowired
+    public ReactiveLoanRepositoryImpl(ReactiveMongoTemplate mongoTemplate, ReactiveBookCopyRepository bookCopyRepo) {
+        this.mongoTemplate = mongoTemplate;
+        this.bookCopyRepo = bookCopyRepo;
+    }
+
+    @Override
+    public Flux<Loan> findPageOrderByLoanDateTimeDesc(LoanCursor after, int limit, Class<?> view) {
+        final Query query = after == null ? new Query() : Query.query(LoanRepositoryImpl.keysetCriteria(after));
+        query.with(Sort.by(Sort.Direction.DESC, "loanDateTime", "id")).limit(limit);
+        ViewProjections.project(query, this.mongoTemplate.getConverter(), Loan.class, view);
+        return this.mongoTemplate.find(query, Loan.class);
+    }
+
+    @Override
+    public Flux<Loan> findPageByFilter(LoanRequestFilter filter, LoanCursor after, int limit, Class<?> view) {
+        final Mono<List<Object>> bookCopiesOfBook = LoanFilterQueries.requiresBookCopiesOfBook(filter)
+                ? this.findBookCopyIdsOfBook(filter.getBookId()) : Mono.just(List.of());
+        return bookCopiesOfBook.flatMapMany((bookCopyIds) -> {
+            final Query query = LoanFilterQueries.toPageQuery(filter, bookCopyIds, after, limit, LocalDateTime.now());
+            ViewProjections.project(query, this.mongoTemplate.getConverter(), Loan.class, view);
+            return this.mongoTemplate.find(query, Loan.class);
+        });
+    }
+
+    private Mono<List<Object>> findBookCopyIdsOfBook(String bookId) {
+        final Query query = Query.query(Criteria.where("book").is(RevisionAggregations.storedId(bookId)));
+        query.fields().include("_id");
+        return this.mongoTemplate.find(query, Document.class, this.mongoTemplate.getCollectionName(BookCopy.class))
+                .map((bookCopyDoc) -> bookCopyDoc.get("_id")).collectList();
+    }
+
+    @Override
+    public Flux<Loan> findAllOrderByLoanDateTimeDesc(Class<?> view) {
+        final Query query = new Query().with(Sort.by(Sort.Direction.DESC, "loanDateTime", "id"));
+        ViewProjections.project(query, this.mongoTemplate.getConverter(), Loan.class, view);
+        return this.mongoTemplate.find(query, Loan.class);
+    }
+
+    @Override
+    public Mono<BookCopy> loadLoansWithMembers(BookCopy bookCopy) {
+        return this.findLoanDocuments("bookCopy", bookCopy.getId())
+                .flatMap((loanDocs) -> this.findAllById(Member.class, referencedIds(loanDocs, "member"), Member::getId)
+                .map((membersById) -> this.readLoans(loanDocs, membersById, Map.of(bookCopy.getId(), bookCopy))))
+                .map((loans) -> EntityReferences.set(this.mongoTemplate.getConverter(), bookCopy, "loans", loans));
+    }
+
+    @Override
+    public Mono<Member> loadLoansWithBookCopies(Member member) {
+        return this.findLoanDocuments("member", member.getId())
+                .flatMap((loanDocs) -> this.findAllById(BookCopy.class, referencedIds(loanDocs, "bookCopy"), BookCopy::getId)
+                .map((bookCopiesById) -> this.readLoans(loanDocs, Map.of(member.getId(), member), bookCopiesById)))
+                .map((loans) -> EntityReferences.set(this.mongoTemplate.getConverter(), member, "loans", loans));
+    }
+
+    @Override
+    public Mono<Loan> findByIdWithReferences(String loanId) {
+        final Query query = Query.query(Criteria.where("_id").is(RevisionAggregations.storedId(loanId)));
+        return this.mongoTemplate.findOne(query, Document.class, this.mongoTemplate.getCollectionName(Loan.class))
+                .flatMap((loanDoc) -> {
+                    final Object bookCopyId = loanDoc.get("bookCopy");
+                    final Mono<Map<String, BookCopy>> bookCopiesById = bookCopyId == null ? Mono.just(Map.of())
+                            : this.bookCopyRepo.findByIdWithBook(bookCopyId.toString())
+                                    .map((bookCopy) -> Map.of(bookCopy.getId(), bookCopy))
+                                    .defaultIfEmpty(Map.of());
+                    return Mono.zip(this.findAllById(Member.class, referencedIds(List.of(loanDoc), "member"), Member::getId),
+                            bookCopiesById)
+                            .map((refs) -> this.readLoan(loanDoc, refs.getT1(), refs.getT2()));
+                });
+    }
+
+    @Override
+    public Mono<String> findRevision(String loanId) {
+        final Query query = Query.query(Criteria.where("_id").is(RevisionAggregations.storedId(loanId)));
+        query.fields().include("version").include("member").include("bookCopy");
+        return this.mongoTemplate.findOne(query, Document.class, this.mongoTemplate.getCollectionName(Loan.class))
+                .flatMap((loan) -> {
+                    final Mono<Long> memberVersion = this.findReferencedDocument(loan.get("member"), Member.class, "version")
+                            .map(RevisionAggregations::versionOf).defaultIfEmpty(0L);
+                    final Mono<Long> bookVersion = this.findReferencedDocument(loan.get("bookCopy"), BookCopy.class, "book")
+                            .flatMap((bookCopy) -> this.findReferencedDocument(bookCopy.get("book"), Book.class, "version"))
+                            .map(RevisionAggregations::versionOf).defaultIfEmpty(0L);
+                    return Mono.zip(memberVersion, bookVersion).map((versions) -> RevisionAggregations.versionOf(loan)
+                            + ":" + versions.getT1() + ":" + versions.getT2());
+                });
+    }
+
+    private Mono<Document> findReferencedDocument(Object storedId, Class<?> entityClass, String field) {
+        if (storedId == null) {
+            return Mono.empty();
+        }
+        final Query query = Query.query(Criteria.where("_id").is(storedId));
+        query.fields().include(field);
+        return this.mongoTemplate.findOne(query, Document.class, this.mongoTemplate.getCollectionName(entityClass));
+    }
+
+    /**
+     * Retrieve the raw documents of the loans whose given reference targets the given id, ordered
+     * by loan date desc. The references are then retrieved with a single query each.
+     *
+     * @param referenceField the reference field (member or bookCopy)
+     * @param id the referenced id
+     * @return the loan documents
+     */
+    private Mono<List<Document>> findLoanDocuments(String referenceField, String id) {
+        final Query query = Query.query(Criteria.where(referenceField).is(RevisionAggregations.storedId(id)))
+                .with(Sort.by(Sort.Direction.DESC, "loanDateTime"));
+        return this.mongoTemplate.find(query, Document.class, this.mongoTemplate.getCollectionName(Loan.class))
+                .collectList();
+    }
+
+    private <T> Mono<Map<String, T>> findAllById(Class<T> entityClass, Set<String> ids, Function<T, String> idGetter) {
+        if (ids.isEmpty()) {
+            return Mono.just(Map.of());
+        }
+        return this.mongoTemplate.find(Query.query(Criteria.where("id").in(ids)), entityClass).collectMap(idGetter);
+    }
+
+    private List<Loan> readLoans(List<Document> loanDocs, Map<String, Member> membersById,
+            Map<String, BookCopy> bookCopiesById) {
+        return loanDocs.stream()
+                .map((loanDoc) -> this.readLoan(loanDoc, membersById, bookCopiesById))
+                .collect(Collectors.toList());
+    }
+
+    private Loan readLoan(Document loanDoc, Map<String, Member> membersById, Map<String, BookCopy> bookCopiesById) {
+        final Object memberId = loanDoc.remove("member");
+        final Object bookCopyId = loanDoc.remove("bookCopy");
+        final Loan loan = this.mongoTemplate.getConverter().read(Loan.class, loanDoc);
+        loan.setMember(memberId == null ? null : membersById.get(memberId.toString()));
+        loan.setBookCopy(bookCopyId == null ? null : bookCopiesById.get(bookCopyId.toString()));
+        return loan;
+    }
+
+    private static Set<String> referencedIds(List<Document> docs, String referenceField) {
+        return docs.stream()
+                .map((doc) -> doc.get(referenceField))
+                .filter(Objects::nonNull)
+                .map(Object::toString)
+                .collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel.utils;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import mmiLibraryServer.mongoModel.BookCategory;
+import org.apache.logging.log4j.util.Strings;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.data.mongodb.core.query.TextQuery;
+
+/**
+ * Translation of a book request filter into mongo queries, shared by the blocking and reactive
+ * book repositories. The categories the filter refers to are resolved by the caller.
+ *
+ * @author Rémi Venant
+ */
+public final class BookFilterQueries {
+
+    private BookFilterQueries() {
+    }
+
+    /**
+     * Number of pages a book may have more or less than the number of pages of a filter.
+     */
+    public static final int NB_PAGES_MARGIN = 50;
+
+    /**
+     * Path of the ids of the category snapshots embedded in the books.
+     */
+    public static final String CATEGORY_IDS = "categories._id";
+
+    /**
+     * Give the ids of categories as stored in the snapshots embedded in the books.
+     *
+     * @param categories the categories
+     * @return the stored ids
+     */
+    public static List<Object> storedIds(Collection<BookCategory> categories) {
+        return categories.stream()
+                .map((category) -> RevisionAggregations.storedId(category.getId()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Tell if the filter requires the categories matching its category codes.
+     *
+     * @param filter the filter, may be null
+     * @return true if the filter has category codes
+     */
+    public static boolean requiresCategoriesByCodes(BookRequestFilter filter) {
+        return filter != null && filter.getCategoryCodesFilter() != null && !filter.getCategoryCodesFilter().isEmpty();
+    }
+
+    /**
+     * Build the query of the books matching the filter, ordered and paged according to it.
+     *
+     * @param filter the filter, may be null
+     * @param requiredCategories the categories matching the category codes of the filter
+     * @return the query
+     */
+    public static Query toQuery(BookRequestFilter filter, List<BookCategory> requiredCategories) {
+        final Query query = toCountQuery(filter, requiredCategories);
+        final Sort sort = toSort(filter);
+        if (sort.isSorted()) {
+            query.with(sort);
+        }
+        if (filter != null && filter.isPaged()) {
+            query.skip(pageOffset(filter)).limit(filter.getPageSize());
+        }
+        return query;
+    }
+
+    /**
+     * Build the query of the books matching the filter, regardless of its order and pagination.
+     *
+     * @param filter the filter, may be null
+     * @param requiredCategories the categories matching the category codes of the filter
+     * @return the query
+     */
+    public static Query toCountQuery(BookRequestFilter filter, List<BookCategory> requiredCategories) {
+        final Criteria criteria = toCriteria(filter, requiredCategories);
+        final TextCriteria textCriteria = toTextCriteria(filter);
+        return textCriteria == null
+                ? Query.query(criteria)
+                : TextQuery.queryText(textCriteria).addCriteria(criteria);
+    }
+
+    /**
+     * Compute the order of the results. A paged or sorted result is always ordered by id at last
+     * so that pages are stable.
+     *
+     * @param filter the filter, may be null
+     * @return the sort, may be unsorted
+     */
+    public static Sort toSort(BookRequestFilter filter) {
+        if (filter == null || (!filter.isPaged() && filter.getSort() == null)) {
+            return Sort.unsorted();
+        }
+        final Sort idSort = Sort.by(Sort.Direction.ASC, "id");
+        return filter.getSort() == null ? idSort : filter.getSort().and(idSort);
+    }
+
+    private static long pageOffset(BookRequestFilter filter) {
+        return filter.getPage() == null ? 0L : (long) filter.getPage() * filter.getPageSize();
+    }
+
+    private static Criteria toCriteria(BookRequestFilter filter, List<BookCategory> requiredCategories) {
+        Criteria criteria = new Criteria();
+        if (filter == null) {
+            return criteria;
+        }
+        // Handle isb filter
+        final String isbnFilter = Strings.isBlank(filter.getIsbnFilter())
+                ? null : filter.getIsbnFilter().trim();
+        if (isbnFilter != null) {
+            criteria = criteria.and("isbn").is(isbnFilter);
+        }
+
+        // handle categories filter
+        if (requiresCategoriesByCodes(filter)) {
+            criteria = criteria.and(CATEGORY_IDS).in(storedIds(requiredCategories));
+        }
+
+        // handle child compliant filter, using the adult only flag maintained on each book
+        final Boolean childCompliantFilter = filter.getChildCompliant();
+        if (childCompliantFilter != null && childCompliantFilter == true) {
+            criteria = criteria.and("adultOnly").is(false);
+        }
+
+        final Boolean availableFilter = filter.getAvailableFilter();
+        if (availableFilter != null && availableFilter == true) {
+            criteria = criteria.and("availableCopies").gt(0);
+        }
+
+        final Integer nbPagesFilter = filter.getNbPages();
+        if (nbPagesFilter != null && nbPagesFilter >= 0) {
+            int minPages = Math.max(0, nbPagesFilter - NB_PAGES_MARGIN);
+            int maxPages = nbPagesFilter + NB_PAGES_MARGIN;
+            criteria = criteria.and("numOfPages").gte(minPages).lte(maxPages);
+        }
+
+        return criteria;
+    }
+
+    private static TextCriteria toTextCriteria(BookRequestFilter filter) {
+        // handle title filter (require special TextQuery)
+        final String titleAlikeFilter = filter == null || Strings.isBlank(filter.getTitleAlikeFilter())
+                ? null : filter.getTitleAlikeFilter().trim();
+        if (titleAlikeFilter == null) {
+            return null;
+        }
+        final TextCriteria txtCriteria = Strings.isBlank(filter.getLanguage())
+                ? TextCriteria.forDefaultLanguage() : TextCriteria.forLanguage(filter.getLanguage());
+        return txtCriteria
+                .caseSensitive(false)
+                .diacriticSensitive(false)
+                .matchingPhrase(titleAlikeFilter);
+    }
+}
@@ -19,8 +19,10 @@
 package mmiLibraryServer.mongoModel.utils;
 
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 import mmiLibraryServer.mongoModel.BookCategory;
+import org.springframework.data.domain.Sort;
 
 /**
  *
@@ -28,6 +30,13 @@ import mmiLibraryServer.mongoModel.BookCategory;
  */
 public class BookRequestFilter {
 
+    /**
+     * Book properties that can be used to sort the results. Restricted to properties with a
+     * bounded cardinality or an index to avoid unbounded in-memory sorts.
+     */
+    public static final Set<String> SORTABLE_PROPERTIES = Set.of("isbn", "title", "editor",
+            "numOfPages", "publicationYear");
+
     private String isbnFilter;
 
     private String language;
@@ -42,6 +51,12 @@ public class BookRequestFilter {
 
     private Integer nbPages;
 
+    private Integer page;
+
+    private Integer pageSize;
+
+    private Sort sort;
+
     public BookRequestFilter() {
     }
 
@@ -101,6 +116,39 @@ public class BookRequestFilter {
         this.nbPages = nbPages;
     }
 
+    public Integer getPage() {
+        return page;
+    }
+
+    public void setPage(Integer page) {
+        this.page = page;
+    }
+
+    public Integer getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(Integer pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    public Sort getSort() {
+        return sort;
+    }
+
+    public void setSort(Sort sort) {
+        this.sort = sort;
+    }
+
+    /**
+     * Tell if the results must be paginated.
+     *
+     * @return true if a page size has been given
+     */
+    public boolean isPaged() {
+        return this.pageSize != null;
+    }
+
     public static class Builder {
 
         private BookRequestFilter filter = new BookRequestFilter();
@@ -150,6 +198,24 @@ public class BookRequestFilter {
             this.filter.setNbPages(nbPages);
             return this;
         }
+
+        public Builder withPage(int page, int pageSize) {
+            if (page < 0 || pageSize <= 0) {
+                throw new IllegalArgumentException("Page must be positive and page size strictly positive.");
+            }
+            this.filter.setPage(page);
+            this.filter.setPageSize(pageSize);
+            return this;
+        }
+
+        public Builder withSort(String property, Sort.Direction direction) {
+            if (!SORTABLE_PROPERTIES.contains(property)) {
+                throw new IllegalArgumentException("Invalid sort property: " + property);
+            }
+            final Sort order = Sort.by(direction == null ? Sort.Direction.ASC : direction, property);
+            this.filter.setSort(this.filter.getSort() == null ? order : this.filter.getSort().and(order));
+            return this;
+        }
     }
 
     public static Builder getBuilder() {
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.Objects;
+import mmiLibraryServer.mongoModel.Loan;
+
+/**
+ * Position of a loan in the (loanDateTime desc, id desc) ordering, used to fetch the next page of
+ * loans without skipping documents. Exchanged with clients as an opaque token.
+ *
+ * @author Rémi Venant
+ */
+public class LoanCursor {
+
+    private static final char SEPARATOR = '|';
+
+    private final LocalDateTime loanDateTime;
+
+    private final String loanId;
+
+    public LoanCursor(LocalDateTime loanDateTime, String loanId) {
+        if (loanDateTime == null || loanId == null) {
+            throw new IllegalArgumentException("Missing loan dateTime or loan id for cursor.");
+        }
+        this.loanDateTime = loanDateTime;
+        this.loanId = loanId;
+    }
+
+    public static LoanCursor of(Loan loan) {
+        return new LoanCursor(loan.getLoanDateTime(), loan.getId());
+    }
+
+    /**
+     * Decode a cursor token.
+     *
+     * @param token the token given by encode()
+     * @return the cursor
+     * @throws IllegalArgumentException if the token is malformed
+     */
+    public static LoanCursor decode(String token) {
+        if (token == null) {
+            throw new IllegalArgumentException("Missing cursor.");
+        }
+        try {
+            final String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            final int sepIdx = raw.indexOf(SEPARATOR);
+            if (sepIdx <= 0 || sepIdx == raw.length() - 1) {
+                throw new IllegalArgumentException("Invalid cursor.");
+            }
+            return new LoanCursor(LocalDateTime.parse(raw.substring(0, sepIdx)), raw.substring(sepIdx + 1));
+        } catch (DateTimeParseException ex) {
+            throw new IllegalArgumentException("Invalid cursor.");
+        }
+    }
+
+    public String encode() {
+        final String raw = this.loanDateTime.toString() + SEPARATOR + this.loanId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public LocalDateTime getLoanDateTime() {
+        return loanDateTime;
+    }
+
+    public String getLoanId() {
+        return loanId;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 5;
+        hash = 29 * hash + Objects.hashCode(this.loanDateTime);
+        hash = 29 * hash + Objects.hashCode(this.loanId);
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        final LoanCursor other = (LoanCursor) obj;
+        return Objects.equals(this.loanDateTime, other.loanDateTime)
+                && Objects.equals(this.loanId, other.loanId);
+    }
+
+    @Override
+    public String toString() {
+        return "LoanCursor{" + "loanDateTime=" + loanDateTime + ", loanId=" + loanId + '}';
+    }
+
+}
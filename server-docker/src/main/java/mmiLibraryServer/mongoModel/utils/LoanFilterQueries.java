@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel.utils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+import mmiLibraryServer.mongoModel.LoanRepositoryImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+/**
+ * Translation of a loan request filter into mongo queries, shared by the blocking and reactive loan
+ * repositories. The book copies of the book the filter refers to are resolved by the caller.
+ *
+ * Each criteria has a matching index of the loans, ending with (loanDateTime desc, id desc) so that
+ * the pages are read in order from the index:
+ * <ul>
+ * <li>member: member_loanDateTime_id, or member_returnDateTime_loanDateTime_id along with the
+ * returned criteria;</li>
+ * <li>book copy or book (copies of the book): bookCopy_loanDateTime_id;</li>
+ * <li>open and overdue loans: returnDateTime_loanDateTime_id;</li>
+ * <li>loan date range and returned loans: loanDateTime_id.</li>
+ * </ul>
+ *
+ * @author Rémi Venant
+ */
+public final class LoanFilterQueries {
+
+    private LoanFilterQueries() {
+    }
+
+    /**
+     * Order of the pages of loans.
+     */
+    public static final Sort PAGE_SORT = Sort.by(Sort.Direction.DESC, "loanDateTime", "id");
+
+    /**
+     * Tell if the filter requires the ids of the copies of its book.
+     *
+     * @param filter the filter, may be null
+     * @return true if the filter has a book
+     */
+    public static boolean requiresBookCopiesOfBook(LoanRequestFilter filter) {
+        return filter != null && filter.getBookId() != null;
+    }
+
+    /**
+     * Build the query of a page of the loans matching the filter, ordered by loan date desc then id
+     * desc.
+     *
+     * @param filter the filter, may be null
+     * @param bookCopiesOfBook the ids of the copies of the book of the filter, as stored, if the
+     * filter has a book
+     * @param after the position of the last loan already retrieved, null to start from the first
+     * loan
+     * @param limit the maximum number of loans to retrieve
+     * @param now the current dateTime, the overdue loans being older than now minus their overdue
+     * days
+     * @return the query
+     */
+    public static Query toPageQuery(LoanRequestFilter filter, List<Object> bookCopiesOfBook, LoanCursor after,
+            int limit, LocalDateTime now) {
+        final Criteria criteria = toCriteria(filter, bookCopiesOfBook, now);
+        final Query query = after == null ? Query.query(criteria)
+                : Query.query(new Criteria().andOperator(criteria, LoanRepositoryImpl.keysetCriteria(after)));
+        return query.with(PAGE_SORT).limit(limit);
+    }
+
+    private static Criteria toCriteria(LoanRequestFilter filter, List<Object> bookCopiesOfBook, LocalDateTime now) {
+        Criteria criteria = new Criteria();
+        if (filter == null) {
+            return criteria;
+        }
+        if (filter.getMemberId() != null) {
+            criteria = criteria.and("member").is(RevisionAggregations.storedId(filter.getMemberId()));
+        }
+        if (filter.getBookId() != null) {
+            // The book copy of the filter, if any, must be one of the copies of the book
+            final List<Object> bookCopies = filter.getBookCopyId() == null ? bookCopiesOfBook
+                    : bookCopiesOfBook.stream()
+                            .filter((id) -> id.equals(RevisionAggregations.storedId(filter.getBookCopyId())))
+                            .collect(Collectors.toList());
+            criteria = criteria.and("bookCopy").in(bookCopies);
+        } else if (filter.getBookCopyId() != null) {
+            criteria = criteria.and("bookCopy").is(RevisionAggregations.storedId(filter.getBookCopyId()));
+        }
+        if (filter.getOverdueDays() != null || Boolean.FALSE.equals(filter.getReturned())) {
+            criteria = criteria.and("returnDateTime").is(null);
+        } else if (Boolean.TRUE.equals(filter.getReturned())) {
+            criteria = criteria.and("returnDateTime").ne(null);
+        }
+        // Overdue loans were made before a limit that narrows the loan date range
+        LocalDateTime loanedTo = filter.getLoanedTo();
+        if (filter.getOverdueDays() != null) {
+            final LocalDateTime overdueLimit = now.minusDays(filter.getOverdueDays());
+            loanedTo = loanedTo == null || overdueLimit.isBefore(loanedTo) ? overdueLimit : loanedTo;
+        }
+        if (filter.getLoanedFrom() != null || loanedTo != null) {
+            final Criteria loanDateTime = criteria.and("loanDateTime");
+            if (filter.getLoanedFrom() != null) {
+                loanDateTime.gte(filter.getLoanedFrom());
+            }
+            if (loanedTo != null) {
+                loanDateTime.lt(loanedTo);
+            }
+            criteria = loanDateTime;
+        }
+        return criteria;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel.utils;
+
+import java.time.LocalDateTime;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+public class LoanRequestFilter {
+
+    private String memberId;
+
+    private String bookCopyId;
+
+    private String bookId;
+
+    private Boolean returned;
+
+    private LocalDateTime loanedFrom;
+
+    private LocalDateTime loanedTo;
+
+    private Integer overdueDays;
+
+    public LoanRequestFilter() {
+    }
+
+    public String getMemberId() {
+        return memberId;
+    }
+
+    public void setMemberId(String memberId) {
+        this.memberId = memberId;
+    }
+
+    public String getBookCopyId() {
+        return bookCopyId;
+    }
+
+    public void setBookCopyId(String bookCopyId) {
+        this.bookCopyId = bookCopyId;
+    }
+
+    public String getBookId() {
+        return bookId;
+    }
+
+    public void setBookId(String bookId) {
+        this.bookId = bookId;
+    }
+
+    public Boolean getReturned() {
+        return returned;
+    }
+
+    public void setReturned(Boolean returned) {
+        this.returned = returned;
+    }
+
+    public LocalDateTime getLoanedFrom() {
+        return loanedFrom;
+    }
+
+    public void setLoanedFrom(LocalDateTime loanedFrom) {
+        this.loanedFrom = loanedFrom;
+    }
+
+    public LocalDateTime getLoanedTo() {
+        return loanedTo;
+    }
+
+    public void setLoanedTo(LocalDateTime loanedTo) {
+        this.loanedTo = loanedTo;
+    }
+
+    public Integer getOverdueDays() {
+        return overdueDays;
+    }
+
+    public void setOverdueDays(Integer overdueDays) {
+        this.overdueDays = overdueDays;
+    }
+
+    /**
+     * Tell if the filter does not restrict the loans.
+     *
+     * @return true if no criteria has been given
+     */
+    public boolean isEmpty() {
+        return this.memberId == null && this.bookCopyId == null && this.bookId == null && this.returned == null
+                && this.loanedFrom == null && this.loanedTo == null && this.overdueDays == null;
+    }
+
+    public static class Builder {
+
+        private LoanRequestFilter filter = new LoanRequestFilter();
+
+        public LoanRequestFilter build() {
+            final LoanRequestFilter built = this.filter;
+            if (built.getOverdueDays() != null && Boolean.TRUE.equals(built.getReturned())) {
+                throw new IllegalArgumentException("Overdue loans cannot be returned loans.");
+            }
+            if (built.getLoanedFrom() != null && built.getLoanedTo() != null
+                    && !built.getLoanedFrom().isBefore(built.getLoanedTo())) {
+                throw new IllegalArgumentException("The start of the loan date range must be before its end.");
+            }
+            return built;
+        }
+
+        public Builder withMember(String memberId) {
+            this.filter.setMemberId(memberId);
+            return this;
+        }
+
+        public Builder withBookCopy(String bookCopyId) {
+            this.filter.setBookCopyId(bookCopyId);
+            return this;
+        }
+
+        public Builder withBook(String bookId) {
+            this.filter.setBookId(bookId);
+            return this;
+        }
+
+        public Builder withReturned(boolean returned) {
+            this.filter.setReturned(returned);
+            return this;
+        }
+
+        public Builder withLoanDateTimeRange(LocalDateTime from, LocalDateTime to) {
+            this.filter.setLoanedFrom(from);
+            this.filter.setLoanedTo(to);
+            return this;
+        }
+
+        public Builder withOverdue(int days) {
+            if (days < 0) {
+                throw new IllegalArgumentException("The number of overdue days must be positive.");
+            }
+            this.filter.setOverdueDays(days);
+            return this;
+        }
+    }
+
+    public static Builder getBuilder() {
+        return new Builder();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel.utils;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+/**
+ * Helpers used to read the revisions of the entities from their raw documents, without mapping
+ * any entity.
+ *
+ * @author Rémi Venant
+ */
+public final class RevisionAggregations {
+
+    private RevisionAggregations() {
+    }
+
+    /**
+     * Give the id as stored in database.
+     *
+     * @param id the id
+     * @return the matching ObjectId if the id is valid, the id otherwise
+     */
+    public static Object storedId(String id) {
+        return ObjectId.isValid(id) ? new ObjectId(id) : id;
+    }
+
+    /**
+     * Give the version of a raw document, 0 if it has never been versioned.
+     *
+     * @param document the raw document, may be null
+     * @return its version
+     */
+    public static long versionOf(Document document) {
+        final Number version = document == null ? null : document.get("version", Number.class);
+        return version == null ? 0 : version.longValue();
+    }
+}
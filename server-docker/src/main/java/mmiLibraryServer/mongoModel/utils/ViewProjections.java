@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel.utils;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonView;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.data.mapping.Association;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.core.query.Query;
+
+/**
+ * Field projections matching the JSON views of the API. A property is serialized under a view only
+ * if it is annotated with a @JsonView including that view (properties without @JsonView are not
+ * serialized under a view, as the default view inclusion is disabled). Reading only those fields
+ * avoids transferring, mapping and resolving the references of properties the view drops.
+ *
+ * Entities read with a projection are incomplete (no version, in particular): they must only be
+ * rendered, never saved back.
+ *
+ * @author Rémi Venant
+ */
+public final class ViewProjections {
+
+    private static final Map<List<Class<?>>, Set<String>> FIELDS_BY_VIEW = new ConcurrentHashMap<>();
+
+    private ViewProjections() {
+    }
+
+    /**
+     * Restrict the fields read by a query to the ones the view serializes.
+     *
+     * @param query the query (modified)
+     * @param converter the converter holding the mapping of the entity
+     * @param entityClass the class of entities read
+     * @param view the view the entities will be rendered with, null to read all fields
+     * @return the given query
+     */
+    public static Query project(Query query, MongoConverter converter, Class<?> entityClass, Class<?> view) {
+        if (view != null) {
+            fieldsOf(converter, entityClass, view).forEach(query.fields()::include);
+        }
+        return query;
+    }
+
+    /**
+     * Give the stored fields of an entity serialized by a view, along with its id.
+     *
+     * @param converter the converter holding the mapping of the entity
+     * @param entityClass the class of entity
+     * @param view the view
+     * @return the stored field names
+     */
+    public static Set<String> fieldsOf(MongoConverter converter, Class<?> entityClass, Class<?> view) {
+        return FIELDS_BY_VIEW.computeIfAbsent(List.of(entityClass, view), (key) -> {
+            final MongoPersistentEntity<?> entity = converter.getMappingContext().getRequiredPersistentEntity(entityClass);
+            final Set<String> fields = new LinkedHashSet<>();
+            entity.doWithProperties((MongoPersistentProperty property) -> {
+                if (property.isIdProperty() || isInView(property, view)) {
+                    fields.add(property.getFieldName());
+                }
+            });
+            entity.doWithAssociations((Association<MongoPersistentProperty> association) -> {
+                if (isInView(association.getInverse(), view)) {
+                    fields.add(association.getInverse().getFieldName());
+                }
+            });
+            return Collections.unmodifiableSet(fields);
+        });
+    }
+
+    private static boolean isInView(MongoPersistentProperty property, Class<?> view) {
+        if (property.isAnnotationPresent(JsonIgnore.class)) {
+            return false;
+        }
+        final JsonView jsonView = property.findAnnotation(JsonView.class);
+        return jsonView != null && Arrays.stream(jsonView.value()).anyMatch((v) -> v.isAssignableFrom(view));
+    }
+}
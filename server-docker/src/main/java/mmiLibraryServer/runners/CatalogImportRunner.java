@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.runners;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import mmiLibraryServer.services.CatalogImportService;
+import mmiLibraryServer.services.model.CatalogImportFormat;
+import mmiLibraryServer.services.model.CatalogImportReport;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Import at startup the catalog file given by the mmiLibraryServer.catalogImport.file property,
+ * in CSV if its name ends with .csv, in NDJSON otherwise. Runs after the sample data loading and
+ * before the counters reconciliation. Books already imported are rejected as duplicates: the
+ * import can be run again with the same file.
+ *
+ * @author Rémi Venant
+ */
+@ConditionalOnProperty(name = "mmiLibraryServer.catalogImport.file")
+@Order(1)
+@Component
+public class CatalogImportRunner implements CommandLineRunner {
+
+    private static final Log LOG = LogFactory.getLog(CatalogImportRunner.class);
+
+    private final CatalogImportService catalogImportSvc;
+
+    private final Path catalogFile;
+
+    @Autowired
+    public CatalogImportRunner(CatalogImportService catalogImportSvc,
+            @Value("${mmiLibraryServer.catalogImport.file}") Path catalogFile) {
+        this.catalogImportSvc = catalogImportSvc;
+        this.catalogFile = catalogFile;
+    }
+
+    @Override
+    public void run(String... args) throws Exception {
+        final CatalogImportFormat format = this.catalogFile.getFileName().toString().toLowerCase().endsWith(".csv")
+                ? CatalogImportFormat.CSV : CatalogImportFormat.NDJSON;
+        LOG.info(String.format("Import catalog %s (%s)...", this.catalogFile, format));
+        final CatalogImportReport report;
+        try (InputStream catalog = Files.newInputStream(this.catalogFile)) {
+            report = this.catalogImportSvc.importCatalog(catalog, format);
+        }
+        report.getErrors().forEach((error) -> LOG.warn(String.format("Line %d (isbn %s) rejected: %s",
+                error.getLine(), error.getIsbn(), error.getError())));
+        LOG.info(String.format("%d books and %d copies imported, %d of %d records rejected.", report.getImportedBooks(),
+                report.getImportedCopies(), report.getErrors().size(), report.getRecords()));
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.runners;
+
+import mmiLibraryServer.mongoModel.BookRepository;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Replace at startup, before any other runner, the category ids stored in the books by an older
+ * version with snapshots of the categories, and refresh the snapshots that missed an update of
+ * their category. Books holding category ids cannot be read otherwise, so this migration always
+ * runs; on an up to date database it only costs a few queries per category.
+ *
+ * @author Rémi Venant
+ */
+@Order(Ordered.HIGHEST_PRECEDENCE)
+@Component
+public class CategorySnapshotsMigrationRunner implements CommandLineRunner {
+
+    private static final Log LOG = LogFactory.getLog(CategorySnapshotsMigrationRunner.class);
+
+    private final BookRepository bookRepo;
+
+    @Autowired
+    public CategorySnapshotsMigrationRunner(BookRepository bookRepo) {
+        this.bookRepo = bookRepo;
+    }
+
+    @Override
+    public void run(String... args) throws Exception {
+        final long updatedBooks = this.bookRepo.reconcileCategorySnapshots();
+        if (updatedBooks > 0) {
+            LOG.info(String.format("Category snapshots of %d books migrated or refreshed.", updatedBooks));
+        }
+    }
+}
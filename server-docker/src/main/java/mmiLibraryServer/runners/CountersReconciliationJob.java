@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.runners;
+
+import mmiLibraryServer.mongoModel.BookRepository;
+import mmiLibraryServer.mongoModel.MemberRepository;
+import mmiLibraryServer.services.BookSearchCache;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Periodically reconcile the counters maintained by the services (copy counters of the books, open
+ * loans of the members), the adult only flag and the category snapshots of the books with the
+ * documents they summarize. The book search cache is cleared when books are corrected. The schedule
+ * is given by the mmiLibraryServer.counters.reconciliationCron property ("-" to disable it).
+ *
+ * @author Rémi Venant
+ */
+@Component
+public class CountersReconciliationJob {
+
+    private static final Log LOG = LogFactory.getLog(CountersReconciliationJob.class);
+
+    private final BookRepository bookRepo;
+
+    private final MemberRepository memberRepo;
+
+    private final BookSearchCache bookSearchCache;
+
+    @Autowired
+    public CountersReconciliationJob(BookRepository bookRepo, MemberRepository memberRepo,
+            BookSearchCache bookSearchCache) {
+        this.bookRepo = bookRepo;
+        this.memberRepo = memberRepo;
+        this.bookSearchCache = bookSearchCache;
+    }
+
+    @Scheduled(cron = "${mmiLibraryServer.counters.reconciliationCron:0 0 4 * * *}")
+    public void reconcile() {
+        final long correctedBooks = this.bookRepo.reconcileCopyCounters();
+        final long correctedMembers = this.memberRepo.reconcileOpenLoans();
+        final long correctedAdultOnly = this.bookRepo.reconcileAdultOnly();
+        final long correctedSnapshots = this.bookRepo.reconcileCategorySnapshots();
+        if (correctedBooks > 0 || correctedMembers > 0 || correctedAdultOnly > 0 || correctedSnapshots > 0) {
+            LOG.warn(String.format("Counters drifted: copy counters of %d books, open loans of %d members, adult only flag of %d books and category snapshots of %d books corrected.",
+                    correctedBooks, correctedMembers, correctedAdultOnly, correctedSnapshots));
+            if (correctedBooks > 0 || correctedAdultOnly > 0 || correctedSnapshots > 0) {
+                this.bookSearchCache.clear();
+            }
+        } else {
+            LOG.debug("Counters reconciled, no drift.");
+        }
+    }
+}
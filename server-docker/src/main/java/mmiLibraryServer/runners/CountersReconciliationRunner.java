@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.runners;
+
+import mmiLibraryServer.mongoModel.BookRepository;
+import mmiLibraryServer.mongoModel.MemberRepository;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reconcile at startup the copy counters of the books with their copies and the open loans
+ * counters of the members with their loans, as well as the adult only flag of the books with their
+ * categories, in case some were written by an older version or a failed update. Runs after the sample data loading.
+ *
+ * @author Rémi Venant
+ */
+@ConditionalOnProperty(name = "mmiLibraryServer.counters.reconcileAtStartup", havingValue = "true", matchIfMissing = true)
+@Order(Ordered.LOWEST_PRECEDENCE)
+@Component
+public class CountersReconciliationRunner implements CommandLineRunner {
+
+    private static final Log LOG = LogFactory.getLog(CountersReconciliationRunner.class);
+
+    private final BookRepository bookRepo;
+
+    private final MemberRepository memberRepo;
+
+    @Autowired
+    public CountersReconciliationRunner(BookRepository bookRepo, MemberRepository memberRepo) {
+        this.bookRepo = bookRepo;
+        this.memberRepo = memberRepo;
+    }
+
+    @Override
+    public void run(String... args) throws Exception {
+        LOG.info("Reconcile book copy counters, member open loans counters and book adult only flags...");
+        final long correctedBooks = this.bookRepo.reconcileCopyCounters();
+        final long correctedMembers = this.memberRepo.reconcileOpenLoans();
+        final long correctedAdultOnly = this.bookRepo.reconcileAdultOnly();
+        LOG.info(String.format("Copy counters of %d books, open loans of %d members and adult only flag of %d books corrected.",
+                correctedBooks, correctedMembers, correctedAdultOnly));
+    }
+}
@@ -48,6 +48,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.context.annotation.Profile;
+import org.springframework.core.annotation.Order;
 import org.springframework.stereotype.Component;
 
 /**
@@ -55,6 +56,7 @@ import org.springframework.stereotype.Component;
  * @author Rémi Venant
  */
 @Profile("sample-data")
+@Order(0)
 @Component
 public class SampleDataLoader implements CommandLineRunner {
 
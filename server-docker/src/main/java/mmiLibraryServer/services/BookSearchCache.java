@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.services;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import mmiLibraryServer.mongoModel.Book;
+import mmiLibraryServer.mongoModel.BookCategory;
+import mmiLibraryServer.mongoModel.utils.BookRequestFilter;
+import org.bson.Document;
+
+/**
+ * Cache of the results of the book searches, keyed by the canonical form of their filter. The
+ * services that write books, categories or copies tell the cache what changed so that only the
+ * searches whose results may change are dropped.
+ *
+ * @author Rémi Venant
+ */
+public interface BookSearchCache {
+
+    /**
+     * Give the books matching a filter, from the cache or from the loader. The raw documents found
+     * are cached: each call converts its own books, so that requests never share an entity.
+     *
+     * @param filter the filter, with its order and page
+     * @param loader the search of the raw book documents to run on a cache miss
+     * @param reader the conversion of a book document into a book
+     * @return the books, unmodifiable
+     */
+    List<Book> getBooks(BookRequestFilter filter, Supplier<List<Document>> loader, Function<Document, Book> reader);
+
+    /**
+     * Give the number of books matching a filter, regardless of its order and page, from the
+     * cache or from the counter.
+     *
+     * @param filter the filter
+     * @param counter the count to run on a cache miss
+     * @return the number of books
+     */
+    long countBooks(BookRequestFilter filter, LongSupplier counter);
+
+    /**
+     * Drop the searches a book written or deleted may belong to, before or after the change.
+     *
+     * @param previousBook the book before the change, null if it has been created
+     * @param book the book after the change, null if it has been deleted
+     */
+    void invalidateBook(Book previousBook, Book book);
+
+    /**
+     * Drop the searches on a category written or deleted, or holding one of its books.
+     *
+     * @param previousCategory the category before the change, null if it has been created
+     * @param category the category after the change, null if it has been deleted
+     */
+    void invalidateCategory(BookCategory previousCategory, BookCategory category);
+
+    /**
+     * Drop every search, after a bulk change of the books.
+     */
+    void clear();
+}
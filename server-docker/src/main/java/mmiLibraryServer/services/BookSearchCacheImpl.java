@@ -0,0 +1,463 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import mmiLibraryServer.mongoModel.Book;
+import mmiLibraryServer.mongoModel.BookCategory;
+import mmiLibraryServer.mongoModel.utils.BookRequestFilter;
+import mmiLibraryServer.services.model.CirculationEvent;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.logging.log4j.util.Strings;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+
+import static mmiLibraryServer.mongoModel.utils.BookFilterQueries.NB_PAGES_MARGIN;
+
+/**
+ * In-memory book search cache, bounded by the number of books it holds and evicting the least
+ * recently used results first. A count is held as one book.
+ *
+ * The results of a filter, whatever their order and page, form a search. Writes drop whole
+ * searches, so that the pages of a search never overlap nor miss a book: the searches holding the
+ * written book, and the searches it may join or leave according to its values before and after
+ * the change. The title is matched by the text index: any search on a title may hold any book.
+ * Availability changes, followed through the circulation events, only drop the searches holding
+ * the book and the searches on available books.
+ *
+ * Results loaded while an invalidation occurred are not kept, as they may be stale. A time to live
+ * also bounds the staleness when books are modified by another instance.
+ *
+ * Raw book documents are cached: each read converts its own books, so that requests never share an
+ * entity nor the proxy of its copies.
+ *
+ * @author Rémi Venant
+ */
+@Service
+public class BookSearchCacheImpl implements BookSearchCache {
+
+    private static final Log LOG = LogFactory.getLog(BookSearchCacheImpl.class);
+
+    public static final String CACHE_METRIC = "mmilibrary.books.search.cache";
+
+    public static final String EVICTIONS_METRIC = "mmilibrary.books.search.cache.evictions";
+
+    public static final String SIZE_METRIC = "mmilibrary.books.search.cache.size";
+
+    private final int size;
+
+    private final Duration timeToLive;
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private final Counter sizeEvictions;
+
+    private final Counter expiryEvictions;
+
+    private final Counter invalidationEvictions;
+
+    /**
+     * Results in access order, the least recently used first.
+     */
+    private final LinkedHashMap<EntryKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final Map<SearchKey, Set<EntryKey>> entriesBySearch = new HashMap<>();
+
+    private final Map<String, Set<EntryKey>> entriesByBook = new HashMap<>();
+
+    private int weight;
+
+    private long generation;
+
+    @Autowired
+    public BookSearchCacheImpl(@Value("${mmiLibraryServer.bookSearchCache.size:10000}") int size,
+            @Value("${mmiLibraryServer.bookSearchCache.ttl:10m}") Duration timeToLive, MeterRegistry meterRegistry) {
+        if (size < 0) {
+            throw new IllegalArgumentException("The size of the book search cache cannot be negative.");
+        }
+        this.size = size;
+        this.timeToLive = timeToLive;
+        this.hits = meterRegistry.counter(CACHE_METRIC, "result", "hit");
+        this.misses = meterRegistry.counter(CACHE_METRIC, "result", "miss");
+        this.sizeEvictions = meterRegistry.counter(EVICTIONS_METRIC, "cause", "size");
+        this.expiryEvictions = meterRegistry.counter(EVICTIONS_METRIC, "cause", "expiry");
+        this.invalidationEvictions = meterRegistry.counter(EVICTIONS_METRIC, "cause", "invalidation");
+        meterRegistry.gauge(SIZE_METRIC, this, BookSearchCacheImpl::getNumberOfResults);
+    }
+
+    @Override
+    public List<Book> getBooks(BookRequestFilter filter, Supplier<List<Document>> loader, Function<Document, Book> reader) {
+        return this.get(new EntryKey(filter, false), () -> new Entry(List.copyOf(loader.get()), 0L)).documents.stream()
+                .map(reader).collect(Collectors.toUnmodifiableList());
+    }
+
+    @Override
+    public long countBooks(BookRequestFilter filter, LongSupplier counter) {
+        return this.get(new EntryKey(filter, true), () -> new Entry(List.of(), counter.getAsLong())).count;
+    }
+
+    @Override
+    public synchronized void invalidateBook(Book previousBook, Book book) {
+        this.generation++;
+        final Set<SearchKey> searches = new HashSet<>();
+        Stream.of(previousBook, book).filter(Objects::nonNull)
+                .forEach((b) -> searches.addAll(this.getSearchesHoldingBook(b.getId())));
+        this.entriesBySearch.keySet().stream()
+                .filter((search) -> search.mayMatch(previousBook) || search.mayMatch(book))
+                .forEach(searches::add);
+        this.invalidate(searches);
+    }
+
+    @Override
+    public synchronized void invalidateCategory(BookCategory previousCategory, BookCategory category) {
+        this.generation++;
+        final Set<String> codes = Stream.of(previousCategory, category).filter(Objects::nonNull)
+                .map(BookCategory::getCode).filter(Objects::nonNull).collect(Collectors.toSet());
+        final Set<String> categoryIds = Stream.of(previousCategory, category).filter(Objects::nonNull)
+                .map(BookCategory::getId).filter(Objects::nonNull).collect(Collectors.toSet());
+        // Books of a category that is no longer, or becomes, adult only may join or leave the
+        // child compliant searches
+        final boolean adultOnlyChanged = (previousCategory != null && previousCategory.isAdultOnly())
+                != (category != null && category.isAdultOnly());
+        final Set<SearchKey> searches = this.entriesBySearch.keySet().stream()
+                .filter((search) -> search.hasAnyCategory(codes) || (adultOnlyChanged && search.childCompliant))
+                .collect(Collectors.toSet());
+        // Books embed a snapshot of their categories
+        this.entries.forEach((key, entry) -> {
+            if (entry.hasAnyCategory(categoryIds)) {
+                searches.add(key.search);
+            }
+        });
+        this.invalidate(searches);
+    }
+
+    /**
+     * Drop the searches of a book whose copy counters changed.
+     *
+     * @param event the circulation event
+     */
+    @EventListener
+    public synchronized void onCirculationEvent(CirculationEvent event) {
+        if (event.getBookId() == null) {
+            return;
+        }
+        this.generation++;
+        final Set<SearchKey> searches = new HashSet<>(this.getSearchesHoldingBook(event.getBookId()));
+        this.entriesBySearch.keySet().stream().filter((search) -> search.available).forEach(searches::add);
+        this.invalidate(searches);
+    }
+
+    @Override
+    public synchronized void clear() {
+        this.generation++;
+        this.invalidationEvictions.increment(this.entries.size());
+        this.entries.clear();
+        this.entriesBySearch.clear();
+        this.entriesByBook.clear();
+        this.weight = 0;
+        LOG.debug("Book search cache cleared.");
+    }
+
+    /**
+     * Give the number of results held, searched books or counts.
+     *
+     * @return the number of results
+     */
+    public synchronized int getNumberOfResults() {
+        return this.entries.size();
+    }
+
+    private Entry get(EntryKey key, Supplier<Entry> loader) {
+        if (this.size == 0) {
+            return loader.get();
+        }
+        final long loadGeneration;
+        synchronized (this) {
+            final Entry entry = this.entries.get(key);
+            if (entry != null) {
+                if (entry.expiresAt.isAfter(Instant.now())) {
+                    this.hits.increment();
+                    return entry;
+                }
+                this.remove(key);
+                this.expiryEvictions.increment();
+            }
+            loadGeneration = this.generation;
+        }
+        this.misses.increment();
+        final Entry loaded = loader.get();
+        synchronized (this) {
+            // A write made during the load may not be seen by the loaded result
+            if (this.generation == loadGeneration && loaded.getWeight() <= this.size) {
+                this.put(key, loaded);
+            }
+        }
+        return loaded;
+    }
+
+    private void put(EntryKey key, Entry entry) {
+        // The same result may have been loaded concurrently
+        this.remove(key);
+        entry.expiresAt = Instant.now().plus(this.timeToLive);
+        this.entries.put(key, entry);
+        this.entriesBySearch.computeIfAbsent(key.search, (k) -> new HashSet<>()).add(key);
+        entry.bookIds.forEach((bookId) -> this.entriesByBook.computeIfAbsent(bookId, (k) -> new HashSet<>()).add(key));
+        this.weight += entry.getWeight();
+        final Iterator<Map.Entry<EntryKey, Entry>> eldestEntries = this.entries.entrySet().iterator();
+        while (this.weight > this.size) {
+            final Map.Entry<EntryKey, Entry> eldestEntry = eldestEntries.next();
+            eldestEntries.remove();
+            this.unindex(eldestEntry.getKey(), eldestEntry.getValue());
+            this.sizeEvictions.increment();
+        }
+    }
+
+    private void remove(EntryKey key) {
+        final Entry entry = this.entries.remove(key);
+        if (entry != null) {
+            this.unindex(key, entry);
+        }
+    }
+
+    private void unindex(EntryKey key, Entry entry) {
+        this.weight -= entry.getWeight();
+        removeFromIndex(this.entriesBySearch, key.search, key);
+        entry.bookIds.forEach((bookId) -> removeFromIndex(this.entriesByBook, bookId, key));
+    }
+
+    private static <K> void removeFromIndex(Map<K, Set<EntryKey>> index, K indexKey, EntryKey key) {
+        final Set<EntryKey> keys = index.get(indexKey);
+        if (keys != null && keys.remove(key) && keys.isEmpty()) {
+            index.remove(indexKey);
+        }
+    }
+
+    private Set<SearchKey> getSearchesHoldingBook(String bookId) {
+        final Set<EntryKey> keys = bookId == null ? null : this.entriesByBook.get(bookId);
+        return keys == null ? Set.of() : keys.stream().map((key) -> key.search).collect(Collectors.toSet());
+    }
+
+    private void invalidate(Collection<SearchKey> searches) {
+        for (SearchKey search : searches) {
+            final Set<EntryKey> keys = this.entriesBySearch.get(search);
+            if (keys != null) {
+                this.invalidationEvictions.increment(keys.size());
+                new ArrayList<>(keys).forEach(this::remove);
+            }
+        }
+        LOG.debug(String.format("%d book searches invalidated.", searches.size()));
+    }
+
+    /**
+     * Canonical form of the criteria of a filter: filters selecting the same books share their
+     * results.
+     */
+    static final class SearchKey {
+
+        private final String isbn;
+
+        private final String title;
+
+        private final String language;
+
+        private final List<String> categoryCodes;
+
+        private final boolean childCompliant;
+
+        private final boolean available;
+
+        private final Integer nbPages;
+
+        SearchKey(BookRequestFilter filter) {
+            this.isbn = Strings.isBlank(filter.getIsbnFilter()) ? null : filter.getIsbnFilter().trim();
+            // The text search ignores the case
+            this.title = Strings.isBlank(filter.getTitleAlikeFilter())
+                    ? null : filter.getTitleAlikeFilter().trim().toLowerCase(Locale.ROOT);
+            this.language = this.title == null || Strings.isBlank(filter.getLanguage()) ? null : filter.getLanguage();
+            this.categoryCodes = filter.getCategoryCodesFilter() == null || filter.getCategoryCodesFilter().isEmpty()
+                    ? null : filter.getCategoryCodesFilter().stream().filter(Objects::nonNull)
+                            .distinct().sorted().collect(Collectors.toUnmodifiableList());
+            this.childCompliant = Boolean.TRUE.equals(filter.getChildCompliant());
+            this.available = Boolean.TRUE.equals(filter.getAvailableFilter());
+            this.nbPages = filter.getNbPages() == null || filter.getNbPages() < 0 ? null : filter.getNbPages();
+        }
+
+        /**
+         * Tell if a book may be selected by these criteria.
+         *
+         * @param book the book, may be null
+         * @return false if the book cannot be selected
+         */
+        boolean mayMatch(Book book) {
+            if (book == null) {
+                return false;
+            }
+            if (this.isbn != null && !this.isbn.equals(book.getIsbn())) {
+                return false;
+            }
+            if (this.categoryCodes != null && (book.getCategories() == null || book.getCategories().stream()
+                    .noneMatch((category) -> category != null && this.categoryCodes.contains(category.getCode())))) {
+                return false;
+            }
+            if ((this.childCompliant && book.isAdultOnly()) || (this.available && book.getAvailableCopies() <= 0)) {
+                return false;
+            }
+            if (this.nbPages != null && (book.getNumOfPages() == null
+                    || book.getNumOfPages() < this.nbPages - NB_PAGES_MARGIN
+                    || book.getNumOfPages() > this.nbPages + NB_PAGES_MARGIN)) {
+                return false;
+            }
+            // The title is matched by the text index, with its stemming and stop words
+            return true;
+        }
+
+        boolean hasAnyCategory(Set<String> codes) {
+            return this.categoryCodes != null && this.categoryCodes.stream().anyMatch(codes::contains);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.isbn, this.title, this.language, this.categoryCodes, this.childCompliant,
+                    this.available, this.nbPages);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final SearchKey other = (SearchKey) obj;
+            return this.childCompliant == other.childCompliant
+                    && this.available == other.available
+                    && Objects.equals(this.isbn, other.isbn)
+                    && Objects.equals(this.title, other.title)
+                    && Objects.equals(this.language, other.language)
+                    && Objects.equals(this.categoryCodes, other.categoryCodes)
+                    && Objects.equals(this.nbPages, other.nbPages);
+        }
+    }
+
+    /**
+     * Key of a result: a page of a search in a given order, or the count of a search.
+     */
+    static final class EntryKey {
+
+        private final SearchKey search;
+
+        private final Sort sort;
+
+        private final Integer page;
+
+        private final Integer pageSize;
+
+        private final boolean count;
+
+        EntryKey(BookRequestFilter filter, boolean count) {
+            this.search = new SearchKey(filter);
+            this.count = count;
+            this.sort = count || filter.getSort() == null ? Sort.unsorted() : filter.getSort();
+            this.page = count || !filter.isPaged() ? null : (filter.getPage() == null ? 0 : filter.getPage());
+            this.pageSize = count || !filter.isPaged() ? null : filter.getPageSize();
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.search, this.sort, this.page, this.pageSize, this.count);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final EntryKey other = (EntryKey) obj;
+            return this.count == other.count
+                    && Objects.equals(this.search, other.search)
+                    && Objects.equals(this.sort, other.sort)
+                    && Objects.equals(this.page, other.page)
+                    && Objects.equals(this.pageSize, other.pageSize);
+        }
+    }
+
+    private static final class Entry {
+
+        private final List<Document> documents;
+
+        private final List<String> bookIds;
+
+        private final long count;
+
+        private Instant expiresAt;
+
+        Entry(List<Document> documents, long count) {
+            this.documents = documents;
+            this.bookIds = documents.stream().map(Entry::getId).filter(Objects::nonNull).collect(Collectors.toList());
+            this.count = count;
+        }
+
+        int getWeight() {
+            return Math.max(1, this.documents.size());
+        }
+
+        boolean hasAnyCategory(Set<String> categoryIds) {
+            return this.documents.stream()
+                    .map((document) -> document.get("categories"))
+                    .filter(List.class::isInstance)
+                    .flatMap((categories) -> ((List<?>) categories).stream())
+                    .anyMatch((category) -> category instanceof Document && categoryIds.contains(getId((Document) category)));
+        }
+
+        private static String getId(Document document) {
+            final Object id = document.get("_id");
+            return id == null ? null : id.toString();
+        }
+    }
+}
@@ -26,7 +26,10 @@ import mmiLibraryServer.mongoModel.BookState;
 import mmiLibraryServer.mongoModel.Loan;
 import mmiLibraryServer.mongoModel.utils.BookRequestFilter;
 import mmiLibraryServer.services.exceptions.HasOngoingLoanException;
+import mmiLibraryServer.services.exceptions.PreconditionFailedException;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
 
 /**
  *
@@ -34,6 +37,11 @@ import org.springframework.dao.DuplicateKeyException;
  */
 public interface BookService {
 
+    /**
+     * Maximum number of books that can be retrieved in a single page.
+     */
+    int MAX_PAGE_SIZE = 500;
+
     /**
      * Get all books.
      *
@@ -50,6 +58,18 @@ public interface BookService {
      */
     List<Book> getBooks(BookRequestFilter filter);
 
+    /**
+     * Get a page of the books that match the different given filters.
+     *
+     * @param filter the filters, that must be paged
+     * @param withTotalCount if the total number of matching books must be computed. If true, the
+     * returned slice is a {@link Page}
+     * @return the page of books
+     * @throws IllegalArgumentException if filter is null, not paged or if its page size is greater
+     * than MAX_PAGE_SIZE
+     */
+    Slice<Book> getBooksPage(BookRequestFilter filter, boolean withTotalCount);
+
     /**
      * Get a book from its id.
      *
@@ -60,6 +80,17 @@ public interface BookService {
      */
     Book getBookById(String bookId);
 
+    /**
+     * Get the revision of a book, without loading it. The revision changes whenever the book,
+     * one of its copies or one of its categories changes.
+     *
+     * @param bookId the book id
+     * @return the revision
+     * @throws IllegalArgumentException if bookId is null
+     * @throws NoSuchElementException if bookId is unknown
+     */
+    String getBookRevision(String bookId);
+
     /**
      * Create a book from book information.
      *
@@ -80,6 +111,19 @@ public interface BookService {
      */
     Book updateBook(Book book);
 
+    /**
+     * Update a book if it still has the given revision. The revision is checked by the update
+     * itself.
+     *
+     * @param book the book to update
+     * @param revision the expected revision of the book, null to update it whatever its revision
+     * @return the updated book
+     * @throws IllegalArgumentException if book or book.id is null
+     * @throws NoSuchElementException if book is unknown
+     * @throws PreconditionFailedException if the book no longer has the given revision
+     */
+    Book updateBook(Book book, String revision);
+
     /**
      * Delete a book from its id.
      *
@@ -111,11 +155,11 @@ public interface BookService {
     List<BookCopy> createBookCopies(String bookId, int numCopies, BookState initialState);
 
     /**
-     * Get a book copy by its book id and its id.
+     * Get a book copy by its book id and its id, with its loans and their members.
      *
      * @param bookId the book id
      * @param bookCopyId the book copy id
-     * @return the book copy
+     * @return the book copy with its loans
      * @throws IllegalArgumentException if bookId is null or bookCopyId is null
      * @throws NoSuchElementException if bookCopy if unknown or book copy does not belong to book
      */
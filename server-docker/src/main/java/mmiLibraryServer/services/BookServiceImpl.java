@@ -18,12 +18,19 @@
  */
 package mmiLibraryServer.services;
 
+import io.micrometer.core.annotation.Timed;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 import mmiLibraryServer.mongoModel.Book;
+import mmiLibraryServer.mongoModel.BookCategory;
+import mmiLibraryServer.mongoModel.BookCategoryRepository;
+import mmiLibraryServer.mongoModel.BookCategorySnapshot;
 import mmiLibraryServer.mongoModel.BookCopy;
 import mmiLibraryServer.mongoModel.BookCopyRepository;
 import mmiLibraryServer.mongoModel.BookRepository;
@@ -32,10 +39,18 @@ import mmiLibraryServer.mongoModel.Loan;
 import mmiLibraryServer.mongoModel.LoanRepository;
 import mmiLibraryServer.mongoModel.utils.BookRequestFilter;
 import mmiLibraryServer.services.exceptions.HasOngoingLoanException;
+import mmiLibraryServer.services.exceptions.PreconditionFailedException;
+import mmiLibraryServer.services.model.CirculationEvent;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.logging.log4j.util.Strings;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.stereotype.Service;
 
 /**
@@ -43,21 +58,32 @@ import org.springframework.stereotype.Service;
  * @author Rémi Venant
  */
 @Service
+@Timed("mmilibrary.services")
 public class BookServiceImpl implements BookService {
 
     private static final Log LOG = LogFactory.getLog(BookServiceImpl.class);
 
     private final BookRepository bookRepo;
 
+    private final BookCategoryRepository bookCatRepo;
+
     private final BookCopyRepository bookCopyRepo;
 
     private final LoanRepository loanRepo;
 
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final BookSearchCache searchCache;
+
     @Autowired
-    public BookServiceImpl(BookRepository bookRepo, BookCopyRepository bookCopyRepo, LoanRepository loanRepo) {
+    public BookServiceImpl(BookRepository bookRepo, BookCategoryRepository bookCatRepo, BookCopyRepository bookCopyRepo,
+            LoanRepository loanRepo, ApplicationEventPublisher eventPublisher, BookSearchCache searchCache) {
         this.bookRepo = bookRepo;
+        this.bookCatRepo = bookCatRepo;
         this.bookCopyRepo = bookCopyRepo;
         this.loanRepo = loanRepo;
+        this.eventPublisher = eventPublisher;
+        this.searchCache = searchCache;
     }
 
     @Override
@@ -70,7 +96,27 @@ public class BookServiceImpl implements BookService {
         if (filter == null) {
             throw new IllegalArgumentException("Missing filter.");
         }
-        return this.bookRepo.findAllByFilter(filter);
+        return this.searchCache.getBooks(filter,
+                () -> this.bookRepo.findAllDocumentsByFilter(filter), this.bookRepo::readBook);
+    }
+
+    @Override
+    public Slice<Book> getBooksPage(BookRequestFilter filter, boolean withTotalCount) {
+        if (filter == null || !filter.isPaged()) {
+            throw new IllegalArgumentException("Missing filter or page.");
+        }
+        if (filter.getPageSize() > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException(String.format("Page size must be between 1 and %d.", MAX_PAGE_SIZE));
+        }
+        final Pageable pageable = PageRequest.of(filter.getPage() == null ? 0 : filter.getPage(), filter.getPageSize());
+        final List<Book> books = this.searchCache.getBooks(filter,
+                () -> this.bookRepo.findAllDocumentsByFilter(filter), this.bookRepo::readBook);
+        if (withTotalCount) {
+            return new PageImpl<>(books, pageable,
+                    this.searchCache.countBooks(filter, () -> this.bookRepo.countByFilter(filter)));
+        }
+        // Without count, a full page may be the last one: next page will then be empty
+        return new SliceImpl<>(books, pageable, books.size() == filter.getPageSize());
     }
 
     @Override
@@ -85,6 +131,18 @@ public class BookServiceImpl implements BookService {
         }
     }
 
+    @Override
+    public String getBookRevision(String bookId) {
+        if (bookId == null) {
+            throw new IllegalArgumentException("Missing book id.");
+        }
+        final String revision = this.bookRepo.findRevision(bookId);
+        if (revision == null) {
+            throw new NoSuchElementException("Unknown book.");
+        }
+        return revision;
+    }
+
     @Override
     public Book createBook(Book book) {
         if (book == null) {
@@ -93,31 +151,74 @@ public class BookServiceImpl implements BookService {
         if (book.getId() != null) {
             throw new IllegalArgumentException("A new book cannot have already an id.");
         }
-        // Force the reload of the book to get full cats
-        return this.bookRepo.findById(this.bookRepo.save(book).getId()).get();
-
+        book.setCategories(this.snapshotCategories(book.getCategories()));
+        final Book createdBook = this.bookRepo.save(book);
+        this.searchCache.invalidateBook(null, createdBook);
+        return createdBook;
     }
 
     @Override
     public Book updateBook(Book bookToUpdate) {
+        return this.updateBook(bookToUpdate, null);
+    }
+
+    @Override
+    public Book updateBook(Book bookToUpdate, String revision) {
         if (bookToUpdate == null || bookToUpdate.getId() == null) {
             throw new IllegalArgumentException("Missing information to update book.");
         }
-        Book book = this.bookRepo.findById(bookToUpdate.getId())
+        final Book previousBook = this.bookRepo.findById(bookToUpdate.getId())
                 .orElseThrow(() -> new NoSuchElementException("Unknown book to update."));
-        if (!Strings.isBlank(bookToUpdate.getIsbn())) {
-            book.setIsbn(bookToUpdate.getIsbn());
+        // The given book holds the new description, the previous one is kept for the search cache
+        if (Strings.isBlank(bookToUpdate.getIsbn())) {
+            bookToUpdate.setIsbn(previousBook.getIsbn());
+        }
+        if (Strings.isBlank(bookToUpdate.getTitle())) {
+            bookToUpdate.setTitle(previousBook.getTitle());
+        }
+        bookToUpdate.setCategories(this.snapshotCategories(bookToUpdate.getCategories()));
+        // Update the description only to keep the copy counters. The revision of a book is its
+        // version: the update checks it
+        final Book updatedBook = this.bookRepo.updateDescription(bookToUpdate,
+                revision == null ? null : Long.valueOf(revision));
+        if (updatedBook == null) {
+            if (revision != null) {
+                throw new PreconditionFailedException("The book has been modified.");
+            }
+            throw new NoSuchElementException("Unknown book to update.");
         }
-        if (!Strings.isBlank(bookToUpdate.getTitle())) {
-            book.setTitle(bookToUpdate.getTitle());
+        this.searchCache.invalidateBook(previousBook, updatedBook);
+        return updatedBook;
+    }
+
+    /**
+     * Take the snapshots of the categories of a book, that may only hold their id, from the
+     * current categories. Categories without id or unknown are dropped.
+     *
+     * @param categories the categories of the book, may be null
+     * @return the snapshots
+     */
+    private List<BookCategorySnapshot> snapshotCategories(List<BookCategorySnapshot> categories) {
+        if (categories == null || categories.isEmpty()) {
+            return new ArrayList<>();
         }
-        book.setEditor(bookToUpdate.getEditor());
-        book.setNumOfPages(bookToUpdate.getNumOfPages());
-        book.setPublicationYear(bookToUpdate.getPublicationYear());
-        book.setAuthors(bookToUpdate.getAuthors());
-        book.setCategories(bookToUpdate.getCategories());
-        // Force the reload of the book to get full cats
-        return this.bookRepo.findById(this.bookRepo.save(book).getId()).get();
+        final List<String> categoryIds = categories.stream()
+                .filter(Objects::nonNull)
+                .map(BookCategorySnapshot::getId)
+                .filter(Objects::nonNull)
+                .distinct()
+                .collect(Collectors.toList());
+        if (categoryIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        final Map<String, BookCategory> categoriesById = StreamSupport
+                .stream(this.bookCatRepo.findAllById(categoryIds).spliterator(), false)
+                .collect(Collectors.toMap(BookCategory::getId, Function.identity()));
+        return categoryIds.stream()
+                .map(categoriesById::get)
+                .filter(Objects::nonNull)
+                .map(BookCategorySnapshot::of)
+                .collect(Collectors.toList());
     }
 
     //@Override
@@ -125,10 +226,10 @@ public class BookServiceImpl implements BookService {
         if (bookId == null) {
             throw new IllegalArgumentException("missing bookId.");
         }
-        if (!this.bookRepo.existsById(bookId)) {
-            throw new NoSuchElementException("Unknown book to delete.");
-        }
+        final Book book = this.bookRepo.findById(bookId)
+                .orElseThrow(() -> new NoSuchElementException("Unknown book to delete."));
         this.bookRepo.deleteById(bookId);
+        this.searchCache.invalidateBook(book, null);
     }
 
     @Override
@@ -138,7 +239,7 @@ public class BookServiceImpl implements BookService {
         }
         try {
             final Book book = this.bookRepo.findById(bookId).get();
-            return this.loanRepo.findByBookCopyInOrderByLoanDateTimeDesc(book.getCopies());
+            return this.loanRepo.findByBookCopyInWithMembers(book.getCopies());
         } catch (NoSuchElementException ex) {
             throw new NoSuchElementException("Unknown book.");
         }
@@ -159,8 +260,11 @@ public class BookServiceImpl implements BookService {
             for (int i = 0; i < numCopies; i++) {
                 copies.add(new BookCopy(book, state));
             }
-            return StreamSupport.stream(this.bookCopyRepo.saveAll(copies).spliterator(), false)
+            final List<BookCopy> createdCopies = StreamSupport.stream(this.bookCopyRepo.saveAll(copies).spliterator(), false)
                     .collect(Collectors.toList());
+            this.bookCopyRepo.incrementBookCopyCounters(bookId, numCopies, numCopies, 0);
+            createdCopies.forEach((bookCopy) -> this.eventPublisher.publishEvent(CirculationEvent.ofBookCopy(bookCopy)));
+            return createdCopies;
         } catch (NoSuchElementException ex) {
             throw new NoSuchElementException("Unknown book.");
         }
@@ -176,7 +280,7 @@ public class BookServiceImpl implements BookService {
         if (!bookId.equals(bookCopy.getBook().getId())) {
             throw new NoSuchElementException("Unknown book copy in book.");
         }
-        return bookCopy;
+        return this.loanRepo.loadLoansWithMembers(bookCopy);
     }
 
     @Override
@@ -206,19 +310,16 @@ public class BookServiceImpl implements BookService {
         if (!bookId.equals(bookCopy.getBook().getId())) {
             throw new NoSuchElementException("Unknown book copy in book.");
         }
-        // bookCopy is available
-        if (!bookCopy.isAvailable()) {
-            throw new HasOngoingLoanException("Cannot update a book copy that has on going loan");
-        }
 
-        // apply updates
-        if (inputBookCopy.getState() != null) {
-            bookCopy.setState(inputBookCopy.getState());
-        }
-        if (inputBookCopy.isRemoved() != null) {
-            bookCopy.setRemoved(inputBookCopy.isRemoved());
+        // apply updates, if bookCopy is available: checked by the update itself, as the copy may
+        // have been borrowed since it was read
+        final BookCopy updatedBookCopy = this.bookCopyRepo.findAndUpdateIfAvailable(bookCopy.getId(),
+                inputBookCopy.getState(), inputBookCopy.isRemoved());
+        if (updatedBookCopy == null) {
+            throw new HasOngoingLoanException("Cannot update a book copy that has on going loan");
         }
-        return this.bookCopyRepo.save(bookCopy);
+        this.eventPublisher.publishEvent(CirculationEvent.ofBookCopy(updatedBookCopy));
+        return updatedBookCopy;
     }
 
     @Override
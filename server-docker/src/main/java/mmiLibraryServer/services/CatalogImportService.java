@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import mmiLibraryServer.services.model.CatalogImportFormat;
+import mmiLibraryServer.services.model.CatalogImportReport;
+
+/**
+ * Import of whole catalogs of books with their copies, for the migration of an existing library.
+ *
+ * @author Rémi Venant
+ */
+public interface CatalogImportService {
+
+    /**
+     * Import a catalog of books, each with the codes of its existing categories and the number of
+     * its copies by state. The catalog is read and written by batches: records are validated and
+     * the valid ones inserted at once, with their copies. Invalid records and books whose isbn
+     * already exists are rejected without stopping the import, and reported along with their
+     * line.
+     *
+     * @param catalog the catalog, encoded in UTF-8. It is not closed.
+     * @param format the format of the catalog
+     * @return the report of the import
+     * @throws IOException if the catalog cannot be read
+     */
+    CatalogImportReport importCatalog(InputStream catalog, CatalogImportFormat format) throws IOException;
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import mmiLibraryServer.mongoModel.Book;
+import mmiLibraryServer.mongoModel.BookCategory;
+import mmiLibraryServer.mongoModel.BookCategoryRepository;
+import mmiLibraryServer.mongoModel.BookRepository;
+import mmiLibraryServer.mongoModel.BookState;
+import mmiLibraryServer.services.catalogImport.CatalogRecord;
+import mmiLibraryServer.services.catalogImport.CatalogRecordReader;
+import mmiLibraryServer.services.catalogImport.CsvCatalogRecordReader;
+import mmiLibraryServer.services.catalogImport.NdjsonCatalogRecordReader;
+import mmiLibraryServer.services.model.CatalogImportError;
+import mmiLibraryServer.services.model.CatalogImportFormat;
+import mmiLibraryServer.services.model.CatalogImportReport;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.logging.log4j.util.Strings;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Catalog import writing each batch of books with a single unordered bulk insert, and their copies
+ * with another one. The categories are read once for the whole catalog.
+ *
+ * @author Rémi Venant
+ */
+@Service
+public class CatalogImportServiceImpl implements CatalogImportService {
+
+    private static final Log LOG = LogFactory.getLog(CatalogImportServiceImpl.class);
+
+    /**
+     * Maximum number of copies of an imported book, so that a wrong record cannot exhaust memory.
+     */
+    private static final int MAX_COPIES_PER_BOOK = 1000;
+
+    private final BookRepository bookRepo;
+
+    private final BookCategoryRepository categoryRepo;
+
+    private final ObjectMapper objectMapper;
+
+    private final int batchSize;
+
+    private final BookSearchCache bookSearchCache;
+
+    @Autowired
+    public CatalogImportServiceImpl(BookRepository bookRepo, BookCategoryRepository categoryRepo,
+            ObjectMapper objectMapper, @Value("${mmiLibraryServer.catalogImport.batchSize:1000}") int batchSize,
+            BookSearchCache bookSearchCache) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("The batch size of the catalog import must be positive.");
+        }
+        this.bookRepo = bookRepo;
+        this.categoryRepo = categoryRepo;
+        this.objectMapper = objectMapper;
+        this.batchSize = batchSize;
+        this.bookSearchCache = bookSearchCache;
+    }
+
+    @Override
+    public CatalogImportReport importCatalog(InputStream catalog, CatalogImportFormat format) throws IOException {
+        if (catalog == null || format == null) {
+            throw new IllegalArgumentException("Missing catalog or catalog format.");
+        }
+        final Map<String, BookCategory> categoriesByCode = new HashMap<>();
+        this.categoryRepo.findAll().forEach((category) -> categoriesByCode.putIfAbsent(category.getCode(), category));
+        final CatalogImportReport report = new CatalogImportReport();
+        final List<CatalogRecord> batch = new ArrayList<>(this.batchSize);
+        // The reader is not closed: the catalog belongs to the caller
+        final CatalogRecordReader reader = this.createReader(catalog, format);
+        CatalogRecord record;
+        while ((record = reader.next()) != null) {
+            batch.add(record);
+            if (batch.size() == this.batchSize) {
+                this.importBatch(batch, categoriesByCode, report);
+                batch.clear();
+            }
+        }
+        this.importBatch(batch, categoriesByCode, report);
+        LOG.info(String.format("Catalog imported: %s", report));
+        return report;
+    }
+
+    private CatalogRecordReader createReader(InputStream catalog, CatalogImportFormat format) {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(catalog, StandardCharsets.UTF_8));
+        switch (format) {
+            case CSV:
+                return new CsvCatalogRecordReader(reader);
+            case NDJSON:
+                return new NdjsonCatalogRecordReader(reader, this.objectMapper);
+            default:
+                throw new IllegalArgumentException("Unsupported catalog format.");
+        }
+    }
+
+    /**
+     * Validate a batch of records and insert the books of the valid ones, then report every record
+     * in the order of the catalog.
+     *
+     * @param records the records of the batch
+     * @param categoriesByCode the existing categories by code
+     * @param report the report to complete
+     */
+    private void importBatch(List<CatalogRecord> records, Map<String, BookCategory> categoriesByCode,
+            CatalogImportReport report) {
+        if (records.isEmpty()) {
+            return;
+        }
+        final String[] errors = new String[records.size()];
+        final List<Book> books = new ArrayList<>(records.size());
+        final List<List<BookState>> copiesStates = new ArrayList<>(records.size());
+        final List<Integer> bookRecordIndexes = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            final CatalogRecord record = records.get(i);
+            errors[i] = record.getError() != null ? record.getError() : this.validate(record, categoriesByCode);
+            if (errors[i] == null) {
+                books.add(new Book(record.getIsbn().trim(), record.getTitle().trim(), record.getEditor(),
+                        record.getNumOfPages(), record.getPublicationYear(), record.getAuthors(),
+                        record.getCategoryCodes().stream().map(categoriesByCode::get).distinct()
+                                .collect(Collectors.toList())));
+                copiesStates.add(record.getCopiesStates());
+                bookRecordIndexes.add(i);
+            }
+        }
+        if (!books.isEmpty()) {
+            this.bookRepo.insertWithCopies(books, copiesStates)
+                    .forEach((bookIndex, error) -> errors[bookRecordIndexes.get(bookIndex)] = error);
+            // The imported books may join any search
+            this.bookSearchCache.clear();
+        }
+        for (int i = 0; i < records.size(); i++) {
+            final CatalogRecord record = records.get(i);
+            if (errors[i] == null) {
+                report.addImportedBook((int) record.getNumOfCopies());
+            } else {
+                report.addError(new CatalogImportError(record.getLine(), record.getIsbn(), errors[i]));
+            }
+        }
+    }
+
+    /**
+     * Validate a record read from the catalog.
+     *
+     * @param record the record
+     * @param categoriesByCode the existing categories by code
+     * @return the reason why the record is invalid, or null if it is valid
+     */
+    private String validate(CatalogRecord record, Map<String, BookCategory> categoriesByCode) {
+        if (Strings.isBlank(record.getIsbn())) {
+            return "Missing isbn.";
+        }
+        if (Strings.isBlank(record.getTitle())) {
+            return "Missing title.";
+        }
+        if (record.getNumOfPages() != null && record.getNumOfPages() < 0) {
+            return "Invalid numOfPages.";
+        }
+        final List<String> unknownCodes = record.getCategoryCodes().stream()
+                .filter((code) -> !categoriesByCode.containsKey(code))
+                .distinct()
+                .collect(Collectors.toList());
+        if (!unknownCodes.isEmpty()) {
+            return String.format("Unknown categories: %s.", String.join(", ", unknownCodes));
+        }
+        if (record.getNumOfCopies() > MAX_COPIES_PER_BOOK) {
+            return String.format("Too many copies (at most %d).", MAX_COPIES_PER_BOOK);
+        }
+        return null;
+    }
+}
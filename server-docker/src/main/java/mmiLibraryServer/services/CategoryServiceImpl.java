@@ -18,15 +18,21 @@
  */
 package mmiLibraryServer.services;
 
+import io.micrometer.core.annotation.Timed;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
+import mmiLibraryServer.configuration.ThreadsConfiguration;
 import mmiLibraryServer.mongoModel.BookCategory;
 import mmiLibraryServer.mongoModel.BookCategoryRepository;
+import mmiLibraryServer.mongoModel.BookRepository;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 
 /**
@@ -34,15 +40,27 @@ import org.springframework.stereotype.Service;
  * @author Rémi Venant
  */
 @Service
+@Timed("mmilibrary.services")
 public class CategoryServiceImpl implements CategoryService {
 
     private static final Log LOG = LogFactory.getLog(CategoryServiceImpl.class);
 
     private final BookCategoryRepository bookCatRepo;
 
+    private final BookRepository bookRepo;
+
+    private final Executor backgroundExecutor;
+
+    private final BookSearchCache bookSearchCache;
+
     @Autowired
-    public CategoryServiceImpl(BookCategoryRepository bookCatRepo) {
+    public CategoryServiceImpl(BookCategoryRepository bookCatRepo, BookRepository bookRepo,
+            @Qualifier(ThreadsConfiguration.FAN_OUT_EXECUTOR) Executor backgroundExecutor,
+            BookSearchCache bookSearchCache) {
         this.bookCatRepo = bookCatRepo;
+        this.bookRepo = bookRepo;
+        this.backgroundExecutor = backgroundExecutor;
+        this.bookSearchCache = bookSearchCache;
     }
 
     @Override
@@ -78,21 +96,39 @@ public class CategoryServiceImpl implements CategoryService {
         if (category == null || category.getId() == null) {
             throw new IllegalArgumentException("Missing information to update category.");
         }
-        if (!this.bookCatRepo.existsById(category.getId())) {
-            throw new NoSuchElementException("Unknown category to update.");
+        final BookCategory previousCategory = this.bookCatRepo.findById(category.getId())
+                .orElseThrow(() -> new NoSuchElementException("Unknown category to update."));
+        final BookCategory updatedCategory = this.bookCatRepo.save(category);
+        // Books hold an adult only flag computed from their categories. Loans to minors rely on it:
+        // it is refreshed before answering
+        if (updatedCategory.isAdultOnly() != previousCategory.isAdultOnly()) {
+            this.bookRepo.refreshAdultOnly(updatedCategory);
         }
-        return this.bookCatRepo.save(category);
+        this.bookSearchCache.invalidateCategory(previousCategory, updatedCategory);
+        // Books embed a snapshot of their categories, refreshed in the background. The category is
+        // read again so that concurrent updates end up with the latest one
+        final String categoryId = updatedCategory.getId();
+        CompletableFuture.runAsync(() -> this.bookCatRepo.findById(categoryId).ifPresent((currentCategory) -> {
+            this.bookRepo.updateCategorySnapshots(currentCategory);
+            this.bookSearchCache.invalidateCategory(previousCategory, currentCategory);
+        }), this.backgroundExecutor)
+                .exceptionally((ex) -> {
+                    LOG.error(String.format("Unable to update the snapshots of category %s (fixed by the next reconciliation).",
+                            categoryId), ex);
+                    return null;
+                });
+        return updatedCategory;
     }
 
     @Override
     public void deleteCategoryById(String categoryId) {
-        if (categoryId == null || !this.bookCatRepo.existsById(categoryId)) {
+        if (categoryId == null) {
             throw new IllegalArgumentException("Unknown category to delete.");
         }
-        if (!this.bookCatRepo.existsById(categoryId)) {
-            throw new NoSuchElementException("Unknown category to delete.");
-        }
-        this.bookCatRepo.deleteById(categoryId);
+        final BookCategory category = this.bookCatRepo.findById(categoryId)
+                .orElseThrow(() -> new IllegalArgumentException("Unknown category to delete."));
+        this.bookCatRepo.delete(category);
+        this.bookSearchCache.invalidateCategory(category, null);
     }
 
 }
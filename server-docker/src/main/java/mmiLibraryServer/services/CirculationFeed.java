@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.services;
+
+import mmiLibraryServer.services.model.CirculationEvent;
+import reactor.core.publisher.Flux;
+
+/**
+ * Live feed of the circulation events published by the services, for the dashboards that keep a
+ * view of the loans and of the book copies availability.
+ *
+ * @author Rémi Venant
+ */
+public interface CirculationFeed {
+
+    /**
+     * Follow the circulation events. The events are numbered in publication order. A client that
+     * reconnects gives the number of the last event it received to get the events it missed, if
+     * they are still retained by the feed; otherwise a RESET event is sent first.
+     *
+     * @param lastEventId the number of the last event received, null to only get the next events
+     * @return the endless flux of events
+     */
+    Flux<CirculationEvent> getEvents(Long lastEventId);
+}
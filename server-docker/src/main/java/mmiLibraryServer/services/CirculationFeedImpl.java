@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.services;
+
+import mmiLibraryServer.services.model.CirculationEvent;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * In-memory circulation feed, fed with the circulation events published by the services as
+ * application events. The services publish the events of the updates they make, including the
+ * atomic and bulk ones that do not raise any mapping event, and without requiring a replica set as
+ * change streams would. Only the events of this instance are followed.
+ *
+ * The last events are retained to be replayed to the clients that reconnect. Each client receives
+ * the events on its own thread: a slow client never slows down the publishing services.
+ *
+ * @author Rémi Venant
+ */
+@Service
+public class CirculationFeedImpl implements CirculationFeed {
+
+    private static final Log LOG = LogFactory.getLog(CirculationFeedImpl.class);
+
+    private final Sinks.Many<CirculationEvent> sink;
+
+    private final int replaySize;
+
+    private long lastEventId;
+
+    @Autowired
+    public CirculationFeedImpl(@Value("${mmiLibraryServer.circulationFeed.replaySize:1000}") int replaySize) {
+        if (replaySize <= 0) {
+            throw new IllegalArgumentException("The replay size of the circulation feed must be positive.");
+        }
+        this.replaySize = replaySize;
+        this.sink = Sinks.many().replay().limit(replaySize);
+    }
+
+    /**
+     * Number and publish a circulation event. Events are emitted one at a time, in the order of
+     * their numbers.
+     *
+     * @param event the event
+     */
+    @EventListener
+    public synchronized void publish(CirculationEvent event) {
+        final Sinks.EmitResult result = this.sink.tryEmitNext(event.withId(++this.lastEventId));
+        if (result.isFailure()) {
+            LOG.warn(String.format("Unable to publish circulation event %s: %s", event, result));
+        }
+    }
+
+    @Override
+    public Flux<CirculationEvent> getEvents(Long lastEventId) {
+        return Flux.defer(() -> {
+            final long currentEventId = this.getLastEventId();
+            // An unknown number comes from a previous run of the server or from a broken client
+            final boolean missed = lastEventId != null && (lastEventId < 0 || lastEventId > currentEventId
+                    || currentEventId - lastEventId > this.replaySize);
+            final long after = lastEventId == null || missed ? currentEventId : lastEventId;
+            final Flux<CirculationEvent> events = this.sink.asFlux().filter((event) -> event.getId() > after);
+            return missed ? events.startWith(CirculationEvent.reset()) : events;
+        }).publishOn(Schedulers.boundedElastic());
+    }
+
+    private synchronized long getLastEventId() {
+        return this.lastEventId;
+    }
+}
@@ -21,10 +21,18 @@ package mmiLibraryServer.services;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
 import mmiLibraryServer.mongoModel.BookCopy;
 import mmiLibraryServer.mongoModel.Loan;
 import mmiLibraryServer.mongoModel.Member;
+import mmiLibraryServer.mongoModel.utils.LoanCursor;
+import mmiLibraryServer.mongoModel.utils.LoanRequestFilter;
 import mmiLibraryServer.services.exceptions.LoanImpossibleException;
+import mmiLibraryServer.services.exceptions.PreconditionFailedException;
+import mmiLibraryServer.services.model.BulkLoanResult;
+import mmiLibraryServer.services.model.LoanCheckout;
+import org.springframework.data.domain.Slice;
 
 /**
  *
@@ -32,6 +40,16 @@ import mmiLibraryServer.services.exceptions.LoanImpossibleException;
  */
 public interface LoanService {
 
+    /**
+     * Maximum number of loans that can be retrieved in a single page.
+     */
+    int MAX_PAGE_SIZE = 500;
+
+    /**
+     * Maximum number of items of a bulk checkout or return.
+     */
+    int MAX_BULK_SIZE = 100;
+
     /**
      * Get all loans
      *
@@ -39,9 +57,50 @@ public interface LoanService {
      */
     List<Loan> getLoans();
 
+    /**
+     * Get a page of loans, order by loan date desc then by id desc.
+     *
+     * @param after the cursor of the last loan of the previous page. Start from the most recent
+     * loan if null
+     * @param size the size of the page, between 1 and MAX_PAGE_SIZE
+     * @param view the JSON view the loans will be rendered with: only the fields it serializes are
+     * read. Null to read complete loans
+     * @return the page of loans, with an indication of whether further loans exist
+     * @throws IllegalArgumentException if size is out of bounds
+     */
+    Slice<Loan> getLoans(LoanCursor after, int size, Class<?> view);
+
+    /**
+     * Get a page of the loans matching a filter (member, book copy, book, returned or open loans,
+     * loan date range, loans open for more than a number of days), order by loan date desc then by
+     * id desc. Each criteria is backed by an index, so that only the loans of the page are read.
+     *
+     * @param filter the filter. All loans if null or empty
+     * @param after the cursor of the last loan of the previous page. Start from the most recent
+     * matching loan if null
+     * @param size the size of the page, between 1 and MAX_PAGE_SIZE
+     * @param view the JSON view the loans will be rendered with: only the fields it serializes are
+     * read. Null to read complete loans
+     * @return the page of loans, with an indication of whether further loans exist
+     * @throws IllegalArgumentException if size is out of bounds
+     */
+    Slice<Loan> getLoans(LoanRequestFilter filter, LoanCursor after, int size, Class<?> view);
+
+    /**
+     * Stream all loans, order by loan date desc then by id desc, without loading them all in
+     * memory. The stream holds a database cursor and must be closed.
+     *
+     * @param view the JSON view the loans will be rendered with: only the fields it serializes are
+     * read. Null to read complete loans
+     * @return the stream of loans
+     */
+    Stream<Loan> streamLoans(Class<?> view);
+
     /**
      * Create a new loan. The initial state of the loan will be the current state of the book copy.
-     * The book copy will be automatically set as not available.
+     * The book copy will be automatically set as not available. The availability of the book copy
+     * is checked and updated atomically: among concurrent checkouts of the same copy, only one can
+     * succeed.
      *
      * @param member the member who borrows the book copy. Cannot be null.
      * @param bookCopy the book copy. Cannot be null.
@@ -53,6 +112,42 @@ public interface LoanService {
      */
     Loan createLoan(Member member, BookCopy bookCopy, LocalDateTime loanDateTime) throws LoanImpossibleException;
 
+    /**
+     * Create a new loan from the ids of its member and book copy, with the same rules as
+     * createLoan. The member, the book copy and the adult only flag of its book are retrieved
+     * concurrently, on the fan-out executor.
+     *
+     * @param checkout the ids of the member and book copy, and the datetime of the loan
+     * @return the future created Loan, completed exceptionally with IllegalArgumentException if
+     * an id is missing, NoSuchElementException if the member or book copy does not exist, or
+     * LoanImpossibleException if the loan cannot be created
+     */
+    CompletableFuture<Loan> createLoanAsync(LoanCheckout checkout);
+
+    /**
+     * Create several loans at once. Each checkout is validated independently, with the same rules
+     * as createLoan; the valid ones are applied with grouped writes. The result of each checkout
+     * is given at the same position in the returned list. If only some of the loans could be
+     * saved, the other ones are reported as failures and their book copies are released.
+     *
+     * @param checkouts the checkouts
+     * @return the result of each checkout
+     * @throws IllegalArgumentException if checkouts is null, empty or larger than MAX_BULK_SIZE
+     */
+    List<BulkLoanResult> createLoans(List<LoanCheckout> checkouts);
+
+    /**
+     * Return several loans at once. Each given loan must hold the id of the loan, its return
+     * dateTime and its return state, and is validated independently. The valid returns are applied
+     * with grouped writes, making the book copies available with the return state. The result of
+     * each return is given at the same position in the returned list.
+     *
+     * @param returns the loans to return
+     * @return the result of each return
+     * @throws IllegalArgumentException if returns is null, empty or larger than MAX_BULK_SIZE
+     */
+    List<BulkLoanResult> returnLoans(List<Loan> returns);
+
     /**
      * Get a loan by its id.
      *
@@ -63,6 +158,17 @@ public interface LoanService {
      */
     Loan getLoanById(String loanId);
 
+    /**
+     * Get the revision of a loan, without loading it. The revision changes whenever the loan, its
+     * member or the book of its copy changes.
+     *
+     * @param loanId the loan id.
+     * @return the revision
+     * @throws IllegalArgumentException if loanId is null.
+     * @throws NoSuchElementException if the loan does not exist.
+     */
+    String getLoanRevision(String loanId);
+
     /**
      * Update a loan, either to correct the loan date or when the book copy is returned. If a book
      * copy is return, both loanDate and returnState must be provided.
@@ -76,6 +182,19 @@ public interface LoanService {
      */
     Loan updateLoan(Loan loan);
 
+    /**
+     * Update a loan if it still has the given revision. The version of the loan is checked by
+     * the update itself; its member and book are only checked when the revision is read.
+     *
+     * @param loan the loan information to update
+     * @param revision the expected revision of the loan, null to update it whatever its revision
+     * @return the updated Loan
+     * @throws IllegalArgumentException if the update is invalid (see updateLoan(Loan))
+     * @throws NoSuchElementException if the loan does not exist.
+     * @throws PreconditionFailedException if the loan no longer has the given revision
+     */
+    Loan updateLoan(Loan loan, String revision);
+
     /**
      * Delete a loan by its id. Should only be used to cancel a loan
      *
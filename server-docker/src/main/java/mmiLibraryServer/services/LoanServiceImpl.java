@@ -18,20 +18,51 @@
  */
 package mmiLibraryServer.services;
 
+import io.micrometer.core.annotation.Timed;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
-import mmiLibraryServer.mongoModel.BookCategory;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import mmiLibraryServer.configuration.ThreadsConfiguration;
 import mmiLibraryServer.mongoModel.BookCopy;
 import mmiLibraryServer.mongoModel.BookCopyRepository;
+import mmiLibraryServer.mongoModel.BookRepository;
 import mmiLibraryServer.mongoModel.BookState;
 import mmiLibraryServer.mongoModel.Loan;
 import mmiLibraryServer.mongoModel.LoanRepository;
 import mmiLibraryServer.mongoModel.Member;
+import mmiLibraryServer.mongoModel.MemberRepository;
+import mmiLibraryServer.mongoModel.utils.LoanCursor;
+import mmiLibraryServer.mongoModel.utils.LoanRequestFilter;
 import mmiLibraryServer.services.exceptions.LoanImpossibleException;
+import mmiLibraryServer.services.exceptions.PreconditionFailedException;
+import mmiLibraryServer.services.model.BulkLoanResult;
+import mmiLibraryServer.services.model.CirculationEvent;
+import mmiLibraryServer.services.model.LoanCheckout;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.stereotype.Service;
 
 /**
@@ -39,18 +70,34 @@ import org.springframework.stereotype.Service;
  * @author Rémi Venant
  */
 @Service
+@Timed("mmilibrary.services")
 public class LoanServiceImpl implements LoanService {
 
     private static final Log LOG = LogFactory.getLog(LoanServiceImpl.class);
 
     private final LoanRepository loanRepository;
 
+    private final BookRepository bookRepository;
+
     private final BookCopyRepository bookCopyRepository;
 
+    private final MemberRepository memberRepository;
+
+    private final Executor fanOutExecutor;
+
+    private final ApplicationEventPublisher eventPublisher;
+
     @Autowired
-    public LoanServiceImpl(LoanRepository loanRepository, BookCopyRepository bookCopyRepository) {
+    public LoanServiceImpl(LoanRepository loanRepository, BookRepository bookRepository,
+            BookCopyRepository bookCopyRepository, MemberRepository memberRepository,
+            @Qualifier(ThreadsConfiguration.FAN_OUT_EXECUTOR) Executor fanOutExecutor,
+            ApplicationEventPublisher eventPublisher) {
         this.loanRepository = loanRepository;
+        this.bookRepository = bookRepository;
         this.bookCopyRepository = bookCopyRepository;
+        this.memberRepository = memberRepository;
+        this.fanOutExecutor = fanOutExecutor;
+        this.eventPublisher = eventPublisher;
     }
 
     @Override
@@ -58,17 +105,77 @@ public class LoanServiceImpl implements LoanService {
         return this.loanRepository.findByOrderByLoanDateTimeDesc();
     }
 
+    @Override
+    public Slice<Loan> getLoans(LoanCursor after, int size, Class<?> view) {
+        return this.getLoans(null, after, size, view);
+    }
+
+    @Override
+    public Slice<Loan> getLoans(LoanRequestFilter filter, LoanCursor after, int size, Class<?> view) {
+        if (size <= 0 || size > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException(String.format("Page size must be between 1 and %d.", MAX_PAGE_SIZE));
+        }
+        // Fetch one more loan than requested to know if a next page exists
+        final List<Loan> loans = filter == null || filter.isEmpty()
+                ? this.loanRepository.findPageOrderByLoanDateTimeDesc(after, size + 1, view)
+                : this.loanRepository.findPageByFilter(filter, after, size + 1, view);
+        final boolean hasNext = loans.size() > size;
+        return new SliceImpl<>(hasNext ? loans.subList(0, size) : loans, PageRequest.ofSize(size), hasNext);
+    }
+
+    @Override
+    public Stream<Loan> streamLoans(Class<?> view) {
+        return this.loanRepository.streamAllOrderByLoanDateTimeDesc(view);
+    }
+
     @Override
     public Loan createLoan(Member member, BookCopy bookCopy, LocalDateTime givenLoanDateTime) throws LoanImpossibleException {
         // Global preconditions
         if (member == null || bookCopy == null) {
             throw new IllegalArgumentException("Missing member or bookCopy to create loan.");
         }
+        // The adult only flag of the book is checked without loading the book and its categories
+        return this.createLoan(member, bookCopy,
+                () -> this.bookRepository.existsByIdAndAdultOnlyTrue(bookCopy.getBookId()),
+                givenLoanDateTime);
+    }
+
+    @Override
+    public CompletableFuture<Loan> createLoanAsync(LoanCheckout checkout) {
+        if (checkout == null || checkout.getMemberId() == null || checkout.getBookCopyId() == null) {
+            return CompletableFuture.failedFuture(
+                    new IllegalArgumentException("Missing member id or book copy id to create loan."));
+        }
+        // The member, the book copy and the child protection check are independent lookups: they
+        // are issued concurrently. The child protection check is speculative, as the minority of
+        // the member is not known yet, and only reads the book id of the copy and the adult only flag
+        // of the book.
+        final CompletableFuture<Member> member = CompletableFuture.supplyAsync(()
+                -> this.memberRepository.findById(checkout.getMemberId())
+                        .orElseThrow(() -> new NoSuchElementException("Unknown member.")), this.fanOutExecutor);
+        final CompletableFuture<BookCopy> bookCopy = CompletableFuture.supplyAsync(()
+                -> this.bookCopyRepository.findById(checkout.getBookCopyId())
+                        .orElseThrow(() -> new NoSuchElementException("Unknown book copy.")), this.fanOutExecutor);
+        final CompletableFuture<Boolean> isBookForAdult = CompletableFuture.supplyAsync(()
+                -> !this.bookCopyRepository.findAdultOnlyIds(List.of(checkout.getBookCopyId())).isEmpty(),
+                this.fanOutExecutor);
+        // The checkout itself runs on the thread completing the last lookup: it does not wait for
+        // a free fan-out thread behind the lookups of other requests
+        return CompletableFuture.allOf(member, bookCopy, isBookForAdult).thenApply((ignored) -> {
+            try {
+                return this.createLoan(member.join(), bookCopy.join(), isBookForAdult::join, checkout.getLoanDateTime());
+            } catch (LoanImpossibleException ex) {
+                throw new CompletionException(ex);
+            }
+        });
+    }
+
+    private Loan createLoan(Member member, BookCopy bookCopy, BooleanSupplier isBookForAdult,
+            LocalDateTime givenLoanDateTime) throws LoanImpossibleException {
         // Preconditions check
         // member.isMinor == true ?=> book is not for adult
         if (member.isMinor()) {
-            boolean isBookForAdult = bookCopy.getBook().getCategories().stream().anyMatch(BookCategory::isAdultOnly);
-            if (isBookForAdult) {
+            if (isBookForAdult.getAsBoolean()) {
                 throw new LoanImpossibleException("Member is minor while book is for adult.");
             }
         }
@@ -83,15 +190,161 @@ public class LoanServiceImpl implements LoanService {
                 throw new IllegalArgumentException("Cannot create a loan with a dateTime before the returnTime of a previous loan");
             }
         }
+        // Reserve the book copy: the availability is checked and updated atomically so that
+        // concurrent checkouts of the same copy cannot both succeed
+        final BookCopy reservedBookCopy = this.bookCopyRepository.findAndMarkUnavailable(bookCopy.getId());
+        if (reservedBookCopy == null) {
+            throw new LoanImpossibleException("Book copy is not available or has been removed.");
+        }
+        bookCopy.setAvailable(false);
         //Create and saved loan
         LocalDateTime loanDateTime = givenLoanDateTime == null ? LoanServiceImpl.now() : givenLoanDateTime;
-        Loan loan = this.loanRepository.save(new Loan(member, bookCopy, loanDateTime, bookCopy.getState()));
-        // update book copy availability
-        bookCopy.setAvailable(false);
-        this.bookCopyRepository.save(bookCopy);
+        final Loan loan;
+        try {
+            loan = this.loanRepository.save(new Loan(member, bookCopy, loanDateTime, reservedBookCopy.getState()));
+        } catch (RuntimeException ex) {
+            // Release the book copy if the loan could not be created
+            LOG.warn("Unable to save loan, release book copy " + bookCopy.getId(), ex);
+            this.bookCopyRepository.markAvailable(bookCopy.getId());
+            bookCopy.setAvailable(true);
+            throw ex;
+        }
+        this.memberRepository.incrementOpenLoans(member.getId(), 1);
+        this.eventPublisher.publishEvent(CirculationEvent.ofLoan(CirculationEvent.Type.LOAN_CREATED, loan));
         return loan;
     }
 
+    @Override
+    public List<BulkLoanResult> createLoans(List<LoanCheckout> checkouts) {
+        checkBulkSize(checkouts);
+        final BulkLoanResult[] results = new BulkLoanResult[checkouts.size()];
+        // Retrieve all members and book copies at once
+        final Map<String, Member> membersById = toMapById(this.memberRepository.findAllById(
+                collectIds(checkouts, LoanCheckout::getMemberId)), Member::getId);
+        final Map<String, BookCopy> bookCopiesById = toMapById(this.bookCopyRepository.findAllById(
+                collectIds(checkouts, LoanCheckout::getBookCopyId)), BookCopy::getId);
+        // Child protection only requires to check the book copies borrowed by minors
+        final Set<String> minorsBookCopyIds = checkouts.stream()
+                .filter((c) -> c != null && membersById.containsKey(c.getMemberId())
+                && membersById.get(c.getMemberId()).isMinor())
+                .map(LoanCheckout::getBookCopyId)
+                .filter(bookCopiesById::containsKey)
+                .collect(Collectors.toSet());
+        final Set<String> adultOnlyBookCopyIds = minorsBookCopyIds.isEmpty()
+                ? Set.of() : this.bookCopyRepository.findAdultOnlyIds(minorsBookCopyIds);
+        // Validate each checkout
+        final Map<String, Integer> indexByBookCopyId = new LinkedHashMap<>();
+        for (int i = 0; i < results.length; i++) {
+            final String error = this.validateCheckout(checkouts.get(i), membersById, bookCopiesById,
+                    adultOnlyBookCopyIds, indexByBookCopyId.keySet());
+            if (error == null) {
+                indexByBookCopyId.put(checkouts.get(i).getBookCopyId(), i);
+            } else {
+                results[i] = BulkLoanResult.failure(i, error);
+            }
+        }
+        // Reserve all valid book copies at once, then create the loans of the reserved ones
+        final Set<String> reservedIds = this.bookCopyRepository.markAllUnavailable(indexByBookCopyId.keySet());
+        final List<Loan> loansToCreate = new ArrayList<>(reservedIds.size());
+        indexByBookCopyId.forEach((bookCopyId, index) -> {
+            if (!reservedIds.contains(bookCopyId)) {
+                results[index] = BulkLoanResult.failure(index, "Book copy is not available or has been removed.");
+                return;
+            }
+            final LoanCheckout checkout = checkouts.get(index);
+            final BookCopy bookCopy = bookCopiesById.get(bookCopyId);
+            final LocalDateTime loanDateTime = checkout.getLoanDateTime() == null
+                    ? LoanServiceImpl.now() : checkout.getLoanDateTime();
+            loansToCreate.add(new Loan(membersById.get(checkout.getMemberId()), bookCopy, loanDateTime, bookCopy.getState()));
+        });
+        if (!loansToCreate.isEmpty()) {
+            List<Loan> createdLoans;
+            try {
+                createdLoans = StreamSupport.stream(this.loanRepository.saveAll(loansToCreate).spliterator(), false)
+                        .collect(Collectors.toList());
+            } catch (RuntimeException ex) {
+                // The loans inserted before the failure are kept: only the copies of the other ones are released
+                LOG.warn("Unable to save all loans, release the book copies of the unsaved ones", ex);
+                createdLoans = this.loanRepository.findOngoingByBookCopyIds(reservedIds);
+                final Set<String> unsavedIds = new HashSet<>(reservedIds);
+                createdLoans.forEach((loan) -> unsavedIds.remove(loan.getBookCopy().getId()));
+                this.bookCopyRepository.markAllAvailable(unsavedIds);
+                if (createdLoans.isEmpty()) {
+                    throw ex;
+                }
+                unsavedIds.forEach((bookCopyId) -> results[indexByBookCopyId.get(bookCopyId)]
+                        = BulkLoanResult.failure(indexByBookCopyId.get(bookCopyId), "Unable to create the loan."));
+            }
+            for (final Loan loan : createdLoans) {
+                final int index = indexByBookCopyId.get(loan.getBookCopy().getId());
+                loan.getBookCopy().setAvailable(false);
+                results[index] = BulkLoanResult.success(index, loan);
+            }
+            this.memberRepository.incrementOpenLoans(countByMemberId(createdLoans, 1));
+            createdLoans.forEach((loan) -> this.eventPublisher.publishEvent(
+                    CirculationEvent.ofLoan(CirculationEvent.Type.LOAN_CREATED, loan)));
+        }
+        return Arrays.asList(results);
+    }
+
+    @Override
+    public List<BulkLoanResult> returnLoans(List<Loan> returns) {
+        checkBulkSize(returns);
+        final BulkLoanResult[] results = new BulkLoanResult[returns.size()];
+        // Retrieve all loans and their book copies at once
+        final Map<String, Loan> loansById = toMapById(this.loanRepository.findAllByIdWithBookCopies(
+                collectIds(returns, Loan::getId)), Loan::getId);
+        // Validate and apply each return
+        final Set<String> returnedIds = new HashSet<>();
+        final Map<Loan, Integer> returnedLoans = new LinkedHashMap<>();
+        for (int i = 0; i < results.length; i++) {
+            final Loan input = returns.get(i);
+            if (input == null || input.getId() == null || input.getReturnDateTime() == null
+                    || input.getReturnState() == null) {
+                results[i] = BulkLoanResult.failure(i, "Missing loan id, return date or return state.");
+                continue;
+            }
+            final Loan loan = loansById.get(input.getId());
+            if (loan == null) {
+                results[i] = BulkLoanResult.failure(i, "Unknown loan.");
+            } else if (!returnedIds.add(loan.getId())) {
+                results[i] = BulkLoanResult.failure(i, "Duplicated loan in request.");
+            } else if (loan.getReturnDateTime() != null) {
+                results[i] = BulkLoanResult.failure(i, "Loan already returned.");
+            } else {
+                try {
+                    this.setReturnDateAndState(loan, input.getReturnDateTime(), input.getReturnState());
+                    returnedLoans.put(loan, i);
+                    results[i] = BulkLoanResult.success(i, loan);
+                } catch (IllegalArgumentException ex) {
+                    results[i] = BulkLoanResult.failure(i, ex.getMessage());
+                }
+            }
+        }
+        // Save loans then book copies, each with a single bulk write. Only the loans returned by
+        // this write have side effects: the others were returned meanwhile by another request
+        final Set<String> updatedIds = this.loanRepository.updateReturns(returnedLoans.keySet());
+        final List<Loan> updatedLoans = new ArrayList<>(updatedIds.size());
+        returnedLoans.forEach((loan, i) -> {
+            if (updatedIds.contains(loan.getId())) {
+                updatedLoans.add(loan);
+            } else {
+                results[i] = BulkLoanResult.failure(i, "Loan already returned.");
+            }
+        });
+        if (updatedLoans.size() != returnedLoans.size()) {
+            LOG.warn(String.format("%d loans returned while %d were expected: concurrent returns occured.",
+                    updatedLoans.size(), returnedLoans.size()));
+        }
+        final List<BookCopy> returnedBookCopies = updatedLoans.stream()
+                .map(Loan::getBookCopy).filter(Objects::nonNull).collect(Collectors.toList());
+        this.bookCopyRepository.markAllAvailableWithState(returnedBookCopies);
+        this.memberRepository.incrementOpenLoans(countByMemberId(updatedLoans, -1));
+        updatedLoans.forEach((loan) -> this.eventPublisher.publishEvent(
+                CirculationEvent.ofLoan(CirculationEvent.Type.LOAN_RETURNED, loan)));
+        return Arrays.asList(results);
+    }
+
     @Override
     public Loan getLoanById(String loanId) {
         if (loanId == null) {
@@ -104,13 +357,35 @@ public class LoanServiceImpl implements LoanService {
         }
     }
 
+    @Override
+    public String getLoanRevision(String loanId) {
+        if (loanId == null) {
+            throw new IllegalArgumentException("Missing loan id.");
+        }
+        final String revision = this.loanRepository.findRevision(loanId);
+        if (revision == null) {
+            throw new NoSuchElementException("Unknown loan.");
+        }
+        return revision;
+    }
+
     @Override
     public Loan updateLoan(Loan inputLoan) {
+        return this.updateLoan(inputLoan, null);
+    }
+
+    @Override
+    public Loan updateLoan(Loan inputLoan, String revision) {
         // Global preconditions : loan cannot be null, loan id cannot be null, loan must exist
         if (inputLoan == null) {
             throw new IllegalArgumentException("Missing loan to update.");
         }
         final Loan loan = this.loanRepository.findById(inputLoan.getId()).get();
+        // The revision of a loan starts with its version: the save of the loan checks it again
+        if (revision != null && !revision.startsWith(Objects.requireNonNullElse(loan.getVersion(), 0L) + ":")) {
+            throw new PreconditionFailedException("The loan has been modified.");
+        }
+        final boolean wasOngoing = loan.getReturnDateTime() == null;
         // According to the combinaison of given inputLoan properties, apply particular update
         int updatedEntity = NOTHING_UPDATED;
         // update loan date ?
@@ -134,13 +409,50 @@ public class LoanServiceImpl implements LoanService {
                 updatedEntity |= this.updateReturnState(loan, inputLoan.getReturnState());
             }
         }
-        // According to the change, save loan or book or both
+        // According to the change, save loan or book or both. The book copy is only updated by
+        // conditional updates of its availability and state, so that a concurrent checkout or update
+        // of the copy is never overwritten, and its counters only change if the update matched.
+        final BookCopy bookCopy = loan.getBookCopy();
+        // A reset return borrows the copy again: it is reserved before the loan is saved, as on checkout
+        final boolean reopened = !wasOngoing && loan.getReturnDateTime() == null;
+        if (reopened && this.bookCopyRepository.findAndMarkUnavailable(bookCopy.getId(), bookCopy.getState()) == null) {
+            throw new IllegalArgumentException("Cannot reset loan return of a book copy that is not available or has been removed.");
+        }
         Loan updatedLoan = loan;
         if ((updatedEntity & LOAN_UPDATED) != 0) {
-            updatedLoan = this.loanRepository.save(loan);
+            try {
+                updatedLoan = this.loanRepository.save(loan);
+            } catch (RuntimeException ex) {
+                if (reopened) {
+                    // Release the book copy if the loan could not be reset
+                    LOG.warn("Unable to save loan, release book copy " + bookCopy.getId(), ex);
+                    this.bookCopyRepository.markAvailable(bookCopy.getId());
+                }
+                if (ex instanceof OptimisticLockingFailureException && revision != null) {
+                    throw new PreconditionFailedException("The loan has been modified.");
+                }
+                throw ex;
+            }
+            final boolean ongoing = loan.getReturnDateTime() == null;
+            if (ongoing != wasOngoing) {
+                this.memberRepository.incrementOpenLoans(loan.getMemberId(), ongoing ? 1 : -1);
+            } else {
+                this.memberRepository.incrementRevision(loan.getMemberId());
+            }
         }
-        if ((updatedEntity & BOOK_UPDATED) != 0) {
-            this.bookCopyRepository.save(loan.getBookCopy());
+        if ((updatedEntity & BOOK_UPDATED) != 0 && !reopened) {
+            if (wasOngoing) {
+                // Returned: the copy is available again, in its return state
+                this.bookCopyRepository.markAllAvailableWithState(List.of(bookCopy));
+            } else {
+                // Return state of the most recent loan: the state of the copy, unless borrowed since
+                this.bookCopyRepository.findAndUpdateIfAvailable(bookCopy.getId(), bookCopy.getState(), null);
+            }
+        }
+        if (updatedEntity != NOTHING_UPDATED) {
+            final boolean returned = wasOngoing && loan.getReturnDateTime() != null;
+            this.eventPublisher.publishEvent(CirculationEvent.ofLoan(returned
+                    ? CirculationEvent.Type.LOAN_RETURNED : CirculationEvent.Type.LOAN_UPDATED, updatedLoan));
         }
         return updatedLoan;
     }
@@ -154,8 +466,11 @@ public class LoanServiceImpl implements LoanService {
         }
         final BookCopy bookCopy = loan.getBookCopy();
         this.loanRepository.deleteById(loanId);
+        this.memberRepository.incrementOpenLoans(loan.getMemberId(), -1);
+        // Only the availability of the copy is updated, if it is still unavailable
+        this.bookCopyRepository.markAvailable(bookCopy.getId());
         bookCopy.setAvailable(true);
-        this.bookCopyRepository.save(bookCopy);
+        this.eventPublisher.publishEvent(CirculationEvent.ofLoan(CirculationEvent.Type.LOAN_DELETED, loan));
     }
 
     private int updateLoanDate(Loan loan, LocalDateTime newLoanDate) {
@@ -253,32 +568,73 @@ public class LoanServiceImpl implements LoanService {
     }
 
     private Loan getMostRecentPreviousLoan(Loan loan) {
-        return loan.getBookCopy().getLoans().stream()
-                .filter((l) -> l.getLoanDateTime().isBefore(loan.getLoanDateTime()))
-                .reduce(null, (l1, l2) -> {
-                    if(l1 == null) return l2;
-                    if(l2 == null) return l1;
-                    return l1.getLoanDateTime().isBefore(l2.getLoanDateTime()) ? l2 : l1;
-                });
+        return this.loanRepository.findFirstByBookCopyAndLoanDateTimeBeforeOrderByLoanDateTimeDesc(
+                loan.getBookCopy(), loan.getLoanDateTime()).orElse(null);
     }
 
     private Loan getMostAncientNextLoan(Loan loan) {
-        return loan.getBookCopy().getLoans().stream()
-                .filter((l) -> l.getLoanDateTime().isAfter(loan.getLoanDateTime()))
-                .reduce(null, (l1, l2) -> {
-                    if(l1 == null) return l2;
-                    if(l2 == null) return l1;
-                    return l1.getLoanDateTime().isBefore(l2.getLoanDateTime()) ? l1 : l2;
-                });
+        return this.loanRepository.findFirstByBookCopyAndLoanDateTimeAfterOrderByLoanDateTimeAsc(
+                loan.getBookCopy(), loan.getLoanDateTime()).orElse(null);
     }
-    
+
     private Loan getMostRecentLoan(BookCopy bookCopy) {
-        return bookCopy.getLoans().stream()
-                .reduce(null, (l1, l2) -> {
-                    if(l1 == null) return l2;
-                    if(l2 == null) return l1;
-                    return l1.getLoanDateTime().isBefore(l2.getLoanDateTime()) ? l2 : l1;
-                });
+        return this.loanRepository.findFirstByBookCopyOrderByLoanDateTimeDesc(bookCopy).orElse(null);
+    }
+
+    private String validateCheckout(LoanCheckout checkout, Map<String, Member> membersById,
+            Map<String, BookCopy> bookCopiesById, Set<String> adultOnlyBookCopyIds, Set<String> checkedOutIds) {
+        if (checkout == null || checkout.getMemberId() == null || checkout.getBookCopyId() == null) {
+            return "Missing member id or book copy id.";
+        }
+        final Member member = membersById.get(checkout.getMemberId());
+        if (member == null) {
+            return "Unknown member.";
+        }
+        final BookCopy bookCopy = bookCopiesById.get(checkout.getBookCopyId());
+        if (bookCopy == null) {
+            return "Unknown book copy.";
+        }
+        if (checkedOutIds.contains(bookCopy.getId())) {
+            return "Duplicated book copy in request.";
+        }
+        if (member.isMinor() && adultOnlyBookCopyIds.contains(bookCopy.getId())) {
+            return "Member is minor while book is for adult.";
+        }
+        if (!bookCopy.isAvailable() || bookCopy.isRemoved()) {
+            return "Book copy is not available or has been removed.";
+        }
+        if (checkout.getLoanDateTime() != null) {
+            final Loan mostRecentLoan = this.getMostRecentLoan(bookCopy);
+            if (mostRecentLoan != null && !mostRecentLoan.getReturnDateTime().isBefore(checkout.getLoanDateTime())) {
+                return "Cannot create a loan with a dateTime before the returnTime of a previous loan";
+            }
+        }
+        return null;
+    }
+
+    private static void checkBulkSize(List<?> items) {
+        if (items == null || items.isEmpty() || items.size() > MAX_BULK_SIZE) {
+            throw new IllegalArgumentException(String.format("Bulk requests must have between 1 and %d items.", MAX_BULK_SIZE));
+        }
+    }
+
+    private static Map<String, Integer> countByMemberId(Collection<Loan> loans, int delta) {
+        return loans.stream()
+                .filter((l) -> l.getMemberId() != null)
+                .collect(Collectors.groupingBy(Loan::getMemberId, Collectors.summingInt((l) -> delta)));
+    }
+
+    private static <T> Set<String> collectIds(List<T> items, Function<T, String> idGetter) {
+        return items.stream()
+                .filter(Objects::nonNull)
+                .map(idGetter)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+    }
+
+    private static <T> Map<String, T> toMapById(Iterable<T> entities, Function<T, String> idGetter) {
+        return StreamSupport.stream(entities.spliterator(), false)
+                .collect(Collectors.toMap(idGetter, Function.identity(), (e1, e2) -> e1));
     }
 
     private static int compareBookStates(BookState bs1, BookState bs2) {
@@ -19,8 +19,10 @@
 package mmiLibraryServer.services;
 
 import java.util.List;
+import java.util.NoSuchElementException;
 import mmiLibraryServer.mongoModel.Member;
 import mmiLibraryServer.services.exceptions.MemberWithUnreturnedLoanException;
+import mmiLibraryServer.services.exceptions.PreconditionFailedException;
 
 /**
  *
@@ -32,6 +34,28 @@ public interface MemberService {
 
     Member getMemberById(String memberId);
 
+    /**
+     * Get a member with its loans, whose book copies are retrieved all at once.
+     *
+     * @param memberId the member id
+     * @return the member
+     * @throws IllegalArgumentException if memberId is null
+     * @throws NoSuchElementException if the member does not exist
+     */
+    Member getMemberWithLoansById(String memberId);
+
+    /**
+     * Get the revision of a member with its loans, without loading them. The revision changes
+     * whenever the member or one of its loans changes (a later change of the copy of a past
+     * loan does not change it).
+     *
+     * @param memberId the member id
+     * @return the revision
+     * @throws IllegalArgumentException if memberId is null
+     * @throws NoSuchElementException if the member does not exist
+     */
+    String getMemberRevision(String memberId);
+
     /**
      * Create a new member
      *
@@ -44,6 +68,19 @@ public interface MemberService {
 
     Member updateMember(Member member);
 
+    /**
+     * Update a member if it still has the given revision. The revision is checked by the update
+     * itself.
+     *
+     * @param member the member to update
+     * @param revision the expected revision of the member, null to update it whatever its revision
+     * @return the updated member
+     * @throws IllegalArgumentException if member is null
+     * @throws NoSuchElementException if the member does not exist
+     * @throws PreconditionFailedException if the member no longer has the given revision
+     */
+    Member updateMember(Member member, String revision);
+
     /**
      * Delete a member by its id
      *
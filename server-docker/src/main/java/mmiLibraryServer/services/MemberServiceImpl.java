@@ -18,13 +18,16 @@
  */
 package mmiLibraryServer.services;
 
+import io.micrometer.core.annotation.Timed;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
+import mmiLibraryServer.mongoModel.LoanRepository;
 import mmiLibraryServer.mongoModel.Member;
 import mmiLibraryServer.mongoModel.MemberRepository;
 import mmiLibraryServer.services.exceptions.MemberWithUnreturnedLoanException;
+import mmiLibraryServer.services.exceptions.PreconditionFailedException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.logging.log4j.util.Strings;
@@ -36,15 +39,19 @@ import org.springframework.stereotype.Service;
  * @author Rémi Venant
  */
 @Service
+@Timed("mmilibrary.services")
 public class MemberServiceImpl implements MemberService {
 
     private static final Log LOG = LogFactory.getLog(MemberServiceImpl.class);
 
     private final MemberRepository memberRepo;
 
+    private final LoanRepository loanRepo;
+
     @Autowired
-    public MemberServiceImpl(MemberRepository memberRepo) {
+    public MemberServiceImpl(MemberRepository memberRepo, LoanRepository loanRepo) {
         this.memberRepo = memberRepo;
+        this.loanRepo = loanRepo;
     }
 
     @Override
@@ -64,6 +71,23 @@ public class MemberServiceImpl implements MemberService {
         }
     }
 
+    @Override
+    public Member getMemberWithLoansById(String memberId) {
+        return this.loanRepo.loadLoansWithBookCopies(this.getMemberById(memberId));
+    }
+
+    @Override
+    public String getMemberRevision(String memberId) {
+        if (memberId == null) {
+            throw new IllegalArgumentException("Missing member id.");
+        }
+        final String revision = this.memberRepo.findRevision(memberId);
+        if (revision == null) {
+            throw new NoSuchElementException("Unknown member.");
+        }
+        return revision;
+    }
+
     @Override
     public Member createMember(Member member) {
         if (member == null) {
@@ -80,6 +104,11 @@ public class MemberServiceImpl implements MemberService {
 
     @Override
     public Member updateMember(Member memberToUpload) {
+        return this.updateMember(memberToUpload, null);
+    }
+
+    @Override
+    public Member updateMember(Member memberToUpload, String revision) {
         if (memberToUpload == null) {
             throw new IllegalArgumentException("Missing information to update a member.");
         }
@@ -94,16 +123,23 @@ public class MemberServiceImpl implements MemberService {
         if (memberToUpload.getBirthday() != null) {
             member.setBirthday(memberToUpload.getBirthday());
         }
-        return this.memberRepo.save(member);
+        // Update the identity only to keep the open loans counter. The revision of a member is its
+        // version: the update checks it
+        if (!this.memberRepo.updateIdentity(member, revision == null ? null : Long.valueOf(revision))) {
+            if (revision != null) {
+                throw new PreconditionFailedException("The member has been modified.");
+            }
+            throw new NoSuchElementException("Unknown member to update.");
+        }
+        return member;
     }
 
     @Override
     public void deleteMemberById(String memberId) throws MemberWithUnreturnedLoanException {
         Member memberToDelete = this.memberRepo.findById(memberId)
                 .orElseThrow(() -> new NoSuchElementException("Unknown member to delete."));
-        Boolean hasNotReturnedLoan = memberToDelete.getLoans().stream()
-                .anyMatch((l) -> l.getReturnDateTime() == null);
-        if (hasNotReturnedLoan) {
+        // The open loans counter avoids loading the whole loan history of the member
+        if (memberToDelete.getOpenLoans() > 0) {
             throw new MemberWithUnreturnedLoanException("The Member has unreturned loan");
         }
         this.memberRepo.deleteById(memberId);
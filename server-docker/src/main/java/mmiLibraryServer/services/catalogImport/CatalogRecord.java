@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.services.catalogImport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import mmiLibraryServer.mongoModel.Author;
+import mmiLibraryServer.mongoModel.BookState;
+
+/**
+ * A book read from an imported catalog, with the codes of its categories and the number of its
+ * copies by state. A record that could not be read holds the reason instead.
+ *
+ * @author Rémi Venant
+ */
+public class CatalogRecord {
+
+    private final int line;
+
+    private String isbn;
+
+    private String title;
+
+    private String editor;
+
+    private Integer numOfPages;
+
+    private Integer publicationYear;
+
+    private List<Author> authors = List.of();
+
+    private List<String> categoryCodes = List.of();
+
+    private Map<BookState, Integer> copies = Map.of();
+
+    private String error;
+
+    public CatalogRecord(int line) {
+        this.line = line;
+    }
+
+    /**
+     * @return the line of the record in the catalog, starting at 1
+     */
+    public int getLine() {
+        return line;
+    }
+
+    public String getIsbn() {
+        return isbn;
+    }
+
+    public void setIsbn(String isbn) {
+        this.isbn = isbn;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getEditor() {
+        return editor;
+    }
+
+    public void setEditor(String editor) {
+        this.editor = editor;
+    }
+
+    public Integer getNumOfPages() {
+        return numOfPages;
+    }
+
+    public void setNumOfPages(Integer numOfPages) {
+        this.numOfPages = numOfPages;
+    }
+
+    public Integer getPublicationYear() {
+        return publicationYear;
+    }
+
+    public void setPublicationYear(Integer publicationYear) {
+        this.publicationYear = publicationYear;
+    }
+
+    public List<Author> getAuthors() {
+        return authors;
+    }
+
+    public void setAuthors(List<Author> authors) {
+        this.authors = authors;
+    }
+
+    public List<String> getCategoryCodes() {
+        return categoryCodes;
+    }
+
+    public void setCategoryCodes(List<String> categoryCodes) {
+        this.categoryCodes = categoryCodes;
+    }
+
+    public Map<BookState, Integer> getCopies() {
+        return copies;
+    }
+
+    public void setCopies(Map<BookState, Integer> copies) {
+        this.copies = copies;
+    }
+
+    /**
+     * @return the number of copies of the book, whatever their state
+     */
+    public long getNumOfCopies() {
+        return this.copies.values().stream().mapToLong(Integer::longValue).sum();
+    }
+
+    /**
+     * Give the state of each copy of the book.
+     *
+     * @return the states of the copies
+     */
+    public List<BookState> getCopiesStates() {
+        final List<BookState> states = new ArrayList<>();
+        this.copies.forEach((state, count) -> states.addAll(Collections.nCopies(count, state)));
+        return states;
+    }
+
+    /**
+     * @return the reason why the record could not be read, or null if it was read
+     */
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    @Override
+    public String toString() {
+        return "CatalogRecord{" + "line=" + line + ", isbn=" + isbn + ", title=" + title + ", error=" + error + '}';
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.services.catalogImport;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import mmiLibraryServer.mongoModel.Author;
+import mmiLibraryServer.mongoModel.BookState;
+
+/**
+ * Reader of the records of a catalog, one at a time, so that a catalog is never held in memory.
+ * A record that cannot be read is returned with the reason, so that the reading goes on with the
+ * next one.
+ *
+ * In text values, lists items are separated by "|", the first name and last name of an author by
+ * ":" ("Becky:Chambers") and the state and number of copies by ":" ("GOOD:2|NEW:1"). A number of
+ * copies alone stands for new copies.
+ *
+ * @author Rémi Venant
+ */
+public abstract class CatalogRecordReader implements Closeable {
+
+    private final BufferedReader reader;
+
+    private int lineNumber;
+
+    protected CatalogRecordReader(BufferedReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Read the next record.
+     *
+     * @return the record, or null at the end of the catalog
+     * @throws IOException if the catalog cannot be read
+     */
+    public abstract CatalogRecord next() throws IOException;
+
+    /**
+     * Read the next line of the catalog.
+     *
+     * @return the line, or null at the end of the catalog
+     * @throws IOException if the catalog cannot be read
+     */
+    protected String readLine() throws IOException {
+        final String line = this.reader.readLine();
+        if (line != null) {
+            this.lineNumber++;
+        }
+        return line;
+    }
+
+    /**
+     * @return the number of the last line read, starting at 1
+     */
+    protected int getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.reader.close();
+    }
+
+    protected static Integer parseInteger(String field, String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(value.trim());
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException(String.format("Invalid %s: %s.", field, value));
+        }
+    }
+
+    protected static List<String> parseList(String value) {
+        if (value == null || value.isBlank()) {
+            return List.of();
+        }
+        return Arrays.stream(value.split("\\|"))
+                .map(String::trim)
+                .filter((item) -> !item.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    protected static List<Author> parseAuthors(String value) {
+        return parseList(value).stream().map((author) -> {
+            final int separator = author.indexOf(':');
+            return separator < 0 ? new Author(null, author)
+                    : new Author(author.substring(0, separator).trim(), author.substring(separator + 1).trim());
+        }).collect(Collectors.toList());
+    }
+
+    protected static Map<BookState, Integer> parseCopies(String value) {
+        final Map<BookState, Integer> copies = new EnumMap<>(BookState.class);
+        for (String item : parseList(value)) {
+            final int separator = item.indexOf(':');
+            if (separator < 0) {
+                addCopies(copies, BookState.NEW, parseInteger("number of copies", item));
+            } else {
+                addCopies(copies, parseState(item.substring(0, separator)),
+                        parseInteger("number of copies", item.substring(separator + 1)));
+            }
+        }
+        return copies;
+    }
+
+    protected static BookState parseState(String value) {
+        try {
+            return BookState.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException(String.format("Invalid book state: %s.", value));
+        }
+    }
+
+    protected static void addCopies(Map<BookState, Integer> copies, BookState state, Integer count) {
+        if (count == null || count < 0) {
+            throw new IllegalArgumentException("Invalid number of copies.");
+        }
+        copies.merge(state, count, Integer::sum);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.services.catalogImport;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reader of a catalog in CSV, one book per line, fields separated by commas and optionally
+ * quoted (quoted fields may hold commas, line breaks and doubled quotes). The first line names the
+ * columns, in any order: isbn, title, editor, numOfPages, publicationYear, authors, categories
+ * (the codes of the categories) and copies. Only isbn and title are required; other columns are
+ * ignored. Blank lines are skipped.
+ *
+ * <pre>
+ * isbn,title,authors,categories,copies
+ * 9782367934372,Les voyageurs,Becky:Chambers,sf,GOOD:2|NEW:1
+ * </pre>
+ *
+ * @author Rémi Venant
+ */
+public class CsvCatalogRecordReader extends CatalogRecordReader {
+
+    private static final List<String> REQUIRED_COLUMNS = List.of("isbn", "title");
+
+    private Map<String, Integer> columns;
+
+    public CsvCatalogRecordReader(BufferedReader reader) {
+        super(reader);
+    }
+
+    @Override
+    public CatalogRecord next() throws IOException {
+        if (this.columns == null) {
+            this.columns = this.readHeader();
+        }
+        final int recordLine = this.getLineNumber() + 1;
+        final List<String> fields = this.readFields();
+        if (fields == null) {
+            return null;
+        }
+        final CatalogRecord record = new CatalogRecord(recordLine);
+        try {
+            record.setIsbn(this.field(fields, "isbn"));
+            record.setTitle(this.field(fields, "title"));
+            record.setEditor(this.field(fields, "editor"));
+            record.setNumOfPages(parseInteger("numOfPages", this.field(fields, "numOfPages")));
+            record.setPublicationYear(parseInteger("publicationYear", this.field(fields, "publicationYear")));
+            record.setAuthors(parseAuthors(this.field(fields, "authors")));
+            record.setCategoryCodes(parseList(this.field(fields, "categories")));
+            record.setCopies(parseCopies(this.field(fields, "copies")));
+        } catch (IllegalArgumentException ex) {
+            record.setError(ex.getMessage());
+        }
+        return record;
+    }
+
+    private Map<String, Integer> readHeader() throws IOException {
+        final List<String> names = this.readFields();
+        if (names == null) {
+            throw new IllegalArgumentException("The catalog has no header line.");
+        }
+        final Map<String, Integer> header = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            header.putIfAbsent(names.get(i).trim().toLowerCase(), i);
+        }
+        for (String column : REQUIRED_COLUMNS) {
+            if (!header.containsKey(column)) {
+                throw new IllegalArgumentException(String.format("The catalog has no %s column.", column));
+            }
+        }
+        return header;
+    }
+
+    private String field(List<String> fields, String column) {
+        final Integer index = this.columns.get(column.toLowerCase());
+        if (index == null || index >= fields.size()) {
+            return null;
+        }
+        final String value = fields.get(index).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Read the fields of the next non blank record, that spans several lines if a quoted field
+     * holds line breaks.
+     *
+     * @return the fields, or null at the end of the catalog
+     * @throws IOException if the catalog cannot be read
+     */
+    private List<String> readFields() throws IOException {
+        String line = this.readLine();
+        while (line != null && line.isBlank()) {
+            line = this.readLine();
+        }
+        if (line == null) {
+            return null;
+        }
+        final List<String> fields = new ArrayList<>();
+        final StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        int i = 0;
+        while (true) {
+            if (i == line.length()) {
+                if (!quoted) {
+                    break;
+                }
+                // The quoted field goes on next line
+                line = this.readLine();
+                if (line == null) {
+                    throw new IllegalArgumentException(String.format("Unterminated quoted field at line %d.",
+                            this.getLineNumber()));
+                }
+                field.append('\n');
+                i = 0;
+                continue;
+            }
+            final char c = line.charAt(i++);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i < line.length() && line.charAt(i) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.services.catalogImport;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import mmiLibraryServer.mongoModel.Author;
+import mmiLibraryServer.mongoModel.BookState;
+
+/**
+ * Reader of a catalog of JSON books, one per line. A book has the fields of the API (isbn, title,
+ * editor, numOfPages, publicationYear and authors), the codes of its categories (categories) and
+ * its copies (copies): either an object giving the number of copies by state, or a number of new
+ * copies. Blank lines are skipped.
+ *
+ * <pre>
+ * {"isbn": "9782367934372", "title": "Les voyageurs", "authors": [{"firstname": "Becky", "lastname": "Chambers"}], "categories": ["sf"], "copies": {"GOOD": 2}}
+ * </pre>
+ *
+ * @author Rémi Venant
+ */
+public class NdjsonCatalogRecordReader extends CatalogRecordReader {
+
+    private final ObjectMapper objectMapper;
+
+    public NdjsonCatalogRecordReader(BufferedReader reader, ObjectMapper objectMapper) {
+        super(reader);
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public CatalogRecord next() throws IOException {
+        String line = this.readLine();
+        while (line != null && line.isBlank()) {
+            line = this.readLine();
+        }
+        if (line == null) {
+            return null;
+        }
+        final CatalogRecord record = new CatalogRecord(this.getLineNumber());
+        try {
+            final JsonNode book = this.objectMapper.readTree(line);
+            if (!book.isObject()) {
+                throw new IllegalArgumentException("A book must be a JSON object.");
+            }
+            record.setIsbn(text(book, "isbn"));
+            record.setTitle(text(book, "title"));
+            record.setEditor(text(book, "editor"));
+            record.setNumOfPages(integer(book, "numOfPages"));
+            record.setPublicationYear(integer(book, "publicationYear"));
+            record.setAuthors(authors(book.get("authors")));
+            record.setCategoryCodes(categoryCodes(book.get("categories")));
+            record.setCopies(copies(book.get("copies")));
+        } catch (JsonProcessingException ex) {
+            record.setError("Invalid JSON: " + ex.getOriginalMessage());
+        } catch (IllegalArgumentException ex) {
+            record.setError(ex.getMessage());
+        }
+        return record;
+    }
+
+    private static String text(JsonNode book, String field) {
+        final JsonNode value = book.get(field);
+        if (value == null || value.isNull()) {
+            return null;
+        }
+        if (!value.isValueNode()) {
+            throw new IllegalArgumentException(String.format("Invalid %s.", field));
+        }
+        return value.asText();
+    }
+
+    private static Integer integer(JsonNode book, String field) {
+        final JsonNode value = book.get(field);
+        if (value != null && value.isIntegralNumber() && value.canConvertToInt()) {
+            return value.intValue();
+        }
+        return parseInteger(field, text(book, field));
+    }
+
+    private static List<Author> authors(JsonNode authors) {
+        if (authors == null || authors.isNull()) {
+            return List.of();
+        }
+        if (!authors.isArray()) {
+            throw new IllegalArgumentException("Invalid authors.");
+        }
+        final List<Author> result = new ArrayList<>(authors.size());
+        for (JsonNode author : authors) {
+            if (!author.isObject()) {
+                throw new IllegalArgumentException("Invalid authors.");
+            }
+            result.add(new Author(text(author, "firstname"), text(author, "lastname")));
+        }
+        return result;
+    }
+
+    private static List<String> categoryCodes(JsonNode categories) {
+        if (categories == null || categories.isNull()) {
+            return List.of();
+        }
+        if (!categories.isArray()) {
+            throw new IllegalArgumentException("Invalid categories.");
+        }
+        final List<String> codes = new ArrayList<>(categories.size());
+        for (JsonNode code : categories) {
+            if (!code.isTextual()) {
+                throw new IllegalArgumentException("Invalid categories.");
+            }
+            codes.add(code.asText());
+        }
+        return codes;
+    }
+
+    private static Map<BookState, Integer> copies(JsonNode copies) {
+        if (copies == null || copies.isNull()) {
+            return Map.of();
+        }
+        final Map<BookState, Integer> result = new EnumMap<>(BookState.class);
+        if (copies.isIntegralNumber() && copies.canConvertToInt()) {
+            addCopies(result, BookState.NEW, copies.intValue());
+        } else if (copies.isObject()) {
+            final Iterator<Map.Entry<String, JsonNode>> states = copies.fields();
+            while (states.hasNext()) {
+                final Map.Entry<String, JsonNode> state = states.next();
+                if (!state.getValue().isIntegralNumber() || !state.getValue().canConvertToInt()) {
+                    throw new IllegalArgumentException("Invalid number of copies.");
+                }
+                addCopies(result, parseState(state.getKey()), state.getValue().intValue());
+            }
+        } else {
+            throw new IllegalArgumentException("Invalid copies.");
+        }
+        return result;
+    }
+}
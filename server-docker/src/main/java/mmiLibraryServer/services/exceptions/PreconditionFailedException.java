@@ -0,0 +1,42 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.services.exceptions;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+public class PreconditionFailedException extends RuntimeException {
+
+    /**
+     * Creates a new instance of <code>PreconditionFailedException</code> without detail message.
+     */
+    public PreconditionFailedException() {
+    }
+
+    /**
+     * Constructs an instance of <code>PreconditionFailedException</code> with the specified
+     * detail message.
+     *
+     * @param msg the detail message.
+     */
+    public PreconditionFailedException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.services.model;
+
+import com.fasterxml.jackson.annotation.JsonView;
+import mmiLibraryServer.mongoModel.Loan;
+import mmiLibraryServer.mongoModel.views.DefaultView;
+
+/**
+ * Result of one item of a bulk loan operation: either the created or updated loan, or the reason
+ * why the item was rejected.
+ *
+ * @author Rémi Venant
+ */
+public class BulkLoanResult {
+
+    @JsonView(DefaultView.Default.class)
+    private final int index;
+
+    @JsonView(DefaultView.Default.class)
+    private final Loan loan;
+
+    @JsonView(DefaultView.Default.class)
+    private final String error;
+
+    private BulkLoanResult(int index, Loan loan, String error) {
+        this.index = index;
+        this.loan = loan;
+        this.error = error;
+    }
+
+    public static BulkLoanResult success(int index, Loan loan) {
+        return new BulkLoanResult(index, loan, null);
+    }
+
+    public static BulkLoanResult failure(int index, String error) {
+        return new BulkLoanResult(index, null, error);
+    }
+
+    /**
+     * @return the position of the item in the bulk request
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public Loan getLoan() {
+        return loan;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    @JsonView(DefaultView.Default.class)
+    public boolean isSuccess() {
+        return this.error == null;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkLoanResult{" + "index=" + index + ", loan=" + loan + ", error=" + error + '}';
+    }
+}
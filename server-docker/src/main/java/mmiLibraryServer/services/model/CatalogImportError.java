@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.services.model;
+
+/**
+ * A record of an imported catalog that was rejected.
+ *
+ * @author Rémi Venant
+ */
+public class CatalogImportError {
+
+    private final int line;
+
+    private final String isbn;
+
+    private final String error;
+
+    public CatalogImportError(int line, String isbn, String error) {
+        this.line = line;
+        this.isbn = isbn;
+        this.error = error;
+    }
+
+    /**
+     * @return the line of the record in the catalog, starting at 1
+     */
+    public int getLine() {
+        return line;
+    }
+
+    public String getIsbn() {
+        return isbn;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "CatalogImportError{" + "line=" + line + ", isbn=" + isbn + ", error=" + error + '}';
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.services.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Report of a catalog import: the number of records read, of books and copies imported, and the
+ * rejected records.
+ *
+ * @author Rémi Venant
+ */
+public class CatalogImportReport {
+
+    private int records;
+
+    private int importedBooks;
+
+    private int importedCopies;
+
+    private final List<CatalogImportError> errors = new ArrayList<>();
+
+    public CatalogImportReport() {
+    }
+
+    /**
+     * Count a book imported with its copies.
+     *
+     * @param numCopies the number of copies of the book
+     */
+    public void addImportedBook(int numCopies) {
+        this.records++;
+        this.importedBooks++;
+        this.importedCopies += numCopies;
+    }
+
+    /**
+     * Count a rejected record.
+     *
+     * @param error the reason of the rejection
+     */
+    public void addError(CatalogImportError error) {
+        this.records++;
+        this.errors.add(error);
+    }
+
+    /**
+     * @return the number of records read
+     */
+    public int getRecords() {
+        return records;
+    }
+
+    public int getImportedBooks() {
+        return importedBooks;
+    }
+
+    public int getImportedCopies() {
+        return importedCopies;
+    }
+
+    /**
+     * @return the rejected records, in the order of the catalog
+     */
+    public List<CatalogImportError> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    @Override
+    public String toString() {
+        return "CatalogImportReport{" + "records=" + records + ", importedBooks=" + importedBooks
+                + ", importedCopies=" + importedCopies + ", errors=" + errors.size() + '}';
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.services.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.time.LocalDateTime;
+import mmiLibraryServer.mongoModel.BookCopy;
+import mmiLibraryServer.mongoModel.Loan;
+
+/**
+ * A change of the circulation of the library: a loan created, updated, returned or deleted, or a
+ * book copy created or updated. Each event holds the ids of the concerned entities and whether the
+ * book copy can be borrowed after the change, so that a client can update its own view without
+ * reloading it. Events are numbered by the circulation feed.
+ *
+ * @author Rémi Venant
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class CirculationEvent {
+
+    public enum Type {
+        LOAN_CREATED, LOAN_UPDATED, LOAN_RETURNED, LOAN_DELETED, COPY_UPDATED,
+        /**
+         * Some events were missed by the client: its view must be reloaded.
+         */
+        RESET
+    }
+
+    private final Long id;
+
+    private final Type type;
+
+    private final String loanId;
+
+    private final String memberId;
+
+    private final String bookCopyId;
+
+    private final String bookId;
+
+    private final Boolean available;
+
+    private final LocalDateTime dateTime;
+
+    private CirculationEvent(Long id, Type type, String loanId, String memberId, String bookCopyId, String bookId,
+            Boolean available, LocalDateTime dateTime) {
+        this.id = id;
+        this.type = type;
+        this.loanId = loanId;
+        this.memberId = memberId;
+        this.bookCopyId = bookCopyId;
+        this.bookId = bookId;
+        this.available = available;
+        this.dateTime = dateTime;
+    }
+
+    /**
+     * Create an event on a loan, with the availability of its book copy after the change.
+     *
+     * @param type the type of event
+     * @param loan the loan, with its book copy
+     * @return the event, not numbered yet
+     */
+    public static CirculationEvent ofLoan(Type type, Loan loan) {
+        final BookCopy bookCopy = loan.getBookCopy();
+        return new CirculationEvent(null, type, loan.getId(), loan.getMemberId(),
+                bookCopy == null ? null : bookCopy.getId(), bookCopy == null ? null : bookCopy.getBookId(),
+                bookCopy == null ? null : isBorrowable(bookCopy), LocalDateTime.now());
+    }
+
+    /**
+     * Create an event on a book copy created or updated outside of any loan.
+     *
+     * @param bookCopy the book copy
+     * @return the event, not numbered yet
+     */
+    public static CirculationEvent ofBookCopy(BookCopy bookCopy) {
+        return new CirculationEvent(null, Type.COPY_UPDATED, null, null, bookCopy.getId(), bookCopy.getBookId(),
+                isBorrowable(bookCopy), LocalDateTime.now());
+    }
+
+    /**
+     * Create an event telling a client that it missed some events.
+     *
+     * @return the event, without number
+     */
+    public static CirculationEvent reset() {
+        return new CirculationEvent(null, Type.RESET, null, null, null, null, null, LocalDateTime.now());
+    }
+
+    /**
+     * Give a copy of this event with the given number.
+     *
+     * @param id the number of the event in the feed
+     * @return the numbered event
+     */
+    public CirculationEvent withId(long id) {
+        return new CirculationEvent(id, this.type, this.loanId, this.memberId, this.bookCopyId, this.bookId,
+                this.available, this.dateTime);
+    }
+
+    private static boolean isBorrowable(BookCopy bookCopy) {
+        return Boolean.TRUE.equals(bookCopy.isAvailable()) && !Boolean.TRUE.equals(bookCopy.isRemoved());
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getLoanId() {
+        return loanId;
+    }
+
+    public String getMemberId() {
+        return memberId;
+    }
+
+    public String getBookCopyId() {
+        return bookCopyId;
+    }
+
+    public String getBookId() {
+        return bookId;
+    }
+
+    public Boolean getAvailable() {
+        return available;
+    }
+
+    public LocalDateTime getDateTime() {
+        return dateTime;
+    }
+
+    @Override
+    public String toString() {
+        return "CirculationEvent{" + "id=" + id + ", type=" + type + ", loanId=" + loanId + ", bookCopyId=" + bookCopyId + '}';
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.services.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * A checkout request of a bulk loan creation: the member and the book copy by their id, and an
+ * optional loan dateTime.
+ *
+ * @author Rémi Venant
+ */
+public class LoanCheckout {
+
+    private final String memberId;
+
+    private final String bookCopyId;
+
+    private final LocalDateTime loanDateTime;
+
+    public LoanCheckout(String memberId, String bookCopyId, LocalDateTime loanDateTime) {
+        this.memberId = memberId;
+        this.bookCopyId = bookCopyId;
+        this.loanDateTime = loanDateTime;
+    }
+
+    public String getMemberId() {
+        return memberId;
+    }
+
+    public String getBookCopyId() {
+        return bookCopyId;
+    }
+
+    public LocalDateTime getLoanDateTime() {
+        return loanDateTime;
+    }
+
+    @Override
+    public String toString() {
+        return "LoanCheckout{" + "memberId=" + memberId + ", bookCopyId=" + bookCopyId + ", loanDateTime=" + loanDateTime + '}';
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.services.reactive;
+
+import mmiLibraryServer.mongoModel.Book;
+import mmiLibraryServer.mongoModel.BookCategory;
+import mmiLibraryServer.mongoModel.BookCopy;
+import mmiLibraryServer.mongoModel.Loan;
+import mmiLibraryServer.mongoModel.Member;
+import mmiLibraryServer.mongoModel.utils.BookRequestFilter;
+import mmiLibraryServer.mongoModel.utils.LoanCursor;
+import mmiLibraryServer.mongoModel.utils.LoanRequestFilter;
+import org.springframework.data.domain.Slice;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Non-blocking read access to the catalogue, used by the reactive mode. The entities of the lists
+ * are given without the entities they reference, except the categories embedded in the books; the
+ * detailed entities are given with the references of their detailed views. Writes remain handled
+ * by the blocking services.
+ *
+ * @author Rémi Venant
+ */
+public interface ReactiveCatalogService {
+
+    /**
+     * Get the books matching a filter.
+     *
+     * @param filter the filter, null for all books
+     * @return the books
+     */
+    Flux<Book> getBooks(BookRequestFilter filter);
+
+    /**
+     * Get a page of the books matching a paged filter. Same behavior as
+     * BookService.getBooksPage.
+     *
+     * @param filter the paged filter
+     * @param withTotalCount true to count the matching books
+     * @return a Page if withTotalCount is true, a Slice otherwise
+     * @throws IllegalArgumentException if the filter is missing, not paged or its page size is
+     * greater than BookService.MAX_PAGE_SIZE
+     */
+    Mono<Slice<Book>> getBooksPage(BookRequestFilter filter, boolean withTotalCount);
+
+    /**
+     * Get a book with its copies. Same behavior as BookService.getBookById.
+     *
+     * @param bookId the book id
+     * @return the book with its copies, in error with IllegalArgumentException if the id is
+     * missing or NoSuchElementException if the book does not exist
+     */
+    Mono<Book> getBookById(String bookId);
+
+    /**
+     * Get the revision of a book. Same behavior as BookService.getBookRevision.
+     *
+     * @param bookId the book id
+     * @return the revision, in error with IllegalArgumentException if the id is missing or
+     * NoSuchElementException if the book does not exist
+     */
+    Mono<String> getBookRevision(String bookId);
+
+    /**
+     * Get a book copy of a book with its loans and their members. Same behavior as
+     * BookService.getBookCopyById.
+     *
+     * @param bookId the book id
+     * @param bookCopyId the book copy id
+     * @return the book copy with its loans, in error with IllegalArgumentException if an id is
+     * missing or NoSuchElementException if the copy does not exist or is not a copy of the book
+     */
+    Mono<BookCopy> getBookCopyById(String bookId, String bookCopyId);
+
+    Flux<BookCategory> getCategories();
+
+    Mono<BookCategory> getCategoryById(String categoryId);
+
+    Flux<Member> getMembers();
+
+    /**
+     * Get a member with its loans and their book copies. Same behavior as
+     * MemberService.getMemberWithLoansById.
+     *
+     * @param memberId the member id
+     * @return the member with its loans, in error with IllegalArgumentException if the id is
+     * missing or NoSuchElementException if the member does not exist
+     */
+    Mono<Member> getMemberWithLoansById(String memberId);
+
+    /**
+     * Get the revision of a member. Same behavior as MemberService.getMemberRevision.
+     *
+     * @param memberId the member id
+     * @return the revision, in error with IllegalArgumentException if the id is missing or
+     * NoSuchElementException if the member does not exist
+     */
+    Mono<String> getMemberRevision(String memberId);
+
+    /**
+     * Get a loan with its member and its book copy, with the book of the copy. Same behavior as
+     * LoanService.getLoanById.
+     *
+     * @param loanId the loan id
+     * @return the loan, in error with IllegalArgumentException if the id is missing or
+     * NoSuchElementException if the loan does not exist
+     */
+    Mono<Loan> getLoanById(String loanId);
+
+    /**
+     * Get the revision of a loan. Same behavior as LoanService.getLoanRevision.
+     *
+     * @param loanId the loan id
+     * @return the revision, in error with IllegalArgumentException if the id is missing or
+     * NoSuchElementException if the loan does not exist
+     */
+    Mono<String> getLoanRevision(String loanId);
+
+    /**
+     * Get all loans ordered by loan date desc (then id desc).
+     *
+     * @param view the JSON view the loans will be rendered with: only the fields it serializes are
+     * read. Null to read complete loans
+     * @return the loans
+     */
+    Flux<Loan> streamLoans(Class<?> view);
+
+    /**
+     * Get a page of loans. Same behavior as LoanService.getLoans.
+     *
+     * @param after the cursor of the last loan of the previous page, null for the first page
+     * @param size the size of the page, between 1 and LoanService.MAX_PAGE_SIZE
+     * @param view the JSON view the loans will be rendered with: only the fields it serializes are
+     * read. Null to read complete loans
+     * @return the page of loans, with an indication of whether further loans exist
+     * @throws IllegalArgumentException if size is out of bounds
+     */
+    Mono<Slice<Loan>> getLoans(LoanCursor after, int size, Class<?> view);
+
+    /**
+     * Get a page of the loans matching a filter. Same behavior as LoanService.getLoans.
+     *
+     * @param filter the filter. All loans if null or empty
+     * @param after the cursor of the last loan of the previous page, null for the first page
+     * @param size the size of the page, between 1 and LoanService.MAX_PAGE_SIZE
+     * @param view the JSON view the loans will be rendered with: only the fields it serializes are
+     * read. Null to read complete loans
+     * @return the page of loans, with an indication of whether further loans exist
+     * @throws IllegalArgumentException if size is out of bounds
+     */
+    Mono<Slice<Loan>> getLoans(LoanRequestFilter filter, LoanCursor after, int size, Class<?> view);
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.services.reactive;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import mmiLibraryServer.mongoModel.Book;
+import mmiLibraryServer.mongoModel.BookCategory;
+import mmiLibraryServer.mongoModel.BookCopy;
+import mmiLibraryServer.mongoModel.Loan;
+import mmiLibraryServer.mongoModel.Member;
+import mmiLibraryServer.mongoModel.reactive.ReactiveBookCategoryRepository;
+import mmiLibraryServer.mongoModel.reactive.ReactiveBookCopyRepository;
+import mmiLibraryServer.mongoModel.reactive.ReactiveBookRepository;
+import mmiLibraryServer.mongoModel.reactive.ReactiveLoanRepository;
+import mmiLibraryServer.mongoModel.reactive.ReactiveMemberRepository;
+import mmiLibraryServer.mongoModel.utils.BookRequestFilter;
+import mmiLibraryServer.mongoModel.utils.LoanCursor;
+import mmiLibraryServer.mongoModel.utils.LoanRequestFilter;
+import mmiLibraryServer.services.BookService;
+import mmiLibraryServer.services.LoanService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+@Service
+public class ReactiveCatalogServiceImpl implements ReactiveCatalogService {
+
+    private static final Log LOG = LogFactory.getLog(ReactiveCatalogServiceImpl.class);
+
+    private final ReactiveBookRepository bookRepo;
+
+    private final ReactiveBookCategoryRepository bookCatRepo;
+
+    private final ReactiveMemberRepository memberRepo;
+
+    private final ReactiveLoanRepository loanRepo;
+
+    private final ReactiveBookCopyRepository bookCopyRepo;
+
+    @Autowired
+    public ReactiveCatalogServiceImpl(ReactiveBookRepository bookRepo, ReactiveBookCategoryRepository bookCatRepo,
+            ReactiveMemberRepository memberRepo, ReactiveLoanRepository loanRepo, ReactiveBookCopyRepository bookCopyRepo) {
+        this.bookRepo = bookRepo;
+        this.bookCatRepo = bookCatRepo;
+        this.memberRepo = memberRepo;
+        this.loanRepo = loanRepo;
+        this.bookCopyRepo = bookCopyRepo;
+    }
+
+    @Override
+    public Flux<Book> getBooks(BookRequestFilter filter) {
+        return this.bookRepo.findAllByFilter(filter);
+    }
+
+    @Override
+    public Mono<Slice<Book>> getBooksPage(BookRequestFilter filter, boolean withTotalCount) {
+        if (filter == null || !filter.isPaged()) {
+            return Mono.error(new IllegalArgumentException("Missing filter or page."));
+        }
+        if (filter.getPageSize() > BookService.MAX_PAGE_SIZE) {
+            return Mono.error(new IllegalArgumentException(
+                    String.format("Page size must be between 1 and %d.", BookService.MAX_PAGE_SIZE)));
+        }
+        final Pageable pageable = PageRequest.of(filter.getPage() == null ? 0 : filter.getPage(), filter.getPageSize());
+        final Mono<List<Book>> books = this.bookRepo.findAllByFilter(filter).collectList();
+        if (withTotalCount) {
+            return Mono.zip(books, this.bookRepo.countByFilter(filter))
+                    .<Slice<Book>>map((page) -> new PageImpl<>(page.getT1(), pageable, page.getT2()));
+        }
+        // Without count, a full page may be the last one: next page will then be empty
+        return books.<Slice<Book>>map((content) -> new SliceImpl<>(content, pageable, content.size() == filter.getPageSize()));
+    }
+
+    @Override
+    public Mono<Book> getBookById(String bookId) {
+        if (bookId == null) {
+            return Mono.error(new IllegalArgumentException("Missing book id."));
+        }
+        return this.bookRepo.findByIdWithCopies(bookId)
+                .switchIfEmpty(Mono.error(() -> new NoSuchElementException("Unknown book.")));
+    }
+
+    @Override
+    public Mono<String> getBookRevision(String bookId) {
+        if (bookId == null) {
+            return Mono.error(new IllegalArgumentException("Missing book id."));
+        }
+        return this.bookRepo.findRevision(bookId)
+                .switchIfEmpty(Mono.error(() -> new NoSuchElementException("Unknown book.")));
+    }
+
+    @Override
+    public Mono<BookCopy> getBookCopyById(String bookId, String bookCopyId) {
+        if (bookId == null || bookCopyId == null) {
+            return Mono.error(new IllegalArgumentException("Missing book id or book copy id."));
+        }
+        return this.bookCopyRepo.findByIdWithBook(bookCopyId)
+                .switchIfEmpty(Mono.error(() -> new NoSuchElementException("Unknown book copy.")))
+                .flatMap((bookCopy) -> bookId.equals(bookCopy.getBookId())
+                ? this.loanRepo.loadLoansWithMembers(bookCopy)
+                : Mono.error(new NoSuchElementException("Unknown book copy in book.")));
+    }
+
+    @Override
+    public Flux<BookCategory> getCategories() {
+        return this.bookCatRepo.findAll();
+    }
+
+    @Override
+    public Mono<BookCategory> getCategoryById(String categoryId) {
+        if (categoryId == null) {
+            return Mono.error(new IllegalArgumentException("Missing category id."));
+        }
+        return this.bookCatRepo.findById(categoryId)
+                .switchIfEmpty(Mono.error(() -> new NoSuchElementException("Unknown category.")));
+    }
+
+    @Override
+    public Flux<Member> getMembers() {
+        return this.memberRepo.findAll();
+    }
+
+    @Override
+    public Mono<Member> getMemberWithLoansById(String memberId) {
+        if (memberId == null) {
+            return Mono.error(new IllegalArgumentException("Missing member id."));
+        }
+        return this.memberRepo.findById(memberId)
+                .switchIfEmpty(Mono.error(() -> new NoSuchElementException("Unknown member.")))
+                .flatMap(this.loanRepo::loadLoansWithBookCopies);
+    }
+
+    @Override
+    public Mono<String> getMemberRevision(String memberId) {
+        if (memberId == null) {
+            return Mono.error(new IllegalArgumentException("Missing member id."));
+        }
+        return this.memberRepo.findRevision(memberId)
+                .switchIfEmpty(Mono.error(() -> new NoSuchElementException("Unknown member.")));
+    }
+
+    @Override
+    public Mono<Loan> getLoanById(String loanId) {
+        if (loanId == null) {
+            return Mono.error(new IllegalArgumentException("Missing loan id."));
+        }
+        return this.loanRepo.findByIdWithReferences(loanId)
+                .switchIfEmpty(Mono.error(() -> new NoSuchElementException("Unknown loan.")));
+    }
+
+    @Override
+    public Mono<String> getLoanRevision(String loanId) {
+        if (loanId == null) {
+            return Mono.error(new IllegalArgumentException("Missing loan id."));
+        }
+        return this.loanRepo.findRevision(loanId)
+                .switchIfEmpty(Mono.error(() -> new NoSuchElementException("Unknown loan.")));
+    }
+
+    @Override
+    public Flux<Loan> streamLoans(Class<?> view) {
+        return this.loanRepo.findAllOrderByLoanDateTimeDesc(view);
+    }
+
+    @Override
+    public Mono<Slice<Loan>> getLoans(LoanCursor after, int size, Class<?> view) {
+        return this.getLoans(null, after, size, view);
+    }
+
+    @Override
+    public Mono<Slice<Loan>> getLoans(LoanRequestFilter filter, LoanCursor after, int size, Class<?> view) {
+        if (size <= 0 || size > LoanService.MAX_PAGE_SIZE) {
+            return Mono.error(new IllegalArgumentException(
+                    String.format("Page size must be between 1 and %d.", LoanService.MAX_PAGE_SIZE)));
+        }
+        // Fetch one more loan than requested to know if a next page exists
+        final Flux<Loan> pageLoans = filter == null || filter.isEmpty()
+                ? this.loanRepo.findPageOrderByLoanDateTimeDesc(after, size + 1, view)
+                : this.loanRepo.findPageByFilter(filter, after, size + 1, view);
+        return pageLoans.collectList().<Slice<Loan>>map((loans) -> {
+            final boolean hasNext = loans.size() > size;
+            return new SliceImpl<>(hasNext ? loans.subList(0, size) : loans, PageRequest.ofSize(size), hasNext);
+        });
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import mmiLibraryServer.mongoModel.Book;
+import mmiLibraryServer.mongoModel.BookRepository;
+import mmiLibraryServer.mongoModel.utils.BookRequestFilter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measure BookRepositoryImpl.findAllByFilter with the different kinds of filter of GET /books.
+ *
+ * @author Rémi Venant
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BookSearchBenchmark {
+
+    @Param({"isbn", "title", "categories", "child", "available", "nbPages", "all", "availablePaged"})
+    public String filterKind;
+
+    private BookRepository bookRepository;
+
+    private BookRequestFilter filter;
+
+    @Setup(Level.Trial)
+    public void setUp(LibraryState library) {
+        this.bookRepository = library.getBean(BookRepository.class);
+        final BookRequestFilter.Builder builder = BookRequestFilter.getBuilder();
+        switch (this.filterKind) {
+            case "isbn":
+                builder.withIsbn(SyntheticLibrarySeeder.isbnOf(library.books / 2));
+                break;
+            case "title":
+                builder.withTitleAlike("secret garden", "en");
+                break;
+            case "categories":
+                builder.withCategories("cat5", "cat6");
+                break;
+            case "child":
+                builder.withChildCompliancy();
+                break;
+            case "available":
+                builder.withAvailability();
+                break;
+            case "nbPages":
+                builder.withNumberOfPages(300);
+                break;
+            case "all":
+                builder.withTitleAlike("night", "en").withCategories("cat5", "cat6", "cat7")
+                        .withChildCompliancy().withAvailability().withNumberOfPages(300);
+                break;
+            case "availablePaged":
+                builder.withAvailability().withSort("title", null).withPage(2, 20);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown filter kind: " + this.filterKind);
+        }
+        this.filter = builder.build();
+    }
+
+    @Benchmark
+    public List<Book> findAllByFilter() {
+        return this.bookRepository.findAllByFilter(this.filter);
+    }
+}
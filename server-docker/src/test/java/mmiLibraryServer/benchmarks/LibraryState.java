@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import mmiLibraryServer.MmiLibraryServerApplication;
+import mmiLibraryServer.mongoModel.BookCopy;
+import mmiLibraryServer.mongoModel.BookRepository;
+import mmiLibraryServer.mongoModel.Member;
+import mmiLibraryServer.mongoModel.MemberRepository;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+/**
+ * Application context started against an embedded Mongo (mongo-test profile) and seeded with a
+ * synthetic library, shared by all the benchmarks of a fork. The size of the library is set with
+ * JMH parameters (e.g. -p books=10000 -p loansPerCopy=20).
+ *
+ * @author Rémi Venant
+ */
+@State(Scope.Benchmark)
+public class LibraryState {
+
+    @Param({"2000"})
+    public int books;
+
+    @Param({"3"})
+    public int copiesPerBook;
+
+    @Param({"1000"})
+    public int members;
+
+    @Param({"10"})
+    public int loansPerCopy;
+
+    @Param({"0.3"})
+    public double ongoingRatio;
+
+    private ConfigurableApplicationContext context;
+
+    private SyntheticLibrarySeeder seeder;
+
+    private List<Member> majorMembers;
+
+    private List<BookCopy> availableBookCopies;
+
+    @Setup(Level.Trial)
+    public void startAndSeed() {
+        this.context = new SpringApplicationBuilder(MmiLibraryServerApplication.class)
+                .web(this.webApplicationType())
+                .logStartupInfo(false)
+                .run(this.applicationArgs().toArray(String[]::new));
+        this.seeder = new SyntheticLibrarySeeder(this.getBean(MongoTemplate.class));
+        this.seeder.seed(this.books, this.copiesPerBook, this.members, this.loansPerCopy, this.ongoingRatio);
+        // The seeder writes documents directly: compute the counters of the books and members
+        this.getBean(BookRepository.class).reconcileCopyCounters();
+        this.getBean(MemberRepository.class).reconcileOpenLoans();
+        this.majorMembers = this.seeder.getMembers().stream()
+                .filter((m) -> !m.isMinor()).collect(Collectors.toList());
+        this.availableBookCopies = this.seeder.getBookCopies().stream()
+                .filter((bc) -> bc.isAvailable() && !bc.isRemoved()).collect(Collectors.toList());
+    }
+
+    /**
+     * Get the type of application to start: none by default, the services being called directly.
+     *
+     * @return the type of application
+     */
+    protected WebApplicationType webApplicationType() {
+        return WebApplicationType.NONE;
+    }
+
+    /**
+     * Get the arguments of the application.
+     *
+     * @return the arguments, that may be completed
+     */
+    protected List<String> applicationArgs() {
+        return new ArrayList<>(List.of("--spring.profiles.active=mongo-test",
+                "--logging.level.mmiLibraryServer=WARN",
+                "--logging.level.org.springframework.data.mongodb.core.MongoTemplate=WARN"));
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        if (this.context != null) {
+            this.context.close();
+        }
+    }
+
+    public <T> T getBean(Class<T> beanClass) {
+        return this.context.getBean(beanClass);
+    }
+
+    public String getProperty(String key) {
+        return this.context.getEnvironment().getProperty(key);
+    }
+
+    public SyntheticLibrarySeeder getSeeder() {
+        return seeder;
+    }
+
+    /**
+     * Get the members that can borrow any book.
+     *
+     * @return the major members
+     */
+    public List<Member> getMajorMembers() {
+        return majorMembers;
+    }
+
+    /**
+     * Get the book copies that were available and not removed once seeded.
+     *
+     * @return the available book copies
+     */
+    public List<BookCopy> getAvailableBookCopies() {
+        return availableBookCopies;
+    }
+}
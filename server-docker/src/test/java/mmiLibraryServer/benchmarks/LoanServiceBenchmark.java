@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.benchmarks;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import mmiLibraryServer.mongoModel.BookCopy;
+import mmiLibraryServer.mongoModel.BookCopyRepository;
+import mmiLibraryServer.mongoModel.Loan;
+import mmiLibraryServer.mongoModel.LoanRepository;
+import mmiLibraryServer.mongoModel.Member;
+import mmiLibraryServer.mongoModel.MemberRepository;
+import mmiLibraryServer.services.LoanService;
+import mmiLibraryServer.services.exceptions.LoanImpossibleException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measure LoanServiceImpl.createLoan and LoanServiceImpl.updateLoan (return of a book copy). Each
+ * invocation works on another available copy of the seeded library, and its writes are undone
+ * outside of the measure so that the library does not drift during the run.
+ *
+ * @author Rémi Venant
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoanServiceBenchmark {
+
+    /**
+     * Pick, for each invocation, a major member and an available book copy. Subclasses undo the
+     * benchmarked writes.
+     */
+    public abstract static class CheckoutState {
+
+        protected LoanService loanService;
+
+        protected LoanRepository loanRepository;
+
+        protected BookCopyRepository bookCopyRepository;
+
+        protected MemberRepository memberRepository;
+
+        private List<Member> members;
+
+        private List<BookCopy> bookCopies;
+
+        private int nextIndex = 0;
+
+        protected Member member;
+
+        protected BookCopy bookCopy;
+
+        @Setup(Level.Trial)
+        public void setUpServices(LibraryState library) {
+            this.loanService = library.getBean(LoanService.class);
+            this.loanRepository = library.getBean(LoanRepository.class);
+            this.bookCopyRepository = library.getBean(BookCopyRepository.class);
+            this.memberRepository = library.getBean(MemberRepository.class);
+            this.members = library.getMajorMembers();
+            this.bookCopies = library.getAvailableBookCopies();
+        }
+
+        protected void pickCheckout() {
+            final int index = this.nextIndex++;
+            this.member = this.memberRepository.findById(this.members.get(index % this.members.size()).getId())
+                    .orElseThrow();
+            this.bookCopy = this.bookCopyRepository.findById(this.bookCopies.get(index % this.bookCopies.size()).getId())
+                    .orElseThrow();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class CreateLoanState extends CheckoutState {
+
+        private Loan createdLoan;
+
+        @Setup(Level.Invocation)
+        public void prepare() {
+            this.pickCheckout();
+        }
+
+        @TearDown(Level.Invocation)
+        public void undo() {
+            if (this.createdLoan != null) {
+                this.loanRepository.deleteById(this.createdLoan.getId());
+                this.createdLoan = null;
+            }
+            this.bookCopyRepository.markAvailable(this.bookCopy.getId());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ReturnLoanState extends CheckoutState {
+
+        private Loan loanToReturn;
+
+        @Setup(Level.Invocation)
+        public void prepare() throws LoanImpossibleException {
+            this.pickCheckout();
+            final Loan loan = this.loanService.createLoan(this.member, this.bookCopy, LocalDateTime.now().minusHours(1));
+            this.loanToReturn = this.loanService.getLoanById(loan.getId());
+            this.loanToReturn.setReturnDateTime(LocalDateTime.now());
+            this.loanToReturn.setReturnState(loan.getInitialState());
+        }
+
+        @TearDown(Level.Invocation)
+        public void undo() {
+            // The copy is available again with its initial state: only the loan must be removed
+            this.loanRepository.deleteById(this.loanToReturn.getId());
+        }
+    }
+
+    @Benchmark
+    public Loan createLoan(CreateLoanState state) throws LoanImpossibleException {
+        state.createdLoan = state.loanService.createLoan(state.member, state.bookCopy, null);
+        return state.createdLoan;
+    }
+
+    @Benchmark
+    public Loan returnLoan(ReturnLoanState state) {
+        return state.loanService.updateLoan(state.loanToReturn);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.benchmarks;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import mmiLibraryServer.mongoModel.BookCopy;
+import mmiLibraryServer.mongoModel.Loan;
+import mmiLibraryServer.mongoModel.LoanRepository;
+import mmiLibraryServer.mongoModel.Member;
+import mmiLibraryServer.mongoModel.MemberRepository;
+import mmiLibraryServer.services.MemberService;
+import mmiLibraryServer.services.exceptions.MemberWithUnreturnedLoanException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measure MemberServiceImpl.deleteMemberById on a member having a history of returned loans. The
+ * member and its loans are created before each invocation, outside of the measure.
+ *
+ * @author Rémi Venant
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MemberServiceBenchmark {
+
+    @Param({"20"})
+    public int memberLoans;
+
+    private MemberService memberService;
+
+    private MemberRepository memberRepository;
+
+    private LoanRepository loanRepository;
+
+    private List<BookCopy> bookCopies;
+
+    private int nextCopyIndex = 0;
+
+    private Member member;
+
+    private Iterable<Loan> memberLoanHistory;
+
+    @Setup(Level.Trial)
+    public void setUpServices(LibraryState library) {
+        this.memberService = library.getBean(MemberService.class);
+        this.memberRepository = library.getBean(MemberRepository.class);
+        this.loanRepository = library.getBean(LoanRepository.class);
+        this.bookCopies = library.getSeeder().getBookCopies();
+    }
+
+    @Setup(Level.Invocation)
+    public void createMember() {
+        this.member = this.memberRepository.save(new Member("Deleted", "Member", LocalDate.of(1980, 1, 1)));
+        final List<Loan> loans = new ArrayList<>(this.memberLoans);
+        final LocalDateTime origin = LocalDateTime.now().minusYears(20);
+        for (int i = 0; i < this.memberLoans; i++) {
+            final BookCopy bookCopy = this.bookCopies.get(this.nextCopyIndex++ % this.bookCopies.size());
+            final Loan loan = new Loan(this.member, bookCopy, origin.plusDays(i), bookCopy.getState());
+            loan.setReturnDateTime(origin.plusDays(i).plusHours(12));
+            loan.setReturnState(bookCopy.getState());
+            loans.add(loan);
+        }
+        this.memberLoanHistory = this.loanRepository.saveAll(loans);
+    }
+
+    @TearDown(Level.Invocation)
+    public void removeMemberLoans() {
+        this.loanRepository.deleteAll(this.memberLoanHistory);
+    }
+
+    @Benchmark
+    public void deleteMemberById() throws MemberWithUnreturnedLoanException {
+        this.memberService.deleteMemberById(this.member.getId());
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.benchmarks;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import mmiLibraryServer.mongoModel.Author;
+import mmiLibraryServer.mongoModel.Book;
+import mmiLibraryServer.mongoModel.BookCategory;
+import mmiLibraryServer.mongoModel.BookCopy;
+import mmiLibraryServer.mongoModel.BookState;
+import mmiLibraryServer.mongoModel.Loan;
+import mmiLibraryServer.mongoModel.Member;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+
+/**
+ * Seed a synthetic but realistic library: categories (some for adults only), books with 1 to 3
+ * categories, copies, members (some minors) and a loan history for each copy, the last loan of
+ * some copies being still ongoing. Data are generated from a fixed seed so that runs are
+ * comparable.
+ *
+ * @author Rémi Venant
+ */
+public class SyntheticLibrarySeeder {
+
+    private static final Log LOG = LogFactory.getLog(SyntheticLibrarySeeder.class);
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static final int NB_CATEGORIES = 20;
+
+    private static final int NB_ADULT_CATEGORIES = 4;
+
+    private static final String[] TITLE_WORDS = {"night", "river", "garden", "stone", "winter",
+        "city", "secret", "ocean", "shadow", "letter", "journey", "house", "king", "forest", "dream",
+        "war", "silence", "mirror", "island", "storm"};
+
+    private static final String[] EDITORS = {"Folio", "Points", "Pocket", "L'Atalante", "Gallimard",
+        "Actes Sud", "Le Livre de Poche"};
+
+    private final MongoTemplate mongoTemplate;
+
+    private final Random random = new Random(42);
+
+    private final List<BookCategory> categories = new ArrayList<>();
+
+    private final List<Book> books = new ArrayList<>();
+
+    private final List<BookCopy> bookCopies = new ArrayList<>();
+
+    private final List<Member> members = new ArrayList<>();
+
+    private final List<Loan> ongoingLoans = new ArrayList<>();
+
+    public SyntheticLibrarySeeder(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Clear the database then seed the library.
+     *
+     * @param nbBooks the number of books
+     * @param copiesPerBook the number of copies of each book
+     * @param nbMembers the number of members
+     * @param loansPerCopy the number of loans of each copy
+     * @param ongoingRatio the ratio of copies with an ongoing loan, between 0 and 1
+     */
+    public void seed(int nbBooks, int copiesPerBook, int nbMembers, int loansPerCopy, double ongoingRatio) {
+        for (Class<?> entityClass : List.of(Loan.class, BookCopy.class, Book.class, BookCategory.class, Member.class)) {
+            this.mongoTemplate.remove(new BasicQuery("{}"), entityClass);
+        }
+        this.seedCategories();
+        this.seedMembers(nbMembers);
+        this.seedBooks(nbBooks);
+        this.seedBookCopies(copiesPerBook, loansPerCopy, ongoingRatio);
+        this.seedLoans(loansPerCopy);
+        LOG.info(String.format("Seeded %d books, %d copies, %d members, %d ongoing loans",
+                this.books.size(), this.bookCopies.size(), this.members.size(), this.ongoingLoans.size()));
+    }
+
+    private void seedCategories() {
+        final List<BookCategory> toSave = new ArrayList<>(NB_CATEGORIES);
+        for (int i = 0; i < NB_CATEGORIES; i++) {
+            toSave.add(new BookCategory("cat" + i, "Category " + i, i < NB_ADULT_CATEGORIES));
+        }
+        this.categories.addAll(this.mongoTemplate.insert(toSave, BookCategory.class));
+    }
+
+    private void seedMembers(int nbMembers) {
+        final List<Member> toSave = new ArrayList<>(nbMembers);
+        for (int i = 0; i < nbMembers; i++) {
+            // One member out of five is a minor
+            final int age = i % 5 == 0 ? 8 + this.random.nextInt(9) : 18 + this.random.nextInt(60);
+            toSave.add(new Member("Name" + i, "Firstname" + i, LocalDate.now().minusYears(age)
+                    .minusDays(this.random.nextInt(365))));
+        }
+        this.members.addAll(this.insertInBatches(toSave, Member.class));
+    }
+
+    private void seedBooks(int nbBooks) {
+        final List<Book> toSave = new ArrayList<>(nbBooks);
+        for (int i = 0; i < nbBooks; i++) {
+            final String title = TITLE_WORDS[this.random.nextInt(TITLE_WORDS.length)] + " "
+                    + TITLE_WORDS[this.random.nextInt(TITLE_WORDS.length)] + " " + i;
+            final List<BookCategory> bookCategories = new ArrayList<>();
+            final int nbCategories = 1 + this.random.nextInt(3);
+            while (bookCategories.size() < nbCategories) {
+                final BookCategory category = this.categories.get(this.random.nextInt(this.categories.size()));
+                if (!bookCategories.contains(category)) {
+                    bookCategories.add(category);
+                }
+            }
+            toSave.add(new Book(isbnOf(i), title, EDITORS[this.random.nextInt(EDITORS.length)],
+                    50 + this.random.nextInt(850), 1950 + this.random.nextInt(75),
+                    List.of(new Author("Firstname" + (i % 300), "Lastname" + (i % 300))), bookCategories));
+        }
+        this.books.addAll(this.insertInBatches(toSave, Book.class));
+    }
+
+    private void seedBookCopies(int copiesPerBook, int loansPerCopy, double ongoingRatio) {
+        final List<BookCopy> toSave = new ArrayList<>(this.books.size() * copiesPerBook);
+        for (Book book : this.books) {
+            for (int i = 0; i < copiesPerBook; i++) {
+                final BookCopy copy = new BookCopy(book, BookState.values()[this.random.nextInt(BookState.values().length)]);
+                // 2% of copies are removed, a ratio of the others is borrowed
+                if (this.random.nextInt(50) == 0) {
+                    copy.setRemoved(true);
+                } else if (loansPerCopy > 0 && this.random.nextDouble() < ongoingRatio) {
+                    copy.setAvailable(false);
+                }
+                toSave.add(copy);
+            }
+        }
+        this.bookCopies.addAll(this.insertInBatches(toSave, BookCopy.class));
+    }
+
+    private void seedLoans(int loansPerCopy) {
+        final List<Loan> toSave = new ArrayList<>(BATCH_SIZE);
+        final LocalDateTime origin = LocalDateTime.now().minusDays(30L * (loansPerCopy + 1));
+        for (BookCopy copy : this.bookCopies) {
+            LocalDateTime loanDateTime = origin.plusHours(this.random.nextInt(240));
+            for (int i = 0; i < loansPerCopy; i++) {
+                final Member member = this.members.get(this.random.nextInt(this.members.size()));
+                final Loan loan = new Loan(member, copy, loanDateTime, copy.getState());
+                final boolean ongoing = i == loansPerCopy - 1 && !copy.isAvailable();
+                if (!ongoing) {
+                    loan.setReturnDateTime(loanDateTime.plusDays(1 + this.random.nextInt(20)));
+                    loan.setReturnState(copy.getState());
+                }
+                toSave.add(loan);
+                loanDateTime = loanDateTime.plusDays(30);
+            }
+            if (toSave.size() >= BATCH_SIZE) {
+                this.collectOngoingLoans(this.mongoTemplate.insert(toSave, Loan.class));
+                toSave.clear();
+            }
+        }
+        if (!toSave.isEmpty()) {
+            this.collectOngoingLoans(this.mongoTemplate.insert(toSave, Loan.class));
+        }
+    }
+
+    private void collectOngoingLoans(Collection<Loan> loans) {
+        loans.stream().filter((l) -> l.getReturnDateTime() == null).forEach(this.ongoingLoans::add);
+    }
+
+    private <T> List<T> insertInBatches(List<T> entities, Class<T> entityClass) {
+        final List<T> inserted = new ArrayList<>(entities.size());
+        for (int from = 0; from < entities.size(); from += BATCH_SIZE) {
+            inserted.addAll(this.mongoTemplate.insert(
+                    entities.subList(from, Math.min(entities.size(), from + BATCH_SIZE)), entityClass));
+        }
+        return inserted;
+    }
+
+    public static String isbnOf(int bookIndex) {
+        return String.format("978%010d", bookIndex);
+    }
+
+    public List<BookCategory> getCategories() {
+        return categories;
+    }
+
+    public List<Book> getBooks() {
+        return books;
+    }
+
+    public List<BookCopy> getBookCopies() {
+        return bookCopies;
+    }
+
+    public List<Member> getMembers() {
+        return members;
+    }
+
+    public List<Loan> getOngoingLoans() {
+        return ongoingLoans;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import mmiLibraryServer.mongoModel.BookCopy;
+import mmiLibraryServer.mongoModel.Member;
+import mmiLibraryServer.services.LoanService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+
+/**
+ * Load test of the servlet mode with platform or virtual threads (threadMode parameter): many
+ * concurrent clients (JMH threads, -t) search books and create loans through HTTP. With platform
+ * threads, the number of requests handled at once is bounded by tomcatThreads; with virtual
+ * threads, by the mongo connection pool.
+ *
+ * Virtual threads require a JDK 21 runtime: on older runtimes, the server does not start in virtual
+ * mode, and only the platform mode can be measured (-p threadMode=platform).
+ *
+ * @author Rémi Venant
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Threads(200)
+@Fork(1)
+public class ThreadModeLoadBenchmark {
+
+    /**
+     * The application served on a random port, with the thread mode to compare.
+     */
+    @State(Scope.Benchmark)
+    public static class ServerState extends LibraryState {
+
+        @Param({"platform", "virtual"})
+        public String threadMode;
+
+        @Param({"50"})
+        public int tomcatThreads;
+
+        private HttpClient httpClient;
+
+        private URI apiUri;
+
+        private ObjectMapper objectMapper;
+
+        private final AtomicInteger nextCheckout = new AtomicInteger();
+
+        @Override
+        protected WebApplicationType webApplicationType() {
+            return WebApplicationType.SERVLET;
+        }
+
+        @Override
+        protected List<String> applicationArgs() {
+            final List<String> args = super.applicationArgs();
+            args.add("--server.port=0");
+            args.add("--server.tomcat.threads.max=" + this.tomcatThreads);
+            args.add("--mmiLibraryServer.threads.mode=" + this.threadMode);
+            return args;
+        }
+
+        @Setup(Level.Trial)
+        public void setUpClient() {
+            this.httpClient = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+            this.apiUri = URI.create("http://localhost:" + this.getProperty("local.server.port") + "/api/v1/rest/");
+            this.objectMapper = this.getBean(ObjectMapper.class);
+        }
+
+        private String send(HttpRequest.Builder request) throws IOException, InterruptedException {
+            final HttpResponse<String> response = this.httpClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException(String.format("%s answered %d: %s",
+                        response.request().uri(), response.statusCode(), response.body()));
+            }
+            return response.body();
+        }
+    }
+
+    /**
+     * Pick, for each invocation, a major member and an available book copy that no other client
+     * uses, then delete the created loan outside of the measure.
+     */
+    @State(Scope.Thread)
+    public static class CheckoutState {
+
+        private String memberId;
+
+        private String bookCopyId;
+
+        private String createdLoanId;
+
+        private LoanService loanService;
+
+        @Setup(Level.Trial)
+        public void setUpService(ServerState server) {
+            this.loanService = server.getBean(LoanService.class);
+        }
+
+        @Setup(Level.Invocation)
+        public void prepare(ServerState server) {
+            final int index = server.nextCheckout.getAndIncrement();
+            final List<Member> members = server.getMajorMembers();
+            final List<BookCopy> bookCopies = server.getAvailableBookCopies();
+            this.memberId = members.get(index % members.size()).getId();
+            this.bookCopyId = bookCopies.get(index % bookCopies.size()).getId();
+        }
+
+        @TearDown(Level.Invocation)
+        public void undo() {
+            if (this.createdLoanId != null) {
+                this.loanService.deleteLoanById(this.createdLoanId);
+                this.createdLoanId = null;
+            }
+        }
+    }
+
+    @Benchmark
+    public String searchBooks(ServerState server) throws IOException, InterruptedException {
+        return server.send(HttpRequest.newBuilder(server.apiUri.resolve("books?title=secret%20garden&language=en&size=20")));
+    }
+
+    @Benchmark
+    public String createLoan(ServerState server, CheckoutState checkout) throws IOException, InterruptedException {
+        final String loanCreationOrder = server.objectMapper.writeValueAsString(
+                Map.of("memberId", checkout.memberId, "bookCopyId", checkout.bookCopyId));
+        final String loan = server.send(HttpRequest.newBuilder(server.apiUri.resolve("loans"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(loanCreationOrder)));
+        checkout.createdLoanId = server.objectMapper.readTree(loan).get("id").asText();
+        return loan;
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.configuration;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.connection.ClusterId;
+import com.mongodb.connection.ConnectionDescription;
+import com.mongodb.connection.ServerId;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import java.util.List;
+import mmiLibraryServer.mongoModel.EntityCache;
+import org.bson.BsonDocument;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+public class EntityCacheInvalidatorTest {
+
+    private static final ConnectionDescription CONNECTION = new ConnectionDescription(
+            new ServerId(new ClusterId(), new ServerAddress()));
+
+    private EntityCache entityCache;
+
+    private EntityCacheInvalidator testedInvalidator;
+
+    public EntityCacheInvalidatorTest() {
+    }
+
+    @BeforeEach
+    public void setUp() {
+        this.entityCache = Mockito.mock(EntityCache.class);
+        Mockito.when(this.entityCache.isEnabled(Mockito.anyString()))
+                .thenAnswer((inv) -> !"loans".equals(inv.getArgument(0)));
+        this.testedInvalidator = new EntityCacheInvalidator(this.entityCache);
+    }
+
+    @Test
+    public void updatesByIdEvictTheirDocuments() {
+        final ObjectId id = new ObjectId();
+        this.start(1, "update", "{update: 'books', updates: [{q: {_id: {$oid: '" + id.toHexString()
+                + "'}}, u: {$inc: {availableCopies: 1}}}, {q: {_id: 'b2'}, u: {}}]}");
+        Mockito.verify(this.entityCache).evict("books", List.of(id.toHexString(), "b2"));
+        // Evicted again once the write is applied
+        this.testedInvalidator.commandSucceeded(new CommandSucceededEvent(1, CONNECTION, "update", new BsonDocument(), 1));
+        Mockito.verify(this.entityCache, Mockito.times(2)).evict("books", List.of(id.toHexString(), "b2"));
+        this.testedInvalidator.commandSucceeded(new CommandSucceededEvent(1, CONNECTION, "update", new BsonDocument(), 1));
+        Mockito.verify(this.entityCache, Mockito.times(2)).evict(Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void deletionsAndFindAndModifyByIdsEvictTheirDocuments() {
+        this.start(1, "delete", "{delete: 'members', deletes: [{q: {_id: {$in: ['m1', 'm2']}}, limit: 0}]}");
+        Mockito.verify(this.entityCache).evict("members", List.of("m1", "m2"));
+        this.start(2, "findAndModify", "{findAndModify: 'bookCopies', query: {_id: 'c1', available: true}, update: {}}");
+        Mockito.verify(this.entityCache).evict("bookCopies", List.of("c1"));
+    }
+
+    @Test
+    public void otherWritesEvictTheirCollection() {
+        this.start(1, "update", "{update: 'books', updates: [{q: {'categories._id': 'cat1'}, u: {}, multi: true}]}");
+        this.start(2, "update", "{update: 'members', updates: [{q: {_id: {$ne: 'm1'}}, u: {}}]}");
+        this.start(3, "update", "{update: 'bookCopies'}");
+        this.start(4, "drop", "{drop: 'bookCategories'}");
+        Mockito.verify(this.entityCache).evictAll("books");
+        Mockito.verify(this.entityCache).evictAll("members");
+        Mockito.verify(this.entityCache).evictAll("bookCopies");
+        Mockito.verify(this.entityCache).evictAll("bookCategories");
+        this.start(5, "dropDatabase", "{dropDatabase: 1}");
+        Mockito.verify(this.entityCache).evictAll();
+    }
+
+    @Test
+    public void readsInsertsAndUncachedCollectionsIgnored() {
+        this.start(1, "find", "{find: 'books', filter: {}}");
+        this.start(2, "insert", "{insert: 'books', documents: [{_id: 'b1'}]}");
+        this.start(3, "update", "{update: 'loans', updates: [{q: {}, u: {}}]}");
+        Mockito.verify(this.entityCache, Mockito.never()).evict(Mockito.any(), Mockito.any());
+        Mockito.verify(this.entityCache, Mockito.never()).evictAll(Mockito.any());
+        Mockito.verify(this.entityCache, Mockito.never()).evictAll();
+    }
+
+    private void start(int requestId, String commandName, String command) {
+        this.testedInvalidator.commandStarted(new CommandStartedEvent(requestId, CONNECTION, "mmilibsrv",
+                commandName, BsonDocument.parse(command)));
+    }
+}
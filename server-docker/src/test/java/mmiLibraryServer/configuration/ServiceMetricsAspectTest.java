@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.configuration;
+
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import static org.assertj.core.api.Assertions.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+public class ServiceMetricsAspectTest {
+
+    private static final Log LOG = LogFactory.getLog(ServiceMetricsAspectTest.class);
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private TimedService timedService;
+
+    public ServiceMetricsAspectTest() {
+    }
+
+    @BeforeEach
+    public void setUp() {
+        this.meterRegistry = new SimpleMeterRegistry();
+        final AspectJProxyFactory proxyFactory = new AspectJProxyFactory(new TimedService());
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAspect(new ServiceMetricsAspect(this.meterRegistry));
+        this.timedService = proxyFactory.getProxy();
+    }
+
+    @Test
+    public void publicMethodsAreTimed() {
+        assertThat(this.timedService.getValue()).isEqualTo("value");
+        assertThat(this.timedService.getValue()).isEqualTo("value");
+        assertThat(this.meterRegistry.get("test.services")
+                .tag("class", "TimedService").tag("method", "getValue").tag("exception", "none")
+                .timer().count()).isEqualTo(2);
+    }
+
+    @Test
+    public void exceptionsAreTagged() {
+        assertThatThrownBy(()
+                -> this.timedService.getMissingValue())
+                .isInstanceOf(NoSuchElementException.class);
+        assertThat(this.meterRegistry.get("test.services")
+                .tag("method", "getMissingValue").tag("exception", "NoSuchElementException")
+                .timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void asyncMethodsAreTimedOnCompletion() {
+        final CompletableFuture<String> value = new CompletableFuture<>();
+        final CompletableFuture<String> missingValue = new CompletableFuture<>();
+        this.timedService.getAsyncValue(value);
+        this.timedService.getAsyncValue(missingValue);
+        assertThat(this.meterRegistry.find("test.services").tag("method", "getAsyncValue").timer())
+                .as("Timer before completion").isNull();
+        value.complete("value");
+        missingValue.completeExceptionally(new NoSuchElementException("Missing value."));
+        assertThat(this.meterRegistry.get("test.services")
+                .tag("method", "getAsyncValue").tag("exception", "none")
+                .timer().count()).isEqualTo(1);
+        assertThat(this.meterRegistry.get("test.services")
+                .tag("method", "getAsyncValue").tag("exception", "NoSuchElementException")
+                .timer().count()).isEqualTo(1);
+    }
+
+    @Timed("test.services")
+    public static class TimedService {
+
+        public String getValue() {
+            return "value";
+        }
+
+        public String getMissingValue() {
+            throw new NoSuchElementException("Missing value.");
+        }
+
+        public CompletableFuture<String> getAsyncValue(CompletableFuture<String> result) {
+            return result;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import static org.assertj.core.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+public class ThreadsConfigurationTest {
+
+    private static final Log LOG = LogFactory.getLog(ThreadsConfigurationTest.class);
+
+    public ThreadsConfigurationTest() {
+    }
+
+    @Test
+    public void platformFanOutExecutorOk() throws Exception {
+        final ExecutorService executor = new ThreadsConfiguration().fanOutExecutor(ThreadMode.PLATFORM, 2, 200);
+        try {
+            final Thread thread = executor.submit(Thread::currentThread).get(5, TimeUnit.SECONDS);
+            assertThat(thread.getName()).startsWith("fan-out-");
+            assertThat(thread.isDaemon()).isTrue();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void platformFanOutExecutorSizedFromRequestThreads() {
+        final ExecutorService executor = new ThreadsConfiguration().fanOutExecutor(ThreadMode.PLATFORM, 0, 200);
+        try {
+            assertThat(executor).isInstanceOf(ThreadPoolExecutor.class);
+            assertThat(((ThreadPoolExecutor) executor).getMaximumPoolSize())
+                    .isEqualTo(ThreadsConfiguration.FAN_OUT_TASKS_PER_REQUEST * 200);
+            assertThat(((ThreadPoolExecutor) executor).allowsCoreThreadTimeOut()).isTrue();
+        } finally {
+            executor.shutdown();
+        }
+        final ExecutorService sizedExecutor = new ThreadsConfiguration().fanOutExecutor(ThreadMode.PLATFORM, 2, 200);
+        try {
+            assertThat(((ThreadPoolExecutor) sizedExecutor).getMaximumPoolSize()).isEqualTo(2);
+        } finally {
+            sizedExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void virtualFanOutExecutorOk() throws Exception {
+        if (!ThreadMode.isVirtualThreadsSupported()) {
+            // Without virtual threads support, the virtual mode must not silently use platform threads
+            assertThatThrownBy(() -> new ThreadsConfiguration().fanOutExecutor(ThreadMode.VIRTUAL, 2, 200))
+                    .isInstanceOf(IllegalStateException.class);
+            return;
+        }
+        final ExecutorService executor = new ThreadsConfiguration().fanOutExecutor(ThreadMode.VIRTUAL, 2, 200);
+        try {
+            final Thread thread = executor.submit(Thread::currentThread).get(5, TimeUnit.SECONDS);
+            assertThat(thread.getName()).doesNotStartWith("fan-out-");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void newVirtualThreadPerTaskExecutorRequiresSupport() {
+        if (ThreadMode.isVirtualThreadsSupported()) {
+            ThreadMode.newVirtualThreadPerTaskExecutor().shutdown();
+        } else {
+            assertThatThrownBy(() -> ThreadMode.newVirtualThreadPerTaskExecutor())
+                    .isInstanceOf(UnsupportedOperationException.class);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel;
+
+import java.util.List;
+import mmiLibraryServer.configuration.MongoConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.test.context.ActiveProfiles;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+@DataMongoTest
+@Import(MongoConfiguration.class)
+@ActiveProfiles("mongo-test")
+public class BookCategoryDictionaryTest {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private BookCategoryRepository bookCategoryRepo;
+
+    @Autowired
+    private BookCategoryDictionary testedDictionary;
+
+    public BookCategoryDictionaryTest() {
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.mongoTemplate.remove(new BasicQuery("{}"), BookCategory.class);
+    }
+
+    @Test
+    public void dictionaryFollowsCategoryChanges() {
+        final BookCategory cat1 = this.bookCategoryRepo.save(new BookCategory("CAT1", "Category 1", false));
+        final BookCategory cat2 = this.bookCategoryRepo.save(new BookCategory("CAT2", "Category 2", true));
+
+        assertThat(this.testedDictionary.getCategoriesByCodes(List.of("CAT1", "CAT2", "UNKNOWN")))
+                .map(BookCategory::getId).containsExactlyInAnyOrder(cat1.getId(), cat2.getId());
+        assertThat(this.testedDictionary.getAdultOnlyCategories())
+                .map(BookCategory::getId).containsExactly(cat2.getId());
+
+        // Update: the dictionary is invalidated by the save event
+        cat1.setAdultOnly(true);
+        this.bookCategoryRepo.save(cat1);
+        assertThat(this.testedDictionary.getAdultOnlyCategories())
+                .map(BookCategory::getId).containsExactlyInAnyOrder(cat1.getId(), cat2.getId());
+
+        // Creation
+        final BookCategory cat3 = this.bookCategoryRepo.save(new BookCategory("CAT3", "Category 3", false));
+        assertThat(this.testedDictionary.getCategoriesByCodes(List.of("CAT3")))
+                .map(BookCategory::getId).containsExactly(cat3.getId());
+
+        // Deletion
+        this.bookCategoryRepo.deleteById(cat2.getId());
+        assertThat(this.testedDictionary.getCategoriesByCodes(List.of("CAT2"))).isEmpty();
+        assertThat(this.testedDictionary.getAdultOnlyCategories())
+                .map(BookCategory::getId).containsExactly(cat1.getId());
+
+        // Deletion of all categories
+        this.bookCategoryRepo.deleteAll();
+        assertThat(this.testedDictionary.getCategoriesByCodes(List.of("CAT1", "CAT3"))).isEmpty();
+        assertThat(this.testedDictionary.getAdultOnlyCategories()).isEmpty();
+    }
+}
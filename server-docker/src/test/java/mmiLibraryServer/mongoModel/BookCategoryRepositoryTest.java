@@ -109,16 +109,16 @@ public class BookCategoryRepositoryTest {
         Book updatedBook = this.mongoTemplate.findById(b1.getId(), Book.class);
         assert updatedBook != null;
         assertThat(updatedBook.getCategories()).as("Book categories of b1 changed")
-                .map(BookCategory::getId).containsExactlyInAnyOrder(bc1.getId());
+                .map(BookCategorySnapshot::getId).containsExactlyInAnyOrder(bc1.getId());
 
         updatedBook = this.mongoTemplate.findById(b2.getId(), Book.class);
         assert updatedBook != null;
         assertThat(updatedBook.getCategories()).as("Book categories of b2 changed")
-                .map(BookCategory::getId).containsExactlyInAnyOrder(bc1.getId(), bc3.getId());
+                .map(BookCategorySnapshot::getId).containsExactlyInAnyOrder(bc1.getId(), bc3.getId());
 
         updatedBook = this.mongoTemplate.findById(b3.getId(), Book.class);
         assert updatedBook != null;
         assertThat(updatedBook.getCategories()).as("Book categories of b3 changed")
-                .map(BookCategory::getId).containsExactlyInAnyOrder(bc3.getId());
+                .map(BookCategorySnapshot::getId).containsExactlyInAnyOrder(bc3.getId());
     }
 }
@@ -94,4 +94,89 @@ public class BookCopyRepositoryTest {
         assertThat(this.testedRepo.findAll()).hasSize(3);
     }
 
+    @Test
+    public void findAndMarkUnavailableOk() {
+        final BookCopy available = this.testedRepo.save(new BookCopy(this.book1, BookState.NEW, false, true));
+        final BookCopy unavailable = this.testedRepo.save(new BookCopy(this.book1, BookState.NEW, false, false));
+        final BookCopy removed = this.testedRepo.save(new BookCopy(this.book1, BookState.NEW, true, true));
+
+        final BookCopy reserved = this.testedRepo.findAndMarkUnavailable(available.getId());
+        assertThat(reserved).isNotNull();
+        assertThat(reserved.isAvailable()).isFalse();
+        // Second checkout of the same copy must fail
+        assertThat(this.testedRepo.findAndMarkUnavailable(available.getId())).isNull();
+        assertThat(this.testedRepo.findAndMarkUnavailable(unavailable.getId())).isNull();
+        assertThat(this.testedRepo.findAndMarkUnavailable(removed.getId())).isNull();
+        assertThat(this.testedRepo.findById(removed.getId()).get().isAvailable()).isTrue();
+
+        assertThat(this.testedRepo.markAvailable(available.getId())).isTrue();
+        assertThat(this.testedRepo.findById(available.getId()).get().isAvailable()).isTrue();
+    }
+
+    @Test
+    public void findAndMarkUnavailableWithStateOk() {
+        final BookCopy available = this.testedRepo.save(new BookCopy(this.book1, BookState.USED, false, true));
+
+        final BookCopy reserved = this.testedRepo.findAndMarkUnavailable(available.getId(), BookState.GOOD);
+        assertThat(reserved).extracting("state", "available").containsExactly(BookState.GOOD, false);
+        assertThat(this.testedRepo.findById(available.getId()).get())
+                .extracting("state", "available").containsExactly(BookState.GOOD, false);
+        // A borrowed copy keeps its state
+        assertThat(this.testedRepo.findAndMarkUnavailable(available.getId(), BookState.NEW)).isNull();
+        assertThat(this.testedRepo.findById(available.getId()).get().getState()).isEqualTo(BookState.GOOD);
+    }
+
+    @Test
+    public void findAndUpdateIfAvailableOk() {
+        final BookCopy available = this.testedRepo.save(new BookCopy(this.book1, BookState.NEW, false, true));
+        final BookCopy unavailable = this.testedRepo.save(new BookCopy(this.book1, BookState.NEW, false, false));
+        this.testedRepo.incrementBookCopyCounters(this.book1.getId(), 2, 1, 0);
+
+        final BookCopy updated = this.testedRepo.findAndUpdateIfAvailable(available.getId(), BookState.USED, true);
+        assertThat(updated).extracting("state", "removed", "available").containsExactly(BookState.USED, true, true);
+        assertThat(this.testedRepo.findById(available.getId()).get())
+                .extracting("state", "removed", "available").containsExactly(BookState.USED, true, true);
+        assertThat(this.mongoTemplate.findById(this.book1.getId(), Book.class))
+                .extracting("availableCopies", "removedCopies").containsExactly(0, 1);
+        // A borrowed copy is left unchanged
+        assertThat(this.testedRepo.findAndUpdateIfAvailable(unavailable.getId(), BookState.USED, null)).isNull();
+        assertThat(this.testedRepo.findById(unavailable.getId()).get())
+                .extracting("state", "available").containsExactly(BookState.NEW, false);
+    }
+
+    @Test
+    public void availabilityTransitionsMaintainCountersOk() {
+        final BookCopy bc1 = this.testedRepo.save(new BookCopy(this.book1, BookState.NEW, false, true));
+        final BookCopy bc2 = this.testedRepo.save(new BookCopy(this.book1, BookState.NEW, false, true));
+        final BookCopy bc3 = this.testedRepo.save(new BookCopy(this.book2, BookState.NEW, false, true));
+        this.testedRepo.incrementBookCopyCounters(this.book1.getId(), 2, 2, 0);
+        this.testedRepo.incrementBookCopyCounters(this.book2.getId(), 1, 1, 0);
+
+        assertThat(this.testedRepo.findAndMarkUnavailable(bc1.getId())).isNotNull();
+        assertThat(this.availableCopiesOf(this.book1)).isEqualTo(1);
+        // Marking an available copy as available does not change counters
+        assertThat(this.testedRepo.markAvailable(bc2.getId())).isFalse();
+        assertThat(this.availableCopiesOf(this.book1)).isEqualTo(1);
+
+        assertThat(this.testedRepo.markAllUnavailable(List.of(bc1.getId(), bc2.getId(), bc3.getId())))
+                .containsExactlyInAnyOrder(bc2.getId(), bc3.getId());
+        assertThat(this.availableCopiesOf(this.book1)).isZero();
+        assertThat(this.availableCopiesOf(this.book2)).isZero();
+
+        assertThat(this.testedRepo.markAllAvailable(List.of(bc2.getId(), bc3.getId()))).isEqualTo(2);
+        assertThat(this.availableCopiesOf(this.book1)).isEqualTo(1);
+        assertThat(this.availableCopiesOf(this.book2)).isEqualTo(1);
+
+        final BookCopy returned = this.testedRepo.findById(bc1.getId()).get();
+        returned.setState(BookState.GOOD);
+        assertThat(this.testedRepo.markAllAvailableWithState(List.of(returned))).isEqualTo(1);
+        assertThat(this.availableCopiesOf(this.book1)).isEqualTo(2);
+        assertThat(this.testedRepo.findById(bc1.getId()).get().getState()).isEqualTo(BookState.GOOD);
+        assertThat(this.mongoTemplate.findById(this.book1.getId(), Book.class))
+                .extracting("totalCopies", "removedCopies").containsExactly(2, 0);
+    }
+
+    private int availableCopiesOf(Book book) {
+        return this.mongoTemplate.findById(book.getId(), Book.class).getAvailableCopies();
+    }
 }
@@ -19,10 +19,12 @@
 package mmiLibraryServer.mongoModel;
 
 import java.util.List;
+import java.util.Map;
 import mmiLibraryServer.configuration.MongoConfiguration;
 import mmiLibraryServer.mongoModel.utils.BookRequestFilter;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.bson.types.ObjectId;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeEach;
@@ -32,8 +34,12 @@ import static org.assertj.core.api.Assertions.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
 import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.test.context.ActiveProfiles;
 
 /**
@@ -227,6 +233,26 @@ public class BookRepositoryTest {
         assertThat(books).as("3 filtres: avec titre, cat C2, pour enfants")
                 .map(Book::getId).containsExactlyInAnyOrder(b_I_T_C12_A_P1_A1.getId(), b_NI_CT1_C12_NA_P2_A2.getId());
 
+        // Recherche avec 2 filtres : b_I_T_C12_A_P1_A1, b_NI_CT1_C23_A_P2_A13
+        LOG.info("Test 2 filtres: cat C2, disponibles");
+        books = this.testedRepo.findAllByFilter(BookRequestFilter.getBuilder()
+                .withCategories(cat2)
+                .withAvailability()
+                .build());
+        assertThat(books).as("2 filtres: cat C2, disponibles")
+                .map(Book::getId).containsExactlyInAnyOrder(b_I_T_C12_A_P1_A1.getId(), b_NI_CT1_C23_A_P2_A13.getId());
+
+        // Recherche avec 2 filtres : titre proche et disponibles
+        LOG.info("Test 2 filtres: titre proche, disponibles");
+        books = this.testedRepo.findAllByFilter(BookRequestFilter.getBuilder()
+                .withTitleAlike(expectedTitle, "en")
+                .withAvailability()
+                .build());
+        assertThat(books).as("2 filtres: titre proche, disponibles")
+                .map(Book::getId).contains(b_I_T_C12_A_P1_A1.getId(), b_NI_CT1_C23_A_P2_A13.getId())
+                .doesNotContain(b_NI_CT1_C12_NA_P2_A2.getId(), b_NI_FT2_C13_NA_P1_A12.getId(),
+                b_NI_FT1_C23_NA_P3_A23.getId());
+
         // Recherche avec TOUS filtres :  b_I_T_C12_A_P1_A1
         LOG.info("Test TOUS filtres");
         books = this.testedRepo.findAllByFilter(BookRequestFilter.getBuilder()
@@ -241,6 +267,176 @@ public class BookRepositoryTest {
                 .map(Book::getId).containsExactlyInAnyOrder(b_I_T_C12_A_P1_A1.getId());
     }
 
+    @Test
+    public void booksFilterPagedOk() {
+        final Book b1 = this.testedRepo.save(new Book("isbn1", "title1", "editor1", 100, 2003));
+        final Book b2 = this.testedRepo.save(new Book("isbn2", "title2", "editor1", 100, 2001));
+        final Book b3 = this.testedRepo.save(new Book("isbn3", "title3", "editor1", 100, 2002));
+        final Book b4 = this.testedRepo.save(new Book("isbn4", "title4", "editor1", 100, 2001));
+        this.buildBookCopies(b1, 1, 0, 0);
+        this.buildBookCopies(b2, 0, 0, 1);
+        this.buildBookCopies(b3, 2, 0, 0);
+        this.buildBookCopies(b4, 1, 0, 0);
+
+        // Default order is the id order
+        List<Book> books = this.testedRepo.findAllByFilter(BookRequestFilter.getBuilder()
+                .withPage(0, 3).build());
+        assertThat(books).map(Book::getId).containsExactly(b1.getId(), b2.getId(), b3.getId());
+        books = this.testedRepo.findAllByFilter(BookRequestFilter.getBuilder()
+                .withPage(1, 3).build());
+        assertThat(books).map(Book::getId).containsExactly(b4.getId());
+
+        // Sort orders are completed by the id order
+        books = this.testedRepo.findAllByFilter(BookRequestFilter.getBuilder()
+                .withSort("publicationYear", Sort.Direction.DESC)
+                .withPage(0, 3).build());
+        assertThat(books).map(Book::getId).containsExactly(b1.getId(), b3.getId(), b2.getId());
+
+        // Available books are paged after the availability filter
+        final BookRequestFilter availableFilter = BookRequestFilter.getBuilder()
+                .withAvailability()
+                .withSort("publicationYear", Sort.Direction.ASC)
+                .withPage(0, 2).build();
+        books = this.testedRepo.findAllByFilter(availableFilter);
+        assertThat(books).map(Book::getId).containsExactly(b4.getId(), b3.getId());
+        assertThat(this.testedRepo.countByFilter(availableFilter)).isEqualTo(3);
+        assertThat(this.testedRepo.countByFilter(BookRequestFilter.getBuilder().withPage(0, 2).build()))
+                .isEqualTo(4);
+        assertThat(this.testedRepo.countByFilter(BookRequestFilter.getBuilder().withIsbn("unknown").build()))
+                .isZero();
+    }
+
+    @Test
+    public void updateDescriptionKeepsCountersOk() {
+        final Book book = this.testedRepo.save(new Book("isbn1", "title1", "editor1", 100, 2003));
+        this.buildBookCopies(book, 2, 1, 1);
+        book.setTitle("new title");
+        book.setEditor(null);
+
+        final Book updatedBook = this.testedRepo.updateDescription(book, null);
+        assertThat(updatedBook).isNotNull();
+        assertThat(updatedBook).extracting("title", "editor", "numOfPages", "totalCopies", "availableCopies", "removedCopies")
+                .containsExactly("new title", null, 100, 4, 2, 1);
+    }
+
+    @Test
+    public void reconcileCopyCountersOk() {
+        final Book b1 = this.testedRepo.save(new Book("isbn1", "title1", "editor1", 100, 2003));
+        final Book b2 = this.testedRepo.save(new Book("isbn2", "title2", "editor1", 100, 2001));
+        final Book b3 = this.testedRepo.save(new Book("isbn3", "title3", "editor1", 100, 2002));
+        this.buildBookCopies(b1, 2, 1, 1);
+        // Copies saved without maintaining the counters of their book
+        this.bookCopyRepo.save(new BookCopy(b2, BookState.NEW, false, true));
+        this.bookCopyRepo.save(new BookCopy(b2, BookState.NEW, false, false));
+        this.bookCopyRepo.incrementBookCopyCounters(b3.getId(), 1, 1, 0);
+
+        assertThat(this.testedRepo.reconcileCopyCounters()).isEqualTo(2);
+        assertThat(this.testedRepo.findById(b1.getId()).get())
+                .extracting("totalCopies", "availableCopies", "removedCopies").containsExactly(4, 2, 1);
+        assertThat(this.testedRepo.findById(b2.getId()).get())
+                .extracting("totalCopies", "availableCopies", "removedCopies").containsExactly(2, 1, 0);
+        assertThat(this.testedRepo.findById(b3.getId()).get())
+                .extracting("totalCopies", "availableCopies", "removedCopies").containsExactly(0, 0, 0);
+        assertThat(this.testedRepo.reconcileCopyCounters()).isZero();
+    }
+
+    @Test
+    public void adultOnlyMaintainedOk() {
+        final BookCategory c1 = this.bookCategoryRepo.save(new BookCategory("c1", "cat1", false));
+        final BookCategory c2 = this.bookCategoryRepo.save(new BookCategory("c2", "cat2", true));
+        final Book b1 = this.testedRepo.save(new Book("isbn1", "title1", "editor1", 100, 2003, List.of(), List.of(c1)));
+        final Book b2 = this.testedRepo.save(new Book("isbn2", "title2", "editor1", 100, 2001, List.of(), List.of(c1, c2)));
+        assertThat(this.testedRepo.findById(b1.getId()).get().isAdultOnly()).as("Saved child book").isFalse();
+        assertThat(this.testedRepo.findById(b2.getId()).get().isAdultOnly()).as("Saved adult book").isTrue();
+        assertThat(this.testedRepo.existsByIdAndAdultOnlyTrue(b2.getId())).isTrue();
+
+        // Change of the categories of a book
+        b1.setCategories(List.of(BookCategorySnapshot.of(c2)));
+        assertThat(this.testedRepo.updateDescription(b1, null).isAdultOnly()).as("Updated book").isTrue();
+
+        // Change of the adult only flag of a category
+        c2.setAdultOnly(false);
+        this.bookCategoryRepo.save(c2);
+        assertThat(this.testedRepo.refreshAdultOnly(c2)).isEqualTo(2);
+        assertThat(this.testedRepo.findAllByFilter(BookRequestFilter.getBuilder().withChildCompliancy().build()))
+                .hasSize(2);
+
+        // Flag drifted
+        this.mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(b1.getId())),
+                Update.update("adultOnly", true), Book.class);
+        assertThat(this.testedRepo.reconcileAdultOnly()).isEqualTo(1);
+        assertThat(this.testedRepo.reconcileAdultOnly()).isZero();
+    }
+
+    @Test
+    public void categorySnapshotsMaintainedOk() {
+        final BookCategory c1 = this.bookCategoryRepo.save(new BookCategory("c1", "cat1", false));
+        final BookCategory c2 = this.bookCategoryRepo.save(new BookCategory("c2", "cat2", false));
+        final Book b1 = this.testedRepo.save(new Book("isbn1", "title1", "editor1", 100, 2003, List.of(), List.of(c1, c2)));
+        final Book b2 = this.testedRepo.save(new Book("isbn2", "title2", "editor1", 100, 2001, List.of(), List.of(c2)));
+        final String revision = this.testedRepo.findRevision(b1.getId());
+
+        // Change of a category
+        c1.setName("cat1 renamed");
+        this.bookCategoryRepo.save(c1);
+        assertThat(this.testedRepo.updateCategorySnapshots(c1)).isEqualTo(1);
+        assertThat(this.testedRepo.findById(b1.getId()).get().getCategories())
+                .containsExactly(BookCategorySnapshot.of(c1), BookCategorySnapshot.of(c2));
+        assertThat(this.testedRepo.findRevision(b1.getId())).isNotEqualTo(revision);
+
+        // Snapshots drifted, and legacy references
+        c2.setCode("c2b");
+        this.bookCategoryRepo.save(c2);
+        this.mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(b2.getId())),
+                Update.update("categories", List.of(new ObjectId(c1.getId()))), Book.class);
+        assertThat(this.testedRepo.reconcileCategorySnapshots()).isEqualTo(2);
+        assertThat(this.testedRepo.findById(b1.getId()).get().getCategories())
+                .containsExactly(BookCategorySnapshot.of(c1), BookCategorySnapshot.of(c2));
+        assertThat(this.testedRepo.findById(b2.getId()).get().getCategories())
+                .containsExactly(BookCategorySnapshot.of(c1));
+        assertThat(this.testedRepo.reconcileCategorySnapshots()).isZero();
+    }
+
+    @Test
+    public void findRevisionOk() {
+        final Book book = this.testedRepo.save(new Book("isbn1", "title1", "editor1", 100, 2021));
+        final String created = this.testedRepo.findRevision(book.getId());
+        assertThat(created).isNotNull();
+
+        // A change of one of its copies changes the revision of the book
+        this.bookCopyRepo.save(new BookCopy(book, BookState.NEW));
+        this.bookCopyRepo.incrementBookCopyCounters(book.getId(), 1, 1, 0);
+        final String withCopy = this.testedRepo.findRevision(book.getId());
+        assertThat(withCopy).isNotEqualTo(created);
+
+        book.setTitle("title2");
+        assertThat(this.testedRepo.updateDescription(book, null)).isNotNull();
+        assertThat(this.testedRepo.findRevision(book.getId())).isNotEqualTo(withCopy);
+        assertThat(this.testedRepo.findRevision(new ObjectId().toHexString())).isNull();
+    }
+
+    @Test
+    public void insertWithCopiesOk() {
+        final BookCategory adult = this.bookCategoryRepo.save(new BookCategory("c1", "cat1", true));
+        this.testedRepo.save(new Book("isbn2", "title2", "editor1", 100, 2001));
+        final List<Book> books = List.of(
+                new Book("isbn1", "title1", "editor1", 100, 2003, List.of(), List.of(adult)),
+                new Book("isbn2", "title2 again", "editor1", 100, 2001),
+                new Book("isbn3", "title3", "editor1", 100, 2002));
+        final Map<Integer, String> errors = this.testedRepo.insertWithCopies(books, List.of(
+                List.of(BookState.NEW, BookState.GOOD), List.of(BookState.NEW), List.of()));
+
+        assertThat(errors).as("duplicate isbn rejected").containsOnlyKeys(1);
+        final Book b1 = this.testedRepo.findById(books.get(0).getId()).get();
+        assertThat(b1).extracting("totalCopies", "availableCopies", "removedCopies", "adultOnly", "version")
+                .containsExactly(2, 2, 0, true, 0L);
+        assertThat(b1.getCategories()).extracting("code").containsExactly("c1");
+        assertThat(this.testedRepo.findById(books.get(2).getId()).get().getTotalCopies()).isZero();
+        assertThat(this.bookCopyRepo.findAll()).as("copies of the rejected book not inserted").hasSize(2)
+                .allSatisfy((copy) -> assertThat(copy.getBookId()).isEqualTo(b1.getId()));
+        assertThat(this.testedRepo.reconcileCopyCounters()).as("counters consistent with the copies").isZero();
+    }
+
     private void buildBookCopies(Book book, int nbAvailablesNotRemoved, int nbAvailablesRemoved, int nbNotAvailables) {
         for (int i = 0; i < nbAvailablesNotRemoved; i++) {
             this.bookCopyRepo.save(new BookCopy(book, BookState.NEW, false, true));
@@ -253,6 +449,8 @@ public class BookRepositoryTest {
         for (int i = 0; i < nbNotAvailables; i++) {
             this.bookCopyRepo.save(new BookCopy(book, BookState.NEW, false, false));
         }
-
+        this.bookCopyRepo.incrementBookCopyCounters(book.getId(),
+                nbAvailablesNotRemoved + nbAvailablesRemoved + nbNotAvailables,
+                nbAvailablesNotRemoved, nbAvailablesRemoved);
     }
 }
@@ -22,6 +22,7 @@ import com.mongodb.client.MongoCursor;
 import java.util.List;
 import javax.validation.ConstraintViolationException;
 import mmiLibraryServer.configuration.MongoConfiguration;
+import mmiLibraryServer.mongoModel.utils.BookFilterQueries;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.junit.jupiter.api.AfterEach;
@@ -177,6 +178,19 @@ public class BookTest {
         assertThat(book.getCategories()).extracting("id").containsExactlyInAnyOrder(this.cat1.getId());
     }
 
+    @Test
+    public void categoriesAreEmbedded() {
+        String bookId = this.mongoTemplate.save(new Book("isbn", "title", "editor", 100, 2021, null,
+                List.of(this.cat1))).getId();
+        // The book keeps its snapshot, whatever becomes of the category
+        this.mongoTemplate.remove(new BasicQuery("{}"), BookCategory.class);
+
+        final Book book = this.mongoTemplate.findById(bookId, Book.class);
+        assertThat(book).isNotNull();
+        assert book != null;
+        assertThat(book.getCategories()).containsExactly(BookCategorySnapshot.of(this.cat1));
+    }
+
     @Test
     public void bookHasUniqueIsbn() {
         Book b = this.mongoTemplate.save(new Book("isbn", "title", "editor", 100, 2021, null, null));
@@ -216,7 +230,8 @@ public class BookTest {
         final Book book = this.mongoTemplate.save(new Book("isbn", "title", "editor", 50, 2000,
                 List.of(a1, a2), List.of(cat1, cat2)));
 
-        Query query = Query.query(Criteria.where("categories").in(List.of(cat1, cat2)));
+        Query query = Query.query(Criteria.where(BookFilterQueries.CATEGORY_IDS)
+                .in(BookFilterQueries.storedIds(List.of(cat1, cat2))));
         List<Book> books = this.mongoTemplate.find(query, Book.class);
         assertThat(books).as("1 document found").map(Book::getId).containsExactly(book.getId());
     }
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import org.bson.Document;
+import static org.assertj.core.api.Assertions.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeSaveEvent;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+@ExtendWith(MockitoExtension.class)
+public class EntityCacheTest {
+
+    @Mock
+    private MongoOperations mongoOps;
+
+    @Mock
+    private MongoConverter converter;
+
+    private EntityCache testedCache;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    public EntityCacheTest() {
+    }
+
+    @BeforeEach
+    public void setUp() {
+        this.testedCache = new EntityCache();
+        this.testedCache.enable("members", 2, Duration.ofMinutes(5));
+        this.meterRegistry = new SimpleMeterRegistry();
+        Mockito.lenient().when(this.mongoOps.getCollectionName(Member.class)).thenReturn("members");
+        Mockito.lenient().when(this.mongoOps.getCollectionName(Book.class)).thenReturn("books");
+        Mockito.lenient().when(this.mongoOps.getConverter()).thenReturn(this.converter);
+        Mockito.lenient().when(this.converter.read(eq(Member.class), any(Document.class))).thenAnswer((inv) -> {
+            final Document document = inv.getArgument(1);
+            return TestInstanceBuilder.withId(new Member(document.getString("name"), "firstname", null), document.getString("_id"));
+        });
+    }
+
+    @Test
+    public void documentsReadOnce() {
+        given(this.mongoOps.findById("m1", Document.class, "members")).willReturn(member("m1", "Doe", 1));
+        assertThat(this.testedCache.findById(this.mongoOps, "m1", Member.class)).get()
+                .extracting(Member::getName).isEqualTo("Doe");
+        final Member member = this.testedCache.findById(this.mongoOps, "m1", Member.class).get();
+        // Each read gets its own entity
+        assertThat(member).isNotSameAs(this.testedCache.findById(this.mongoOps, "m1", Member.class).get());
+        Mockito.verify(this.mongoOps, Mockito.times(1)).findById("m1", Document.class, "members");
+        this.testedCache.bindTo(this.meterRegistry);
+        assertThat(this.count(EntityCache.CACHE_METRIC, "result", "hit")).isEqualTo(2);
+        assertThat(this.count(EntityCache.CACHE_METRIC, "result", "miss")).isEqualTo(1);
+    }
+
+    @Test
+    public void rawDocumentsReadOnce() {
+        given(this.mongoOps.findById("m1", Document.class, "members")).willReturn(member("m1", "Doe", 1));
+        assertThat(this.testedCache.findDocumentById(this.mongoOps, "m1", Member.class)).get()
+                .extracting((doc) -> doc.get("version")).isEqualTo(1L);
+        assertThat(this.testedCache.findById(this.mongoOps, "m1", Member.class)).isPresent();
+        Mockito.verify(this.mongoOps, Mockito.times(1)).findById("m1", Document.class, "members");
+    }
+
+    @Test
+    public void missingDocumentsNotCached() {
+        assertThat(this.testedCache.findById(this.mongoOps, "m1", Member.class)).isEmpty();
+        assertThat(this.testedCache.findById(this.mongoOps, "m1", Member.class)).isEmpty();
+        Mockito.verify(this.mongoOps, Mockito.times(2)).findById("m1", Document.class, "members");
+    }
+
+    @Test
+    public void disabledCollectionsReadFromDatabase() {
+        final Book book = new Book();
+        given(this.mongoOps.findById("b1", Book.class)).willReturn(book);
+        assertThat(this.testedCache.findById(this.mongoOps, "b1", Book.class)).containsSame(book);
+        assertThat(this.testedCache.findById(this.mongoOps, "b1", Book.class)).containsSame(book);
+        Mockito.verify(this.mongoOps, Mockito.times(2)).findById("b1", Book.class);
+        assertThat(this.testedCache.isEnabled("books")).isFalse();
+    }
+
+    @Test
+    public void nullIdsRejected() {
+        assertThatThrownBy(() -> this.testedCache.findById(this.mongoOps, null, Member.class))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void savedDocumentsWrittenThrough() {
+        this.save(member("m1", "Doe", 2));
+        // An older revision saved concurrently does not replace the latest one
+        this.save(member("m1", "Smith", 1));
+        assertThat(this.testedCache.findById(this.mongoOps, "m1", Member.class)).get()
+                .extracting(Member::getName).isEqualTo("Doe");
+        // The eviction sent by the command of the save itself does not prevent its write through
+        final Document member = member("m1", "Martin", 3);
+        this.testedCache.onBeforeSave(new BeforeSaveEvent<>(new Object(), member, "members"));
+        this.testedCache.evict("members", List.of("m1"));
+        this.testedCache.onAfterSave(new AfterSaveEvent<>(new Object(), member, "members"));
+        assertThat(this.testedCache.findById(this.mongoOps, "m1", Member.class)).get()
+                .extracting(Member::getName).isEqualTo("Martin");
+        Mockito.verify(this.mongoOps, Mockito.never()).findById(any(), eq(Document.class), any());
+    }
+
+    @Test
+    public void documentsSavedDuringConcurrentEvictionNotKept() throws InterruptedException {
+        given(this.mongoOps.findById("m1", Document.class, "members")).willReturn(member("m1", "Doe", 1));
+        final Document member = member("m1", "Smith", 1);
+        this.testedCache.onBeforeSave(new BeforeSaveEvent<>(new Object(), member, "members"));
+        // An atomic update of the document is sent by another thread during the save
+        final Thread writer = new Thread(() -> this.testedCache.evict("members", List.of("m1")));
+        writer.start();
+        writer.join();
+        this.testedCache.onAfterSave(new AfterSaveEvent<>(new Object(), member, "members"));
+        assertThat(this.testedCache.findById(this.mongoOps, "m1", Member.class)).get()
+                .extracting(Member::getName).isEqualTo("Doe");
+        Mockito.verify(this.mongoOps, Mockito.times(1)).findById("m1", Document.class, "members");
+    }
+
+    @Test
+    public void leastRecentlyUsedEvicted() {
+        given(this.mongoOps.findById(any(), eq(Document.class), eq("members")))
+                .willAnswer((inv) -> member(inv.getArgument(0), "Doe", 1));
+        this.testedCache.findById(this.mongoOps, "m1", Member.class);
+        this.testedCache.findById(this.mongoOps, "m2", Member.class);
+        this.testedCache.findById(this.mongoOps, "m1", Member.class);
+        this.testedCache.findById(this.mongoOps, "m3", Member.class);
+        this.testedCache.findById(this.mongoOps, "m1", Member.class);
+        this.testedCache.findById(this.mongoOps, "m2", Member.class);
+        Mockito.verify(this.mongoOps, Mockito.times(1)).findById("m1", Document.class, "members");
+        Mockito.verify(this.mongoOps, Mockito.times(2)).findById("m2", Document.class, "members");
+        this.testedCache.bindTo(this.meterRegistry);
+        assertThat(this.count(EntityCache.EVICTIONS_METRIC, "cause", "size")).isEqualTo(2);
+        assertThat(this.meterRegistry.get(EntityCache.SIZE_METRIC).gauge().value()).isEqualTo(2);
+    }
+
+    @Test
+    public void expiredDocumentsReloaded() {
+        this.testedCache.enable("members", 2, Duration.ZERO);
+        given(this.mongoOps.findById("m1", Document.class, "members")).willReturn(member("m1", "Doe", 1));
+        this.testedCache.findById(this.mongoOps, "m1", Member.class);
+        this.testedCache.findById(this.mongoOps, "m1", Member.class);
+        Mockito.verify(this.mongoOps, Mockito.times(2)).findById("m1", Document.class, "members");
+        this.testedCache.bindTo(this.meterRegistry);
+        assertThat(this.count(EntityCache.EVICTIONS_METRIC, "cause", "expiry")).isEqualTo(1);
+    }
+
+    @Test
+    public void evictedDocumentsReloaded() {
+        given(this.mongoOps.findById(any(), eq(Document.class), eq("members")))
+                .willAnswer((inv) -> member(inv.getArgument(0), "Doe", 1));
+        this.testedCache.findById(this.mongoOps, "m1", Member.class);
+        this.testedCache.findById(this.mongoOps, "m2", Member.class);
+        this.testedCache.evict("members", List.of("m1", "unknown"));
+        this.testedCache.evict("books", List.of("m2"));
+        this.testedCache.findById(this.mongoOps, "m1", Member.class);
+        this.testedCache.findById(this.mongoOps, "m2", Member.class);
+        this.testedCache.evictAll();
+        this.testedCache.findById(this.mongoOps, "m2", Member.class);
+        Mockito.verify(this.mongoOps, Mockito.times(2)).findById("m1", Document.class, "members");
+        Mockito.verify(this.mongoOps, Mockito.times(2)).findById("m2", Document.class, "members");
+        this.testedCache.bindTo(this.meterRegistry);
+        assertThat(this.count(EntityCache.EVICTIONS_METRIC, "cause", "invalidation")).isEqualTo(3);
+    }
+
+    @Test
+    public void documentsLoadedDuringEvictionNotKept() {
+        given(this.mongoOps.findById("m1", Document.class, "members")).willAnswer((inv) -> {
+            // A write of the collection is sent while the document is read
+            this.testedCache.evictAll("members");
+            return member("m1", "Doe", 1);
+        });
+        assertThat(this.testedCache.findById(this.mongoOps, "m1", Member.class)).isPresent();
+        assertThat(this.testedCache.findById(this.mongoOps, "m1", Member.class)).isPresent();
+        Mockito.verify(this.mongoOps, Mockito.times(2)).findById("m1", Document.class, "members");
+    }
+
+    private void save(Document document) {
+        this.testedCache.onBeforeSave(new BeforeSaveEvent<>(new Object(), document, "members"));
+        this.testedCache.onAfterSave(new AfterSaveEvent<>(new Object(), document, "members"));
+    }
+
+    private double count(String name, String tag, String value) {
+        return this.meterRegistry.get(name).tag(tag, value).functionCounter().count();
+    }
+
+    private static Document member(String id, String name, long version) {
+        return new Document("_id", id).append("name", name).append("version", version);
+    }
+}
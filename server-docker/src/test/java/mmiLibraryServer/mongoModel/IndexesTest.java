@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel;
+
+import java.util.Date;
+import java.util.List;
+import mmiLibraryServer.configuration.MongoConfiguration;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+/**
+ * Check with explain plans that the queries used to resolve references hit an index.
+ *
+ * @author Rémi Venant
+ */
+@DataMongoTest
+@Import(MongoConfiguration.class)
+@ActiveProfiles("mongo-test")
+public class IndexesTest {
+
+    private static final Log LOG = LogFactory.getLog(IndexesTest.class);
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    public IndexesTest() {
+    }
+
+    @Test
+    public void bookCopyLoansQueriesUseIndex() {
+        // BookCopy.loans lookup and neighbour loans lookup
+        assertThat(this.winningPlan("loans", new Document("bookCopy", new ObjectId()),
+                new Document("loanDateTime", -1)))
+                .contains("IXSCAN").contains("bookCopy_loanDateTime_id");
+        assertThat(this.winningPlan("loans", new Document("bookCopy", new ObjectId())
+                .append("loanDateTime", new Document("$lt", new Date())),
+                new Document("loanDateTime", -1)))
+                .contains("IXSCAN").contains("bookCopy_loanDateTime_id");
+    }
+
+    @Test
+    public void memberLoansQueriesUseIndex() {
+        // Member.loans lookup and unreturned loans of a member
+        assertThat(this.winningPlan("loans", new Document("member", new ObjectId()), null))
+                .contains("IXSCAN").containsPattern("member_(loanDateTime|returnDateTime)");
+        assertThat(this.winningPlan("loans", new Document("member", new ObjectId())
+                .append("returnDateTime", null), null))
+                .contains("IXSCAN").contains("member_returnDateTime_loanDateTime_id");
+    }
+
+    @Test
+    public void filteredLoansPaginationUsesIndex() {
+        final Document pageSort = new Document("loanDateTime", -1).append("_id", -1);
+        // Each filter is read in the order of the pages from its index, without sorting in memory
+        assertThat(this.winningPlan("loans", new Document("member", new ObjectId()), pageSort))
+                .contains("IXSCAN").contains("member_loanDateTime_id").doesNotContain("\"SORT\"");
+        assertThat(this.winningPlan("loans", new Document("member", new ObjectId())
+                .append("returnDateTime", null), pageSort))
+                .contains("IXSCAN").contains("member_returnDateTime_loanDateTime_id").doesNotContain("\"SORT\"");
+        assertThat(this.winningPlan("loans", new Document("bookCopy", new Document("$in",
+                List.of(new ObjectId(), new ObjectId()))), pageSort))
+                .contains("IXSCAN").contains("bookCopy_loanDateTime_id").doesNotContain("\"SORT\"");
+        assertThat(this.winningPlan("loans", new Document("returnDateTime", null)
+                .append("loanDateTime", new Document("$lt", new Date())), pageSort))
+                .contains("IXSCAN").contains("returnDateTime_loanDateTime_id").doesNotContain("\"SORT\"");
+    }
+
+    @Test
+    public void bookCopiesQueriesUseIndex() {
+        // Book.copies lookup and available copies of a book
+        assertThat(this.winningPlan("bookCopies", new Document("book", new ObjectId()), null))
+                .contains("IXSCAN").contains("book_available_removed");
+        assertThat(this.winningPlan("bookCopies", new Document("book", new ObjectId())
+                .append("available", true).append("removed", new Document("$ne", true)), null))
+                .contains("IXSCAN").contains("book_available_removed");
+    }
+
+    @Test
+    public void booksOfCategoryQueriesUseIndex() {
+        // Category filter of the books and propagation of the changes of a category
+        assertThat(this.winningPlan("books", new Document("categories._id",
+                new Document("$in", List.of(new ObjectId()))), null))
+                .contains("IXSCAN").contains("categories._id");
+    }
+
+    @Test
+    public void loansPaginationUsesIndex() {
+        assertThat(this.winningPlan("loans", new Document("loanDateTime",
+                new Document("$lt", new Date())),
+                new Document("loanDateTime", -1).append("_id", -1)))
+                .contains("IXSCAN").contains("loanDateTime_id");
+    }
+
+    private String winningPlan(String collection, Document filter, Document sort) {
+        final Document explain = this.mongoTemplate.getCollection(collection)
+                .find(filter).sort(sort).explain();
+        final Document winningPlan = explain.get("queryPlanner", Document.class).get("winningPlan", Document.class);
+        LOG.debug(String.format("Winning plan on %s for %s: %s", collection, filter.toJson(), winningPlan.toJson()));
+        return winningPlan.toJson();
+    }
+}
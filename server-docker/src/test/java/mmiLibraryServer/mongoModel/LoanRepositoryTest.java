@@ -22,9 +22,15 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import mmiLibraryServer.configuration.MongoConfiguration;
+import mmiLibraryServer.mongoModel.utils.LoanCursor;
+import mmiLibraryServer.mongoModel.utils.LoanRequestFilter;
+import mmiLibraryServer.mongoModel.views.LoanViews;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.bson.types.ObjectId;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeEach;
@@ -36,6 +42,9 @@ import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
 import org.springframework.context.annotation.Import;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.test.context.ActiveProfiles;
 
 /**
@@ -140,4 +149,184 @@ public class LoanRepositoryTest {
         List<Loan> loans = this.testedRepo.findByBookCopyInOrderByLoanDateTimeDesc(myBook.getCopies());
         assertThat(loans).map(Loan::getId).containsExactly(l2.getId(), l1.getId());
     }
+
+    @Test
+    public void findPageOrderByLoanDateTimeDescOk() {
+        final LocalDateTime sameDate = LocalDateTime.parse("2021-12-15T00:00:00");
+        Loan l1 = this.testedRepo.save(new Loan(member1, bookCopy1, LocalDateTime.parse("2021-12-10T00:00:00"), BookState.NEW));
+        Loan l2 = this.testedRepo.save(new Loan(member1, bookCopy2, sameDate, BookState.NEW));
+        Loan l3 = this.testedRepo.save(new Loan(member2, bookCopy3, sameDate, BookState.NEW));
+        Loan l4 = this.testedRepo.save(new Loan(member2, bookCopy1, LocalDateTime.parse("2022-01-15T00:00:00"), BookState.NEW));
+        // l2 and l3 share the same loan date: l3 comes first as its id is greater
+        List<Loan> page1 = this.testedRepo.findPageOrderByLoanDateTimeDesc(null, 2, null);
+        assertThat(page1).map(Loan::getId).containsExactly(l4.getId(), l3.getId());
+        List<Loan> page2 = this.testedRepo.findPageOrderByLoanDateTimeDesc(LoanCursor.of(page1.get(1)), 2, null);
+        assertThat(page2).map(Loan::getId).containsExactly(l2.getId(), l1.getId());
+        List<Loan> page3 = this.testedRepo.findPageOrderByLoanDateTimeDesc(LoanCursor.of(page2.get(1)), 2, null);
+        assertThat(page3).isEmpty();
+    }
+
+    @Test
+    public void findPageByFilterOk() {
+        Loan l1 = this.testedRepo.save(new Loan(member1, bookCopy1, LocalDateTime.parse("2021-12-10T00:00:00"), BookState.NEW));
+        l1.setReturnDateTime(LocalDateTime.parse("2021-12-12T00:00:00"));
+        l1.setReturnState(BookState.NEW);
+        l1 = this.testedRepo.save(l1);
+        Loan l2 = this.testedRepo.save(new Loan(member1, bookCopy2, LocalDateTime.parse("2021-12-15T00:00:00"), BookState.NEW));
+        Loan l3 = this.testedRepo.save(new Loan(member2, bookCopy3, LocalDateTime.parse("2021-12-20T00:00:00"), BookState.NEW));
+        Loan l4 = this.testedRepo.save(new Loan(member2, bookCopy1, LocalDateTime.now().minusDays(1), BookState.NEW));
+        assertThat(this.testedRepo.findPageByFilter(LoanRequestFilter.getBuilder().withMember(member1.getId()).build(), null, 10, null))
+                .map(Loan::getId).containsExactly(l2.getId(), l1.getId());
+        assertThat(this.testedRepo.findPageByFilter(LoanRequestFilter.getBuilder().withBookCopy(bookCopy1.getId()).build(), null, 10, null))
+                .map(Loan::getId).containsExactly(l4.getId(), l1.getId());
+        assertThat(this.testedRepo.findPageByFilter(LoanRequestFilter.getBuilder().withBook(book1.getId()).build(), null, 10, null))
+                .map(Loan::getId).containsExactly(l4.getId(), l2.getId(), l1.getId());
+        assertThat(this.testedRepo.findPageByFilter(LoanRequestFilter.getBuilder().withBook(book1.getId())
+                .withBookCopy(bookCopy3.getId()).build(), null, 10, null)).isEmpty();
+        assertThat(this.testedRepo.findPageByFilter(LoanRequestFilter.getBuilder().withReturned(true).build(), null, 10, null))
+                .map(Loan::getId).containsExactly(l1.getId());
+        assertThat(this.testedRepo.findPageByFilter(LoanRequestFilter.getBuilder().withReturned(false).build(), null, 10, null))
+                .map(Loan::getId).containsExactly(l4.getId(), l3.getId(), l2.getId());
+        assertThat(this.testedRepo.findPageByFilter(LoanRequestFilter.getBuilder().withLoanDateTimeRange(
+                LocalDateTime.parse("2021-12-10T00:00:00"), LocalDateTime.parse("2021-12-20T00:00:00")).build(), null, 10, null))
+                .map(Loan::getId).containsExactly(l2.getId(), l1.getId());
+        assertThat(this.testedRepo.findPageByFilter(LoanRequestFilter.getBuilder().withOverdue(7).build(), null, 10, null))
+                .map(Loan::getId).containsExactly(l3.getId(), l2.getId());
+        // Keyset pagination of a filtered query
+        final LoanRequestFilter openLoans = LoanRequestFilter.getBuilder().withReturned(false).build();
+        final List<Loan> page1 = this.testedRepo.findPageByFilter(openLoans, null, 2, null);
+        assertThat(page1).map(Loan::getId).containsExactly(l4.getId(), l3.getId());
+        assertThat(this.testedRepo.findPageByFilter(openLoans, LoanCursor.of(page1.get(1)), 2, null))
+                .map(Loan::getId).containsExactly(l2.getId());
+    }
+
+    @Test
+    public void streamAllOrderByLoanDateTimeDescOk() {
+        Loan l1 = this.testedRepo.save(new Loan(member1, bookCopy1, LocalDateTime.parse("2021-12-10T00:00:00"), BookState.NEW));
+        Loan l2 = this.testedRepo.save(new Loan(member1, bookCopy2, LocalDateTime.parse("2021-12-15T00:00:00"), BookState.NEW));
+        Loan l3 = this.testedRepo.save(new Loan(member2, bookCopy3, LocalDateTime.parse("2022-01-15T00:00:00"), BookState.NEW));
+        try (Stream<Loan> loans = this.testedRepo.streamAllOrderByLoanDateTimeDesc(null)) {
+            assertThat(loans.map(Loan::getId).collect(Collectors.toList()))
+                    .containsExactly(l3.getId(), l2.getId(), l1.getId());
+        }
+    }
+
+    @Test
+    public void streamAllOrderByLoanDateTimeDescWithViewOk() {
+        Loan l1 = this.testedRepo.save(new Loan(member1, bookCopy1, LocalDateTime.parse("2021-12-10T00:00:00"), BookState.NEW));
+        try (Stream<Loan> loans = this.testedRepo.streamAllOrderByLoanDateTimeDesc(LoanViews.Normal.class)) {
+            final List<Loan> projectedLoans = loans.collect(Collectors.toList());
+            assertThat(projectedLoans).map(Loan::getId).containsExactly(l1.getId());
+            assertThat(projectedLoans.get(0).getLoanDateTime()).isEqualTo(l1.getLoanDateTime());
+            assertThat(projectedLoans.get(0).getBookCopy()).as("book copy left out by the view").isNull();
+            assertThat(projectedLoans.get(0).getMemberId()).as("member left out by the view").isNull();
+        }
+        final List<Loan> page = this.testedRepo.findPageOrderByLoanDateTimeDesc(null, 1, LoanViews.WithBookCopy.class);
+        assertThat(page.get(0).getBookCopy()).as("book copy rendered by the view").isNotNull();
+        assertThat(page.get(0).getMemberId()).as("member left out by the view").isNull();
+    }
+
+    @Test
+    public void findNeighbourLoansOfBookCopyOk() {
+        Loan l1 = this.testedRepo.save(new Loan(member1, bookCopy1, LocalDateTime.parse("2021-12-10T00:00:00"), BookState.NEW));
+        Loan l2 = this.testedRepo.save(new Loan(member2, bookCopy1, LocalDateTime.parse("2021-12-15T00:00:00"), BookState.NEW));
+        Loan l3 = this.testedRepo.save(new Loan(member1, bookCopy1, LocalDateTime.parse("2022-01-15T00:00:00"), BookState.NEW));
+        this.testedRepo.save(new Loan(member1, bookCopy2, LocalDateTime.parse("2022-02-15T00:00:00"), BookState.NEW));
+
+        assertThat(this.testedRepo.findFirstByBookCopyAndLoanDateTimeBeforeOrderByLoanDateTimeDesc(bookCopy1, l2.getLoanDateTime()))
+                .as("previous loan").get().extracting(Loan::getId).isEqualTo(l1.getId());
+        assertThat(this.testedRepo.findFirstByBookCopyAndLoanDateTimeBeforeOrderByLoanDateTimeDesc(bookCopy1, l1.getLoanDateTime()))
+                .as("no previous loan").isEmpty();
+        assertThat(this.testedRepo.findFirstByBookCopyAndLoanDateTimeAfterOrderByLoanDateTimeAsc(bookCopy1, l1.getLoanDateTime()))
+                .as("next loan").get().extracting(Loan::getId).isEqualTo(l2.getId());
+        assertThat(this.testedRepo.findFirstByBookCopyAndLoanDateTimeAfterOrderByLoanDateTimeAsc(bookCopy1, l3.getLoanDateTime()))
+                .as("no next loan").isEmpty();
+        assertThat(this.testedRepo.findFirstByBookCopyOrderByLoanDateTimeDesc(bookCopy1))
+                .as("most recent loan").get().extracting(Loan::getId).isEqualTo(l3.getId());
+        assertThat(this.testedRepo.findFirstByBookCopyOrderByLoanDateTimeDesc(bookCopy3))
+                .as("no loan").isEmpty();
+    }
+
+    @Test
+    public void findByBookCopyInWithMembersOk() {
+        Loan l1 = this.testedRepo.save(new Loan(member1, bookCopy1, LocalDateTime.parse("2021-12-10T00:00:00"), BookState.NEW));
+        Loan l2 = this.testedRepo.save(new Loan(member2, bookCopy2, LocalDateTime.parse("2021-12-15T00:00:00"), BookState.NEW));
+        this.testedRepo.save(new Loan(member1, bookCopy3, LocalDateTime.parse("2022-01-15T00:00:00"), BookState.NEW));
+
+        List<Loan> loans = this.testedRepo.findByBookCopyInWithMembers(List.of(bookCopy1, bookCopy2));
+        assertThat(loans).map(Loan::getId).containsExactly(l2.getId(), l1.getId());
+        assertThat(loans.get(0).getBookCopy()).isSameAs(bookCopy2);
+        assertThat(loans.get(0).getMember().getId()).isEqualTo(member2.getId());
+        assertThat(loans.get(1).getBookCopy()).isSameAs(bookCopy1);
+        assertThat(loans.get(1).getMember().getId()).isEqualTo(member1.getId());
+
+        assertThat(this.testedRepo.loadLoansWithMembers(bookCopy1).getLoans())
+                .map(Loan::getId).containsExactly(l1.getId());
+    }
+
+    @Test
+    public void findAllByIdWithBookCopiesOk() {
+        Loan l1 = this.testedRepo.save(new Loan(member1, bookCopy1, LocalDateTime.parse("2021-12-10T00:00:00"), BookState.NEW));
+        Loan l2 = this.testedRepo.save(new Loan(member2, bookCopy3, LocalDateTime.parse("2021-12-15T00:00:00"), BookState.NEW));
+        this.testedRepo.save(new Loan(member1, bookCopy2, LocalDateTime.parse("2022-01-15T00:00:00"), BookState.NEW));
+
+        final List<Loan> loans = this.testedRepo.findAllByIdWithBookCopies(List.of(l1.getId(), l2.getId()));
+        assertThat(loans).map(Loan::getId).containsExactly(l2.getId(), l1.getId());
+        // The members are kept: bulk returns decrement their open loans and publish their id
+        assertThat(loans).map(Loan::getMemberId).containsExactly(member2.getId(), member1.getId());
+        assertThat(loans).map((l) -> l.getBookCopy().getId()).containsExactly(bookCopy3.getId(), bookCopy1.getId());
+    }
+
+    @Test
+    public void findOngoingByBookCopyIdsOk() {
+        Loan l1 = this.testedRepo.save(new Loan(member1, bookCopy1, LocalDateTime.parse("2021-12-10T00:00:00"), BookState.NEW));
+        Loan returned = new Loan(member2, bookCopy2, LocalDateTime.parse("2021-12-15T00:00:00"), BookState.NEW);
+        returned.setReturnDateTime(LocalDateTime.parse("2021-12-20T00:00:00"));
+        returned.setReturnState(BookState.GOOD);
+        this.testedRepo.save(returned);
+        this.testedRepo.save(new Loan(member1, bookCopy3, LocalDateTime.parse("2022-01-15T00:00:00"), BookState.NEW));
+
+        final List<Loan> loans = this.testedRepo.findOngoingByBookCopyIds(List.of(bookCopy1.getId(), bookCopy2.getId()));
+        assertThat(loans).map(Loan::getId).containsExactly(l1.getId());
+        assertThat(loans).map(Loan::getMemberId).containsExactly(member1.getId());
+        assertThat(loans).map((l) -> l.getBookCopy().getId()).containsExactly(bookCopy1.getId());
+    }
+
+    @Test
+    public void loadLoansWithBookCopiesOk() {
+        Loan l1 = this.testedRepo.save(new Loan(member1, bookCopy1, LocalDateTime.parse("2021-12-10T00:00:00"), BookState.NEW));
+        this.testedRepo.save(new Loan(member2, bookCopy2, LocalDateTime.parse("2021-12-15T00:00:00"), BookState.NEW));
+        Loan l3 = this.testedRepo.save(new Loan(member1, bookCopy3, LocalDateTime.parse("2022-01-15T00:00:00"), BookState.NEW));
+
+        final List<Loan> loans = this.testedRepo.loadLoansWithBookCopies(member1).getLoans();
+        assertThat(loans).map(Loan::getId).containsExactly(l3.getId(), l1.getId());
+        assertThat(loans).allMatch((l) -> l.getMember() == member1);
+        assertThat(loans).map((l) -> l.getBookCopy().getId()).containsExactly(bookCopy3.getId(), bookCopy1.getId());
+    }
+
+    @Test
+    public void findRevisionOk() {
+        final Loan loan = this.testedRepo.save(new Loan(member1, bookCopy1, LocalDateTime.parse("2021-12-10T00:00:00"), BookState.NEW));
+        final String created = this.testedRepo.findRevision(loan.getId());
+        assertThat(created).isNotNull();
+
+        // The revision follows the member and the book of the copy of the loan only
+        this.mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(book2.getId())),
+                new Update().inc("version", 1), Book.class);
+        assertThat(this.testedRepo.findRevision(loan.getId())).isEqualTo(created);
+        this.mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(book1.getId())),
+                new Update().inc("version", 1), Book.class);
+        final String withUpdatedBook = this.testedRepo.findRevision(loan.getId());
+        assertThat(withUpdatedBook).isNotEqualTo(created);
+        this.mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(member1.getId())),
+                new Update().inc("version", 1), Member.class);
+        final String withUpdatedMember = this.testedRepo.findRevision(loan.getId());
+        assertThat(withUpdatedMember).isNotEqualTo(withUpdatedBook);
+
+        loan.setReturnDateTime(LocalDateTime.parse("2021-12-15T00:00:00"));
+        loan.setReturnState(BookState.GOOD);
+        assertThat(this.testedRepo.updateReturns(List.of(loan))).containsExactly(loan.getId());
+        assertThat(this.testedRepo.findRevision(loan.getId())).isNotEqualTo(withUpdatedMember);
+        assertThat(this.testedRepo.findRevision(new ObjectId().toHexString())).isNull();
+    }
 }
@@ -19,10 +19,13 @@
 package mmiLibraryServer.mongoModel;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 import mmiLibraryServer.configuration.MongoConfiguration;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.bson.types.ObjectId;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeEach;
@@ -70,6 +73,9 @@ public class MemberRepositoryTest {
 
     @AfterEach
     public void tearDown() {
+        this.mongoTemplate.remove(new BasicQuery("{}"), Loan.class);
+        this.mongoTemplate.remove(new BasicQuery("{}"), BookCopy.class);
+        this.mongoTemplate.remove(new BasicQuery("{}"), Book.class);
         this.mongoTemplate.remove(new BasicQuery("{}"), Member.class);
     }
 
@@ -87,4 +93,76 @@ public class MemberRepositoryTest {
         ));
         assertThat(this.testedRepo.findAll()).hasSize(3);
     }
+
+    @Test
+    public void updateIdentityKeepsOpenLoansOk() {
+        final Member member = this.testedRepo.save(new Member("nom1", "prenom1", LocalDate.of(2000, 1, 1)));
+        this.testedRepo.incrementOpenLoans(member.getId(), 2);
+        member.setName("nom2");
+
+        assertThat(this.testedRepo.updateIdentity(member, null)).isTrue();
+
+        assertThat(this.testedRepo.findById(member.getId()).get())
+                .extracting("name", "firstname", "openLoans")
+                .containsExactly("nom2", "prenom1", 2);
+    }
+
+    @Test
+    public void updateIdentityWithVersionOk() {
+        final Member member = this.testedRepo.save(new Member("nom1", "prenom1", LocalDate.of(2000, 1, 1)));
+        final long version = member.getVersion();
+        member.setName("nom2");
+        assertThat(this.testedRepo.updateIdentity(member, version + 1)).isFalse();
+        assertThat(this.testedRepo.updateIdentity(member, version)).isTrue();
+        // The update incremented the version
+        assertThat(this.testedRepo.updateIdentity(member, version)).isFalse();
+    }
+
+    @Test
+    public void reconcileOpenLoansOk() {
+        final Member m1 = this.testedRepo.save(new Member("nom1", "prenom1", LocalDate.of(2000, 1, 1)));
+        final Member m2 = this.testedRepo.save(new Member("nom2", "prenom2", LocalDate.of(2000, 1, 1)));
+        final Member m3 = this.testedRepo.save(new Member("nom3", "prenom3", LocalDate.of(2000, 1, 1)));
+        final Book book = this.mongoTemplate.save(new Book("isbn1", "title1", "editor1", 100, 2021));
+        final BookCopy bc1 = this.mongoTemplate.save(new BookCopy(book, BookState.GOOD));
+        final BookCopy bc2 = this.mongoTemplate.save(new BookCopy(book, BookState.GOOD));
+        final Loan returned = new Loan(m1, bc1, LocalDateTime.of(2021, 12, 1, 10, 0), BookState.GOOD);
+        returned.setReturnDateTime(LocalDateTime.of(2021, 12, 5, 10, 0));
+        returned.setReturnState(BookState.GOOD);
+        this.mongoTemplate.save(returned);
+        this.mongoTemplate.save(new Loan(m1, bc1, LocalDateTime.of(2021, 12, 10, 10, 0), BookState.GOOD));
+        this.mongoTemplate.save(new Loan(m2, bc2, LocalDateTime.of(2021, 12, 10, 10, 0), BookState.GOOD));
+        // m1 counter is right, m2 has no counter, m3 counter drifted
+        this.testedRepo.incrementOpenLoans(Map.of(m1.getId(), 1, m3.getId(), 2));
+
+        assertThat(this.testedRepo.reconcileOpenLoans()).isEqualTo(2);
+        assertThat(this.testedRepo.findAllById(List.of(m1.getId(), m2.getId(), m3.getId())))
+                .extracting("name", "openLoans")
+                .containsExactlyInAnyOrder(tuple("nom1", 1), tuple("nom2", 1), tuple("nom3", 0));
+        assertThat(this.testedRepo.reconcileOpenLoans()).isZero();
+    }
+
+    @Test
+    public void findRevisionOk() {
+        final Member member = this.testedRepo.save(new Member("nom1", "prenom1", LocalDate.of(2000, 1, 1)));
+        final Member otherMember = this.testedRepo.save(new Member("nom2", "prenom2", LocalDate.of(2000, 1, 1)));
+        final String created = this.testedRepo.findRevision(member.getId());
+        assertThat(created).isNotNull();
+        assertThat(this.testedRepo.findRevision(member.getId())).isEqualTo(created);
+
+        // The revision follows the version of the member alone
+        this.testedRepo.incrementRevision(otherMember.getId());
+        assertThat(this.testedRepo.findRevision(member.getId())).isEqualTo(created);
+        this.testedRepo.incrementRevision(member.getId());
+        final String withUpdatedLoan = this.testedRepo.findRevision(member.getId());
+        assertThat(withUpdatedLoan).isNotEqualTo(created);
+        this.testedRepo.incrementOpenLoans(member.getId(), 1);
+        final String withNewLoan = this.testedRepo.findRevision(member.getId());
+        assertThat(withNewLoan).isNotEqualTo(withUpdatedLoan);
+
+        member.setName("nom3");
+        this.testedRepo.updateIdentity(member, null);
+        assertThat(this.testedRepo.findRevision(member.getId())).isNotEqualTo(withNewLoan);
+        assertThat(this.testedRepo.findRevision(new ObjectId().toHexString())).isNull();
+    }
 }
@@ -54,6 +54,11 @@ public class TestInstanceBuilder {
         return member;
     }
 
+    public static Member withOpenLoans(Member member, int openLoans) {
+        member.setOpenLoans(openLoans);
+        return member;
+    }
+
     public static Member withId(Member member, String id) {
         member.setId(id);
         return member;
@@ -63,6 +68,11 @@ public class TestInstanceBuilder {
         return new BookCategory();
     }
 
+    public static BookCategory withId(BookCategory category, String id) {
+        category.setId(id);
+        return category;
+    }
+
     public static Book emptyBook() {
         return new Book();
     }
@@ -77,6 +87,16 @@ public class TestInstanceBuilder {
         return book;
     }
 
+    public static Book withAvailableCopies(Book book, int availableCopies) {
+        book.setAvailableCopies(availableCopies);
+        return book;
+    }
+
+    public static Book withAdultOnly(Book book, boolean adultOnly) {
+        book.setAdultOnly(adultOnly);
+        return book;
+    }
+
     public static BookCopy emptyBookCopy() {
         BookCopy bc = new BookCopy();
         bc.setRemoved(false);
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel.reactive;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import mmiLibraryServer.configuration.MongoConfiguration;
+import mmiLibraryServer.configuration.ReactiveMongoConfiguration;
+import mmiLibraryServer.mongoModel.Book;
+import mmiLibraryServer.mongoModel.BookCategory;
+import mmiLibraryServer.mongoModel.BookCategoryRepository;
+import mmiLibraryServer.mongoModel.BookCategorySnapshot;
+import mmiLibraryServer.mongoModel.BookCopy;
+import mmiLibraryServer.mongoModel.BookCopyRepository;
+import mmiLibraryServer.mongoModel.BookRepository;
+import mmiLibraryServer.mongoModel.BookState;
+import mmiLibraryServer.mongoModel.utils.BookRequestFilter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.test.context.ActiveProfiles;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+@DataMongoTest
+@Import({MongoConfiguration.class, ReactiveMongoConfiguration.class})
+@ActiveProfiles("mongo-test")
+public class ReactiveBookRepositoryTest {
+
+    private static final Log LOG = LogFactory.getLog(ReactiveBookRepositoryTest.class);
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ReactiveBookRepository testedRepo;
+
+    @Autowired
+    private BookRepository bookRepo;
+
+    @Autowired
+    private BookCategoryRepository bookCategoryRepo;
+
+    @Autowired
+    private BookCopyRepository bookCopyRepo;
+
+    public ReactiveBookRepositoryTest() {
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.mongoTemplate.remove(new BasicQuery("{}"), BookCategory.class);
+        this.mongoTemplate.remove(new BasicQuery("{}"), Book.class);
+        this.mongoTemplate.remove(new BasicQuery("{}"), BookCopy.class);
+    }
+
+    @Test
+    public void findByIdWithCopiesOk() {
+        final Book book = this.bookRepo.save(new Book("isbn1", "title1", "editor1", 100, 2021));
+        final Book otherBook = this.bookRepo.save(new Book("isbn2", "title2", "editor2", 100, 2021));
+        final BookCopy bc1 = this.bookCopyRepo.save(new BookCopy(book, BookState.NEW));
+        final BookCopy bc2 = this.bookCopyRepo.save(new BookCopy(book, BookState.GOOD));
+        this.bookCopyRepo.save(new BookCopy(otherBook, BookState.NEW));
+
+        final Book found = this.testedRepo.findByIdWithCopies(book.getId()).block();
+        assertThat(found.getCopies()).map(BookCopy::getId).containsExactlyInAnyOrder(bc1.getId(), bc2.getId());
+        assertThat(this.testedRepo.findRevision(book.getId()).block()).isEqualTo(this.bookRepo.findRevision(book.getId()));
+        assertThat(this.testedRepo.findByIdWithCopies(new ObjectId().toHexString()).blockOptional()).isEmpty();
+    }
+
+    @Test
+    public void findAllByFilterLoadsCategoriesOk() {
+        final BookCategory cat1 = this.bookCategoryRepo.save(new BookCategory("CAT1", "Category 1", false));
+        final BookCategory cat2 = this.bookCategoryRepo.save(new BookCategory("CAT2", "Category 2", true));
+        this.bookRepo.saveAll(List.of(
+                new Book("isbn1", "title1", "editor1", 100, 2021, List.of(), List.of(cat1, cat2)),
+                new Book("isbn2", "title2", "editor2", 100, 2021, List.of(), List.of(cat2)),
+                new Book("isbn3", "title3", "editor3", 100, 2021)
+        ));
+
+        final List<Book> books = this.testedRepo.findAllByFilter(null).collectList().block();
+        assertThat(books).hasSize(3);
+        final Book book1 = books.stream().filter((b) -> "isbn1".equals(b.getIsbn())).findFirst().get();
+        assertThat(book1.getCategories()).extracting(BookCategorySnapshot::getCode).containsExactly("CAT1", "CAT2");
+        final Book book3 = books.stream().filter((b) -> "isbn3".equals(b.getIsbn())).findFirst().get();
+        assertThat(book3.getCategories()).isEmpty();
+    }
+
+    @Test
+    public void findAllByFilterMatchesBlockingRepositoryOk() {
+        final BookCategory cat1 = this.bookCategoryRepo.save(new BookCategory("CAT1", "Category 1", false));
+        final BookCategory cat2 = this.bookCategoryRepo.save(new BookCategory("CAT2", "Category 2", true));
+        for (int i = 0; i < 10; i++) {
+            final Book book = this.bookRepo.save(new Book("isbn" + i, "title" + i, "editor", 100, 2000 + (i % 3),
+                    List.of(), i % 2 == 0 ? List.of(cat1) : List.of(cat1, cat2)));
+            this.bookCopyRepo.incrementBookCopyCounters(book.getId(), i % 4, i % 4, 0);
+        }
+        final List<BookRequestFilter> filters = List.of(
+                BookRequestFilter.getBuilder().withCategories(List.of("CAT1")).withChildCompliancy().build(),
+                BookRequestFilter.getBuilder().withAvailability().build(),
+                BookRequestFilter.getBuilder().withSort("publicationYear", Sort.Direction.DESC).withPage(1, 3).build());
+        for (BookRequestFilter filter : filters) {
+            assertThat(this.testedRepo.findAllByFilter(filter).map(Book::getId).collectList().block())
+                    .as("books of %s", filter)
+                    .containsExactlyElementsOf(this.bookRepo.findAllByFilter(filter).stream()
+                            .map(Book::getId).collect(Collectors.toList()));
+            assertThat(this.testedRepo.countByFilter(filter).block())
+                    .isEqualTo(this.bookRepo.countByFilter(filter));
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel.reactive;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import mmiLibraryServer.configuration.MongoConfiguration;
+import mmiLibraryServer.configuration.ReactiveMongoConfiguration;
+import mmiLibraryServer.mongoModel.Book;
+import mmiLibraryServer.mongoModel.BookCopy;
+import mmiLibraryServer.mongoModel.BookState;
+import mmiLibraryServer.mongoModel.Loan;
+import mmiLibraryServer.mongoModel.LoanRepository;
+import mmiLibraryServer.mongoModel.Member;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.BasicQuery;
+import org.springframework.test.context.ActiveProfiles;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+@DataMongoTest
+@Import({MongoConfiguration.class, ReactiveMongoConfiguration.class})
+@ActiveProfiles("mongo-test")
+public class ReactiveLoanRepositoryTest {
+
+    private static final Log LOG = LogFactory.getLog(ReactiveLoanRepositoryTest.class);
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ReactiveLoanRepository testedRepo;
+
+    @Autowired
+    private ReactiveBookCopyRepository bookCopyRepo;
+
+    @Autowired
+    private ReactiveMemberRepository memberRepo;
+
+    @Autowired
+    private LoanRepository loanRepo;
+
+    private Book book1;
+    private BookCopy bookCopy1;
+    private BookCopy bookCopy2;
+    private Member member1;
+    private Member member2;
+
+    public ReactiveLoanRepositoryTest() {
+    }
+
+    @BeforeEach
+    public void setUp() {
+        this.book1 = this.mongoTemplate.save(new Book("bookIsbn1", "bookTitle1", "bookEditor1", 100, 2021));
+        this.bookCopy1 = this.mongoTemplate.save(new BookCopy(book1, BookState.NEW));
+        this.bookCopy2 = this.mongoTemplate.save(new BookCopy(book1, BookState.GOOD));
+        this.member1 = this.mongoTemplate.save(new Member("Bon", "Jean", LocalDate.parse("1990-12-20")));
+        this.member2 = this.mongoTemplate.save(new Member("Bonne", "Jeanne", LocalDate.parse("1995-01-20")));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.mongoTemplate.remove(new BasicQuery("{}"), Book.class);
+        this.mongoTemplate.remove(new BasicQuery("{}"), BookCopy.class);
+        this.mongoTemplate.remove(new BasicQuery("{}"), Member.class);
+        this.mongoTemplate.remove(new BasicQuery("{}"), Loan.class);
+    }
+
+    @Test
+    public void loadLoansWithReferencesOk() {
+        final Loan l1 = this.loanRepo.save(new Loan(member1, bookCopy1, LocalDateTime.parse("2021-12-10T00:00:00"), BookState.NEW));
+        final Loan l2 = this.loanRepo.save(new Loan(member2, bookCopy1, LocalDateTime.parse("2021-12-15T00:00:00"), BookState.NEW));
+        final Loan l3 = this.loanRepo.save(new Loan(member1, bookCopy2, LocalDateTime.parse("2022-01-15T00:00:00"), BookState.NEW));
+
+        final BookCopy bookCopy = this.bookCopyRepo.findByIdWithBook(bookCopy1.getId())
+                .flatMap(this.testedRepo::loadLoansWithMembers).block();
+        assertThat(bookCopy.getBookId()).isEqualTo(book1.getId());
+        assertThat(bookCopy.getLoans()).map(Loan::getId).containsExactly(l2.getId(), l1.getId());
+        assertThat(bookCopy.getLoans()).map(Loan::getMemberId).containsExactly(member2.getId(), member1.getId());
+
+        final Member member = this.memberRepo.findById(member1.getId())
+                .flatMap(this.testedRepo::loadLoansWithBookCopies).block();
+        assertThat(member.getLoans()).map(Loan::getId).containsExactly(l3.getId(), l1.getId());
+        assertThat(member.getLoans()).map((l) -> l.getBookCopy().getId()).containsExactly(bookCopy2.getId(), bookCopy1.getId());
+    }
+
+    @Test
+    public void findByIdWithReferencesOk() {
+        final Loan saved = this.loanRepo.save(new Loan(member1, bookCopy1, LocalDateTime.parse("2021-12-10T00:00:00"), BookState.NEW));
+
+        final Loan loan = this.testedRepo.findByIdWithReferences(saved.getId()).block();
+        assertThat(loan.getMember().getId()).isEqualTo(member1.getId());
+        assertThat(loan.getBookCopy().getId()).isEqualTo(bookCopy1.getId());
+        assertThat(loan.getBookCopy().getBook().getId()).isEqualTo(book1.getId());
+        assertThat(this.testedRepo.findByIdWithReferences(new ObjectId().toHexString()).blockOptional()).isEmpty();
+    }
+
+    @Test
+    public void findRevisionMatchesBlockingRepositoryOk() {
+        final Loan loan = this.loanRepo.save(new Loan(member1, bookCopy1, LocalDateTime.parse("2021-12-10T00:00:00"), BookState.NEW));
+        loan.setReturnDateTime(LocalDateTime.parse("2021-12-15T00:00:00"));
+        loan.setReturnState(BookState.GOOD);
+        this.loanRepo.updateReturns(List.of(loan));
+
+        assertThat(this.testedRepo.findRevision(loan.getId()).block())
+                .isEqualTo(this.loanRepo.findRevision(loan.getId()));
+        assertThat(this.testedRepo.findRevision(new ObjectId().toHexString()).blockOptional()).isEmpty();
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel.utils;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import mmiLibraryServer.mongoModel.Loan;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.*;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+public class LoanFilterQueriesTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.parse("2022-01-31T12:00:00");
+
+    private final MongoMappingContext mappingContext;
+
+    private final QueryMapper queryMapper;
+
+    public LoanFilterQueriesTest() {
+        this.mappingContext = new MongoMappingContext();
+        this.mappingContext.setSimpleTypeHolder(new MongoCustomConversions(List.of()).getSimpleTypeHolder());
+        this.queryMapper = new QueryMapper(new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, this.mappingContext));
+    }
+
+    @Test
+    public void referencesFilteredByStoredIds() {
+        final ObjectId memberId = new ObjectId();
+        final ObjectId bookCopyId = new ObjectId();
+        final Document query = this.mapped(LoanFilterQueries.toPageQuery(LoanRequestFilter.getBuilder()
+                .withMember(memberId.toHexString()).withBookCopy(bookCopyId.toHexString()).build(),
+                List.of(), null, 10, NOW));
+        assertThat(query).containsEntry("member", memberId).containsEntry("bookCopy", bookCopyId);
+        assertThat(LoanFilterQueries.requiresBookCopiesOfBook(LoanRequestFilter.getBuilder()
+                .withMember(memberId.toHexString()).build())).isFalse();
+    }
+
+    @Test
+    public void bookFilteredByItsCopies() {
+        final ObjectId copy1 = new ObjectId();
+        final ObjectId copy2 = new ObjectId();
+        final LoanRequestFilter filter = LoanRequestFilter.getBuilder().withBook(new ObjectId().toHexString()).build();
+        assertThat(LoanFilterQueries.requiresBookCopiesOfBook(filter)).isTrue();
+        assertThat(this.mapped(LoanFilterQueries.toPageQuery(filter, List.of(copy1, copy2), null, 10, NOW)))
+                .containsEntry("bookCopy", new Document("$in", List.of(copy1, copy2)));
+        // A copy of another book matches nothing
+        filter.setBookCopyId(new ObjectId().toHexString());
+        assertThat(this.mapped(LoanFilterQueries.toPageQuery(filter, List.of(copy1, copy2), null, 10, NOW)))
+                .containsEntry("bookCopy", new Document("$in", List.of()));
+        filter.setBookCopyId(copy2.toHexString());
+        assertThat(this.mapped(LoanFilterQueries.toPageQuery(filter, List.of(copy1, copy2), null, 10, NOW)))
+                .containsEntry("bookCopy", new Document("$in", List.of(copy2)));
+    }
+
+    @Test
+    public void overdueLoansAreOpenAndNarrowTheRange() {
+        final LocalDateTime from = LocalDateTime.parse("2021-12-01T00:00:00");
+        Document query = LoanFilterQueries.toPageQuery(LoanRequestFilter.getBuilder()
+                .withOverdue(10).withLoanDateTimeRange(from, null).build(), List.of(), null, 10, NOW).getQueryObject();
+        assertThat(query).containsEntry("returnDateTime", null)
+                .containsEntry("loanDateTime", new Document("$gte", from).append("$lt", NOW.minusDays(10)));
+        // The earliest upper bound is kept
+        query = LoanFilterQueries.toPageQuery(LoanRequestFilter.getBuilder()
+                .withOverdue(10).withLoanDateTimeRange(null, from).build(), List.of(), null, 10, NOW).getQueryObject();
+        assertThat(query).containsEntry("loanDateTime", new Document("$lt", from));
+        query = LoanFilterQueries.toPageQuery(LoanRequestFilter.getBuilder()
+                .withReturned(true).build(), List.of(), null, 10, NOW).getQueryObject();
+        assertThat(query).containsEntry("returnDateTime", new Document("$ne", null));
+    }
+
+    @Test
+    public void pagesOrderedAndContinuedAfterCursor() {
+        final LoanCursor cursor = new LoanCursor(NOW, new ObjectId().toHexString());
+        final Query query = LoanFilterQueries.toPageQuery(LoanRequestFilter.getBuilder().withReturned(false).build(),
+                List.of(), cursor, 10, NOW);
+        assertThat(query.getLimit()).isEqualTo(10);
+        assertThat(query.getSortObject()).isEqualTo(new Document("loanDateTime", -1).append("id", -1));
+        assertThat(query.getQueryObject().getList("$and", Document.class)).hasSize(2)
+                .first().isEqualTo(new Document("returnDateTime", null));
+    }
+
+    @Test
+    public void invalidFiltersRejected() {
+        assertThatThrownBy(() -> LoanRequestFilter.getBuilder().withOverdue(-1))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> LoanRequestFilter.getBuilder().withOverdue(3).withReturned(true).build())
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> LoanRequestFilter.getBuilder().withLoanDateTimeRange(NOW, NOW.minusDays(1)).build())
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(LoanRequestFilter.getBuilder().build().isEmpty()).isTrue();
+    }
+
+    private Document mapped(Query query) {
+        return this.queryMapper.getMappedObject(query.getQueryObject(), this.mappingContext.getPersistentEntity(Loan.class));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.mongoModel.utils;
+
+import java.util.List;
+import mmiLibraryServer.mongoModel.Book;
+import mmiLibraryServer.mongoModel.Loan;
+import mmiLibraryServer.mongoModel.views.BookViews;
+import mmiLibraryServer.mongoModel.views.LoanViews;
+import org.junit.jupiter.api.Test;
+import static org.assertj.core.api.Assertions.*;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+public class ViewProjectionsTest {
+
+    private final MappingMongoConverter converter;
+
+    public ViewProjectionsTest() {
+        final MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(new MongoCustomConversions(List.of()).getSimpleTypeHolder());
+        this.converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+    }
+
+    @Test
+    public void fieldsOfLoanViews() {
+        assertThat(ViewProjections.fieldsOf(this.converter, Loan.class, LoanViews.Normal.class))
+                .containsExactlyInAnyOrder("_id", "loanDateTime", "initialState", "returnDateTime", "returnState");
+        assertThat(ViewProjections.fieldsOf(this.converter, Loan.class, LoanViews.WithBookCopy.class))
+                .contains("bookCopy").doesNotContain("member", "version");
+        assertThat(ViewProjections.fieldsOf(this.converter, Loan.class, LoanViews.WithMemberAndBookCopy.class))
+                .contains("bookCopy", "member").doesNotContain("version");
+    }
+
+    @Test
+    public void fieldsOfBookViews() {
+        assertThat(ViewProjections.fieldsOf(this.converter, Book.class, BookViews.Normal.class))
+                .contains("_id", "isbn", "categories", "adultOnly").doesNotContain("copies", "version");
+    }
+
+    @Test
+    public void projectWithoutViewReadsAllFields() {
+        assertThat(ViewProjections.project(new Query(), this.converter, Loan.class, null).getFieldsObject())
+                .isEmpty();
+        assertThat(ViewProjections.project(new Query(), this.converter, Loan.class, LoanViews.Normal.class)
+                .getFieldsObject()).containsEntry("loanDateTime", 1).doesNotContainKey("bookCopy");
+    }
+}
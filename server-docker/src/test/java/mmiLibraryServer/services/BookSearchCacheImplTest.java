@@ -0,0 +1,289 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import mmiLibraryServer.mongoModel.Book;
+import mmiLibraryServer.mongoModel.BookCategory;
+import mmiLibraryServer.mongoModel.BookCategorySnapshot;
+import mmiLibraryServer.mongoModel.BookCopy;
+import mmiLibraryServer.mongoModel.BookState;
+import mmiLibraryServer.mongoModel.TestInstanceBuilder;
+import mmiLibraryServer.mongoModel.utils.BookRequestFilter;
+import mmiLibraryServer.services.model.CirculationEvent;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import static org.assertj.core.api.Assertions.*;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Sort;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+public class BookSearchCacheImplTest {
+
+    private static final Log LOG = LogFactory.getLog(BookSearchCacheImplTest.class);
+
+    private static final BookCategory SF = TestInstanceBuilder.withId(new BookCategory("sf", "SF", false), "sfId");
+
+    private static final BookCategory POLAR = TestInstanceBuilder.withId(new BookCategory("polar", "Polar", false), "polarId");
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private BookSearchCacheImpl testedCache;
+
+    private int loads;
+
+    public BookSearchCacheImplTest() {
+    }
+
+    @BeforeEach
+    public void setUp() {
+        this.meterRegistry = new SimpleMeterRegistry();
+        this.testedCache = new BookSearchCacheImpl(10, Duration.ofMinutes(10), this.meterRegistry);
+        this.loads = 0;
+    }
+
+    @Test
+    public void canonicalFiltersShareResults() {
+        final Book b1 = book("b1", "i1", SF);
+        this.search(BookRequestFilter.getBuilder().withIsbn(" i1 ").withCategories("sf", "polar")
+                .withTitleAlike("Dune ", "french").build(), b1);
+        assertThat(this.search(BookRequestFilter.getBuilder().withIsbn("i1").withCategories("polar", "sf", "polar")
+                .withTitleAlike("dune", "french").build(), b1)).extracting(Book::getId).containsExactly("b1");
+        // The language only matters along with a title
+        this.search(BookRequestFilter.getBuilder().withTitleAlike(" ", "french").withNumberOfPages(-1).build());
+        this.search(BookRequestFilter.getBuilder().build());
+        assertThat(this.loads).isEqualTo(2);
+        assertThat(this.meterRegistry.counter(BookSearchCacheImpl.CACHE_METRIC, "result", "hit").count()).isEqualTo(2);
+        assertThat(this.meterRegistry.counter(BookSearchCacheImpl.CACHE_METRIC, "result", "miss").count()).isEqualTo(2);
+    }
+
+    @Test
+    public void pagesOrdersAndCountsAreDistinct() {
+        this.search(BookRequestFilter.getBuilder().withPage(0, 2).build());
+        this.search(BookRequestFilter.getBuilder().withPage(1, 2).build());
+        this.search(BookRequestFilter.getBuilder().withPage(1, 2).withSort("title", Sort.Direction.DESC).build());
+        this.search(BookRequestFilter.getBuilder().withPage(1, 2).build());
+        assertThat(this.loads).isEqualTo(3);
+        assertThat(this.testedCache.countBooks(BookRequestFilter.getBuilder().withPage(0, 2).build(), () -> 5L))
+                .isEqualTo(5L);
+        assertThat(this.testedCache.countBooks(BookRequestFilter.getBuilder().withPage(3, 2).build(), () -> 6L))
+                .as("count shared by the pages").isEqualTo(5L);
+        assertThat(this.testedCache.getNumberOfResults()).isEqualTo(4);
+    }
+
+    @Test
+    public void readsDoNotShareBooks() {
+        final BookRequestFilter filter = BookRequestFilter.getBuilder().withIsbn("i1").build();
+        final Book cachedBook = this.search(filter, book("b1", "i1", SF)).get(0);
+        cachedBook.setTitle("modified");
+        final List<Book> books = this.search(filter);
+        assertThat(this.loads).isEqualTo(1);
+        assertThat(books).hasSize(1);
+        assertThat(books.get(0)).isNotSameAs(cachedBook);
+        assertThat(books.get(0).getTitle()).isEqualTo("title");
+        assertThat(books.get(0).getCategories()).extracting(BookCategorySnapshot::getId).containsExactly("sfId");
+    }
+
+    @Test
+    public void bookWriteInvalidatesItsSearches() {
+        final BookRequestFilter sfFilter = BookRequestFilter.getBuilder().withCategories("sf").build();
+        final BookRequestFilter polarFilter = BookRequestFilter.getBuilder().withCategories("polar").build();
+        final BookRequestFilter i1Filter = BookRequestFilter.getBuilder().withIsbn("i1").build();
+        final BookRequestFilter i2Filter = BookRequestFilter.getBuilder().withIsbn("i2").build();
+        final Book b1 = book("b1", "i1", POLAR);
+        this.search(sfFilter);
+        this.search(polarFilter, b1);
+        this.search(i1Filter, b1);
+        this.search(i2Filter);
+
+        // A new book only joins the searches it matches
+        this.testedCache.invalidateBook(null, book("b2", "i3", SF));
+        this.loads = 0;
+        this.search(sfFilter);
+        this.search(polarFilter, b1);
+        this.search(i1Filter, b1);
+        this.search(i2Filter);
+        assertThat(this.loads).isEqualTo(1);
+
+        // An updated book leaves the searches of its previous values and joins the ones of its new values
+        this.testedCache.invalidateBook(b1, book("b1", "i2", POLAR));
+        this.loads = 0;
+        this.search(sfFilter);
+        this.search(polarFilter);
+        this.search(i1Filter);
+        this.search(i2Filter);
+        assertThat(this.loads).isEqualTo(3);
+        assertThat(this.meterRegistry.counter(BookSearchCacheImpl.EVICTIONS_METRIC, "cause", "invalidation").count())
+                .isEqualTo(4);
+    }
+
+    @Test
+    public void searchesOnTitleMayHoldAnyBook() {
+        this.search(BookRequestFilter.getBuilder().withTitleAlike("dune", null).build());
+        this.testedCache.invalidateBook(null, book("b1", "i1"));
+        this.search(BookRequestFilter.getBuilder().withTitleAlike("dune", null).build());
+        assertThat(this.loads).isEqualTo(2);
+    }
+
+    @Test
+    public void circulationInvalidatesAvailableSearches() {
+        final Book b1 = TestInstanceBuilder.withAvailableCopies(book("b1", "i1"), 1);
+        final Book b2 = TestInstanceBuilder.withAvailableCopies(book("b2", "i2", SF), 1);
+        final BookRequestFilter allFilter = BookRequestFilter.getBuilder().build();
+        final BookRequestFilter availableFilter = BookRequestFilter.getBuilder().withAvailability().build();
+        final BookRequestFilter sfFilter = BookRequestFilter.getBuilder().withCategories("sf").build();
+        this.search(allFilter, b1, b2);
+        this.search(availableFilter, b2);
+        this.search(sfFilter, b2);
+
+        this.testedCache.onCirculationEvent(CirculationEvent.ofBookCopy(new BookCopy(b1, BookState.NEW)));
+        this.loads = 0;
+        this.search(allFilter, b1, b2);
+        this.search(availableFilter, b2);
+        this.search(sfFilter, b2);
+        assertThat(this.loads).as("searches holding the book and searches on available books").isEqualTo(2);
+    }
+
+    @Test
+    public void categoryChangeInvalidatesItsSearches() {
+        final Book b1 = book("b1", "i1", SF);
+        final BookRequestFilter sfFilter = BookRequestFilter.getBuilder().withCategories("sf").build();
+        final BookRequestFilter i1Filter = BookRequestFilter.getBuilder().withIsbn("i1").build();
+        final BookRequestFilter childFilter = BookRequestFilter.getBuilder().withChildCompliancy().build();
+        final BookRequestFilter polarFilter = BookRequestFilter.getBuilder().withCategories("polar").build();
+        this.search(sfFilter, b1);
+        this.search(i1Filter, b1);
+        this.search(childFilter);
+        this.search(polarFilter);
+
+        // Renamed: the searches on its code and holding its books
+        this.testedCache.invalidateCategory(SF, TestInstanceBuilder.withId(new BookCategory("sf2", "SF", false), "sfId"));
+        this.loads = 0;
+        this.search(sfFilter, b1);
+        this.search(i1Filter, b1);
+        this.search(childFilter);
+        this.search(polarFilter);
+        assertThat(this.loads).isEqualTo(2);
+
+        // Restricted to adults: the child compliant searches too
+        this.testedCache.invalidateCategory(POLAR, TestInstanceBuilder.withId(new BookCategory("polar", "Polar", true), "polarId"));
+        this.loads = 0;
+        this.search(sfFilter, b1);
+        this.search(i1Filter, b1);
+        this.search(childFilter);
+        this.search(polarFilter);
+        assertThat(this.loads).isEqualTo(2);
+    }
+
+    @Test
+    public void resultLoadedDuringInvalidationNotKept() {
+        final BookRequestFilter filter = BookRequestFilter.getBuilder().build();
+        this.testedCache.getBooks(filter, () -> {
+            this.loads++;
+            this.testedCache.invalidateBook(null, book("b1", "i1"));
+            return List.of();
+        }, BookSearchCacheImplTest::readBook);
+        this.search(filter);
+        this.search(filter);
+        assertThat(this.loads).isEqualTo(2);
+    }
+
+    @Test
+    public void leastRecentlyUsedEvicted() {
+        final BookRequestFilter f1 = BookRequestFilter.getBuilder().withIsbn("i1").build();
+        final BookRequestFilter f2 = BookRequestFilter.getBuilder().withIsbn("i2").build();
+        final BookRequestFilter f3 = BookRequestFilter.getBuilder().withIsbn("i3").build();
+        final Book[] f2Books = {book("b5", "i2"), book("b6", "i2"), book("b7", "i2"), book("b8", "i2")};
+        this.search(f1, book("b1", "i1"), book("b2", "i1"), book("b3", "i1"), book("b4", "i1"));
+        this.search(f2, f2Books);
+        this.search(f1);
+        // 11 books for a cache of 10: the least recently used result is evicted
+        this.search(f3, book("b9", "i3"), book("b10", "i3"), book("b11", "i3"));
+        assertThat(this.testedCache.getNumberOfResults()).isEqualTo(2);
+        this.loads = 0;
+        this.search(f1);
+        this.search(f3);
+        assertThat(this.loads).isZero();
+        this.search(f2, f2Books);
+        assertThat(this.loads).isEqualTo(1);
+        assertThat(this.meterRegistry.counter(BookSearchCacheImpl.EVICTIONS_METRIC, "cause", "size").count()).isEqualTo(2);
+
+        // A result larger than the cache is not kept
+        final BookRequestFilter all = BookRequestFilter.getBuilder().build();
+        this.search(all, IntStream.range(0, 11).mapToObj((i) -> book("b" + i, "i" + i)).toArray(Book[]::new));
+        this.search(all);
+        assertThat(this.loads).isEqualTo(3);
+    }
+
+    @Test
+    public void expiredResultsReloaded() {
+        this.testedCache = new BookSearchCacheImpl(10, Duration.ZERO, this.meterRegistry);
+        this.search(BookRequestFilter.getBuilder().build());
+        this.search(BookRequestFilter.getBuilder().build());
+        assertThat(this.loads).isEqualTo(2);
+        assertThat(this.meterRegistry.counter(BookSearchCacheImpl.EVICTIONS_METRIC, "cause", "expiry").count()).isEqualTo(1);
+    }
+
+    @Test
+    public void disabledCacheAlwaysLoads() {
+        this.testedCache = new BookSearchCacheImpl(0, Duration.ofMinutes(10), this.meterRegistry);
+        this.search(BookRequestFilter.getBuilder().build());
+        this.search(BookRequestFilter.getBuilder().build());
+        assertThat(this.loads).isEqualTo(2);
+        assertThat(this.testedCache.getNumberOfResults()).isZero();
+        assertThatThrownBy(() -> new BookSearchCacheImpl(-1, Duration.ZERO, this.meterRegistry))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private List<Book> search(BookRequestFilter filter, Book... books) {
+        return this.testedCache.getBooks(filter, () -> {
+            this.loads++;
+            return Stream.of(books).map(BookSearchCacheImplTest::toDocument).collect(Collectors.toList());
+        }, BookSearchCacheImplTest::readBook);
+    }
+
+    private static Document toDocument(Book book) {
+        return new Document("_id", book.getId()).append("isbn", book.getIsbn())
+                .append("categories", book.getCategories().stream()
+                        .map((category) -> new Document("_id", category.getId()).append("code", category.getCode()))
+                        .collect(Collectors.toList()));
+    }
+
+    private static Book readBook(Document document) {
+        return book(document.getString("_id"), document.getString("isbn"), document.getList("categories", Document.class)
+                .stream().map((category) -> category.getString("_id").equals(SF.getId()) ? SF : POLAR)
+                .toArray(BookCategory[]::new));
+    }
+
+    private static Book book(String id, String isbn, BookCategory... categories) {
+        final Book book = TestInstanceBuilder.withId(new Book(isbn, "title", null, 100, 2000, null, List.of()), id);
+        book.setCategories(Stream.of(categories).map(BookCategorySnapshot::of).collect(Collectors.toList()));
+        return book;
+    }
+}
@@ -18,10 +18,15 @@
  */
 package mmiLibraryServer.services;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 import mmiLibraryServer.mongoModel.Book;
+import mmiLibraryServer.mongoModel.BookCategory;
+import mmiLibraryServer.mongoModel.BookCategoryRepository;
+import mmiLibraryServer.mongoModel.BookCategorySnapshot;
 import mmiLibraryServer.mongoModel.BookCopy;
 import mmiLibraryServer.mongoModel.BookCopyRepository;
 import mmiLibraryServer.mongoModel.BookRepository;
@@ -29,9 +34,12 @@ import mmiLibraryServer.mongoModel.BookState;
 import mmiLibraryServer.mongoModel.Loan;
 import mmiLibraryServer.mongoModel.LoanRepository;
 import mmiLibraryServer.mongoModel.TestInstanceBuilder;
+import mmiLibraryServer.mongoModel.utils.BookRequestFilter;
 import mmiLibraryServer.services.exceptions.HasOngoingLoanException;
+import mmiLibraryServer.services.exceptions.PreconditionFailedException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.bson.Document;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeEach;
@@ -46,6 +54,9 @@ import static org.assertj.core.api.Assertions.*;
 import org.mockito.AdditionalAnswers;
 import static org.mockito.BDDMockito.given;
 import org.mockito.Mockito;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Slice;
 
 /**
  *
@@ -61,12 +72,20 @@ public class BookServiceImplTest {
     @Mock
     private BookRepository bookRepo;
 
+    @Mock
+    private BookCategoryRepository bookCatRepo;
+
     @Mock
     private BookCopyRepository bookCopyRepo;
 
     @Mock
     private LoanRepository loanRepo;
 
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    private BookSearchCache searchCache;
+
     @InjectMocks
     private BookServiceImpl testedService;
 
@@ -84,7 +103,10 @@ public class BookServiceImplTest {
     @BeforeEach
     public void setUp() {
         this.mocks = MockitoAnnotations.openMocks(this);
-        this.testedService = new BookServiceImpl(bookRepo, bookCopyRepo, loanRepo);
+        // Results are not cached: searches always reach the repository
+        this.searchCache = Mockito.spy(new BookSearchCacheImpl(0, Duration.ZERO, new SimpleMeterRegistry()));
+        this.testedService = new BookServiceImpl(bookRepo, bookCatRepo, bookCopyRepo, loanRepo, eventPublisher,
+                searchCache);
     }
 
     @AfterEach
@@ -99,6 +121,117 @@ public class BookServiceImplTest {
                 .isInstanceOf(IllegalArgumentException.class);
     }
 
+    @Test
+    public void getBooksPageThrows() {
+        assertThatThrownBy(()
+                -> this.testedService.getBooksPage(null, true))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(()
+                -> this.testedService.getBooksPage(BookRequestFilter.getBuilder().build(), true))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(()
+                -> this.testedService.getBooksPage(BookRequestFilter.getBuilder()
+                        .withPage(0, BookService.MAX_PAGE_SIZE + 1).build(), true))
+                .isInstanceOf(IllegalArgumentException.class);
+        Mockito.verifyNoInteractions(this.bookRepo);
+    }
+
+    @Test
+    public void getBookRevisionOk() {
+        given(this.bookRepo.findRevision("bookId")).willReturn("4");
+        assertThat(this.testedService.getBookRevision("bookId")).isEqualTo("4");
+        assertThatThrownBy(()
+                -> this.testedService.getBookRevision("unknown"))
+                .isInstanceOf(NoSuchElementException.class);
+        assertThatThrownBy(()
+                -> this.testedService.getBookRevision(null))
+                .isInstanceOf(IllegalArgumentException.class);
+        Mockito.verify(this.bookRepo, Mockito.never()).findById(Mockito.any());
+    }
+
+    @Test
+    public void getBooksPageOk() {
+        final List<Book> books = List.of(TestInstanceBuilder.emptyBook(), TestInstanceBuilder.emptyBook());
+        final List<Document> bookDocs = List.of(new Document("_id", "b1"), new Document("_id", "b2"));
+        final BookRequestFilter filter = BookRequestFilter.getBuilder().withPage(1, 2).build();
+        given(this.bookRepo.findAllDocumentsByFilter(filter)).willReturn(bookDocs);
+        given(this.bookRepo.readBook(bookDocs.get(0))).willReturn(books.get(0));
+        given(this.bookRepo.readBook(bookDocs.get(1))).willReturn(books.get(1));
+        given(this.bookRepo.countByFilter(filter)).willReturn(10L);
+
+        Slice<Book> page = this.testedService.getBooksPage(filter, true);
+        assertThat(page).isInstanceOf(Page.class);
+        assertThat(page.getContent()).isEqualTo(books);
+        assertThat(((Page<Book>) page).getTotalElements()).isEqualTo(10L);
+        assertThat(page.getNumber()).isEqualTo(1);
+
+        page = this.testedService.getBooksPage(filter, false);
+        assertThat(page).isNotInstanceOf(Page.class);
+        assertThat(page.getContent()).isEqualTo(books);
+        assertThat(page.hasNext()).isTrue();
+        Mockito.verify(this.bookRepo, Mockito.times(1)).countByFilter(filter);
+    }
+
+    @Test
+    public void createBookSnapshotsCategoriesOk() {
+        final BookCategory cat = TestInstanceBuilder.withId(new BookCategory("code", "name", true), "catId");
+        final Book book = new Book("isbn", "title", null, 0, 0, null, List.of());
+        book.setCategories(List.of(new BookCategorySnapshot("catId", null, null, false),
+                new BookCategorySnapshot("unknown", null, null, false)));
+        given(this.bookCatRepo.findAllById(List.of("catId", "unknown"))).willReturn(List.of(cat));
+        given(this.bookRepo.save(book)).will(AdditionalAnswers.returnsFirstArg());
+
+        final Book createdBook = this.testedService.createBook(book);
+        assertThat(createdBook.getCategories()).containsExactly(BookCategorySnapshot.of(cat));
+        Mockito.verify(this.bookRepo, Mockito.never()).findById(Mockito.any());
+        Mockito.verify(this.searchCache).invalidateBook(null, createdBook);
+    }
+
+    @Test
+    public void updateBookOk() {
+        final BookCategory cat = TestInstanceBuilder.withId(new BookCategory("code", "name", false), "catId");
+        final Book book = TestInstanceBuilder.withId(new Book("isbn", "title", null, 0, 0, null, List.of()), "bookId");
+        final Book bookToUpdate = TestInstanceBuilder.withId(new Book(null, "title2", null, 0, 0, null, List.of()), "bookId");
+        bookToUpdate.setCategories(List.of(new BookCategorySnapshot("catId", null, null, false)));
+        given(this.bookRepo.findById("bookId")).willReturn(Optional.of(book));
+        given(this.bookCatRepo.findAllById(List.of("catId"))).willReturn(List.of(cat));
+        given(this.bookRepo.updateDescription(bookToUpdate, null)).will(AdditionalAnswers.returnsFirstArg());
+
+        final Book updatedBook = this.testedService.updateBook(bookToUpdate);
+        // A blank isbn keeps the previous one
+        assertThat(updatedBook).extracting("isbn", "title").containsExactly("isbn", "title2");
+        assertThat(updatedBook.getCategories()).containsExactly(BookCategorySnapshot.of(cat));
+        // The updated book is returned by the update itself
+        Mockito.verify(this.bookRepo, Mockito.times(1)).findById("bookId");
+        // The previous book is left untouched for the search cache
+        assertThat(book).extracting("isbn", "title").containsExactly("isbn", "title");
+        Mockito.verify(this.searchCache).invalidateBook(book, updatedBook);
+    }
+
+    @Test
+    public void updateBookWithRevisionThrows() {
+        final Book book = TestInstanceBuilder.withId(new Book("isbn", "title", null, 0, 0, null, List.of()), "bookId");
+        final Book bookToUpdate = TestInstanceBuilder.withId(new Book(null, "title2", null, 0, 0, null, List.of()), "bookId");
+        given(this.bookRepo.findById("bookId")).willReturn(Optional.of(book));
+        // The book changed since its revision was read: nothing matches the update
+        given(this.bookRepo.updateDescription(bookToUpdate, 4L)).willReturn(null);
+        assertThatThrownBy(()
+                -> this.testedService.updateBook(bookToUpdate, "4"))
+                .isInstanceOf(PreconditionFailedException.class);
+        Mockito.verify(this.searchCache, Mockito.never()).invalidateBook(Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void updateBookThrows() {
+        assertThatThrownBy(()
+                -> this.testedService.updateBook(TestInstanceBuilder.emptyBook()))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(()
+                -> this.testedService.updateBook(TestInstanceBuilder.withId(TestInstanceBuilder.emptyBook(), "unknown")))
+                .isInstanceOf(NoSuchElementException.class);
+        Mockito.verify(this.bookRepo, Mockito.never()).updateDescription(Mockito.any(), Mockito.any());
+    }
+
     @Test
     public void getBookLoansThrows() {
         assertThatThrownBy(()
@@ -117,10 +250,10 @@ public class BookServiceImplTest {
         List<BookCopy> copies = List.of(TestInstanceBuilder.emptyBookCopy(), TestInstanceBuilder.emptyBookCopy());
         Book book = TestInstanceBuilder.withCopies(TestInstanceBuilder.emptyBook(), copies);
         given(this.bookRepo.findById("gooId")).willReturn(Optional.of(book));
-        given(this.loanRepo.findByBookCopyInOrderByLoanDateTimeDesc(copies)).willReturn(loans);
+        given(this.loanRepo.findByBookCopyInWithMembers(copies)).willReturn(loans);
         List<Loan> givenLoans = this.testedService.getBookLoans("gooId");
         Mockito.verify(this.bookRepo).findById("gooId");
-        Mockito.verify(this.loanRepo).findByBookCopyInOrderByLoanDateTimeDesc(copies);
+        Mockito.verify(this.loanRepo).findByBookCopyInWithMembers(copies);
         assertThat(givenLoans).isSameAs(loans);
     }
 
@@ -148,6 +281,8 @@ public class BookServiceImplTest {
         List<BookCopy> copies2 = this.testedService.createBookCopies("bookId", 3, null);
         Mockito.verify(this.bookRepo, Mockito.times(2)).findById(Mockito.any());
         Mockito.verify(this.bookCopyRepo, Mockito.times(2)).saveAll(Mockito.any());
+        Mockito.verify(this.bookCopyRepo, Mockito.times(1)).incrementBookCopyCounters("bookId", 5, 5, 0);
+        Mockito.verify(this.bookCopyRepo, Mockito.times(1)).incrementBookCopyCounters("bookId", 3, 3, 0);
         assertThat(copies).hasSize(5).allMatch((bc) -> bc.getBook() == book
                 && bc.getState() == BookState.GOOD && bc.isAvailable() && !bc.isRemoved());
         assertThat(copies2).hasSize(3).allMatch((bc) -> bc.getBook() == book
@@ -212,10 +347,12 @@ public class BookServiceImplTest {
         final BookCopy bookCopy = TestInstanceBuilder.fullBookCopy("bcId", book, BookState.GOOD,
                 false, false, null);
         given(this.bookCopyRepo.findById("bcId")).willReturn(Optional.of(bookCopy));
+        given(this.bookCopyRepo.findAndUpdateIfAvailable(Mockito.eq("bcId"), Mockito.any(), Mockito.any())).willReturn(null);
 
         assertThatThrownBy(()
                 -> this.testedService.updateBookCopy("bookId", TestInstanceBuilder.withId(TestInstanceBuilder.emptyBookCopy(), "bcId")))
                 .isInstanceOf(HasOngoingLoanException.class);
+        Mockito.verifyNoInteractions(this.loanRepo);
     }
 
     @Test
@@ -228,7 +365,9 @@ public class BookServiceImplTest {
                 TestInstanceBuilder.parse("2021-12-12"), BookState.GOOD);
         TestInstanceBuilder.withLoans(bookCopy, loan);
         given(this.bookCopyRepo.findById("bcId")).willReturn(Optional.of(bookCopy));
-        given(this.bookCopyRepo.save(Mockito.any())).willAnswer(AdditionalAnswers.returnsFirstArg());
+        final BookCopy savedBookCopy = TestInstanceBuilder.fullBookCopy("bcId", book, BookState.USED,
+                true, true, null);
+        given(this.bookCopyRepo.findAndUpdateIfAvailable("bcId", BookState.USED, true)).willReturn(savedBookCopy);
 
         final Book book2 = TestInstanceBuilder.withId(TestInstanceBuilder.emptyBook(), "bookId2");
         final BookCopy inputBookCopy = TestInstanceBuilder.fullBookCopy("bcId", book2, BookState.USED,
@@ -237,16 +376,9 @@ public class BookServiceImplTest {
         final BookCopy updatedBookCopy = this.testedService.updateBookCopy("bookId", inputBookCopy);
 
         Mockito.verify(this.bookCopyRepo, Mockito.times(1)).findById(Mockito.any());
-
-        assertThat(updatedBookCopy).as("instance returned is the good one").isSameAs(bookCopy);
-        assertThat(bookCopy).as("instance returned has unchanged props")
-                .extracting("id", "book", "available")
-                .containsExactly("bcId", book, true);
-        assertThat(bookCopy.getLoans()).as("instance returned has unchanged loans")
-                .hasSize(1);
-        assertThat(bookCopy).as("instance returned has changed props")
-                .extracting("state", "removed")
-                .containsExactly(BookState.USED, true);
+        // Only the state and the removal are updated, the availability and the book being kept
+        Mockito.verify(this.bookCopyRepo, Mockito.never()).save(Mockito.any());
+        assertThat(updatedBookCopy).as("instance returned is the updated one").isSameAs(savedBookCopy);
     }
 
     @Test
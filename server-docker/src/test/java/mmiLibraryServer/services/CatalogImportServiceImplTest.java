@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import mmiLibraryServer.mongoModel.Book;
+import mmiLibraryServer.mongoModel.BookCategory;
+import mmiLibraryServer.mongoModel.BookCategoryRepository;
+import mmiLibraryServer.mongoModel.BookRepository;
+import mmiLibraryServer.mongoModel.BookState;
+import mmiLibraryServer.mongoModel.TestInstanceBuilder;
+import mmiLibraryServer.services.model.CatalogImportFormat;
+import mmiLibraryServer.services.model.CatalogImportReport;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import static org.assertj.core.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.mockito.junit.jupiter.MockitoExtension;
+import static org.mockito.BDDMockito.given;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+@ExtendWith(MockitoExtension.class)
+public class CatalogImportServiceImplTest {
+
+    private static final Log LOG = LogFactory.getLog(CatalogImportServiceImplTest.class);
+
+    private AutoCloseable mocks;
+
+    @Mock
+    private BookRepository bookRepo;
+
+    @Mock
+    private BookCategoryRepository categoryRepo;
+
+    @Mock
+    private BookSearchCache bookSearchCache;
+
+    @Captor
+    private ArgumentCaptor<List<Book>> books;
+
+    @Captor
+    private ArgumentCaptor<List<List<BookState>>> copies;
+
+    private CatalogImportServiceImpl testedService;
+
+    public CatalogImportServiceImplTest() {
+    }
+
+    @BeforeEach
+    public void setUp() {
+        this.mocks = MockitoAnnotations.openMocks(this);
+        this.testedService = new CatalogImportServiceImpl(bookRepo, categoryRepo, new ObjectMapper(), 2, bookSearchCache);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        this.mocks.close();
+    }
+
+    @Test
+    public void importCatalogThrows() {
+        assertThatThrownBy(() -> this.testedService.importCatalog(null, CatalogImportFormat.CSV))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> this.testedService.importCatalog(catalog(""), null))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new CatalogImportServiceImpl(bookRepo, categoryRepo, new ObjectMapper(), 0, bookSearchCache))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void importNdjsonOk() throws Exception {
+        given(this.categoryRepo.findAll()).willReturn(List.of(TestInstanceBuilder.withId(new BookCategory("sf", "SF", false), "c1")));
+        given(this.bookRepo.insertWithCopies(Mockito.anyList(), Mockito.anyList()))
+                .willReturn(Map.of())
+                .willReturn(Map.of(0, "A book with the same isbn already exists."));
+        final CatalogImportReport report = this.testedService.importCatalog(catalog(
+                "{\"isbn\": \"i1\", \"title\": \"t1\", \"authors\": [{\"firstname\": \"f\", \"lastname\": \"l\"}], \"categories\": [\"sf\"], \"copies\": {\"GOOD\": 2, \"new\": 1}}\n"
+                + "{\"isbn\": \"i2\", \"title\": \"t2\", \"copies\": 1}\n"
+                + "\n"
+                + "{\"isbn\": \"i3\", \"title\": \"t3\", \"categories\": [\"unknown\"]}\n"
+                + "{\"isbn\": \"i4\", \"title\": \"t4\"}\n"
+                + "{not json\n"
+                + "{\"isbn\": \"i6\"}\n"),
+                CatalogImportFormat.NDJSON);
+
+        assertThat(report).extracting("records", "importedBooks", "importedCopies").containsExactly(6, 2, 4);
+        assertThat(report.getErrors()).extracting("line", "isbn", "error").containsExactly(
+                tuple(4, "i3", "Unknown categories: unknown."),
+                tuple(5, "i4", "A book with the same isbn already exists."),
+                tuple(6, null, report.getErrors().get(2).getError()),
+                tuple(7, "i6", "Missing title."));
+        assertThat(report.getErrors().get(2).getError()).startsWith("Invalid JSON");
+
+        // One bulk insert per batch holding valid records
+        Mockito.verify(this.bookRepo, Mockito.times(2)).insertWithCopies(this.books.capture(), this.copies.capture());
+        assertThat(this.books.getAllValues().get(0)).extracting("isbn").containsExactly("i1", "i2");
+        assertThat(this.books.getAllValues().get(0).get(0).getCategories()).extracting("code").containsExactly("sf");
+        assertThat(this.copies.getAllValues().get(0).get(0))
+                .containsExactlyInAnyOrder(BookState.GOOD, BookState.GOOD, BookState.NEW);
+        assertThat(this.copies.getAllValues().get(0).get(1)).containsExactly(BookState.NEW);
+        assertThat(this.books.getAllValues().get(1)).extracting("isbn").containsExactly("i4");
+        Mockito.verify(this.categoryRepo, Mockito.times(1)).findAll();
+        Mockito.verify(this.bookSearchCache, Mockito.times(2)).clear();
+    }
+
+    @Test
+    public void importCsvOk() throws Exception {
+        given(this.categoryRepo.findAll()).willReturn(List.of(TestInstanceBuilder.withId(new BookCategory("sf", "SF", false), "c1"),
+                TestInstanceBuilder.withId(new BookCategory("polar", "Polar", false), "c2")));
+        given(this.bookRepo.insertWithCopies(Mockito.anyList(), Mockito.anyList())).willReturn(Map.of());
+        final CatalogImportReport report = this.testedService.importCatalog(catalog(
+                "ISBN,title,numOfPages,authors,categories,copies,unused\r\n"
+                + "i1,\"Title, with \"\"quotes\"\"\",120,Becky:Chambers|Izzo,sf|polar,GOOD:2|BAD:1,x\r\n"
+                + "i2,\"Title on\ntwo lines\",,,,3\r\n"
+                + "i3,t3,many,,,\r\n"
+                + "i4,t4,,,,WORN:1\r\n"),
+                CatalogImportFormat.CSV);
+
+        assertThat(report).extracting("records", "importedBooks", "importedCopies").containsExactly(4, 2, 6);
+        assertThat(report.getErrors()).extracting("line", "isbn", "error").containsExactly(
+                tuple(5, "i3", "Invalid numOfPages: many."),
+                tuple(6, "i4", "Invalid book state: WORN."));
+        Mockito.verify(this.bookRepo, Mockito.times(1)).insertWithCopies(this.books.capture(), Mockito.anyList());
+        final Book b1 = this.books.getValue().get(0);
+        assertThat(b1).extracting("isbn", "title", "numOfPages").containsExactly("i1", "Title, with \"quotes\"", 120);
+        assertThat(b1.getAuthors()).extracting("firstname", "lastname")
+                .containsExactly(tuple("Becky", "Chambers"), tuple(null, "Izzo"));
+        assertThat(b1.getCategories()).extracting("code").containsExactly("sf", "polar");
+        assertThat(this.books.getValue().get(1).getTitle()).isEqualTo("Title on\ntwo lines");
+    }
+
+    @Test
+    public void importCsvWithoutRequiredColumnThrows() {
+        given(this.categoryRepo.findAll()).willReturn(List.of());
+        assertThatThrownBy(() -> this.testedService.importCatalog(catalog("isbn,editor\ni1,e1\n"),
+                CatalogImportFormat.CSV))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static InputStream catalog(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -18,15 +18,27 @@
  */
 package mmiLibraryServer.services;
 
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import mmiLibraryServer.mongoModel.BookCategory;
+import mmiLibraryServer.mongoModel.BookCategoryRepository;
+import mmiLibraryServer.mongoModel.BookRepository;
+import mmiLibraryServer.mongoModel.TestInstanceBuilder;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.mockito.junit.jupiter.MockitoExtension;
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.BDDMockito.given;
 
 /**
  *
@@ -39,6 +51,17 @@ public class CategoryServiceTest {
 
     private AutoCloseable mocks;
 
+    @Mock
+    private BookCategoryRepository bookCatRepo;
+
+    @Mock
+    private BookRepository bookRepo;
+
+    @Mock
+    private BookSearchCache bookSearchCache;
+
+    private CategoryServiceImpl testedService;
+
     public CategoryServiceTest() {
     }
 
@@ -53,6 +76,8 @@ public class CategoryServiceTest {
     @BeforeEach
     public void setUp() {
         this.mocks = MockitoAnnotations.openMocks(this);
+        // Background tasks are run by the calling thread
+        this.testedService = new CategoryServiceImpl(bookCatRepo, bookRepo, Runnable::run, bookSearchCache);
     }
 
     @AfterEach
@@ -64,4 +89,67 @@ public class CategoryServiceTest {
     public void doTest() {
 
     }
+
+    @Test
+    public void updateCategoryOk() {
+        final BookCategory previous = TestInstanceBuilder.withId(new BookCategory("code", "name", false), "catId");
+        final BookCategory category = TestInstanceBuilder.withId(new BookCategory("code2", "name2", false), "catId");
+        given(this.bookCatRepo.findById("catId")).willReturn(Optional.of(previous)).willReturn(Optional.of(category));
+        given(this.bookCatRepo.save(category)).willReturn(category);
+
+        assertThat(this.testedService.updateCategory(category)).isSameAs(category);
+        Mockito.verify(this.bookRepo, Mockito.never()).refreshAdultOnly(Mockito.any());
+        // Searches are dropped again once the books have the new snapshot
+        final InOrder inOrder = Mockito.inOrder(this.bookRepo, this.bookSearchCache);
+        inOrder.verify(this.bookSearchCache).invalidateCategory(previous, category);
+        inOrder.verify(this.bookRepo).updateCategorySnapshots(category);
+        inOrder.verify(this.bookSearchCache).invalidateCategory(previous, category);
+    }
+
+    @Test
+    public void updateCategoryAdultOnlyOk() {
+        final BookCategory previous = TestInstanceBuilder.withId(new BookCategory("code", "name", false), "catId");
+        final BookCategory category = TestInstanceBuilder.withId(new BookCategory("code", "name", true), "catId");
+        given(this.bookCatRepo.findById("catId")).willReturn(Optional.of(previous)).willReturn(Optional.of(category));
+        given(this.bookCatRepo.save(category)).willReturn(category);
+
+        this.testedService.updateCategory(category);
+        final InOrder inOrder = Mockito.inOrder(this.bookRepo);
+        inOrder.verify(this.bookRepo).refreshAdultOnly(category);
+        inOrder.verify(this.bookRepo).updateCategorySnapshots(category);
+    }
+
+    @Test
+    public void updateCategoryPropagationFailureIgnored() {
+        final BookCategory category = TestInstanceBuilder.withId(new BookCategory("code", "name", false), "catId");
+        given(this.bookCatRepo.findById("catId")).willReturn(Optional.of(category));
+        given(this.bookCatRepo.save(category)).willReturn(category);
+        given(this.bookRepo.updateCategorySnapshots(category)).willThrow(new IllegalStateException("test"));
+
+        assertThat(this.testedService.updateCategory(category)).isSameAs(category);
+    }
+
+    @Test
+    public void updateCategoryThrows() {
+        assertThatThrownBy(()
+                -> this.testedService.updateCategory(TestInstanceBuilder.emptyCategory()))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(()
+                -> this.testedService.updateCategory(TestInstanceBuilder.withId(TestInstanceBuilder.emptyCategory(), "unknown")))
+                .isInstanceOf(NoSuchElementException.class);
+        Mockito.verifyNoInteractions(this.bookRepo, this.bookSearchCache);
+    }
+
+    @Test
+    public void deleteCategoryOk() {
+        final BookCategory category = TestInstanceBuilder.withId(new BookCategory("code", "name", false), "catId");
+        given(this.bookCatRepo.findById("catId")).willReturn(Optional.of(category));
+
+        this.testedService.deleteCategoryById("catId");
+        Mockito.verify(this.bookCatRepo).delete(category);
+        Mockito.verify(this.bookSearchCache).invalidateCategory(category, null);
+        assertThatThrownBy(()
+                -> this.testedService.deleteCategoryById("unknown"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
 }
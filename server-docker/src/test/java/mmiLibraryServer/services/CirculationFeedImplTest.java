@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.services;
+
+import java.time.Duration;
+import java.util.List;
+import mmiLibraryServer.mongoModel.BookCopy;
+import mmiLibraryServer.mongoModel.TestInstanceBuilder;
+import mmiLibraryServer.services.model.CirculationEvent;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import static org.assertj.core.api.Assertions.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+public class CirculationFeedImplTest {
+
+    private static final Log LOG = LogFactory.getLog(CirculationFeedImplTest.class);
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private CirculationFeedImpl circulationFeed;
+
+    public CirculationFeedImplTest() {
+    }
+
+    @BeforeEach
+    public void setUp() {
+        this.circulationFeed = new CirculationFeedImpl(3);
+    }
+
+    @Test
+    public void invalidReplaySizeRejected() {
+        assertThatThrownBy(() -> new CirculationFeedImpl(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void eventsNumberedInOrder() {
+        this.publishCopyEvents("c1", "c2");
+        final List<CirculationEvent> events = this.circulationFeed.getEvents(0L).take(2)
+                .collectList().block(TIMEOUT);
+        assertThat(events).extracting("id", "type", "bookCopyId").containsExactly(
+                tuple(1L, CirculationEvent.Type.COPY_UPDATED, "c1"),
+                tuple(2L, CirculationEvent.Type.COPY_UPDATED, "c2"));
+    }
+
+    @Test
+    public void missedEventsReplayed() {
+        this.publishCopyEvents("c1", "c2", "c3");
+        final List<CirculationEvent> events = this.circulationFeed.getEvents(1L).take(2)
+                .collectList().block(TIMEOUT);
+        assertThat(events).extracting("id").containsExactly(2L, 3L);
+    }
+
+    @Test
+    public void onlyNewEventsWithoutLastEventId() {
+        this.publishCopyEvents("c1", "c2");
+        final List<CirculationEvent> events = this.circulationFeed.getEvents(null).take(1)
+                .doOnSubscribe((subscription) -> this.publishCopyEvents("c3"))
+                .collectList().block(TIMEOUT);
+        assertThat(events).extracting("id", "bookCopyId").containsExactly(tuple(3L, "c3"));
+    }
+
+    @Test
+    public void resetWhenEventsNoLongerRetained() {
+        this.publishCopyEvents("c1", "c2", "c3", "c4", "c5");
+        final List<CirculationEvent> events = this.circulationFeed.getEvents(1L).take(2)
+                .doOnSubscribe((subscription) -> this.publishCopyEvents("c6"))
+                .collectList().block(TIMEOUT);
+        assertThat(events).extracting("id", "type").containsExactly(
+                tuple(null, CirculationEvent.Type.RESET),
+                tuple(6L, CirculationEvent.Type.COPY_UPDATED));
+    }
+
+    @Test
+    public void resetWhenLastEventIdUnknown() {
+        this.publishCopyEvents("c1");
+        final List<CirculationEvent> events = this.circulationFeed.getEvents(42L).take(1)
+                .collectList().block(TIMEOUT);
+        assertThat(events).extracting("type").containsExactly(CirculationEvent.Type.RESET);
+        final List<CirculationEvent> invalidIdEvents = this.circulationFeed.getEvents(-1L).take(1)
+                .collectList().block(TIMEOUT);
+        assertThat(invalidIdEvents).extracting("type").containsExactly(CirculationEvent.Type.RESET);
+    }
+
+    private void publishCopyEvents(String... bookCopyIds) {
+        for (String bookCopyId : bookCopyIds) {
+            final BookCopy bookCopy = TestInstanceBuilder.withId(TestInstanceBuilder.emptyBookCopy(), bookCopyId);
+            this.circulationFeed.publish(CirculationEvent.ofBookCopy(bookCopy));
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.services;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+import mmiLibraryServer.mongoModel.BookCopy;
+import mmiLibraryServer.mongoModel.Loan;
+import mmiLibraryServer.mongoModel.LoanRepository;
+import org.mockito.Mockito;
+
+/**
+ * Stubs of the loan repository queries answered from the loans held by the mocked book copies.
+ *
+ * @author Rémi Venant
+ */
+final class LoanRepositoryMocks {
+
+    private LoanRepositoryMocks() {
+    }
+
+    /**
+     * Stub (leniently) the neighbour loan queries of the repository so that they are answered from
+     * BookCopy.getLoans() of the given book copy.
+     *
+     * @param loanRepository the mocked repository
+     */
+    static void mockNeighbourLoanQueries(LoanRepository loanRepository) {
+        Mockito.lenient().when(loanRepository.findFirstByBookCopyAndLoanDateTimeBeforeOrderByLoanDateTimeDesc(Mockito.any(), Mockito.any()))
+                .thenAnswer((inv) -> {
+                    final LocalDateTime date = inv.getArgument(1);
+                    return findLoan(inv.getArgument(0), (l) -> l.getLoanDateTime().isBefore(date), true);
+                });
+        Mockito.lenient().when(loanRepository.findFirstByBookCopyAndLoanDateTimeAfterOrderByLoanDateTimeAsc(Mockito.any(), Mockito.any()))
+                .thenAnswer((inv) -> {
+                    final LocalDateTime date = inv.getArgument(1);
+                    return findLoan(inv.getArgument(0), (l) -> l.getLoanDateTime().isAfter(date), false);
+                });
+        Mockito.lenient().when(loanRepository.findFirstByBookCopyOrderByLoanDateTimeDesc(Mockito.any()))
+                .thenAnswer((inv) -> findLoan(inv.getArgument(0), (l) -> true, true));
+    }
+
+    private static Optional<Loan> findLoan(BookCopy bookCopy, Predicate<Loan> filter, boolean mostRecent) {
+        final List<Loan> loans = bookCopy == null || bookCopy.getLoans() == null ? List.of() : bookCopy.getLoans();
+        final Comparator<Loan> byDate = Comparator.comparing(Loan::getLoanDateTime);
+        return loans.stream().filter(filter).max(mostRecent ? byDate : byDate.reversed());
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2022 IUT Laval - Le Mans Université.
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301  USA
+ */
+package mmiLibraryServer.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import mmiLibraryServer.mongoModel.BookCopy;
+import mmiLibraryServer.mongoModel.BookCopyRepository;
+import mmiLibraryServer.mongoModel.BookRepository;
+import mmiLibraryServer.mongoModel.BookState;
+import mmiLibraryServer.mongoModel.Loan;
+import mmiLibraryServer.mongoModel.LoanRepository;
+import mmiLibraryServer.mongoModel.Member;
+import mmiLibraryServer.mongoModel.MemberRepository;
+import mmiLibraryServer.mongoModel.TestInstanceBuilder;
+import mmiLibraryServer.services.model.BulkLoanResult;
+import mmiLibraryServer.services.model.LoanCheckout;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import static org.assertj.core.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.AdditionalAnswers;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import static org.mockito.BDDMockito.given;
+
+/**
+ *
+ * @author Rémi Venant
+ */
+@ExtendWith(MockitoExtension.class)
+public class LoanServiceBulkTest {
+
+    private static final Log LOG = LogFactory.getLog(LoanServiceBulkTest.class);
+
+    private AutoCloseable mocks;
+
+    @Mock
+    private LoanRepository loanRepository;
+
+    @Mock
+    private BookRepository bookRepository;
+
+    @Mock
+    private BookCopyRepository bookCopyRepository;
+
+    @Mock
+    private MemberRepository memberRepository;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @InjectMocks
+    private LoanServiceImpl testedService;
+
+    public LoanServiceBulkTest() {
+    }
+
+    @BeforeEach
+    public void setUp() {
+        this.mocks = MockitoAnnotations.openMocks(this);
+        this.testedService = new LoanServiceImpl(loanRepository, bookRepository, bookCopyRepository, memberRepository, Runnable::run,
+                eventPublisher);
+        LoanRepositoryMocks.mockNeighbourLoanQueries(this.loanRepository);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        this.mocks.close();
+    }
+
+    @Test
+    public void createLoansThrows() {
+        assertThatThrownBy(()
+                -> this.testedService.createLoans(null))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(()
+                -> this.testedService.createLoans(List.of()))
+                .isInstanceOf(IllegalArgumentException.class);
+        final List<LoanCheckout> tooManyCheckouts = new ArrayList<>();
+        for (int i = 0; i <= LoanService.MAX_BULK_SIZE; i++) {
+            tooManyCheckouts.add(new LoanCheckout("m1", "bc" + i, null));
+        }
+        assertThatThrownBy(()
+                -> this.testedService.createLoans(tooManyCheckouts))
+                .isInstanceOf(IllegalArgumentException.class);
+        Mockito.verify(this.loanRepository, Mockito.never()).saveAll(Mockito.any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void createLoansOk() {
+        final Member major = TestInstanceBuilder.withId(TestInstanceBuilder.withMajorStatus(TestInstanceBuilder.emptyMember()), "m1");
+        final Member minor = TestInstanceBuilder.withId(TestInstanceBuilder.withMinorStatus(TestInstanceBuilder.emptyMember()), "m2");
+        final BookCopy bc1 = TestInstanceBuilder.fullBookCopy("bc1", TestInstanceBuilder.emptyBook(), BookState.GOOD, false, true, List.of());
+        final BookCopy bc2 = TestInstanceBuilder.fullBookCopy("bc2", TestInstanceBuilder.emptyBook(), BookState.GOOD, false, true, List.of());
+        final BookCopy bc3 = TestInstanceBuilder.fullBookCopy("bc3", TestInstanceBuilder.emptyBook(), BookState.GOOD, false, false, List.of());
+        final BookCopy bc4 = TestInstanceBuilder.fullBookCopy("bc4", TestInstanceBuilder.emptyBook(), BookState.USED, false, true, List.of());
+        given(this.memberRepository.findAllById(Mockito.any())).willReturn(List.of(major, minor));
+        given(this.bookCopyRepository.findAllById(Mockito.any())).willReturn(List.of(bc1, bc2, bc3, bc4));
+        given(this.bookCopyRepository.findAdultOnlyIds(Mockito.any())).willReturn(Set.of("bc2"));
+        // bc4 is checked out concurrently: only bc1 can be reserved
+        given(this.bookCopyRepository.markAllUnavailable(Mockito.any())).willReturn(Set.of("bc1"));
+        given(this.loanRepository.saveAll(Mockito.anyIterable())).will(AdditionalAnswers.returnsFirstArg());
+
+        final List<BulkLoanResult> results = this.testedService.createLoans(Arrays.asList(
+                new LoanCheckout("m1", "bc1", null),
+                new LoanCheckout("m2", "bc1", null),
+                new LoanCheckout("unknown", "bc3", null),
+                new LoanCheckout("m2", "bc2", null),
+                new LoanCheckout("m1", "bc3", null),
+                new LoanCheckout("m1", "bc4", null),
+                null));
+
+        assertThat(results).map(BulkLoanResult::getIndex).containsExactly(0, 1, 2, 3, 4, 5, 6);
+        assertThat(results).map(BulkLoanResult::isSuccess).containsExactly(true, false, false, false, false, false, false);
+        assertThat(results).map(BulkLoanResult::getError).containsExactly(null,
+                "Duplicated book copy in request.",
+                "Unknown member.",
+                "Member is minor while book is for adult.",
+                "Book copy is not available or has been removed.",
+                "Book copy is not available or has been removed.",
+                "Missing member id or book copy id.");
+        assertThat(results.get(0).getLoan())
+                .extracting("member", "bookCopy", "initialState", "returnDateTime")
+                .containsExactly(major, bc1, BookState.GOOD, null);
+        assertThat(bc1.isAvailable()).isFalse();
+
+        // Adult check only concerns the copies borrowed by minors
+        Mockito.verify(this.bookCopyRepository).findAdultOnlyIds(Set.of("bc1", "bc2"));
+        final ArgumentCaptor<Collection<String>> reservedCaptor = ArgumentCaptor.forClass(Collection.class);
+        Mockito.verify(this.bookCopyRepository, Mockito.times(1)).markAllUnavailable(reservedCaptor.capture());
+        assertThat(reservedCaptor.getValue()).containsExactly("bc1", "bc4");
+        Mockito.verify(this.loanRepository, Mockito.times(1)).saveAll(Mockito.anyIterable());
+        Mockito.verify(this.bookCopyRepository, Mockito.never()).save(Mockito.any());
+        Mockito.verify(this.memberRepository, Mockito.times(1)).incrementOpenLoans(Map.of("m1", 1));
+    }
+
+    @Test
+    public void createLoansReleasesBookCopiesOnFailure() {
+        final Member major = TestInstanceBuilder.withId(TestInstanceBuilder.withMajorStatus(TestInstanceBuilder.emptyMember()), "m1");
+        final BookCopy bc1 = TestInstanceBuilder.fullBookCopy("bc1", TestInstanceBuilder.emptyBook(), BookState.GOOD, false, true, List.of());
+        given(this.memberRepository.findAllById(Mockito.any())).willReturn(List.of(major));
+        given(this.bookCopyRepository.findAllById(Mockito.any())).willReturn(List.of(bc1));
+        given(this.bookCopyRepository.markAllUnavailable(Mockito.any())).willReturn(Set.of("bc1"));
+        given(this.loanRepository.saveAll(Mockito.anyIterable())).willThrow(new IllegalStateException("insert failed"));
+        assertThatThrownBy(()
+                -> this.testedService.createLoans(List.of(new LoanCheckout("m1", "bc1", null))))
+                .isInstanceOf(IllegalStateException.class);
+        Mockito.verify(this.bookCopyRepository, Mockito.times(1)).markAllAvailable(Set.of("bc1"));
+        Mockito.verify(this.memberRepository, Mockito.never()).incrementOpenLoans(Mockito.anyMap());
+    }
+
+    @Test
+    public void createLoansReleasesUnsavedBookCopiesOnPartialFailure() {
+        final Member major = TestInstanceBuilder.withId(TestInstanceBuilder.withMajorStatus(TestInstanceBuilder.emptyMember()), "m1");
+        final BookCopy bc1 = TestInstanceBuilder.fullBookCopy("bc1", TestInstanceBuilder.emptyBook(), BookState.GOOD, false, true, List.of());
+        final BookCopy bc2 = TestInstanceBuilder.fullBookCopy("bc2", TestInstanceBuilder.emptyBook(), BookState.GOOD, false, true, List.of());
+        given(this.memberRepository.findAllById(Mockito.any())).willReturn(List.of(major));
+        given(this.bookCopyRepository.findAllById(Mockito.any())).willReturn(List.of(bc1, bc2));
+        given(this.bookCopyRepository.markAllUnavailable(Mockito.any())).willReturn(Set.of("bc1", "bc2"));
+        given(this.loanRepository.saveAll(Mockito.anyIterable())).willThrow(new IllegalStateException("insert failed"));
+        // Only the loan of bc1 has been inserted before the failure
+        final Loan savedLoan = TestInstanceBuilder.fullLoan("l1", major, bc1,
+                TestInstanceBuilder.parse("2021-12-14"), BookState.GOOD, null, null);
+        given(this.loanRepository.findOngoingByBookCopyIds(Set.of("bc1", "bc2"))).willReturn(List.of(savedLoan));
+
+        final List<BulkLoanResult> results = this.testedService.createLoans(List.of(
+                new LoanCheckout("m1", "bc1", null),
+                new LoanCheckout("m1", "bc2", null)));
+
+        assertThat(results).map(BulkLoanResult::isSuccess).containsExactly(true, false);
+        assertThat(results).map(BulkLoanResult::getError).containsExactly(null, "Unable to create the loan.");
+        assertThat(results.get(0).getLoan()).isSameAs(savedLoan);
+        Mockito.verify(this.bookCopyRepository, Mockito.times(1)).markAllAvailable(Set.of("bc2"));
+        Mockito.verify(this.memberRepository, Mockito.times(1)).incrementOpenLoans(Map.of("m1", 1));
+    }
+
+    @Test
+    public void returnLoansThrows() {
+        assertThatThrownBy(()
+                -> this.testedService.returnLoans(null))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(()
+                -> this.testedService.returnLoans(List.of()))
+                .isInstanceOf(IllegalArgumentException.class);
+        Mockito.verify(this.loanRepository, Mockito.never()).updateReturns(Mockito.any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void returnLoansOk() {
+        final BookCopy bc1 = TestInstanceBuilder.fullBookCopy("bc1", null, BookState.GOOD, false, false, null);
+        final BookCopy bc2 = TestInstanceBuilder.fullBookCopy("bc2", null, BookState.GOOD, false, true, null);
+        final BookCopy bc3 = TestInstanceBuilder.fullBookCopy("bc3", null, BookState.GOOD, false, false, null);
+        final Member member = TestInstanceBuilder.withId(TestInstanceBuilder.emptyMember(), "m1");
+        final Loan l1 = TestInstanceBuilder.fullLoan("l1", member, bc1, TestInstanceBuilder.parse("2021-12-10"),
+                BookState.GOOD, null, null);
+        final Loan l2 = TestInstanceBuilder.fullLoan("l2", null, bc2, TestInstanceBuilder.parse("2021-12-10"),
+                BookState.GOOD, TestInstanceBuilder.parse("2021-12-12"), BookState.GOOD);
+        final Loan l3 = TestInstanceBuilder.fullLoan("l3", null, bc3, TestInstanceBuilder.parse("2021-12-10"),
+                BookState.GOOD, null, null);
+        given(this.loanRepository.findAllByIdWithBookCopies(Mockito.any())).willReturn(List.of(l1, l2, l3));
+        given(this.loanRepository.updateReturns(Mockito.any())).willAnswer((inv) -> ((Collection<Loan>) inv.getArgument(0)).stream()
+                .map(Loan::getId).collect(Collectors.toSet()));
+
+        final List<BulkLoanResult> results = this.testedService.returnLoans(Arrays.asList(
+                returnOf("l1", "2021-12-15", BookState.USED),
+                returnOf("l1", "2021-12-15", BookState.USED),
+                returnOf("unknown", "2021-12-15", BookState.USED),
+                returnOf("l2", "2021-12-15", BookState.USED),
+                returnOf("l3", "2021-12-15", BookState.VERY_GOOD),
+                TestInstanceBuilder.withId(TestInstanceBuilder.emptyLoan(), "l3")));
+
+        assertThat(results).map(BulkLoanResult::isSuccess).containsExactly(true, false, false, false, false, false);
+        assertThat(results).map(BulkLoanResult::getError).containsExactly(null,
+                "Duplicated loan in request.",
+                "Unknown loan.",
+                "Loan already returned.",
+                "Cannot set loan returnState with a value NEW or a value > loan.initialState.",
+                "Missing loan id, return date or return state.");
+        assertThat(l1).extracting("returnDateTime", "returnState")
+                .containsExactly(TestInstanceBuilder.parse("2021-12-15"), BookState.USED);
+        assertThat(bc1.isAvailable()).isTrue();
+        assertThat(bc1.getState()).isEqualTo(BookState.USED);
+        assertThat(l3.getReturnDateTime()).isNull();
+        assertThat(bc3.isAvailable()).isFalse();
+
+        final ArgumentCaptor<Collection<Loan>> loansCaptor = ArgumentCaptor.forClass(Collection.class);
+        Mockito.verify(this.loanRepository, Mockito.times(1)).updateReturns(loansCaptor.capture());
+        assertThat(loansCaptor.getValue()).containsExactly(l1);
+        final ArgumentCaptor<Collection<BookCopy>> copiesCaptor = ArgumentCaptor.forClass(Collection.class);
+        Mockito.verify(this.bookCopyRepository, Mockito.times(1)).markAllAvailableWithState(copiesCaptor.capture());
+        assertThat(copiesCaptor.getValue()).containsExactly(bc1);
+        Mockito.verify(this.memberRepository, Mockito.times(1)).incrementOpenLoans(Map.of("m1", -1));
+        Mockito.verify(this.loanRepository, Mockito.never()).save(Mockito.any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void returnLoansConcurrentlyReturned() {
+        final BookCopy bc1 = TestInstanceBuilder.fullBookCopy("bc1", null, BookState.GOOD, false, false, null);
+        final BookCopy bc2 = TestInstanceBuilder.fullBookCopy("bc2", null, BookState.GOOD, false, false, null);
+        final Member m1 = TestInstanceBuilder.withId(TestInstanceBuilder.emptyMember(), "m1");
+        final Member m2 = TestInstanceBuilder.withId(TestInstanceBuilder.emptyMember(), "m2");
+        final Loan l1 = TestInstanceBuilder.fullLoan("l1", m1, bc1, TestInstanceBuilder.parse("2021-12-10"),
+                BookState.GOOD, null, null);
+        final Loan l2 = TestInstanceBuilder.fullLoan("l2", m2, bc2, TestInstanceBuilder.parse("2021-12-10"),
+                BookState.GOOD, null, null);
+        given(this.loanRepository.findAllByIdWithBookCopies(Mockito.any())).willReturn(List.of(l1, l2));
+        // l2 has been returned by another request between the read and the write
+        given(this.loanRepository.updateReturns(Mockito.any())).willReturn(Set.of("l1"));
+
+        final List<BulkLoanResult> results = this.testedService.returnLoans(Arrays.asList(
+                returnOf("l1", "2021-12-15", BookState.USED),
+                returnOf("l2", "2021-12-15", BookState.USED)));
+
+        assertThat(results).map(BulkLoanResult::isSuccess).containsExactly(true, false);
+        assertThat(results).map(BulkLoanResult::getError).containsExactly(null, "Loan already returned.");
+        final ArgumentCaptor<Collection<BookCopy>> copiesCaptor = ArgumentCaptor.forClass(Collection.class);
+        Mockito.verify(this.bookCopyRepository, Mockito.times(1)).markAllAvailableWithState(copiesCaptor.capture());
+        assertThat(copiesCaptor.getValue()).containsExactly(bc1);
+        Mockito.verify(this.memberRepository, Mockito.times(1)).incrementOpenLoans(Map.of("m1", -1));
+        Mockito.verify(this.eventPublisher, Mockito.times(1)).publishEvent(Mockito.any(Object.class));
+    }
+
+    private static Loan returnOf(String loanId, String returnDate, BookState returnState) {
+        final Loan loan = TestInstanceBuilder.withId(TestInstanceBuilder.emptyLoan(), loanId);
+        loan.setReturnDateTime(TestInstanceBuilder.parse(returnDate));
+        loan.setReturnState(returnState);
+        return loan;
+    }
+}
@@ -22,10 +22,13 @@ import java.util.NoSuchElementException;
 import java.util.Optional;
 import mmiLibraryServer.mongoModel.BookCopy;
 import mmiLibraryServer.mongoModel.BookCopyRepository;
+import mmiLibraryServer.mongoModel.BookRepository;
 import mmiLibraryServer.mongoModel.BookState;
 import mmiLibraryServer.mongoModel.Loan;
 import mmiLibraryServer.mongoModel.LoanRepository;
+import mmiLibraryServer.mongoModel.MemberRepository;
 import mmiLibraryServer.mongoModel.TestInstanceBuilder;
+import mmiLibraryServer.services.model.CirculationEvent;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import static org.assertj.core.api.Assertions.*;
@@ -35,12 +38,13 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.AdditionalAnswers;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
 import static org.mockito.BDDMockito.given;
 
 /**
@@ -57,9 +61,18 @@ public class LoanServiceDeleteTest {
     @Mock
     private LoanRepository loanRepository;
 
+    @Mock
+    private BookRepository bookRepository;
+
     @Mock
     private BookCopyRepository bookCopyRepository;
 
+    @Mock
+    private MemberRepository memberRepository;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
     @InjectMocks
     private LoanServiceImpl testedService;
 
@@ -77,7 +90,8 @@ public class LoanServiceDeleteTest {
     @BeforeEach
     public void setUp() {
         this.mocks = MockitoAnnotations.openMocks(this);
-        this.testedService = new LoanServiceImpl(loanRepository, bookCopyRepository);
+        this.testedService = new LoanServiceImpl(loanRepository, bookRepository, bookCopyRepository, memberRepository, Runnable::run,
+                eventPublisher);
     }
 
     @AfterEach
@@ -126,13 +140,20 @@ public class LoanServiceDeleteTest {
         bookCopy.setAvailable(false);
         bookCopy.setState(BookState.GOOD);
         given(this.loanRepository.findById("loanId")).willReturn(Optional.of(loan));
-        given(this.bookCopyRepository.save(Mockito.any())).willAnswer(AdditionalAnswers.returnsFirstArg());
 
         this.testedService.deleteLoanById("loanId");
 
         Mockito.verify(this.loanRepository, Mockito.times(1)).findById(Mockito.any());
         Mockito.verify(this.loanRepository, Mockito.times(1)).deleteById(Mockito.any());
-        Mockito.verify(this.bookCopyRepository, Mockito.times(1)).save(Mockito.any());
+        Mockito.verify(this.bookCopyRepository, Mockito.never()).save(Mockito.any());
+        // Only the availability of the copy is updated, if it is still unavailable
+        Mockito.verify(this.bookCopyRepository, Mockito.times(1)).markAvailable("bookId");
+        Mockito.verify(this.memberRepository, Mockito.times(1)).incrementOpenLoans(Mockito.any(), Mockito.eq(-1));
+        final ArgumentCaptor<CirculationEvent> event = ArgumentCaptor.forClass(CirculationEvent.class);
+        Mockito.verify(this.eventPublisher, Mockito.times(1)).publishEvent(event.capture());
+        assertThat(event.getValue()).as("circulation event published")
+                .extracting("type", "loanId", "bookCopyId", "available")
+                .containsExactly(CirculationEvent.Type.LOAN_DELETED, "loanId", "bookId", true);
 
         assertThat(bookCopy).as("book copy updated with proper values")
                 .extracting("state", "available")
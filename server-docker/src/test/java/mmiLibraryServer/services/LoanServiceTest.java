@@ -18,20 +18,33 @@
  */
 package mmiLibraryServer.services;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import mmiLibraryServer.mongoModel.Book;
 import mmiLibraryServer.mongoModel.BookCategory;
 import mmiLibraryServer.mongoModel.BookCopy;
 import mmiLibraryServer.mongoModel.BookCopyRepository;
+import mmiLibraryServer.mongoModel.BookRepository;
 import mmiLibraryServer.mongoModel.BookState;
 import mmiLibraryServer.mongoModel.Loan;
 import mmiLibraryServer.mongoModel.LoanRepository;
+import mmiLibraryServer.mongoModel.MemberRepository;
 import mmiLibraryServer.mongoModel.Member;
 import mmiLibraryServer.mongoModel.TestInstanceBuilder;
+import mmiLibraryServer.mongoModel.utils.LoanCursor;
+import mmiLibraryServer.mongoModel.utils.LoanRequestFilter;
+import mmiLibraryServer.mongoModel.views.LoanViews;
 import mmiLibraryServer.services.exceptions.LoanImpossibleException;
+import mmiLibraryServer.services.model.CirculationEvent;
+import mmiLibraryServer.services.model.LoanCheckout;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import static org.assertj.core.api.Assertions.*;
@@ -48,6 +61,8 @@ import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.mockito.junit.jupiter.MockitoExtension;
 import static org.mockito.BDDMockito.given;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Slice;
 
 /**
  *
@@ -63,9 +78,18 @@ public class LoanServiceTest {
     @Mock
     private LoanRepository loanRepository;
 
+    @Mock
+    private BookRepository bookRepository;
+
     @Mock
     private BookCopyRepository bookCopyRepository;
 
+    @Mock
+    private MemberRepository memberRepository;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
     @InjectMocks
     private LoanServiceImpl testedService;
 
@@ -83,7 +107,9 @@ public class LoanServiceTest {
     @BeforeEach
     public void setUp() {
         this.mocks = MockitoAnnotations.openMocks(this);
-        this.testedService = new LoanServiceImpl(loanRepository, bookCopyRepository);
+        this.testedService = new LoanServiceImpl(loanRepository, bookRepository, bookCopyRepository, memberRepository, Runnable::run,
+                eventPublisher);
+        LoanRepositoryMocks.mockNeighbourLoanQueries(this.loanRepository);
     }
 
     @AfterEach
@@ -102,12 +128,13 @@ public class LoanServiceTest {
                 .isInstanceOf(IllegalArgumentException.class);
         // Test LoanImpossibleException because of child protection
         Member minorMember = TestInstanceBuilder.withMinorStatus(TestInstanceBuilder.emptyMember());
-        Book adultBook = new Book("isbn", "title", "editor", 100, 200, List.of(), List.of(
+        Book adultBook = TestInstanceBuilder.withId(new Book("isbn", "title", "editor", 100, 200, List.of(), List.of(
                 new BookCategory("c1", "cat1", false),
                 new BookCategory("c2", "cat2", true),
                 new BookCategory("c3", "cat3", false)
-        ));
+        )), "b1");
         BookCopy bookCopy = new BookCopy(adultBook, BookState.GOOD);
+        given(this.bookRepository.existsByIdAndAdultOnlyTrue("b1")).willReturn(true);
         assertThatThrownBy(()
                 -> this.testedService.createLoan(minorMember, bookCopy, TestInstanceBuilder.now()))
                 .isInstanceOf(LoanImpossibleException.class);
@@ -170,8 +197,9 @@ public class LoanServiceTest {
         //with automatic date create and proper state setting, aznd automatic book update
         given(this.loanRepository.save(Mockito.any()))
                 .will(AdditionalAnswers.returnsFirstArg());
-        given(this.bookCopyRepository.save(Mockito.any()))
-                .will(AdditionalAnswers.returnsFirstArg());
+        given(this.bookCopyRepository.findAndMarkUnavailable("bc1")).willReturn(bookCopy1);
+        given(this.bookCopyRepository.findAndMarkUnavailable("bc2")).willReturn(bookCopy2);
+        given(this.bookRepository.existsByIdAndAdultOnlyTrue("b2")).willReturn(false);
         Loan l1 = this.testedService.createLoan(majorMember, bookCopy1, loanDate1);
         LOG.info("l1: " + l1);
         Loan l2 = this.testedService.createLoan(minorMember, bookCopy2, loanDate2);
@@ -180,8 +208,12 @@ public class LoanServiceTest {
         Mockito.verify(this.loanRepository, Mockito.times(1)).save(l1);
         Mockito.verify(this.loanRepository, Mockito.times(1)).save(l2);
 
-        Mockito.verify(this.bookCopyRepository, Mockito.times(1)).save(bookCopy1);
-        Mockito.verify(this.bookCopyRepository, Mockito.times(1)).save(bookCopy2);
+        Mockito.verify(this.bookCopyRepository, Mockito.times(1)).findAndMarkUnavailable("bc1");
+        Mockito.verify(this.bookCopyRepository, Mockito.times(1)).findAndMarkUnavailable("bc2");
+        Mockito.verify(this.bookCopyRepository, Mockito.never()).save(Mockito.any());
+        Mockito.verify(this.memberRepository, Mockito.times(1)).incrementOpenLoans("m1", 1);
+        Mockito.verify(this.memberRepository, Mockito.times(1)).incrementOpenLoans("m3", 1);
+        Mockito.verify(this.eventPublisher, Mockito.times(2)).publishEvent(Mockito.any(CirculationEvent.class));
         assertThat(l1).as("Loan 1 check").extracting("member", "bookCopy", "loanDateTime", "initialState", "returnDateTime", "returnState")
                 .containsExactly(majorMember, bookCopy1, loanDate1, bookCopy1.getState(), null, null);
         assertThat(l2).as("Loan 2 check").extracting("member", "bookCopy", "loanDateTime", "initialState", "returnDateTime", "returnState")
@@ -190,6 +222,79 @@ public class LoanServiceTest {
         assertThat(bookCopy2.isAvailable()).as("Book copy 2 check").isFalse();
     }
 
+    @Test
+    public void createLoanAlreadyCheckedOutThrows() {
+        final Member majorMember = TestInstanceBuilder.withMajorStatus(TestInstanceBuilder.emptyMember());
+        final BookCopy bookCopy = TestInstanceBuilder.withNoLoans(TestInstanceBuilder.withId(
+                new BookCopy(TestInstanceBuilder.emptyBook(), BookState.GOOD), "bc1"));
+        // The copy looks available but has been checked out concurrently
+        given(this.bookCopyRepository.findAndMarkUnavailable("bc1")).willReturn(null);
+        assertThatThrownBy(()
+                -> this.testedService.createLoan(majorMember, bookCopy, null))
+                .isInstanceOf(LoanImpossibleException.class);
+        Mockito.verify(this.loanRepository, Mockito.never()).save(Mockito.any());
+    }
+
+    @Test
+    public void createLoanAsyncOk() {
+        final Member minorMember = TestInstanceBuilder.withId(
+                TestInstanceBuilder.withMinorStatus(TestInstanceBuilder.emptyMember()), "m1");
+        final BookCopy bookCopy = TestInstanceBuilder.withNoLoans(TestInstanceBuilder.withId(
+                new BookCopy(TestInstanceBuilder.emptyBook(), BookState.GOOD), "bc1"));
+        given(this.memberRepository.findById("m1")).willReturn(Optional.of(minorMember));
+        given(this.bookCopyRepository.findById("bc1")).willReturn(Optional.of(bookCopy));
+        given(this.bookCopyRepository.findAdultOnlyIds(List.of("bc1"))).willReturn(Set.of());
+        given(this.bookCopyRepository.findAndMarkUnavailable("bc1")).willReturn(bookCopy);
+        given(this.loanRepository.save(Mockito.any())).will(AdditionalAnswers.returnsFirstArg());
+
+        final Loan loan = this.testedService.createLoanAsync(new LoanCheckout("m1", "bc1", null)).join();
+        assertThat(loan).extracting("member", "bookCopy", "initialState")
+                .containsExactly(minorMember, bookCopy, BookState.GOOD);
+        Mockito.verify(this.memberRepository, Mockito.times(1)).incrementOpenLoans("m1", 1);
+    }
+
+    @Test
+    public void createLoanAsyncFails() {
+        final Member minorMember = TestInstanceBuilder.withId(
+                TestInstanceBuilder.withMinorStatus(TestInstanceBuilder.emptyMember()), "m1");
+        final BookCopy bookCopy = TestInstanceBuilder.withNoLoans(TestInstanceBuilder.withId(
+                new BookCopy(TestInstanceBuilder.emptyBook(), BookState.GOOD), "bc1"));
+        // Missing ids
+        assertThat(this.testedService.createLoanAsync(new LoanCheckout(null, "bc1", null)))
+                .failsWithin(Duration.ofSeconds(1)).withThrowableOfType(ExecutionException.class)
+                .withCauseInstanceOf(IllegalArgumentException.class);
+        // Unknown member
+        given(this.memberRepository.findById("m1")).willReturn(Optional.empty()).willReturn(Optional.of(minorMember));
+        given(this.bookCopyRepository.findById("bc1")).willReturn(Optional.of(bookCopy));
+        given(this.bookCopyRepository.findAdultOnlyIds(List.of("bc1"))).willReturn(Set.of("bc1"));
+        assertThatThrownBy(()
+                -> this.testedService.createLoanAsync(new LoanCheckout("m1", "bc1", null)).join())
+                .isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(NoSuchElementException.class);
+        // Minor member and adult book
+        assertThatThrownBy(()
+                -> this.testedService.createLoanAsync(new LoanCheckout("m1", "bc1", null)).join())
+                .isInstanceOf(CompletionException.class)
+                .hasCauseInstanceOf(LoanImpossibleException.class);
+        Mockito.verify(this.bookCopyRepository, Mockito.never()).findAndMarkUnavailable(Mockito.any());
+        Mockito.verify(this.loanRepository, Mockito.never()).save(Mockito.any());
+    }
+
+    @Test
+    public void createLoanReleasesBookCopyOnFailure() {
+        final Member majorMember = TestInstanceBuilder.withMajorStatus(TestInstanceBuilder.emptyMember());
+        final BookCopy bookCopy = TestInstanceBuilder.withNoLoans(TestInstanceBuilder.withId(
+                new BookCopy(TestInstanceBuilder.emptyBook(), BookState.GOOD), "bc1"));
+        given(this.bookCopyRepository.findAndMarkUnavailable("bc1")).willReturn(bookCopy);
+        given(this.loanRepository.save(Mockito.any())).willThrow(new IllegalStateException("insert failed"));
+        assertThatThrownBy(()
+                -> this.testedService.createLoan(majorMember, bookCopy, null))
+                .isInstanceOf(IllegalStateException.class);
+        Mockito.verify(this.bookCopyRepository, Mockito.times(1)).markAvailable("bc1");
+        Mockito.verify(this.memberRepository, Mockito.never()).incrementOpenLoans(Mockito.any(), Mockito.anyInt());
+        assertThat(bookCopy.isAvailable()).isTrue();
+    }
+
     @Test
     public void getLoanByIdThrows() {
         assertThatThrownBy(()
@@ -226,4 +331,53 @@ public class LoanServiceTest {
         Mockito.verify(this.loanRepository, Mockito.never()).deleteById(Mockito.any());
         Mockito.verify(this.bookCopyRepository, Mockito.never()).save(Mockito.any());
     }
+
+    @Test
+    public void getLoansPageThrows() {
+        assertThatThrownBy(()
+                -> this.testedService.getLoans(null, 0, null))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(()
+                -> this.testedService.getLoans(null, LoanService.MAX_PAGE_SIZE + 1, null))
+                .isInstanceOf(IllegalArgumentException.class);
+        Mockito.verify(this.loanRepository, Mockito.never()).findPageOrderByLoanDateTimeDesc(Mockito.any(), Mockito.anyInt(), Mockito.any());
+    }
+
+    @Test
+    public void getLoansPageOk() {
+        final List<Loan> loans = IntStream.range(0, 4)
+                .mapToObj((i) -> TestInstanceBuilder.fullLoan("l" + i, null, null,
+                TestInstanceBuilder.parse("2021-12-2" + (5 - i)), BookState.NEW, null, null))
+                .collect(Collectors.toList());
+        final LoanCursor cursor = new LoanCursor(TestInstanceBuilder.parse("2021-12-26"), "l");
+        given(this.loanRepository.findPageOrderByLoanDateTimeDesc(cursor, 4, LoanViews.Normal.class)).willReturn(loans);
+        given(this.loanRepository.findPageOrderByLoanDateTimeDesc(cursor, 5, LoanViews.Normal.class)).willReturn(loans);
+
+        Slice<Loan> page = this.testedService.getLoans(cursor, 3, LoanViews.Normal.class);
+        assertThat(page.getContent()).as("page with next").containsExactlyElementsOf(loans.subList(0, 3));
+        assertThat(page.hasNext()).as("page with next").isTrue();
+
+        page = this.testedService.getLoans(cursor, 4, LoanViews.Normal.class);
+        assertThat(page.getContent()).as("last page").containsExactlyElementsOf(loans);
+        assertThat(page.hasNext()).as("last page").isFalse();
+    }
+
+    @Test
+    public void getFilteredLoansPageOk() {
+        final List<Loan> loans = IntStream.range(0, 3)
+                .mapToObj((i) -> TestInstanceBuilder.fullLoan("l" + i, null, null,
+                TestInstanceBuilder.parse("2021-12-2" + (5 - i)), BookState.NEW, null, null))
+                .collect(Collectors.toList());
+        final LoanRequestFilter filter = LoanRequestFilter.getBuilder().withMember("m1").withReturned(false).build();
+        given(this.loanRepository.findPageByFilter(filter, null, 3, LoanViews.Normal.class)).willReturn(loans);
+
+        final Slice<Loan> page = this.testedService.getLoans(filter, null, 2, LoanViews.Normal.class);
+        assertThat(page.getContent()).containsExactlyElementsOf(loans.subList(0, 2));
+        assertThat(page.hasNext()).isTrue();
+        // An empty filter reads the unfiltered pages
+        given(this.loanRepository.findPageOrderByLoanDateTimeDesc(null, 3, null)).willReturn(loans.subList(0, 1));
+        assertThat(this.testedService.getLoans(LoanRequestFilter.getBuilder().build(), null, 2, null).getContent())
+                .containsExactlyElementsOf(loans.subList(0, 1));
+        Mockito.verify(this.loanRepository, Mockito.times(1)).findPageByFilter(Mockito.any(), Mockito.any(), Mockito.anyInt(), Mockito.any());
+    }
 }
@@ -19,14 +19,18 @@
 package mmiLibraryServer.services;
 
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 import mmiLibraryServer.mongoModel.BookCopy;
 import mmiLibraryServer.mongoModel.BookCopyRepository;
+import mmiLibraryServer.mongoModel.BookRepository;
 import mmiLibraryServer.mongoModel.BookState;
 import mmiLibraryServer.mongoModel.Loan;
 import mmiLibraryServer.mongoModel.LoanRepository;
+import mmiLibraryServer.mongoModel.MemberRepository;
 import mmiLibraryServer.mongoModel.TestInstanceBuilder;
+import mmiLibraryServer.services.exceptions.PreconditionFailedException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import static org.assertj.core.api.Assertions.*;
@@ -42,6 +46,8 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.OptimisticLockingFailureException;
 import static org.mockito.BDDMockito.given;
 
 /**
@@ -58,9 +64,18 @@ public class LoanServiceUpdateTest {
     @Mock
     private LoanRepository loanRepository;
 
+    @Mock
+    private BookRepository bookRepository;
+
     @Mock
     private BookCopyRepository bookCopyRepository;
 
+    @Mock
+    private MemberRepository memberRepository;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
     @InjectMocks
     private LoanServiceImpl testedService;
 
@@ -78,7 +93,9 @@ public class LoanServiceUpdateTest {
     @BeforeEach
     public void setUp() {
         this.mocks = MockitoAnnotations.openMocks(this);
-        this.testedService = new LoanServiceImpl(loanRepository, bookCopyRepository);
+        this.testedService = new LoanServiceImpl(loanRepository, bookRepository, bookCopyRepository, memberRepository, Runnable::run,
+                eventPublisher);
+        LoanRepositoryMocks.mockNeighbourLoanQueries(this.loanRepository);
     }
 
     @AfterEach
@@ -209,6 +226,30 @@ public class LoanServiceUpdateTest {
                         TestInstanceBuilder.parse("2021-12-17"), BookState.GOOD);
     }
 
+    @Test
+    public void updateLoanWithRevisionThrows() {
+        final BookCopy bookCopy = TestInstanceBuilder.withId(TestInstanceBuilder.emptyBookCopy(), "bookId");
+        final Loan loan = TestInstanceBuilder.fullLoan("loanId", null, bookCopy,
+                TestInstanceBuilder.parse("2021-12-14"), BookState.VERY_GOOD,
+                TestInstanceBuilder.parse("2021-12-17"), BookState.GOOD);
+        given(this.loanRepository.findById("loanId")).willReturn(Optional.of(loan));
+        final Loan inputLoan = TestInstanceBuilder.fullLoan("loanId", null, null,
+                TestInstanceBuilder.parse("2021-12-13"), null,
+                TestInstanceBuilder.parse("2021-12-17"), BookState.GOOD);
+
+        // The loan read has another version than the revision
+        assertThatThrownBy(() -> this.testedService.updateLoan(inputLoan, "1:0:0"))
+                .isInstanceOf(PreconditionFailedException.class);
+        Mockito.verify(this.loanRepository, Mockito.never()).save(Mockito.any());
+
+        // The loan is modified between its read and its save
+        given(this.loanRepository.save(Mockito.any())).willThrow(new OptimisticLockingFailureException("modified"));
+        assertThatThrownBy(() -> this.testedService.updateLoan(inputLoan, "0:0:0"))
+                .isInstanceOf(PreconditionFailedException.class);
+        Mockito.verify(this.memberRepository, Mockito.never()).incrementRevision(Mockito.any());
+        Mockito.verify(this.eventPublisher, Mockito.never()).publishEvent(Mockito.any(Object.class));
+    }
+
     @Test
     public void setReturnLoanPreconditionsThrow() {
         /*
@@ -276,7 +317,6 @@ public class LoanServiceUpdateTest {
         bookCopy = TestInstanceBuilder.withLoans(bookCopy, loan);
         given(this.loanRepository.findById("loanId")).willReturn(Optional.of(loan));
         given(this.loanRepository.save(Mockito.any())).willAnswer(AdditionalAnswers.returnsFirstArg());
-        given(this.bookCopyRepository.save(Mockito.any())).willAnswer(AdditionalAnswers.returnsFirstArg());
 
         Loan inputLoan = TestInstanceBuilder.fullLoan("loanId", null, null,
                 null, null,
@@ -285,7 +325,10 @@ public class LoanServiceUpdateTest {
         final Loan updatedLoan = this.testedService.updateLoan(inputLoan);
         Mockito.verify(this.loanRepository, Mockito.times(1)).findById(Mockito.any());
         Mockito.verify(this.loanRepository, Mockito.times(1)).save(Mockito.any());
-        Mockito.verify(this.bookCopyRepository, Mockito.times(1)).save(Mockito.any());
+        Mockito.verify(this.bookCopyRepository, Mockito.never()).save(Mockito.any());
+        // Only the availability and state of the copy are updated, if it is still unavailable
+        Mockito.verify(this.bookCopyRepository, Mockito.times(1)).markAllAvailableWithState(List.of(bookCopy));
+        Mockito.verify(this.memberRepository, Mockito.times(1)).incrementOpenLoans(Mockito.any(), Mockito.eq(-1));
 
         assertThat(updatedLoan).as("instance returned is the good one").isSameAs(loan);
         assertThat(updatedLoan).as("instance returned contains proper props")
@@ -496,7 +539,6 @@ public class LoanServiceUpdateTest {
         bookCopy.setState(BookState.USED);
         given(this.loanRepository.findById("loanId")).willReturn(Optional.of(loan));
         given(this.loanRepository.save(Mockito.any())).willAnswer(AdditionalAnswers.returnsFirstArg());
-        given(this.bookCopyRepository.save(Mockito.any())).willAnswer(AdditionalAnswers.returnsFirstArg());
 
         Loan inputLoan = TestInstanceBuilder.fullLoan("loanId", null, null,
                 null, null,
@@ -505,7 +547,12 @@ public class LoanServiceUpdateTest {
         final Loan updatedLoan = this.testedService.updateLoan(inputLoan);
         Mockito.verify(this.loanRepository, Mockito.times(1)).findById(Mockito.any());
         Mockito.verify(this.loanRepository, Mockito.times(1)).save(Mockito.any());
-        Mockito.verify(this.bookCopyRepository, Mockito.times(1)).save(Mockito.any());
+        Mockito.verify(this.bookCopyRepository, Mockito.never()).save(Mockito.any());
+        // Only the state of the copy is updated, if it is still available
+        Mockito.verify(this.bookCopyRepository, Mockito.times(1)).findAndUpdateIfAvailable("bookId", BookState.GOOD, null);
+        Mockito.verify(this.memberRepository, Mockito.never()).incrementOpenLoans(Mockito.any(), Mockito.anyInt());
+        // Only the member of the loan has a new revision
+        Mockito.verify(this.memberRepository, Mockito.times(1)).incrementRevision(Mockito.any());
 
         assertThat(updatedLoan).as("instance returned is the good one").isSameAs(loan);
         assertThat(updatedLoan).as("instance returned contains proper props")
@@ -562,7 +609,7 @@ public class LoanServiceUpdateTest {
         bookCopy.setState(BookState.USED);
         given(this.loanRepository.findById("loanId")).willReturn(Optional.of(loan));
         given(this.loanRepository.save(Mockito.any())).willAnswer(AdditionalAnswers.returnsFirstArg());
-        given(this.bookCopyRepository.save(Mockito.any())).willAnswer(AdditionalAnswers.returnsFirstArg());
+        given(this.bookCopyRepository.findAndMarkUnavailable("bookId", BookState.GOOD)).willReturn(bookCopy);
 
         Loan inputLoan = TestInstanceBuilder.fullLoan("loanId", null, null,
                 null, null,
@@ -571,7 +618,10 @@ public class LoanServiceUpdateTest {
         final Loan updatedLoan = this.testedService.updateLoan(inputLoan);
         Mockito.verify(this.loanRepository, Mockito.times(1)).findById(Mockito.any());
         Mockito.verify(this.loanRepository, Mockito.times(1)).save(Mockito.any());
-        Mockito.verify(this.bookCopyRepository, Mockito.times(1)).save(Mockito.any());
+        Mockito.verify(this.bookCopyRepository, Mockito.never()).save(Mockito.any());
+        // The copy is reserved again, with the initial state of the loan
+        Mockito.verify(this.bookCopyRepository, Mockito.times(1)).findAndMarkUnavailable("bookId", BookState.GOOD);
+        Mockito.verify(this.memberRepository, Mockito.times(1)).incrementOpenLoans(Mockito.any(), Mockito.eq(1));
 
         assertThat(updatedLoan).as("instance returned is the good one").isSameAs(loan);
         assertThat(updatedLoan).as("instance returned contains proper props")
@@ -583,6 +633,49 @@ public class LoanServiceUpdateTest {
                 .containsExactly(BookState.GOOD, false);
     }
 
+    @Test
+    public void resetReturnOfUnavailableBookCopyThrows() {
+        BookCopy bookCopy = TestInstanceBuilder.withId(TestInstanceBuilder.emptyBookCopy(), "bookId");
+        final Loan loan = TestInstanceBuilder.fullLoan("loanId", null, bookCopy,
+                TestInstanceBuilder.parse("2021-12-14"), BookState.GOOD,
+                TestInstanceBuilder.parse("2021-12-17"), BookState.USED);
+        bookCopy = TestInstanceBuilder.withLoans(bookCopy, loan);
+        given(this.loanRepository.findById("loanId")).willReturn(Optional.of(loan));
+        // The copy has been borrowed or removed since it was read
+        given(this.bookCopyRepository.findAndMarkUnavailable("bookId", BookState.GOOD)).willReturn(null);
+
+        final Loan inputLoan = TestInstanceBuilder.fullLoan("loanId", null, null,
+                null, null,
+                null, null);
+        assertThatThrownBy(()
+                -> this.testedService.updateLoan(inputLoan))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Cannot reset loan return of a book copy that is not available or has been removed.");
+        Mockito.verify(this.loanRepository, Mockito.never()).save(Mockito.any());
+        Mockito.verify(this.memberRepository, Mockito.never()).incrementOpenLoans(Mockito.any(), Mockito.anyInt());
+    }
+
+    @Test
+    public void resetReturnReleasesBookCopyIfLoanNotSaved() {
+        BookCopy bookCopy = TestInstanceBuilder.withId(TestInstanceBuilder.emptyBookCopy(), "bookId");
+        final Loan loan = TestInstanceBuilder.fullLoan("loanId", null, bookCopy,
+                TestInstanceBuilder.parse("2021-12-14"), BookState.GOOD,
+                TestInstanceBuilder.parse("2021-12-17"), BookState.USED);
+        bookCopy = TestInstanceBuilder.withLoans(bookCopy, loan);
+        given(this.loanRepository.findById("loanId")).willReturn(Optional.of(loan));
+        given(this.bookCopyRepository.findAndMarkUnavailable("bookId", BookState.GOOD)).willReturn(bookCopy);
+        given(this.loanRepository.save(Mockito.any())).willThrow(new OptimisticLockingFailureException("modified"));
+
+        final Loan inputLoan = TestInstanceBuilder.fullLoan("loanId", null, null,
+                null, null,
+                null, null);
+        assertThatThrownBy(()
+                -> this.testedService.updateLoan(inputLoan))
+                .isInstanceOf(OptimisticLockingFailureException.class);
+        Mockito.verify(this.bookCopyRepository, Mockito.times(1)).markAvailable("bookId");
+        Mockito.verify(this.memberRepository, Mockito.never()).incrementOpenLoans(Mockito.any(), Mockito.anyInt());
+    }
+
     @Test
     public void updateLoadDateAndSetReturnLoanPostconditionsOK() {
         BookCopy bookCopy = TestInstanceBuilder.withId(TestInstanceBuilder.emptyBookCopy(), "bookId");
@@ -594,7 +687,6 @@ public class LoanServiceUpdateTest {
         bookCopy.setState(BookState.GOOD);
         given(this.loanRepository.findById("loanId")).willReturn(Optional.of(loan));
         given(this.loanRepository.save(Mockito.any())).willAnswer(AdditionalAnswers.returnsFirstArg());
-        given(this.bookCopyRepository.save(Mockito.any())).willAnswer(AdditionalAnswers.returnsFirstArg());
 
         Loan inputLoan = TestInstanceBuilder.fullLoan("loanId", null, null,
                 TestInstanceBuilder.parse("2021-12-11"), BookState.NEW,
@@ -603,7 +695,9 @@ public class LoanServiceUpdateTest {
         final Loan updatedLoan = this.testedService.updateLoan(inputLoan);
         Mockito.verify(this.loanRepository, Mockito.times(1)).findById(Mockito.any());
         Mockito.verify(this.loanRepository, Mockito.times(1)).save(Mockito.any());
-        Mockito.verify(this.bookCopyRepository, Mockito.times(1)).save(Mockito.any());
+        Mockito.verify(this.bookCopyRepository, Mockito.never()).save(Mockito.any());
+        // Only the availability and state of the copy are updated, if it is still unavailable
+        Mockito.verify(this.bookCopyRepository, Mockito.times(1)).markAllAvailableWithState(List.of(bookCopy));
 
         assertThat(updatedLoan).as("instance returned is the good one").isSameAs(loan);
         assertThat(updatedLoan).as("instance returned contains proper props")
@@ -626,7 +720,6 @@ public class LoanServiceUpdateTest {
         bookCopy.setState(BookState.USED);
         given(this.loanRepository.findById("loanId")).willReturn(Optional.of(loan));
         given(this.loanRepository.save(Mockito.any())).willAnswer(AdditionalAnswers.returnsFirstArg());
-        given(this.bookCopyRepository.save(Mockito.any())).willAnswer(AdditionalAnswers.returnsFirstArg());
 
         Loan inputLoan = TestInstanceBuilder.fullLoan("loanId", null, null,
                 TestInstanceBuilder.parse("2021-12-10"), BookState.NEW,
@@ -635,7 +728,9 @@ public class LoanServiceUpdateTest {
         final Loan updatedLoan = this.testedService.updateLoan(inputLoan);
         Mockito.verify(this.loanRepository, Mockito.times(1)).findById(Mockito.any());
         Mockito.verify(this.loanRepository, Mockito.times(1)).save(Mockito.any());
-        Mockito.verify(this.bookCopyRepository, Mockito.times(1)).save(Mockito.any());
+        Mockito.verify(this.bookCopyRepository, Mockito.never()).save(Mockito.any());
+        // Only the state of the copy is updated, if it is still available
+        Mockito.verify(this.bookCopyRepository, Mockito.times(1)).findAndUpdateIfAvailable("bookId", BookState.GOOD, null);
 
         assertThat(updatedLoan).as("instance returned is the good one").isSameAs(loan);
         assertThat(updatedLoan).as("instance returned contains proper props")
@@ -658,7 +753,7 @@ public class LoanServiceUpdateTest {
         bookCopy.setState(BookState.USED);
         given(this.loanRepository.findById("loanId")).willReturn(Optional.of(loan));
         given(this.loanRepository.save(Mockito.any())).willAnswer(AdditionalAnswers.returnsFirstArg());
-        given(this.bookCopyRepository.save(Mockito.any())).willAnswer(AdditionalAnswers.returnsFirstArg());
+        given(this.bookCopyRepository.findAndMarkUnavailable("bookId", BookState.GOOD)).willReturn(bookCopy);
 
         Loan inputLoan = TestInstanceBuilder.fullLoan("loanId", null, null,
                 TestInstanceBuilder.parse("2021-12-12"), null,
@@ -667,7 +762,9 @@ public class LoanServiceUpdateTest {
         final Loan updatedLoan = this.testedService.updateLoan(inputLoan);
         Mockito.verify(this.loanRepository, Mockito.times(1)).findById(Mockito.any());
         Mockito.verify(this.loanRepository, Mockito.times(1)).save(Mockito.any());
-        Mockito.verify(this.bookCopyRepository, Mockito.times(1)).save(Mockito.any());
+        Mockito.verify(this.bookCopyRepository, Mockito.never()).save(Mockito.any());
+        // The copy is reserved again, with the initial state of the loan
+        Mockito.verify(this.bookCopyRepository, Mockito.times(1)).findAndMarkUnavailable("bookId", BookState.GOOD);
 
         assertThat(updatedLoan).as("instance returned is the good one").isSameAs(loan);
         assertThat(updatedLoan).as("instance returned contains proper props")
@@ -24,10 +24,12 @@ import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
 import mmiLibraryServer.mongoModel.Loan;
+import mmiLibraryServer.mongoModel.LoanRepository;
 import mmiLibraryServer.mongoModel.Member;
 import mmiLibraryServer.mongoModel.MemberRepository;
 import mmiLibraryServer.mongoModel.TestInstanceBuilder;
 import mmiLibraryServer.services.exceptions.MemberWithUnreturnedLoanException;
+import mmiLibraryServer.services.exceptions.PreconditionFailedException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import static org.assertj.core.api.Assertions.*;
@@ -58,6 +60,9 @@ public class MemberServiceImplTest {
     @Mock
     private MemberRepository memberRepo;
 
+    @Mock
+    private LoanRepository loanRepo;
+
     @InjectMocks
     private MemberServiceImpl testedService;
 
@@ -75,7 +80,7 @@ public class MemberServiceImplTest {
     @BeforeEach
     public void setUp() {
         this.mocks = MockitoAnnotations.openMocks(this);
-        this.testedService = new MemberServiceImpl(memberRepo);
+        this.testedService = new MemberServiceImpl(memberRepo, loanRepo);
         this.testMembersById = Map.of(
                 "u1", new Member("name1", "fname1", LocalDate.parse("1990-12-20")),
                 "u2", new Member("name2", "fname2", LocalDate.parse("1999-10-20")),
@@ -112,6 +117,35 @@ public class MemberServiceImplTest {
         Mockito.verify(this.memberRepo).findById("u1");
     }
 
+    @Test
+    public void getMemberWithLoansByIdOk() {
+        final Member member = this.testMembersById.get("u1");
+        given(this.memberRepo.findById("u1")).willReturn(Optional.of(member));
+        given(this.loanRepo.loadLoansWithBookCopies(member)).willReturn(member);
+        Member m = this.testedService.getMemberWithLoansById("u1");
+        Mockito.verify(this.memberRepo).findById("u1");
+        Mockito.verify(this.loanRepo).loadLoansWithBookCopies(member);
+        assertThat(m).isSameAs(member);
+        given(this.memberRepo.findById("u4")).willReturn(Optional.empty());
+        assertThatThrownBy(()
+                -> this.testedService.getMemberWithLoansById("u4"))
+                .isInstanceOf(NoSuchElementException.class);
+        Mockito.verify(this.loanRepo, Mockito.times(1)).loadLoansWithBookCopies(Mockito.any());
+    }
+
+    @Test
+    public void getMemberRevisionOk() {
+        given(this.memberRepo.findRevision("u1")).willReturn("3/l1:1:2");
+        assertThat(this.testedService.getMemberRevision("u1")).isEqualTo("3/l1:1:2");
+        assertThatThrownBy(()
+                -> this.testedService.getMemberRevision("u4"))
+                .isInstanceOf(NoSuchElementException.class);
+        assertThatThrownBy(()
+                -> this.testedService.getMemberRevision(null))
+                .isInstanceOf(IllegalArgumentException.class);
+        Mockito.verify(this.memberRepo, Mockito.never()).findById(Mockito.any());
+    }
+
     @Test
     public void createMemberThrowsOk() {
         assertThatThrownBy(()
@@ -161,10 +195,25 @@ public class MemberServiceImplTest {
         final Member mWithGoodId = TestInstanceBuilder.withId(new Member("mName", "mFirstname",
                 LocalDate.now()), "idMemberGood");
         given(this.memberRepo.findById(mWithGoodId.getId())).willReturn(Optional.of(mWithGoodId));
-        given(this.memberRepo.save(mWithGoodId)).willReturn(mWithGoodId);
+        given(this.memberRepo.updateIdentity(mWithGoodId, null)).willReturn(true);
         this.testedService.updateMember(mWithGoodId);
         Mockito.verify(this.memberRepo, Mockito.times(1)).findById(mWithGoodId.getId());
-        Mockito.verify(this.memberRepo).save(Mockito.any());
+        Mockito.verify(this.memberRepo).updateIdentity(mWithGoodId, null);
+        Mockito.verify(this.memberRepo, Mockito.never()).save(Mockito.any());
+    }
+
+    @Test
+    public void updateMemberWithRevisionOk() {
+        final Member mWithGoodId = TestInstanceBuilder.withId(new Member("mName", "mFirstname",
+                LocalDate.now()), "idMemberGood");
+        given(this.memberRepo.findById(mWithGoodId.getId())).willReturn(Optional.of(mWithGoodId));
+        given(this.memberRepo.updateIdentity(mWithGoodId, 3L)).willReturn(true);
+        this.testedService.updateMember(mWithGoodId, "3");
+        // The member changed since its revision was read: nothing matches the update
+        assertThatThrownBy(()
+                -> this.testedService.updateMember(mWithGoodId, "2"))
+                .isInstanceOf(PreconditionFailedException.class);
+        Mockito.verify(this.memberRepo).updateIdentity(mWithGoodId, 2L);
     }
 
     @Test
@@ -188,9 +237,9 @@ public class MemberServiceImplTest {
         l1.setReturnDateTime(TestInstanceBuilder.now());
         Loan l2 = TestInstanceBuilder.emptyLoan();
         l2.setLoanDateTime(TestInstanceBuilder.now());
-        Member m = TestInstanceBuilder.withLoans(TestInstanceBuilder.emptyMember(), List.of(
+        Member m = TestInstanceBuilder.withOpenLoans(TestInstanceBuilder.withLoans(TestInstanceBuilder.emptyMember(), List.of(
                 l1, l2
-        ));
+        )), 1);
         given(this.memberRepo.findById("mid")).willReturn(Optional.of(m));
         assertThatThrownBy(()
                 -> this.testedService.deleteMemberById("mid"))